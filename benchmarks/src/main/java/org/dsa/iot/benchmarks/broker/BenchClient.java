@@ -0,0 +1,83 @@
+package org.dsa.iot.benchmarks.broker;
+
+import org.dsa.iot.broker.Broker;
+import org.dsa.iot.broker.config.broker.BrokerMemoryConfig;
+import org.dsa.iot.broker.node.BrokerTree;
+import org.dsa.iot.broker.server.DsaHandshake;
+import org.dsa.iot.broker.server.client.Client;
+import org.dsa.iot.broker.server.client.ClientManager;
+import org.dsa.iot.dslink.util.json.JsonArray;
+import org.dsa.iot.dslink.util.json.JsonObject;
+
+/**
+ * A broker client that is never bound to a channel. Everything written to
+ * it is counted and discarded, which isolates the broker internals from the
+ * network stack.
+ *
+ * @author Samuel Grenier
+ */
+public class BenchClient extends Client {
+
+    private static final String DSID_HASH;
+
+    private long requests;
+    private long responses;
+
+    public BenchClient(Broker broker, String name) {
+        super(broker, new DsaHandshake(handshakeData(), name + "-" + DSID_HASH));
+    }
+
+    public long requests() {
+        return requests;
+    }
+
+    public long responses() {
+        return responses;
+    }
+
+    @Override
+    public boolean writeRequest(JsonArray requests) {
+        this.requests += requests.size();
+        return true;
+    }
+
+    @Override
+    public boolean writeResponse(JsonArray responses) {
+        this.responses += responses.size();
+        return true;
+    }
+
+    @Override
+    public boolean writeResponse(byte[] response) {
+        this.responses++;
+        return true;
+    }
+
+    /**
+     * @return A broker with the default in memory configuration that has
+     *         not been started.
+     */
+    public static Broker createBroker() {
+        BrokerTree tree = new BrokerTree();
+        Broker broker = new Broker(new BrokerMemoryConfig(),
+                                    new ClientManager(),
+                                    tree);
+        tree.initialize(broker.downstream());
+        return broker;
+    }
+
+    private static JsonObject handshakeData() {
+        JsonObject obj = new JsonObject();
+        obj.put("isRequester", true);
+        obj.put("isResponder", false);
+        return obj;
+    }
+
+    static {
+        StringBuilder sb = new StringBuilder(43);
+        for (int i = 0; i < 43; ++i) {
+            sb.append('A');
+        }
+        DSID_HASH = sb.toString();
+    }
+}
@@ -0,0 +1,235 @@
+package org.dsa.iot.benchmarks.broker;
+
+import io.netty.util.CharsetUtil;
+import org.bouncycastle.jcajce.provider.digest.SHA256;
+import org.dsa.iot.broker.Broker;
+import org.dsa.iot.broker.config.broker.BrokerMemoryConfig;
+import org.dsa.iot.broker.node.BrokerTree;
+import org.dsa.iot.broker.server.client.ClientManager;
+import org.dsa.iot.dslink.handshake.LocalKeys;
+import org.dsa.iot.dslink.handshake.RemoteKey;
+import org.dsa.iot.dslink.util.UrlBase64;
+import org.dsa.iot.dslink.util.json.JsonObject;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.*;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+
+/**
+ * Simulates a broker restart where every link reconnects at once. Each
+ * invocation performs the full handshake of all the links concurrently and
+ * upgrades them to a WebSocket. The links stay connected until the end of
+ * the invocation.
+ *
+ * @author Samuel Grenier
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 10)
+@Fork(1)
+public class ReconnectStormBenchmark {
+
+    private static final int CLIENT_THREADS = 64;
+
+    @Param({"1000"})
+    public int links;
+
+    @Param({"1", "1024"})
+    public int keyPoolSize;
+
+    private Broker broker;
+    private int port;
+    private ExecutorService clients;
+    private List<Link> pool;
+    private List<Socket> sockets;
+
+    @Setup
+    public void setup() throws Exception {
+        port = freePort();
+        broker = createBroker(port, keyPoolSize);
+        broker.start();
+        awaitBound(port);
+
+        clients = Executors.newFixedThreadPool(CLIENT_THREADS);
+        pool = new ArrayList<>(links);
+        for (int i = 0; i < links; ++i) {
+            pool.add(new Link("storm-" + i));
+        }
+        sockets = new CopyOnWriteArrayList<>();
+    }
+
+    @TearDown
+    public void tearDown() {
+        clients.shutdownNow();
+        broker.stop();
+    }
+
+    @TearDown(Level.Invocation)
+    public void disconnect() throws Exception {
+        for (Socket s : sockets) {
+            s.close();
+        }
+        sockets.clear();
+        // Let the broker handle the disconnects and refill its key pool
+        Thread.sleep(1000);
+    }
+
+    @Benchmark
+    public int storm() throws Exception {
+        List<Future<Socket>> futures = new ArrayList<>(links);
+        for (final Link link : pool) {
+            futures.add(clients.submit(new Callable<Socket>() {
+                @Override
+                public Socket call() throws Exception {
+                    return link.connect(port);
+                }
+            }));
+        }
+        int connected = 0;
+        for (Future<Socket> fut : futures) {
+            Socket s = fut.get();
+            if (s != null) {
+                sockets.add(s);
+                connected++;
+            }
+        }
+        if (connected != links) {
+            String err = "Only " + connected + " out of " + links + " connected";
+            throw new IllegalStateException(err);
+        }
+        return connected;
+    }
+
+    private static Broker createBroker(final int port, final int keyPoolSize) {
+        BrokerMemoryConfig config = new BrokerMemoryConfig() {
+            @Override
+            protected void addServerOpts() {
+                super.addServerOpts();
+                JsonObject server = get().get("server");
+                JsonObject http = server.get("http");
+                http.put("host", "127.0.0.1");
+                http.put("port", port);
+                JsonObject handshake = server.get("handshake");
+                handshake.put("keyPoolSize", keyPoolSize);
+                handshake.put("keyRefillRate", 2000);
+            }
+        };
+        ClientManager manager = new ClientManager();
+        BrokerTree tree = new BrokerTree();
+        Broker broker = new Broker(config, manager, tree);
+        tree.initialize(broker.downstream());
+        return broker;
+    }
+
+    private static int freePort() throws IOException {
+        try (ServerSocket s = new ServerSocket(0)) {
+            return s.getLocalPort();
+        }
+    }
+
+    private static void awaitBound(int port) throws Exception {
+        for (int i = 0; i < 100; ++i) {
+            try (Socket s = new Socket()) {
+                s.connect(new InetSocketAddress("127.0.0.1", port));
+                return;
+            } catch (IOException ignored) {
+                Thread.sleep(100);
+            }
+        }
+        throw new IllegalStateException("Broker failed to bind to " + port);
+    }
+
+    private static class Link {
+
+        private final LocalKeys keys = LocalKeys.generate();
+        private final String dsId;
+        private final byte[] handshake;
+
+        public Link(String name) {
+            dsId = name + "-" + keys.encodedHashPublicKey();
+            JsonObject obj = new JsonObject();
+            obj.put("publicKey", keys.encodedPublicKey());
+            obj.put("isRequester", true);
+            obj.put("isResponder", true);
+            handshake = obj.encode();
+        }
+
+        public Socket connect(int port) throws IOException {
+            URL url = new URL("http://127.0.0.1:" + port + "/conn?dsId=" + dsId);
+            HttpURLConnection conn = (HttpURLConnection) url.openConnection();
+            JsonObject resp;
+            try {
+                conn.setRequestMethod("POST");
+                conn.setDoOutput(true);
+                try (OutputStream out = conn.getOutputStream()) {
+                    out.write(handshake);
+                }
+                if (conn.getResponseCode() != 200) {
+                    return null;
+                }
+                try (InputStream in = conn.getInputStream()) {
+                    resp = new JsonObject(readAll(in));
+                }
+            } finally {
+                conn.disconnect();
+            }
+
+            String auth = auth(resp.<String>get("salt"), resp.<String>get("tempKey"));
+            Socket socket = new Socket("127.0.0.1", port);
+            String req = "GET /ws?dsId=" + dsId + "&auth=" + auth + " HTTP/1.1\r\n"
+                    + "Host: 127.0.0.1:" + port + "\r\n"
+                    + "Upgrade: websocket\r\n"
+                    + "Connection: Upgrade\r\n"
+                    + "Sec-WebSocket-Key: dGhlIHNhbXBsZSBub25jZQ==\r\n"
+                    + "Sec-WebSocket-Version: 13\r\n\r\n";
+            socket.getOutputStream().write(req.getBytes(CharsetUtil.UTF_8));
+            InputStream in = socket.getInputStream();
+            String status = readLine(in);
+            if (!status.startsWith("HTTP/1.1 101")) {
+                socket.close();
+                return null;
+            }
+            return socket;
+        }
+
+        private String auth(String salt, String tempKey) {
+            byte[] s = salt.getBytes(CharsetUtil.UTF_8);
+            byte[] ss = RemoteKey.generate(keys, tempKey).getSharedSecret();
+            byte[] bytes = new byte[s.length + ss.length];
+            System.arraycopy(s, 0, bytes, 0, s.length);
+            System.arraycopy(ss, 0, bytes, s.length, ss.length);
+            SHA256.Digest sha = new SHA256.Digest();
+            return UrlBase64.encode(sha.digest(bytes));
+        }
+
+        private static String readAll(InputStream in) throws IOException {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buf = new byte[1024];
+            int read;
+            while ((read = in.read(buf)) != -1) {
+                out.write(buf, 0, read);
+            }
+            return new String(out.toByteArray(), CharsetUtil.UTF_8);
+        }
+
+        private static String readLine(InputStream in) throws IOException {
+            StringBuilder sb = new StringBuilder();
+            int b;
+            while ((b = in.read()) != -1 && b != '\n') {
+                if (b != '\r') {
+                    sb.append((char) b);
+                }
+            }
+            return sb.toString();
+        }
+    }
+}
@@ -0,0 +1,59 @@
+package org.dsa.iot.benchmarks.broker;
+
+import org.dsa.iot.broker.Broker;
+import org.dsa.iot.broker.node.BrokerNode;
+import org.dsa.iot.broker.processor.stream.SubStream;
+import org.dsa.iot.broker.utils.ParsedPath;
+import org.dsa.iot.dslink.util.json.JsonArray;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the fan-out of a single value update to every subscriber
+ * of a stream.
+ *
+ * @author Samuel Grenier
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+public class SubStreamBenchmark {
+
+    @Param({"1", "10", "1000"})
+    public int subscribers;
+
+    private SubStream stream;
+    private BenchClient churn;
+
+    @Setup
+    public void setup() {
+        Broker broker = BenchClient.createBroker();
+        BrokerNode<?> node = new BrokerNode<>(broker.tree().getRoot(), "bench");
+        stream = new SubStream(ParsedPath.parse(null, node.path()), node);
+        for (int i = 0; i < subscribers; ++i) {
+            stream.add(new BenchClient(broker, "requester" + i), i + 1);
+        }
+        churn = new BenchClient(broker, "churn");
+    }
+
+    @Benchmark
+    public SubStream dispatch() {
+        JsonArray update = new JsonArray();
+        update.add(null);
+        update.add(1);
+        update.add("2016-01-01T00:00:00.000+00:00");
+        stream.dispatch(update);
+        return stream;
+    }
+
+    @Benchmark
+    public SubStream subscribeChurn() {
+        stream.add(churn, Integer.MAX_VALUE);
+        stream.remove(churn);
+        return stream;
+    }
+}
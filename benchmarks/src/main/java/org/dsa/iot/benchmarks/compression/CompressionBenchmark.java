@@ -0,0 +1,188 @@
+package org.dsa.iot.benchmarks.compression;
+
+import io.netty.buffer.Unpooled;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.handler.codec.http.websocketx.TextWebSocketFrame;
+import io.netty.handler.codec.http.websocketx.WebSocketFrame;
+import io.netty.util.CharsetUtil;
+import org.dsa.iot.dslink.util.json.JsonArray;
+import org.dsa.iot.dslink.util.json.JsonObject;
+import org.dsa.iot.shared.DeflateFrameEncoder;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.BufferedReader;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the CPU cost of the permessage-deflate policies against the
+ * bandwidth they save. The throughput is the amount of messages a single
+ * core compresses per second while the wire size relative to the raw size
+ * is printed at the end of every trial.
+ * <p>
+ * Recorded traffic is read from the file set in the
+ * {@code dsa.bench.traffic} system property, one message per line. Lines
+ * of the broker debug log are accepted as is. Without a recording, a
+ * synthetic mix of subscription updates, list responses and invoke tables
+ * is generated.
+ *
+ * @author Samuel Grenier
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+public class CompressionBenchmark {
+
+    @Param({"1", "6", "9"})
+    public int level;
+
+    @Param({"0", "256", "1024"})
+    public int threshold;
+
+    @Param({"true", "false"})
+    public boolean contextTakeover;
+
+    private List<byte[]> traffic;
+    private EmbeddedChannel channel;
+    private int next;
+    private long rawBytes;
+    private long wireBytes;
+
+    @Setup
+    public void setup() throws IOException {
+        String file = System.getProperty("dsa.bench.traffic");
+        traffic = file != null ? readTraffic(file) : generateTraffic();
+        boolean noContext = !contextTakeover;
+        channel = new EmbeddedChannel(new DeflateFrameEncoder(level, threshold, noContext));
+    }
+
+    @TearDown
+    public void tearDown() {
+        channel.finishAndReleaseAll();
+        double ratio = rawBytes > 0 ? (double) wireBytes / rawBytes : 1;
+        System.out.printf("%nraw: %d bytes, wire: %d bytes, ratio: %.3f%n",
+                          rawBytes, wireBytes, ratio);
+    }
+
+    @Benchmark
+    public int compress() {
+        byte[] msg = traffic.get(next);
+        if (++next >= traffic.size()) {
+            next = 0;
+        }
+        channel.writeOutbound(new TextWebSocketFrame(Unpooled.wrappedBuffer(msg)));
+        WebSocketFrame frame = channel.readOutbound();
+        int size = frame.content().readableBytes();
+        frame.release();
+        rawBytes += msg.length;
+        wireBytes += size;
+        return size;
+    }
+
+    private static List<byte[]> readTraffic(String file) throws IOException {
+        List<byte[]> traffic = new ArrayList<>();
+        FileInputStream in = new FileInputStream(file);
+        try {
+            InputStreamReader isr = new InputStreamReader(in, CharsetUtil.UTF_8);
+            BufferedReader reader = new BufferedReader(isr);
+            String line;
+            while ((line = reader.readLine()) != null) {
+                int start = line.indexOf('{');
+                if (start > -1) {
+                    String msg = line.substring(start);
+                    traffic.add(msg.getBytes(CharsetUtil.UTF_8));
+                }
+            }
+        } finally {
+            in.close();
+        }
+        if (traffic.isEmpty()) {
+            throw new IllegalStateException("No messages in " + file);
+        }
+        return traffic;
+    }
+
+    /**
+     * Mostly single value updates, with the occasional list response and
+     * invoke result table.
+     */
+    private static List<byte[]> generateTraffic() {
+        Random random = new Random(0);
+        List<byte[]> traffic = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            int kind = random.nextInt(100);
+            JsonObject msg;
+            if (kind < 90) {
+                msg = subscriptionUpdate(random, 1 + random.nextInt(3));
+            } else if (kind < 98) {
+                msg = listResponse(random, 5 + random.nextInt(50));
+            } else {
+                msg = invokeTable(random, 100 + random.nextInt(400));
+            }
+            traffic.add(msg.encode());
+        }
+        return traffic;
+    }
+
+    private static JsonObject subscriptionUpdate(Random random, int updates) {
+        JsonArray array = new JsonArray();
+        for (int i = 0; i < updates; i++) {
+            JsonArray update = new JsonArray();
+            update.add(random.nextInt(10000));
+            update.add(random.nextDouble() * 100);
+            update.add("2016-01-01T00:00:0" + i + ".000+00:00");
+            array.add(update);
+        }
+        return response(0, "open", array);
+    }
+
+    private static JsonObject listResponse(Random random, int children) {
+        JsonArray updates = new JsonArray();
+        JsonArray is = new JsonArray();
+        is.add("$is");
+        is.add("node");
+        updates.add(is);
+        for (int i = 0; i < children; i++) {
+            JsonObject child = new JsonObject();
+            child.put("$is", "node");
+            child.put("$type", "number");
+            child.put("$name", "Point " + random.nextInt(1000));
+            JsonArray update = new JsonArray();
+            update.add("point" + i);
+            update.add(child);
+            updates.add(update);
+        }
+        return response(1 + random.nextInt(100), "open", updates);
+    }
+
+    private static JsonObject invokeTable(Random random, int rows) {
+        JsonArray updates = new JsonArray();
+        for (int i = 0; i < rows; i++) {
+            JsonArray row = new JsonArray();
+            row.add("2016-01-01T00:" + (i / 60 % 60) + ":" + (i % 60) + ".000+00:00");
+            row.add(random.nextInt(1000) / 10.0);
+            updates.add(row);
+        }
+        return response(1 + random.nextInt(100), "closed", updates);
+    }
+
+    private static JsonObject response(int rid, String stream, JsonArray updates) {
+        JsonObject resp = new JsonObject();
+        resp.put("rid", rid);
+        resp.put("stream", stream);
+        resp.put("updates", updates);
+        JsonArray responses = new JsonArray();
+        responses.add(resp);
+        JsonObject msg = new JsonObject();
+        msg.put("responses", responses);
+        return msg;
+    }
+}
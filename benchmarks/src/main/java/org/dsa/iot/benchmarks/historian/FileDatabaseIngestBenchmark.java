@@ -0,0 +1,101 @@
+package org.dsa.iot.benchmarks.historian;
+
+import org.dsa.iot.dslink.node.value.Value;
+import org.dsa.iot.historian.storage.FileDatabase;
+import org.dsa.iot.historian.utils.WriteBatch;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures how many points per second the file database ingests. Every
+ * invocation writes a batch of points spread over the paths, the way a
+ * watch group flushes its buffer. The size on disk per point is printed at
+ * the end of every trial.
+ *
+ * @author Samuel Grenier
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+public class FileDatabaseIngestBenchmark {
+
+    private static final int BATCH_SIZE = 1000;
+
+    @Param({"double", "long", "string"})
+    public String kind;
+
+    @Param({"1", "100"})
+    public int paths;
+
+    private File dir;
+    private FileDatabase db;
+    private Random random;
+    private WriteBatch batch;
+    private String[] names;
+    private double[] state;
+    private long time;
+    private long points;
+
+    @Setup
+    public void setup() throws Exception {
+        dir = Files.createTempDirectory("dsa-bench-db").toFile();
+        db = Historians.open(dir);
+        random = new Random(0);
+        batch = new WriteBatch(BATCH_SIZE);
+        names = new String[paths];
+        state = new double[paths];
+        for (int i = 0; i < paths; ++i) {
+            names[i] = "/downstream/bench/point" + i;
+            state[i] = random.nextInt(100);
+        }
+        time = 1451606400000L;
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        db.close();
+        long size = Historians.size(dir);
+        System.out.printf("%npoints: %d, size: %d bytes, %.2f bytes per point%n",
+                          points, size, points > 0 ? (double) size / points : 0);
+        Historians.delete(dir);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH_SIZE)
+    public void writeBatch() throws IOException {
+        batch.clear();
+        for (int i = 0; i < BATCH_SIZE; ++i) {
+            int path = i % paths;
+            if (path == 0) {
+                time += 1000;
+            }
+            batch.add(names[path], nextValue(path), time);
+        }
+        db.writeBatch(batch);
+        points += BATCH_SIZE;
+    }
+
+    /**
+     * Values follow a random walk so consecutive values are close like
+     * most sensor readings.
+     */
+    private Value nextValue(int path) {
+        double v = state[path] += random.nextInt(5) - 2;
+        switch (kind) {
+            case "long":
+                return new Value((long) v);
+            case "string":
+                return new Value(v > 50 ? "high" : "low");
+            default:
+                return new Value(v / 10);
+        }
+    }
+}
@@ -0,0 +1,90 @@
+package org.dsa.iot.benchmarks.historian;
+
+import org.dsa.iot.dslink.node.value.Value;
+import org.dsa.iot.dslink.util.handler.CompleteHandler;
+import org.dsa.iot.historian.storage.FileDatabase;
+import org.dsa.iot.historian.utils.QueryData;
+import org.dsa.iot.historian.utils.WriteBatch;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures range queries and last value lookups against a path holding a
+ * week of points at 1 Hz.
+ *
+ * @author Samuel Grenier
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+public class FileDatabaseQueryBenchmark {
+
+    private static final String PATH = "/downstream/bench/point";
+    private static final long START = 1451606400000L;
+    private static final long POINTS = 7 * 24 * 3600;
+
+    /**
+     * Length of the queried range in seconds.
+     */
+    @Param({"60", "3600", "86400"})
+    public long range;
+
+    private File dir;
+    private FileDatabase db;
+    private Random random;
+
+    @Setup
+    public void setup() throws Exception {
+        dir = Files.createTempDirectory("dsa-bench-db").toFile();
+        db = Historians.open(dir);
+        Random random = new Random(0);
+        WriteBatch batch = new WriteBatch(1000);
+        double value = 0;
+        for (long i = 0; i < POINTS; ++i) {
+            value += random.nextInt(5) - 2;
+            batch.add(PATH, new Value(value / 10), START + i * 1000);
+            if (batch.size() == 1000) {
+                db.writeBatch(batch);
+                batch.clear();
+            }
+        }
+        db.writeBatch(batch);
+        db.flush();
+        this.random = new Random(1);
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        db.close();
+        Historians.delete(dir);
+    }
+
+    @Benchmark
+    public void query(final Blackhole bh) {
+        long span = range * 1000;
+        long from = START + (long) (random.nextDouble() * (POINTS * 1000 - span));
+        db.query(PATH, from, from + span - 1, new CompleteHandler<QueryData>() {
+            @Override
+            public void handle(QueryData event) {
+                bh.consume(event);
+            }
+
+            @Override
+            public void complete() {
+            }
+        });
+    }
+
+    @Benchmark
+    public QueryData queryLast() {
+        return db.queryLast(PATH);
+    }
+}
@@ -0,0 +1,53 @@
+package org.dsa.iot.benchmarks.historian;
+
+import org.dsa.iot.dslink.util.handler.Handler;
+import org.dsa.iot.historian.database.Database;
+import org.dsa.iot.historian.storage.FileDatabase;
+
+import java.io.File;
+
+/**
+ * Shared setup of the historian benchmarks.
+ *
+ * @author Samuel Grenier
+ */
+final class Historians {
+
+    private Historians() {
+    }
+
+    static FileDatabase open(File dir) {
+        FileDatabase db = new FileDatabase("bench", null, dir, 1024, 1000);
+        db.connect(new Handler<Database>() {
+            @Override
+            public void handle(Database event) {
+            }
+        });
+        return db;
+    }
+
+    static long size(File dir) {
+        long size = 0;
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                size += file.length();
+            }
+        }
+        return size;
+    }
+
+    static void delete(File dir) {
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                if (!file.delete()) {
+                    file.deleteOnExit();
+                }
+            }
+        }
+        if (!dir.delete()) {
+            dir.deleteOnExit();
+        }
+    }
+}
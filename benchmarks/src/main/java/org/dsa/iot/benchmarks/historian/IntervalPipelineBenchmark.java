@@ -0,0 +1,144 @@
+package org.dsa.iot.benchmarks.historian;
+
+import org.dsa.iot.dslink.node.actions.table.Row;
+import org.dsa.iot.dslink.node.value.Value;
+import org.dsa.iot.dslink.util.TimeUtils;
+import org.dsa.iot.dslink.util.handler.CompleteHandler;
+import org.dsa.iot.historian.stats.interval.IntervalParser;
+import org.dsa.iot.historian.stats.interval.IntervalProcessor;
+import org.dsa.iot.historian.stats.rollup.Rollup;
+import org.dsa.iot.historian.storage.FileDatabase;
+import org.dsa.iot.historian.utils.QueryData;
+import org.dsa.iot.historian.utils.SampleBuffer;
+import org.dsa.iot.historian.utils.WriteBatch;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.Calendar;
+import java.util.Random;
+import java.util.TimeZone;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the rows per second flowing from the database through the
+ * interval rollups over a day of 1 Hz points. The values benchmark boxes
+ * every point as a query result, the samples benchmark streams primitives
+ * through a reusable buffer and only formats the finished intervals.
+ *
+ * @author Samuel Grenier
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+public class IntervalPipelineBenchmark {
+
+    private static final String PATH = "/downstream/bench/point";
+    private static final TimeZone UTC = TimeZone.getTimeZone("UTC");
+    private static final long START = 1451606400000L;
+    private static final int POINTS = 24 * 3600;
+
+    @Param({"avg", "max", "last"})
+    public String rollup;
+
+    @Param({"1M", "1H"})
+    public String interval;
+
+    private File dir;
+    private FileDatabase db;
+    private SampleBuffer samples;
+    private SampleBuffer out;
+    private Calendar calendar;
+    private StringBuilder buffer;
+
+    @Setup
+    public void setup() throws Exception {
+        dir = Files.createTempDirectory("dsa-bench-db").toFile();
+        db = Historians.open(dir);
+        Random random = new Random(0);
+        WriteBatch batch = new WriteBatch(1000);
+        double value = 0;
+        for (long i = 0; i < POINTS; ++i) {
+            value += random.nextInt(5) - 2;
+            batch.add(PATH, new Value(value / 10), START + i * 1000);
+            if (batch.size() == 1000) {
+                db.writeBatch(batch);
+                batch.clear();
+            }
+        }
+        db.writeBatch(batch);
+        db.flush();
+
+        samples = new SampleBuffer(1024);
+        out = new SampleBuffer(1024);
+        calendar = Calendar.getInstance(UTC);
+        buffer = new StringBuilder();
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        db.close();
+        Historians.delete(dir);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(POINTS)
+    public void values(final Blackhole bh) {
+        final IntervalProcessor processor = processor();
+        db.query(PATH, START, START + POINTS * 1000L, new CompleteHandler<QueryData>() {
+            @Override
+            public void handle(QueryData event) {
+                Row row = processor.getRowUpdate(event, event.getTimestamp());
+                if (row != null) {
+                    bh.consume(row);
+                }
+            }
+
+            @Override
+            public void complete() {
+                bh.consume(processor.complete());
+            }
+        });
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(POINTS)
+    public void samples(final Blackhole bh) {
+        final IntervalProcessor processor = processor();
+        db.querySamples(PATH, START, START + POINTS * 1000L, samples,
+                        new CompleteHandler<SampleBuffer>() {
+            @Override
+            public void handle(SampleBuffer event) {
+                processor.update(event, out);
+                flush(bh);
+            }
+
+            @Override
+            public void complete() {
+                processor.complete(out);
+                flush(bh);
+            }
+        });
+    }
+
+    private IntervalProcessor processor() {
+        return IntervalProcessor.parse(IntervalParser.parse(interval),
+                                       Rollup.Type.toEnum(rollup), UTC);
+    }
+
+    private void flush(Blackhole bh) {
+        for (int i = 0; i < out.size(); ++i) {
+            Row row = new Row();
+            calendar.setTimeInMillis(out.getTime(i));
+            buffer.setLength(0);
+            row.addValue(new Value(TimeUtils.encode(calendar, true, buffer).toString()));
+            row.addValue(out.getValue(i));
+            bh.consume(row);
+        }
+        out.clear();
+    }
+}
@@ -0,0 +1,81 @@
+package org.dsa.iot.benchmarks.load;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadInfo;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Measures the CPU time and the allocations of the broker threads. The
+ * broker runs in the same process as the simulated links so every thread
+ * whose name starts with the load generator prefix is excluded.
+ *
+ * @author Samuel Grenier
+ */
+class BrokerResources {
+
+    static final String THREAD_PREFIX = "load-";
+
+    private final com.sun.management.ThreadMXBean threads;
+    private final Map<Long, long[]> start = new HashMap<>();
+    private long startTime;
+
+    BrokerResources() {
+        Object bean = ManagementFactory.getThreadMXBean();
+        if (!(bean instanceof com.sun.management.ThreadMXBean)) {
+            throw new IllegalStateException("Unsupported JVM");
+        }
+        threads = (com.sun.management.ThreadMXBean) bean;
+        threads.setThreadCpuTimeEnabled(true);
+        threads.setThreadAllocatedMemoryEnabled(true);
+    }
+
+    /**
+     * Starts a new measurement.
+     */
+    public void start() {
+        start.clear();
+        start.putAll(sample());
+        startTime = System.nanoTime();
+    }
+
+    /**
+     * @return CPU usage of the broker threads since the measurement started
+     *         where 1 is a single core fully used, followed by the amount of
+     *         bytes allocated per second.
+     */
+    public double[] stop() {
+        long elapsed = System.nanoTime() - startTime;
+        long cpu = 0;
+        long allocated = 0;
+        for (Map.Entry<Long, long[]> entry : sample().entrySet()) {
+            long[] end = entry.getValue();
+            long[] begin = start.get(entry.getKey());
+            if (begin == null) {
+                begin = new long[2];
+            }
+            cpu += Math.max(0, end[0] - begin[0]);
+            allocated += Math.max(0, end[1] - begin[1]);
+        }
+        double seconds = elapsed / 1e9;
+        return new double[] { (double) cpu / elapsed, allocated / seconds };
+    }
+
+    private Map<Long, long[]> sample() {
+        Map<Long, long[]> sample = new HashMap<>();
+        long[] ids = threads.getAllThreadIds();
+        ThreadInfo[] infos = threads.getThreadInfo(ids);
+        long[] cpu = threads.getThreadCpuTime(ids);
+        long[] allocated = threads.getThreadAllocatedBytes(ids);
+        for (int i = 0; i < ids.length; ++i) {
+            ThreadInfo info = infos[i];
+            if (info == null || info.getThreadName().startsWith(THREAD_PREFIX)) {
+                continue;
+            } else if (cpu[i] < 0 || allocated[i] < 0) {
+                continue;
+            }
+            sample.put(ids[i], new long[] { cpu[i], allocated[i] });
+        }
+        return sample;
+    }
+}
@@ -0,0 +1,122 @@
+package org.dsa.iot.benchmarks.load;
+
+import com.beust.jcommander.JCommander;
+import com.beust.jcommander.Parameter;
+import com.beust.jcommander.ParameterException;
+import com.beust.jcommander.Parameters;
+
+/**
+ * @author Samuel Grenier
+ */
+@Parameters(separators = "= ")
+public class LoadArguments {
+
+    @Parameter(names = { "--responders", "-n" },
+               description = "Amount of simulated responder links",
+               arity = 1)
+    private int responders = 10;
+
+    @Parameter(names = { "--points", "-m" },
+               description = "Amount of points published by each responder",
+               arity = 1)
+    private int points = 100;
+
+    @Parameter(names = { "--rate", "-r" },
+               description = "Rate in Hz each point is updated at",
+               arity = 1)
+    private int rate = 10;
+
+    @Parameter(names = { "--requesters" },
+               description = "Amount of simulated requesters, defaults to"
+                        + " the amount of responders",
+               arity = 1)
+    private int requesters = -1;
+
+    @Parameter(names = { "--overlap", "-o" },
+               description = "Fraction between 0 and 1 of the subscriptions"
+                        + " shared by every requester",
+               arity = 1)
+    private double overlap = 0.5;
+
+    @Parameter(names = { "--warmup", "-w" },
+               description = "Warmup duration in seconds",
+               arity = 1)
+    private int warmup = 10;
+
+    @Parameter(names = { "--duration", "-d" },
+               description = "Measurement duration in seconds",
+               arity = 1)
+    private int duration = 30;
+
+    @Parameter(names = { "--help", "-h" },
+            description = "Displays the help menu",
+            help = true)
+    private boolean help = false;
+
+    public int responders() {
+        return responders;
+    }
+
+    public int points() {
+        return points;
+    }
+
+    public int rate() {
+        return rate;
+    }
+
+    public int requesters() {
+        return requesters < 0 ? responders : requesters;
+    }
+
+    public double overlap() {
+        return overlap;
+    }
+
+    public int warmup() {
+        return warmup;
+    }
+
+    public int duration() {
+        return duration;
+    }
+
+    /**
+     * Parses the arguments.
+     *
+     * @param args Arguments to parse.
+     * @return Whether parsing was successful or not.
+     */
+    public boolean parse(String[] args) {
+        try {
+            JCommander jc = new JCommander(this, args);
+            jc.setProgramName("<load>");
+            if (help) {
+                jc.usage();
+                return false;
+            }
+            validate();
+            return true;
+        } catch (ParameterException pe) {
+            System.out.println("Use --help or -h to get usage help");
+            System.out.println(pe.getMessage());
+        }
+        return false;
+    }
+
+    private void validate() {
+        if (responders <= 0) {
+            throw new ParameterException("responders must be positive");
+        } else if (points <= 0) {
+            throw new ParameterException("points must be positive");
+        } else if (rate <= 0 || rate > 1000) {
+            throw new ParameterException("rate must be between 1 and 1000");
+        } else if (requesters() <= 0) {
+            throw new ParameterException("requesters must be positive");
+        } else if (overlap < 0 || overlap > 1) {
+            throw new ParameterException("overlap must be between 0 and 1");
+        } else if (warmup < 0 || duration <= 0) {
+            throw new ParameterException("Bad warmup or duration");
+        }
+    }
+}
@@ -0,0 +1,240 @@
+package org.dsa.iot.benchmarks.load;
+
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.util.concurrent.DefaultThreadFactory;
+import org.dsa.iot.broker.Broker;
+import org.dsa.iot.broker.config.broker.BrokerMemoryConfig;
+import org.dsa.iot.broker.node.BrokerTree;
+import org.dsa.iot.broker.server.client.ClientManager;
+import org.dsa.iot.broker.utils.Histogram;
+import org.dsa.iot.dslink.util.TimeUtils;
+import org.dsa.iot.dslink.util.json.JsonObject;
+import org.dsa.iot.dslink.util.log.LogManager;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Generates load against an in process broker bound to the local host.
+ * Every responder publishes all of its points at a fixed rate and every
+ * requester subscribes to as many points as a responder has. A fraction of
+ * the subscriptions of every requester, set by the overlap, is shared by all
+ * the requesters while the rest only belongs to the requester. After the
+ * warmup the end-to-end latency, the throughput, the broker CPU usage and
+ * the broker allocation rate are measured.
+ *
+ * @author Samuel Grenier
+ */
+public class LoadGenerator {
+
+    private final LoadArguments args;
+    private final Histogram latency = new Histogram("us");
+    private final List<SimResponder> responders = new ArrayList<>();
+    private final List<SimRequester> requesters = new ArrayList<>();
+
+    private Broker broker;
+    private EventLoopGroup group;
+    private ScheduledExecutorService publisher;
+
+    public LoadGenerator(LoadArguments args) {
+        if (args == null) {
+            throw new NullPointerException("args");
+        }
+        this.args = args;
+    }
+
+    public static void main(String[] args) throws Exception {
+        LoadArguments parsed = new LoadArguments();
+        if (!parsed.parse(args)) {
+            return;
+        }
+        LogManager.setLevel("warn");
+        LoadGenerator generator = new LoadGenerator(parsed);
+        try {
+            generator.run();
+        } finally {
+            generator.stop();
+        }
+        System.exit(0);
+    }
+
+    public void run() throws Exception {
+        Thread.currentThread().setName(BrokerResources.THREAD_PREFIX + "main");
+        int port = freePort();
+        broker = createBroker(port);
+        broker.start();
+        awaitBound(port);
+
+        String prefix = BrokerResources.THREAD_PREFIX;
+        group = new NioEventLoopGroup(0, new DefaultThreadFactory(prefix + "client"));
+        for (int i = 0; i < args.responders(); ++i) {
+            SimResponder responder = new SimResponder("resp-" + i, args.points());
+            responder.connect(group, port);
+            responders.add(responder);
+        }
+        for (int i = 0; i < args.requesters(); ++i) {
+            SimRequester requester = new SimRequester("req-" + i, latency);
+            requester.connect(group, port);
+            requester.subscribe(paths(i));
+            requesters.add(requester);
+        }
+
+        DefaultThreadFactory factory = new DefaultThreadFactory(prefix + "publisher");
+        publisher = Executors.newSingleThreadScheduledExecutor(factory);
+        long period = TimeUnit.SECONDS.toNanos(1) / args.rate();
+        publisher.scheduleAtFixedRate(new Runnable() {
+            @Override
+            public void run() {
+                String ts = TimeUtils.format(System.currentTimeMillis());
+                for (SimResponder responder : responders) {
+                    responder.publish(ts);
+                }
+            }
+        }, period, period, TimeUnit.NANOSECONDS);
+
+        System.out.println("Warming up for " + args.warmup() + "s");
+        Thread.sleep(TimeUnit.SECONDS.toMillis(args.warmup()));
+
+        BrokerResources resources = new BrokerResources();
+        latency.snapshot(true);
+        long published = published();
+        long received = received();
+        long start = System.nanoTime();
+        resources.start();
+
+        System.out.println("Measuring for " + args.duration() + "s");
+        Thread.sleep(TimeUnit.SECONDS.toMillis(args.duration()));
+
+        double[] usage = resources.stop();
+        double seconds = (System.nanoTime() - start) / 1e9;
+        Histogram.Snapshot snapshot = latency.snapshot(false);
+        published = published() - published;
+        received = received() - received;
+        report(snapshot, published / seconds, received / seconds, usage);
+    }
+
+    public void stop() {
+        if (publisher != null) {
+            publisher.shutdownNow();
+        }
+        for (SimRequester requester : requesters) {
+            requester.close();
+        }
+        for (SimResponder responder : responders) {
+            responder.close();
+        }
+        if (group != null) {
+            group.shutdownGracefully();
+        }
+        if (broker != null) {
+            broker.stop();
+        }
+    }
+
+    private void report(Histogram.Snapshot latency,
+                        double published,
+                        double received,
+                        double[] usage) {
+        long expected = (long) args.requesters() * args.points() * args.rate();
+        StringBuilder sb = new StringBuilder();
+        sb.append(String.format("Responders: %d x %d points at %d Hz%n",
+                args.responders(), args.points(), args.rate()));
+        sb.append(String.format("Requesters: %d with %.0f%% overlap%n",
+                args.requesters(), args.overlap() * 100));
+        sb.append(String.format("Published: %.0f updates/s%n", published));
+        sb.append(String.format("Delivered: %.0f updates/s (expected %d)%n",
+                received, expected));
+        sb.append(String.format("Latency (us): p50=%d p90=%d p99=%d p99.9=%d max=%d%n",
+                latency.percentile(50),
+                latency.percentile(90),
+                latency.percentile(99),
+                latency.percentile(99.9),
+                latency.max()));
+        sb.append(String.format("Broker CPU: %.2f cores%n", usage[0]));
+        sb.append(String.format("Broker allocation rate: %.1f MB/s",
+                usage[1] / (1024 * 1024)));
+        System.out.println(sb);
+    }
+
+    /**
+     * @param requester Index of the requester.
+     * @return Paths the requester subscribes to.
+     */
+    private List<String> paths(int requester) {
+        int points = args.points();
+        int shared = (int) Math.round(points * args.overlap());
+        int total = args.responders() * points;
+        List<String> paths = new ArrayList<>(points);
+        for (int i = 0; i < points; ++i) {
+            int global;
+            if (i < shared) {
+                global = i;
+            } else {
+                global = (requester * points + i) % total;
+            }
+            int responder = global / points;
+            int point = global % points;
+            paths.add("/" + broker.downstream() + "/resp-" + responder + "/p" + point);
+        }
+        return paths;
+    }
+
+    private long published() {
+        long count = 0;
+        for (SimResponder responder : responders) {
+            count += responder.published();
+        }
+        return count;
+    }
+
+    private long received() {
+        long count = 0;
+        for (SimRequester requester : requesters) {
+            count += requester.received();
+        }
+        return count;
+    }
+
+    private static Broker createBroker(final int port) {
+        BrokerMemoryConfig config = new BrokerMemoryConfig() {
+            @Override
+            protected void addServerOpts() {
+                super.addServerOpts();
+                JsonObject server = get().get("server");
+                JsonObject http = server.get("http");
+                http.put("host", "127.0.0.1");
+                http.put("port", port);
+            }
+        };
+        BrokerTree tree = new BrokerTree();
+        Broker broker = new Broker(config, new ClientManager(), tree);
+        tree.initialize(broker.downstream());
+        return broker;
+    }
+
+    private static int freePort() throws IOException {
+        try (ServerSocket s = new ServerSocket(0)) {
+            return s.getLocalPort();
+        }
+    }
+
+    private static void awaitBound(int port) throws Exception {
+        for (int i = 0; i < 100; ++i) {
+            try (Socket s = new Socket()) {
+                s.connect(new InetSocketAddress("127.0.0.1", port));
+                return;
+            } catch (IOException ignored) {
+                Thread.sleep(100);
+            }
+        }
+        throw new IllegalStateException("Broker failed to bind to " + port);
+    }
+}
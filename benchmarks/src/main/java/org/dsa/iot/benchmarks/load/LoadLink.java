@@ -0,0 +1,206 @@
+package org.dsa.iot.benchmarks.load;
+
+import io.netty.bootstrap.Bootstrap;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.*;
+import io.netty.channel.socket.SocketChannel;
+import io.netty.channel.socket.nio.NioSocketChannel;
+import io.netty.handler.codec.http.DefaultHttpHeaders;
+import io.netty.handler.codec.http.FullHttpResponse;
+import io.netty.handler.codec.http.HttpClientCodec;
+import io.netty.handler.codec.http.HttpObjectAggregator;
+import io.netty.handler.codec.http.websocketx.*;
+import io.netty.util.CharsetUtil;
+import org.bouncycastle.jcajce.provider.digest.SHA256;
+import org.dsa.iot.dslink.handshake.LocalKeys;
+import org.dsa.iot.dslink.handshake.RemoteKey;
+import org.dsa.iot.dslink.util.UrlBase64;
+import org.dsa.iot.dslink.util.json.JsonObject;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URI;
+import java.net.URL;
+
+/**
+ * A simulated link connected to the broker over a real WebSocket. The
+ * handshake is performed like any other link would, messages are received
+ * on the event loop of the load generator.
+ *
+ * @author Samuel Grenier
+ */
+abstract class LoadLink extends SimpleChannelInboundHandler<Object> {
+
+    private final LocalKeys keys = LocalKeys.generate();
+    private final String dsId;
+    private final boolean requester;
+    private final boolean responder;
+
+    private WebSocketClientHandshaker handshaker;
+    private ChannelPromise upgraded;
+    private volatile Channel channel;
+
+    LoadLink(String name, boolean requester, boolean responder) {
+        this.dsId = name + "-" + keys.encodedHashPublicKey();
+        this.requester = requester;
+        this.responder = responder;
+    }
+
+    /**
+     * Called on the event loop for every message received after the
+     * connection is established.
+     *
+     * @param data Decoded message.
+     * @param received Time in nanoseconds the message was received at.
+     */
+    protected abstract void received(JsonObject data, long received);
+
+    /**
+     * Connects the link and waits for the WebSocket to be upgraded.
+     *
+     * @param group Event loop of the load generator.
+     * @param port Port the broker is bound to on the local host.
+     * @throws Exception An error occurred connecting.
+     */
+    public void connect(EventLoopGroup group, int port) throws Exception {
+        JsonObject resp = handshake(port);
+        String auth = auth(resp.<String>get("salt"), resp.<String>get("tempKey"));
+        String wsUri = resp.get("wsUri");
+        URI uri = new URI("ws://127.0.0.1:" + port + wsUri
+                            + "?dsId=" + dsId + "&auth=" + auth);
+        handshaker = WebSocketClientHandshakerFactory.newHandshaker(uri,
+                WebSocketVersion.V13, null, true,
+                new DefaultHttpHeaders(), Integer.MAX_VALUE);
+
+        Bootstrap b = new Bootstrap();
+        b.group(group);
+        b.channel(NioSocketChannel.class);
+        b.option(ChannelOption.TCP_NODELAY, true);
+        b.handler(new ChannelInitializer<SocketChannel>() {
+            @Override
+            protected void initChannel(SocketChannel ch) {
+                ChannelPipeline p = ch.pipeline();
+                p.addLast(new HttpClientCodec());
+                p.addLast(new HttpObjectAggregator(8192));
+                p.addLast(LoadLink.this);
+            }
+        });
+        Channel ch = b.connect("127.0.0.1", port).sync().channel();
+        upgraded.sync();
+        channel = ch;
+    }
+
+    public void close() {
+        Channel ch = channel;
+        if (ch != null) {
+            ch.close();
+        }
+    }
+
+    /**
+     * @param data Message to write, silently dropped if not connected.
+     */
+    public void write(JsonObject data) {
+        Channel ch = channel;
+        if (ch != null) {
+            byte[] bytes = data.encode();
+            ch.writeAndFlush(new TextWebSocketFrame(Unpooled.wrappedBuffer(bytes)));
+        }
+    }
+
+    @Override
+    public void handlerAdded(ChannelHandlerContext ctx) {
+        upgraded = ctx.newPromise();
+    }
+
+    @Override
+    public void channelActive(ChannelHandlerContext ctx) {
+        handshaker.handshake(ctx.channel());
+    }
+
+    @Override
+    public void channelInactive(ChannelHandlerContext ctx) {
+        if (!upgraded.isDone()) {
+            upgraded.setFailure(new IOException("Connection closed"));
+        }
+        channel = null;
+    }
+
+    @Override
+    public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) {
+        if (!upgraded.isDone()) {
+            upgraded.setFailure(cause);
+        }
+        ctx.close();
+    }
+
+    @Override
+    protected void channelRead0(ChannelHandlerContext ctx, Object msg) {
+        long now = System.nanoTime();
+        if (!handshaker.isHandshakeComplete()) {
+            handshaker.finishHandshake(ctx.channel(), (FullHttpResponse) msg);
+            ChannelPipeline p = ctx.pipeline();
+            p.addBefore(ctx.name(), "ws-aggregator",
+                        new WebSocketFrameAggregator(Integer.MAX_VALUE));
+            upgraded.setSuccess();
+            return;
+        }
+        if (msg instanceof TextWebSocketFrame) {
+            String text = ((TextWebSocketFrame) msg).text();
+            if (!"{}".equals(text)) {
+                received(new JsonObject(text), now);
+            }
+        } else if (msg instanceof CloseWebSocketFrame) {
+            ctx.close();
+        }
+    }
+
+    private JsonObject handshake(int port) throws IOException {
+        JsonObject obj = new JsonObject();
+        obj.put("publicKey", keys.encodedPublicKey());
+        obj.put("isRequester", requester);
+        obj.put("isResponder", responder);
+
+        URL url = new URL("http://127.0.0.1:" + port + "/conn?dsId=" + dsId);
+        HttpURLConnection conn = (HttpURLConnection) url.openConnection();
+        try {
+            conn.setRequestMethod("POST");
+            conn.setDoOutput(true);
+            try (OutputStream out = conn.getOutputStream()) {
+                out.write(obj.encode());
+            }
+            if (conn.getResponseCode() != 200) {
+                String err = "Handshake failed: " + conn.getResponseCode();
+                throw new IOException(err);
+            }
+            try (InputStream in = conn.getInputStream()) {
+                return new JsonObject(readAll(in));
+            }
+        } finally {
+            conn.disconnect();
+        }
+    }
+
+    private String auth(String salt, String tempKey) {
+        byte[] s = salt.getBytes(CharsetUtil.UTF_8);
+        byte[] ss = RemoteKey.generate(keys, tempKey).getSharedSecret();
+        byte[] bytes = new byte[s.length + ss.length];
+        System.arraycopy(s, 0, bytes, 0, s.length);
+        System.arraycopy(ss, 0, bytes, s.length, ss.length);
+        SHA256.Digest sha = new SHA256.Digest();
+        return UrlBase64.encode(sha.digest(bytes));
+    }
+
+    private static String readAll(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buf = new byte[1024];
+        int read;
+        while ((read = in.read(buf)) != -1) {
+            out.write(buf, 0, read);
+        }
+        return new String(out.toByteArray(), CharsetUtil.UTF_8);
+    }
+}
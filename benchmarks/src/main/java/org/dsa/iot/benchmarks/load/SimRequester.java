@@ -0,0 +1,101 @@
+package org.dsa.iot.benchmarks.load;
+
+import org.dsa.iot.broker.utils.Histogram;
+import org.dsa.iot.dslink.util.json.JsonArray;
+import org.dsa.iot.dslink.util.json.JsonObject;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A requester subscribing to a set of points. The latency of every value
+ * update received is recorded in a histogram shared by all the requesters.
+ *
+ * @author Samuel Grenier
+ */
+class SimRequester extends LoadLink {
+
+    private final AtomicLong received = new AtomicLong();
+    private final Histogram latency;
+
+    /**
+     * @param name Name of the link.
+     * @param latency Histogram the latencies are recorded to.
+     */
+    SimRequester(String name, Histogram latency) {
+        super(name, true, false);
+        if (latency == null) {
+            throw new NullPointerException("latency");
+        }
+        this.latency = latency;
+    }
+
+    /**
+     * @return Amount of value updates received.
+     */
+    public long received() {
+        return received.get();
+    }
+
+    /**
+     * Subscribes to all the paths in a single request. The subscription ID
+     * of each path is its index in the list.
+     *
+     * @param paths Paths to subscribe to.
+     */
+    public void subscribe(List<String> paths) {
+        JsonArray array = new JsonArray();
+        for (int i = 0; i < paths.size(); ++i) {
+            JsonObject obj = new JsonObject();
+            obj.put("path", paths.get(i));
+            obj.put("sid", i);
+            array.add(obj);
+        }
+        JsonObject req = new JsonObject();
+        req.put("rid", 1);
+        req.put("method", "subscribe");
+        req.put("paths", array);
+
+        JsonArray reqs = new JsonArray();
+        reqs.add(req);
+        JsonObject obj = new JsonObject();
+        obj.put("requests", reqs);
+        write(obj);
+    }
+
+    @Override
+    protected void received(JsonObject data, long received) {
+        JsonArray resps = data.get("responses");
+        if (resps == null) {
+            return;
+        }
+        for (Object obj : resps) {
+            JsonObject resp = (JsonObject) obj;
+            Integer rid = resp.get("rid");
+            if (rid == null || rid != 0) {
+                continue;
+            }
+            JsonArray updates = resp.get("updates");
+            if (updates == null) {
+                continue;
+            }
+            int count = 0;
+            for (Object o : updates) {
+                Object value;
+                if (o instanceof JsonArray) {
+                    value = ((JsonArray) o).get(1);
+                } else {
+                    value = ((JsonObject) o).get("value");
+                }
+                if (value instanceof Number) {
+                    long sent = ((Number) value).longValue();
+                    long nanos = received - sent;
+                    latency.record(TimeUnit.NANOSECONDS.toMicros(nanos));
+                    count++;
+                }
+            }
+            this.received.addAndGet(count);
+        }
+    }
+}
@@ -0,0 +1,120 @@
+package org.dsa.iot.benchmarks.load;
+
+import org.dsa.iot.dslink.util.json.JsonArray;
+import org.dsa.iot.dslink.util.json.JsonObject;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A responder publishing points named {@code p0} to {@code pN}. The value
+ * of every update is the time in nanoseconds it was published at so the
+ * requesters can measure the end-to-end latency.
+ *
+ * @author Samuel Grenier
+ */
+class SimResponder extends LoadLink {
+
+    private final Map<Integer, Integer> sids = new ConcurrentHashMap<>();
+    private final AtomicLong published = new AtomicLong();
+    private final int points;
+
+    /**
+     * @param name Name of the link.
+     * @param points Amount of points the responder publishes.
+     */
+    SimResponder(String name, int points) {
+        super(name, false, true);
+        this.points = points;
+    }
+
+    /**
+     * @return Amount of value updates published.
+     */
+    public long published() {
+        return published.get();
+    }
+
+    /**
+     * Publishes a value update for every subscribed point in a single
+     * message.
+     *
+     * @param ts Timestamp of the updates.
+     */
+    public void publish(String ts) {
+        if (sids.isEmpty()) {
+            return;
+        }
+        long now = System.nanoTime();
+        JsonArray updates = new JsonArray();
+        for (Integer sid : sids.keySet()) {
+            JsonArray update = new JsonArray();
+            update.add(sid);
+            update.add(now);
+            update.add(ts);
+            updates.add(update);
+        }
+        JsonObject resp = new JsonObject();
+        resp.put("rid", 0);
+        resp.put("updates", updates);
+        write(wrap(resp));
+        published.addAndGet(updates.size());
+    }
+
+    @Override
+    protected void received(JsonObject data, long received) {
+        JsonArray requests = data.get("requests");
+        if (requests == null) {
+            return;
+        }
+        JsonArray resps = new JsonArray();
+        for (Object obj : requests) {
+            JsonObject req = (JsonObject) obj;
+            String method = req.get("method");
+            if ("subscribe".equals(method)) {
+                JsonArray paths = req.get("paths");
+                for (Object o : paths) {
+                    JsonObject p = (JsonObject) o;
+                    int point = point((String) p.get("path"));
+                    if (point >= 0) {
+                        sids.put(p.<Integer>get("sid"), point);
+                    }
+                }
+            } else if ("unsubscribe".equals(method)) {
+                JsonArray array = req.get("sids");
+                for (Object sid : array) {
+                    sids.remove(sid);
+                }
+            }
+
+            JsonObject resp = new JsonObject();
+            resp.put("rid", req.get("rid"));
+            resp.put("stream", "closed");
+            resps.add(resp);
+        }
+        JsonObject obj = new JsonObject();
+        obj.put("responses", resps);
+        write(obj);
+    }
+
+    private int point(String path) {
+        if (path == null || !path.startsWith("/p")) {
+            return -1;
+        }
+        try {
+            int point = Integer.parseInt(path.substring(2));
+            return point < points ? point : -1;
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private static JsonObject wrap(JsonObject resp) {
+        JsonArray resps = new JsonArray();
+        resps.add(resp);
+        JsonObject obj = new JsonObject();
+        obj.put("responses", resps);
+        return obj;
+    }
+}
@@ -0,0 +1,144 @@
+package org.dsa.iot.benchmarks.transport;
+
+import io.netty.bootstrap.Bootstrap;
+import io.netty.bootstrap.ServerBootstrap;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.*;
+import org.dsa.iot.shared.Transport;
+import org.openjdk.jmh.annotations.*;
+
+import java.net.InetSocketAddress;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the NIO and native epoll transports. The connection storm opens
+ * and closes connections from many threads at once while the round trip
+ * measures small message throughput over established connections.
+ *
+ * @author Samuel Grenier
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+public class TransportBenchmark {
+
+    private static final int MESSAGE_SIZE = 64;
+
+    @Param({"nio", "epoll"})
+    public String transport;
+
+    private Transport impl;
+    private EventLoopGroup bossLoop;
+    private EventLoopGroup workerLoop;
+    private EventLoopGroup clientLoop;
+    private Channel server;
+    private InetSocketAddress address;
+
+    @Setup
+    public void setup() {
+        impl = Transport.select(transport);
+        if (!impl.getName().equals(transport)) {
+            throw new IllegalStateException(transport + " is not available");
+        }
+        bossLoop = impl.createGroup(1);
+        workerLoop = impl.createGroup(0);
+        clientLoop = impl.createGroup(0);
+
+        ServerBootstrap strap = new ServerBootstrap();
+        strap.group(bossLoop, workerLoop);
+        strap.channel(impl.getServerChannel());
+        strap.option(ChannelOption.SO_BACKLOG, 4096);
+        strap.childHandler(new ChannelInitializer<Channel>() {
+            @Override
+            protected void initChannel(Channel ch) {
+                ch.pipeline().addLast(new EchoHandler());
+            }
+        });
+        server = strap.bind("127.0.0.1", 0).syncUninterruptibly().channel();
+        address = (InetSocketAddress) server.localAddress();
+    }
+
+    @TearDown
+    public void tearDown() {
+        server.close().syncUninterruptibly();
+        clientLoop.shutdownGracefully();
+        workerLoop.shutdownGracefully();
+        bossLoop.shutdownGracefully();
+    }
+
+    @Benchmark
+    @Threads(16)
+    public void connectionStorm() {
+        Channel ch = connect(new ChannelInboundHandlerAdapter());
+        ch.close().syncUninterruptibly();
+    }
+
+    @Benchmark
+    @Threads(4)
+    public Object roundTrip(Connection conn) throws InterruptedException {
+        ByteBuf buf = Unpooled.wrappedBuffer(conn.message);
+        conn.channel.writeAndFlush(buf);
+        return conn.received.take();
+    }
+
+    private Channel connect(ChannelHandler handler) {
+        Bootstrap b = new Bootstrap();
+        b.group(clientLoop);
+        b.channel(impl.getChannel());
+        // Avoids exhausting ephemeral ports with connections in TIME_WAIT
+        b.option(ChannelOption.SO_LINGER, 0);
+        b.option(ChannelOption.TCP_NODELAY, true);
+        b.handler(handler);
+        return b.connect(address).syncUninterruptibly().channel();
+    }
+
+    @State(Scope.Thread)
+    public static class Connection {
+
+        private final LinkedBlockingQueue<Object> received = new LinkedBlockingQueue<>();
+        private final byte[] message = new byte[MESSAGE_SIZE];
+        private Channel channel;
+
+        @Setup
+        public void setup(TransportBenchmark bench) {
+            channel = bench.connect(new SimpleChannelInboundHandler<ByteBuf>() {
+
+                private int read;
+
+                @Override
+                protected void channelRead0(ChannelHandlerContext ctx,
+                                            ByteBuf msg) {
+                    read += msg.readableBytes();
+                    while (read >= MESSAGE_SIZE) {
+                        read -= MESSAGE_SIZE;
+                        received.add(Boolean.TRUE);
+                    }
+                }
+            });
+        }
+
+        @TearDown
+        public void tearDown() {
+            channel.close().syncUninterruptibly();
+        }
+    }
+
+    @ChannelHandler.Sharable
+    private static class EchoHandler extends ChannelInboundHandlerAdapter {
+
+        @Override
+        public void channelRead(ChannelHandlerContext ctx, Object msg) {
+            ctx.writeAndFlush(msg);
+        }
+
+        @Override
+        public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) {
+            ctx.close();
+        }
+    }
+}
@@ -0,0 +1,149 @@
+package org.dsa.iot.shared;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.handler.codec.http.websocketx.BinaryWebSocketFrame;
+import io.netty.handler.codec.http.websocketx.ContinuationWebSocketFrame;
+import io.netty.handler.codec.http.websocketx.TextWebSocketFrame;
+import io.netty.handler.codec.http.websocketx.WebSocketFrame;
+import io.netty.handler.codec.http.websocketx.extensions.WebSocketExtension;
+import io.netty.handler.codec.http.websocketx.extensions.WebSocketExtensionEncoder;
+
+import java.util.List;
+import java.util.zip.Deflater;
+
+/**
+ * Compresses outgoing messages with the permessage-deflate extension. The
+ * decision to compress is taken once per message, on its first frame.
+ * Unfragmented messages below the threshold are sent as is, which the
+ * extension allows. Fragmented messages are always compressed since their
+ * first frame is already a full frame.
+ *
+ * @author Samuel Grenier
+ * @see DeflatePolicy
+ */
+public class DeflateFrameEncoder extends WebSocketExtensionEncoder {
+
+    private static final int FRAME_TAIL_LENGTH = 4;
+
+    private final int level;
+    private final int threshold;
+    private final boolean noContext;
+
+    private Deflater deflater;
+    private boolean compressing;
+
+    /**
+     * @param level Compression level, from 0 to 9.
+     * @param threshold Minimum payload size of a message to be compressed.
+     * @param noContext Whether the compressor is reset after every message.
+     */
+    public DeflateFrameEncoder(int level, int threshold, boolean noContext) {
+        this.level = level;
+        this.threshold = threshold;
+        this.noContext = noContext;
+    }
+
+    @Override
+    public boolean acceptOutboundMessage(Object msg) throws Exception {
+        if (msg instanceof ContinuationWebSocketFrame) {
+            return compressing;
+        } else if (msg instanceof TextWebSocketFrame
+                || msg instanceof BinaryWebSocketFrame) {
+            int rsv = ((WebSocketFrame) msg).rsv();
+            return (rsv & WebSocketExtension.RSV1) == 0;
+        }
+        return false;
+    }
+
+    @Override
+    protected void encode(ChannelHandlerContext ctx,
+                          WebSocketFrame msg,
+                          List<Object> out) throws Exception {
+        boolean last = msg.isFinalFragment();
+        ByteBuf content = msg.content();
+        if (!compressing) {
+            if (last && content.readableBytes() < threshold) {
+                out.add(msg.retain());
+                return;
+            }
+            compressing = true;
+        }
+
+        ByteBuf compressed = deflate(ctx, content, last);
+        WebSocketFrame frame;
+        if (msg instanceof TextWebSocketFrame) {
+            int rsv = msg.rsv() | WebSocketExtension.RSV1;
+            frame = new TextWebSocketFrame(last, rsv, compressed);
+        } else if (msg instanceof BinaryWebSocketFrame) {
+            int rsv = msg.rsv() | WebSocketExtension.RSV1;
+            frame = new BinaryWebSocketFrame(last, rsv, compressed);
+        } else {
+            frame = new ContinuationWebSocketFrame(last, msg.rsv(), compressed);
+        }
+        if (last) {
+            compressing = false;
+            if (noContext) {
+                release();
+            }
+        }
+        out.add(frame);
+    }
+
+    @Override
+    public void handlerRemoved(ChannelHandlerContext ctx) throws Exception {
+        release();
+        super.handlerRemoved(ctx);
+    }
+
+    private ByteBuf deflate(ChannelHandlerContext ctx,
+                            ByteBuf content,
+                            boolean last) {
+        if (deflater == null) {
+            deflater = new Deflater(level, true);
+        }
+        int length = content.readableBytes();
+        if (content.hasArray()) {
+            int offset = content.arrayOffset() + content.readerIndex();
+            deflater.setInput(content.array(), offset, length);
+        } else {
+            byte[] bytes = new byte[length];
+            content.getBytes(content.readerIndex(), bytes);
+            deflater.setInput(bytes);
+        }
+
+        ByteBuf buf = ctx.alloc().heapBuffer(Math.max(64, length / 2));
+        for (;;) {
+            int space = buf.writableBytes();
+            int offset = buf.arrayOffset() + buf.writerIndex();
+            int n = deflater.deflate(buf.array(), offset, space, Deflater.SYNC_FLUSH);
+            buf.writerIndex(buf.writerIndex() + n);
+            if (n < space) {
+                break;
+            }
+            buf.ensureWritable(Math.max(64, buf.capacity()));
+        }
+
+        // The empty block ending the message is implied by the extension
+        if (last && endsWithTail(buf)) {
+            buf.writerIndex(buf.writerIndex() - FRAME_TAIL_LENGTH);
+        }
+        return buf;
+    }
+
+    private void release() {
+        if (deflater != null) {
+            deflater.end();
+            deflater = null;
+        }
+    }
+
+    private static boolean endsWithTail(ByteBuf buf) {
+        int end = buf.writerIndex();
+        return buf.readableBytes() >= FRAME_TAIL_LENGTH
+                && buf.getByte(end - 4) == 0x00
+                && buf.getByte(end - 3) == 0x00
+                && buf.getByte(end - 2) == (byte) 0xff
+                && buf.getByte(end - 1) == (byte) 0xff;
+    }
+}
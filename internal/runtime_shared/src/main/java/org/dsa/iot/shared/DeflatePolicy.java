@@ -0,0 +1,180 @@
+package org.dsa.iot.shared;
+
+import io.netty.handler.codec.http.websocketx.extensions.*;
+import io.netty.handler.codec.http.websocketx.extensions.compression.PerMessageDeflateClientExtensionHandshaker;
+import io.netty.handler.codec.http.websocketx.extensions.compression.PerMessageDeflateServerExtensionHandshaker;
+
+/**
+ * Compression policy of the permessage-deflate WebSocket extension. Messages
+ * smaller than the threshold are sent uncompressed as deflating tiny
+ * subscription updates costs more CPU than it saves bandwidth. Disabling
+ * context takeover resets the compressor after every message, which lowers
+ * the memory held per connection at the cost of a worse ratio.
+ * <p>
+ * Negotiation and decompression are left to Netty, only the compression
+ * side is replaced by {@link DeflateFrameEncoder}.
+ *
+ * @author Samuel Grenier
+ */
+public class DeflatePolicy {
+
+    /**
+     * Policy of the SDK connections, configured through the
+     * {@code dsa.shared.deflate.enabled}, {@code dsa.shared.deflate.level},
+     * {@code dsa.shared.deflate.threshold} and
+     * {@code dsa.shared.deflate.contextTakeover} system properties.
+     */
+    public static final DeflatePolicy DEFAULT = new DeflatePolicy(
+            Boolean.parseBoolean(System.getProperty("dsa.shared.deflate.enabled", "true")),
+            Integer.parseInt(System.getProperty("dsa.shared.deflate.level", "6")),
+            Integer.parseInt(System.getProperty("dsa.shared.deflate.threshold", "256")),
+            Boolean.parseBoolean(System.getProperty("dsa.shared.deflate.contextTakeover", "true")));
+
+    private static final int MAX_WINDOW_SIZE = PerMessageDeflateServerExtensionHandshaker.MAX_WINDOW_SIZE;
+    private static final String SERVER_NO_CONTEXT = "server_no_context_takeover";
+    private static final String CLIENT_NO_CONTEXT = "client_no_context_takeover";
+
+    private final boolean enabled;
+    private final int level;
+    private final int threshold;
+    private final boolean contextTakeover;
+
+    /**
+     * @param enabled Whether the extension is negotiated at all.
+     * @param level Compression level, from 0 to 9.
+     * @param threshold Minimum payload size of a message to be compressed.
+     * @param contextTakeover Whether the compression context is kept
+     *                        between messages.
+     */
+    public DeflatePolicy(boolean enabled, int level,
+                         int threshold, boolean contextTakeover) {
+        if (level < 0 || level > 9) {
+            throw new IllegalArgumentException("level");
+        } else if (threshold < 0) {
+            throw new IllegalArgumentException("threshold");
+        }
+        this.enabled = enabled;
+        this.level = level;
+        this.threshold = threshold;
+        this.contextTakeover = contextTakeover;
+    }
+
+    public boolean enabled() {
+        return enabled;
+    }
+
+    public int level() {
+        return level;
+    }
+
+    public int threshold() {
+        return threshold;
+    }
+
+    public boolean contextTakeover() {
+        return contextTakeover;
+    }
+
+    /**
+     * @return Handshaker accepting the extension from clients or
+     *         {@code null} if compression is disabled.
+     */
+    public WebSocketServerExtensionHandshaker serverHandshaker() {
+        if (!enabled) {
+            return null;
+        }
+        // The JDK deflater only supports the maximum window size
+        final PerMessageDeflateServerExtensionHandshaker delegate
+                = new PerMessageDeflateServerExtensionHandshaker(level, false,
+                                                MAX_WINDOW_SIZE, true,
+                                                !contextTakeover);
+        return new WebSocketServerExtensionHandshaker() {
+            @Override
+            public WebSocketServerExtension handshakeExtension(WebSocketExtensionData data) {
+                final WebSocketServerExtension ext = delegate.handshakeExtension(data);
+                if (ext == null) {
+                    return null;
+                }
+                final WebSocketExtensionData resp = ext.newReponseData();
+                boolean requested = resp.parameters().containsKey(SERVER_NO_CONTEXT);
+                final boolean noContext = requested || !contextTakeover;
+                return new WebSocketServerExtension() {
+                    @Override
+                    public int rsv() {
+                        return ext.rsv();
+                    }
+
+                    @Override
+                    public WebSocketExtensionEncoder newExtensionEncoder() {
+                        return new DeflateFrameEncoder(level, threshold, noContext);
+                    }
+
+                    @Override
+                    public WebSocketExtensionDecoder newExtensionDecoder() {
+                        return ext.newExtensionDecoder();
+                    }
+
+                    @Override
+                    public WebSocketExtensionData newReponseData() {
+                        return resp;
+                    }
+                };
+            }
+        };
+    }
+
+    /**
+     * @return Handshaker requesting the extension from servers or
+     *         {@code null} if compression is disabled.
+     */
+    public WebSocketClientExtensionHandshaker clientHandshaker() {
+        if (!enabled) {
+            return null;
+        }
+        // Netty never offers server_no_context_takeover but rejects the
+        // response without it when requested, the server decides alone
+        final PerMessageDeflateClientExtensionHandshaker delegate
+                = new PerMessageDeflateClientExtensionHandshaker(level, false,
+                                                MAX_WINDOW_SIZE, true,
+                                                false);
+        return new WebSocketClientExtensionHandshaker() {
+            @Override
+            public WebSocketExtensionData newRequestData() {
+                return delegate.newRequestData();
+            }
+
+            @Override
+            public WebSocketClientExtension handshakeExtension(WebSocketExtensionData data) {
+                final WebSocketClientExtension ext = delegate.handshakeExtension(data);
+                if (ext == null) {
+                    return null;
+                }
+                boolean requested = data.parameters().containsKey(CLIENT_NO_CONTEXT);
+                final boolean noContext = requested || !contextTakeover;
+                return new WebSocketClientExtension() {
+                    @Override
+                    public int rsv() {
+                        return ext.rsv();
+                    }
+
+                    @Override
+                    public WebSocketExtensionEncoder newExtensionEncoder() {
+                        return new DeflateFrameEncoder(level, threshold, noContext);
+                    }
+
+                    @Override
+                    public WebSocketExtensionDecoder newExtensionDecoder() {
+                        return ext.newExtensionDecoder();
+                    }
+                };
+            }
+        };
+    }
+
+    @Override
+    public String toString() {
+        return "DeflatePolicy{enabled=" + enabled + ", level=" + level
+                + ", threshold=" + threshold
+                + ", contextTakeover=" + contextTakeover + "}";
+    }
+}
@@ -0,0 +1,153 @@
+package org.dsa.iot.shared;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.Channel;
+import io.netty.handler.codec.http.websocketx.BinaryWebSocketFrame;
+import io.netty.handler.codec.http.websocketx.ContinuationWebSocketFrame;
+import io.netty.handler.codec.http.websocketx.TextWebSocketFrame;
+import io.netty.handler.codec.http.websocketx.WebSocketFrame;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Streams a single WebSocket message as fragmented frames. Data is buffered
+ * until a frame is full, the frame is then written and flushed to the
+ * channel so no more than a frame is ever buffered by the stream. Messages
+ * that fit in a single frame are written unfragmented.
+ * <p>
+ * Writers of the same channel must not interleave their messages, callers
+ * are responsible for serializing the streams of a channel.
+ *
+ * @author Samuel Grenier
+ * @see FrameWriter
+ */
+public class FrameOutputStream extends OutputStream {
+
+    private final Channel channel;
+    private final boolean binary;
+    private final int maxFrameSize;
+
+    private ByteBuf buf;
+    private boolean fragmented;
+    private boolean closed;
+    private long written;
+
+    /**
+     * @param channel Channel to write the frames to.
+     * @param binary Whether the message is binary or text.
+     * @param maxFrameSize Maximum payload size of a frame.
+     */
+    public FrameOutputStream(Channel channel, boolean binary, int maxFrameSize) {
+        if (channel == null) {
+            throw new NullPointerException("channel");
+        } else if (maxFrameSize <= 0) {
+            throw new IllegalArgumentException("maxFrameSize");
+        }
+        this.channel = channel;
+        this.binary = binary;
+        this.maxFrameSize = maxFrameSize;
+    }
+
+    /**
+     * @return Amount of payload bytes written to the channel.
+     */
+    public long written() {
+        return written;
+    }
+
+    /**
+     * @return Whether the message was split across multiple frames.
+     */
+    public boolean fragmented() {
+        return fragmented;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        ensureOpen();
+        if (buf == null) {
+            buf = channel.alloc().buffer(Math.min(maxFrameSize, 256));
+        } else if (buf.readableBytes() == maxFrameSize) {
+            writeFrame(false);
+            buf = channel.alloc().buffer(Math.min(maxFrameSize, 256));
+        }
+        buf.writeByte(b);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        ensureOpen();
+        while (len > 0) {
+            if (buf == null) {
+                buf = channel.alloc().buffer(Math.min(maxFrameSize, Math.max(len, 256)));
+            } else if (buf.readableBytes() == maxFrameSize) {
+                writeFrame(false);
+                buf = channel.alloc().buffer(Math.min(maxFrameSize, Math.max(len, 256)));
+            }
+            int chunk = Math.min(len, maxFrameSize - buf.readableBytes());
+            buf.writeBytes(b, off, chunk);
+            off += chunk;
+            len -= chunk;
+        }
+    }
+
+    /**
+     * Writes the final frame of the message.
+     */
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        if (buf == null) {
+            buf = channel.alloc().buffer(0);
+        }
+        writeFrame(true);
+    }
+
+    /**
+     * Discards the message after a failure. The channel is closed if part
+     * of the message was already written as the peer could never make sense
+     * of the following messages.
+     */
+    public void abort() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        if (buf != null) {
+            buf.release();
+            buf = null;
+        }
+        if (fragmented) {
+            channel.close();
+        }
+    }
+
+    private void writeFrame(boolean last) {
+        ByteBuf data = buf;
+        buf = null;
+        written += data.readableBytes();
+
+        WebSocketFrame frame;
+        if (fragmented) {
+            frame = new ContinuationWebSocketFrame(last, 0, data);
+        } else if (binary) {
+            frame = new BinaryWebSocketFrame(last, 0, data);
+        } else {
+            frame = new TextWebSocketFrame(last, 0, data);
+        }
+        if (!last) {
+            fragmented = true;
+        }
+        channel.writeAndFlush(frame);
+    }
+
+    private void ensureOpen() throws IOException {
+        if (closed) {
+            throw new IOException("Stream closed");
+        }
+    }
+}
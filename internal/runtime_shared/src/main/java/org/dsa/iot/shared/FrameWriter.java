@@ -0,0 +1,156 @@
+package org.dsa.iot.shared;
+
+import io.netty.channel.Channel;
+import io.netty.channel.EventLoop;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Serializes the WebSocket messages of a channel without locking. Messages
+ * are queued by any thread and encoded on the event loop of the channel,
+ * each frame is written as soon as it fills up. A message is only started
+ * while the channel is writable, the queue is held back otherwise until
+ * {@link #resume()} is called once the channel drained. At most one message
+ * beyond the write buffer high water mark is therefore pending on the
+ * channel and writers never wait on it.
+ *
+ * @author Samuel Grenier
+ */
+public class FrameWriter {
+
+    private final Queue<Message> queue = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean scheduled = new AtomicBoolean();
+    private final Channel channel;
+    private final int maxFrameSize;
+
+    private final Runnable drainTask = new Runnable() {
+        @Override
+        public void run() {
+            scheduled.set(false);
+            drain();
+        }
+    };
+
+    // Only accessed from the event loop
+    private boolean draining;
+
+    /**
+     * @param channel Channel to write the messages to.
+     * @param maxFrameSize Maximum payload size of a frame.
+     */
+    public FrameWriter(Channel channel, int maxFrameSize) {
+        if (channel == null) {
+            throw new NullPointerException("channel");
+        } else if (maxFrameSize <= 0) {
+            throw new IllegalArgumentException("maxFrameSize");
+        }
+        this.channel = channel;
+        this.maxFrameSize = maxFrameSize;
+    }
+
+    /**
+     * @return Amount of messages waiting to be encoded.
+     */
+    public int queued() {
+        return queue.size();
+    }
+
+    /**
+     * Queues a message to be written after the previously queued messages.
+     * The message is written immediately when called from the event loop
+     * of the channel and nothing is queued.
+     *
+     * @param message Message to write.
+     */
+    public void write(Message message) {
+        if (message == null) {
+            throw new NullPointerException("message");
+        }
+        queue.add(message);
+        resume();
+    }
+
+    /**
+     * Writes the messages held back while the channel was not writable.
+     * Must be called once the writability of the channel changed.
+     */
+    public void resume() {
+        EventLoop loop = channel.eventLoop();
+        if (loop.inEventLoop()) {
+            drain();
+        } else if (scheduled.compareAndSet(false, true)) {
+            loop.execute(drainTask);
+        }
+    }
+
+    private void drain() {
+        if (draining) {
+            // Messages written by a message are picked up by the loop below
+            return;
+        }
+        draining = true;
+        try {
+            Message msg;
+            while (channel.isWritable() && (msg = queue.poll()) != null) {
+                FrameOutputStream out = new FrameOutputStream(channel, msg.binary, maxFrameSize);
+                try {
+                    msg.encode(out);
+                    out.close();
+                } catch (IOException | RuntimeException e) {
+                    out.abort();
+                    msg.failed(e);
+                    continue;
+                }
+                msg.sent(out.written());
+            }
+            if (!channel.isActive()) {
+                queue.clear();
+            }
+        } finally {
+            draining = false;
+        }
+    }
+
+    /**
+     * Message written by a {@link FrameWriter}.
+     */
+    public static abstract class Message {
+
+        private final boolean binary;
+
+        /**
+         * @param binary Whether the message is binary or text.
+         */
+        public Message(boolean binary) {
+            this.binary = binary;
+        }
+
+        /**
+         * Encodes the message, the stream is closed afterwards.
+         *
+         * @param out Stream writing the frames of the message.
+         * @throws IOException The message could not be written.
+         */
+        protected abstract void encode(OutputStream out) throws IOException;
+
+        /**
+         * Called once the message is written to the channel.
+         *
+         * @param written Amount of payload bytes written.
+         */
+        protected void sent(long written) {
+        }
+
+        /**
+         * Called when the message failed to encode. The message is
+         * discarded, the channel is closed if part of it was written.
+         *
+         * @param cause Failure of the message.
+         */
+        protected abstract void failed(Exception cause);
+    }
+}
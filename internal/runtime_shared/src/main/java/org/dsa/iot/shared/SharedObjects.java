@@ -1,7 +1,6 @@
 package org.dsa.iot.shared;
 
 import io.netty.channel.EventLoopGroup;
-import io.netty.channel.nio.NioEventLoopGroup;
 
 import java.util.concurrent.*;
 
@@ -29,17 +28,51 @@ public class SharedObjects {
 
     public static final int POOL_SIZE = calculateCorePoolSize();
 
+    /**
+     * Transport used for the shared event loop, configured through the
+     * {@code dsa.shared.transport} system property. Supported values are
+     * {@code nio}, {@code epoll} and {@code auto}.
+     */
+    public static final Transport TRANSPORT = Transport.select(System.getProperty("dsa.shared.transport", "nio"));
+
+    /**
+     * Amount of threads of the shared event loop, configured through the
+     * {@code dsa.shared.loopSize} system property. 0 uses the Netty default.
+     */
+    public static final int LOOP_SIZE = Integer.parseInt(System.getProperty("dsa.shared.loopSize", "0"));
+
+    /**
+     * Maximum payload size of an outgoing WebSocket frame, configured
+     * through the {@code dsa.shared.maxFrameSize} system property. Larger
+     * messages are fragmented.
+     */
+    public static final int MAX_FRAME_SIZE = Integer.parseInt(System.getProperty("dsa.shared.maxFrameSize", "65536"));
+
+    /**
+     * Maximum size of an incoming WebSocket message once its fragments are
+     * aggregated, configured through the {@code dsa.shared.maxMessageSize}
+     * system property.
+     */
+    public static final int MAX_MESSAGE_SIZE = Integer.parseInt(System.getProperty("dsa.shared.maxMessageSize", "67108864"));
+
     private static volatile ScheduledThreadPoolExecutor THREAD_POOL;
     private static volatile ScheduledThreadPoolExecutor DAEMON_THREAD_POOL;
     private static volatile EventLoopGroup LOOP;
 
     public static EventLoopGroup getLoop() {
         if (LOOP == null) {
-            LOOP = new NioEventLoopGroup();
+            LOOP = TRANSPORT.createGroup(LOOP_SIZE);
         }
         return LOOP;
     }
 
+    /**
+     * @return The transport compatible with the shared event loop.
+     */
+    public static Transport getTransport() {
+        return Transport.forGroup(getLoop());
+    }
+
     public static void setLoop(EventLoopGroup group) {
         LOOP = group;
     }
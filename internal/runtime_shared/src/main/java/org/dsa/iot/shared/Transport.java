@@ -0,0 +1,175 @@
+package org.dsa.iot.shared;
+
+import io.netty.bootstrap.AbstractBootstrap;
+import io.netty.channel.Channel;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.ServerChannel;
+import io.netty.channel.epoll.Epoll;
+import io.netty.channel.epoll.EpollChannelOption;
+import io.netty.channel.epoll.EpollEventLoopGroup;
+import io.netty.channel.epoll.EpollServerSocketChannel;
+import io.netty.channel.epoll.EpollSocketChannel;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.nio.NioServerSocketChannel;
+import io.netty.channel.socket.nio.NioSocketChannel;
+
+/**
+ * The network transport that is used to create event loops and channels.
+ * NIO is always available. The native epoll transport is only available on
+ * Linux when the native library can be loaded.
+ *
+ * @author Samuel Grenier
+ */
+public abstract class Transport {
+
+    public static final Transport NIO = new NioTransport();
+    public static final Transport EPOLL = new EpollTransport();
+
+    /**
+     * @return Name of the transport as used in configurations.
+     */
+    public abstract String getName();
+
+    /**
+     * @return Whether the transport can be used on this platform.
+     */
+    public abstract boolean isAvailable();
+
+    /**
+     * @param threads Amount of threads, 0 uses the Netty default.
+     * @return A new event loop group for this transport.
+     */
+    public abstract EventLoopGroup createGroup(int threads);
+
+    /**
+     * @return Server channel class compatible with the event loops.
+     */
+    public abstract Class<? extends ServerChannel> getServerChannel();
+
+    /**
+     * @return Client channel class compatible with the event loops.
+     */
+    public abstract Class<? extends Channel> getChannel();
+
+    /**
+     * @return Whether multiple server channels can bind to the same port.
+     */
+    public abstract boolean supportsReusePort();
+
+    /**
+     * Allows multiple server channels to bind to the same port so that
+     * accepts are spread across threads by the kernel.
+     *
+     * @param strap Bootstrap to configure.
+     * @throws UnsupportedOperationException If the transport does not
+     *                                       support it.
+     */
+    public abstract void enableReusePort(AbstractBootstrap<?, ?> strap);
+
+    /**
+     * Selects a transport by name. {@code auto} selects epoll when it is
+     * available. Unknown or unavailable transports fall back to NIO.
+     *
+     * @param name Name of the transport.
+     * @return The selected transport.
+     */
+    public static Transport select(String name) {
+        if ("auto".equals(name) || EPOLL.getName().equals(name)) {
+            if (EPOLL.isAvailable()) {
+                return EPOLL;
+            }
+        }
+        return NIO;
+    }
+
+    /**
+     * @param group Event loop group the channels will be registered to.
+     * @return The transport compatible with the group.
+     */
+    public static Transport forGroup(EventLoopGroup group) {
+        if (group instanceof EpollEventLoopGroup) {
+            return EPOLL;
+        }
+        return NIO;
+    }
+
+    private static class NioTransport extends Transport {
+
+        @Override
+        public String getName() {
+            return "nio";
+        }
+
+        @Override
+        public boolean isAvailable() {
+            return true;
+        }
+
+        @Override
+        public EventLoopGroup createGroup(int threads) {
+            return new NioEventLoopGroup(threads);
+        }
+
+        @Override
+        public Class<? extends ServerChannel> getServerChannel() {
+            return NioServerSocketChannel.class;
+        }
+
+        @Override
+        public Class<? extends Channel> getChannel() {
+            return NioSocketChannel.class;
+        }
+
+        @Override
+        public boolean supportsReusePort() {
+            return false;
+        }
+
+        @Override
+        public void enableReusePort(AbstractBootstrap<?, ?> strap) {
+            throw new UnsupportedOperationException("SO_REUSEPORT");
+        }
+    }
+
+    private static class EpollTransport extends Transport {
+
+        @Override
+        public String getName() {
+            return "epoll";
+        }
+
+        @Override
+        public boolean isAvailable() {
+            try {
+                return Epoll.isAvailable();
+            } catch (Throwable ignored) {
+                return false;
+            }
+        }
+
+        @Override
+        public EventLoopGroup createGroup(int threads) {
+            return new EpollEventLoopGroup(threads);
+        }
+
+        @Override
+        public Class<? extends ServerChannel> getServerChannel() {
+            return EpollServerSocketChannel.class;
+        }
+
+        @Override
+        public Class<? extends Channel> getChannel() {
+            return EpollSocketChannel.class;
+        }
+
+        @Override
+        public boolean supportsReusePort() {
+            return true;
+        }
+
+        @Override
+        public void enableReusePort(AbstractBootstrap<?, ?> strap) {
+            strap.option(EpollChannelOption.SO_REUSEPORT, true);
+        }
+    }
+}
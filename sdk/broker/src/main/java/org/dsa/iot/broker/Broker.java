@@ -1,12 +1,17 @@
 package org.dsa.iot.broker;
 
+import org.dsa.iot.broker.cluster.Cluster;
 import org.dsa.iot.broker.config.Arguments;
 import org.dsa.iot.broker.config.broker.BrokerConfig;
 import org.dsa.iot.broker.config.broker.BrokerFileConfig;
 import org.dsa.iot.broker.config.broker.BrokerMemoryConfig;
 import org.dsa.iot.broker.node.BrokerTree;
+import org.dsa.iot.broker.processor.InvokeRules;
+import org.dsa.iot.broker.qos.QosManager;
+import org.dsa.iot.broker.registry.LinkRegistry;
 import org.dsa.iot.broker.server.ServerManager;
 import org.dsa.iot.broker.server.client.ClientManager;
+import org.dsa.iot.broker.upstream.Upstream;
 import org.dsa.iot.broker.utils.Metrics;
 import org.dsa.iot.dslink.util.json.JsonObject;
 import org.dsa.iot.dslink.util.log.LogManager;
@@ -23,6 +28,11 @@ public class Broker {
     private final BrokerConfig config;
     private final BrokerTree tree;
     private final Metrics metrics;
+    private final QosManager qos = new QosManager();
+    private final InvokeRules invokes = new InvokeRules();
+    private final LinkRegistry registry;
+    private final Cluster cluster;
+    private final Upstream upstream;
 
     private String downstreamName;
     private ServerManager server;
@@ -42,6 +52,9 @@ public class Broker {
         this.config = config;
         this.tree = tree;
         this.metrics = Metrics.create(this);
+        this.registry = new LinkRegistry(this);
+        this.cluster = new Cluster(this);
+        this.upstream = new Upstream(this);
         config.readAndUpdate();
     }
 
@@ -54,10 +67,21 @@ public class Broker {
         stop();
         try {
             LOGGER.info("Broker is starting");
-            metrics().start();
+            JsonObject metricsConf = config.get().get("metrics");
+            metrics().start(metricsConf);
+            JsonObject qosConf = config.get().get("qos");
+            qos().start(qosConf);
+            JsonObject invokeConf = config.get().get("invoke");
+            invokes().start(invokeConf);
+            JsonObject registryConf = config.get().get("registry");
+            registry().start(registryConf);
             JsonObject serverConf = config.get().get("server");
             server = new ServerManager(this, serverConf);
             server.start();
+            JsonObject clusterConf = config.get().get("cluster");
+            cluster().start(clusterConf);
+            JsonObject upstreamConf = config.get().get("upstream");
+            upstream().start(upstreamConf);
         } catch (Exception e) {
             stop();
         }
@@ -67,11 +91,15 @@ public class Broker {
      * Shuts down the broker.
      */
     public void stop() {
+        upstream().stop();
+        cluster().stop();
         metrics().stop();
+        qos().stop();
         if (server != null) {
             LOGGER.info("Broker is shutting down");
             server.stop();
         }
+        registry().stop();
     }
 
     public ClientManager clientManager() {
@@ -86,6 +114,26 @@ public class Broker {
         return metrics;
     }
 
+    public QosManager qos() {
+        return qos;
+    }
+
+    public InvokeRules invokes() {
+        return invokes;
+    }
+
+    public LinkRegistry registry() {
+        return registry;
+    }
+
+    public Cluster cluster() {
+        return cluster;
+    }
+
+    public Upstream upstream() {
+        return upstream;
+    }
+
     public String downstream() {
         if (downstreamName != null) {
             return downstreamName;
@@ -0,0 +1,179 @@
+package org.dsa.iot.broker.cluster;
+
+import org.dsa.iot.broker.Broker;
+import io.netty.util.CharsetUtil;
+import org.dsa.iot.dslink.handshake.LocalKeys;
+import org.dsa.iot.dslink.util.UrlBase64;
+import org.dsa.iot.dslink.util.json.JsonObject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Runs the broker as a member of a cluster. Responder links are sharded
+ * across the members by a consistent hash of their dsId, links connecting
+ * to a member that does not own them are redirected to their owner. Every
+ * member connects to all the other members and forwards the requests for
+ * the links connected to them. Members prove their membership with a token
+ * derived from the secret shared by the cluster and their dsId.
+ *
+ * @author Samuel Grenier
+ * @see org.dsa.iot.broker.config.broker.BrokerMemoryConfig
+ */
+public class Cluster {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(Cluster.class);
+    private static final String ALGORITHM = "HmacSHA256";
+
+    private final Broker broker;
+    private final List<PeerNode> peers = new ArrayList<>();
+    private final Map<String, String> urls = new LinkedHashMap<>();
+
+    private volatile HashRing ring;
+    private volatile SecretKeySpec secret;
+    private String id;
+
+    public Cluster(Broker broker) {
+        if (broker == null) {
+            throw new NullPointerException("broker");
+        }
+        this.broker = broker;
+    }
+
+    /**
+     * @param conf Cluster configuration, {@code null} disables clustering.
+     */
+    public synchronized void start(JsonObject conf) {
+        stop();
+        if (conf == null || !conf.get("enabled", false)) {
+            return;
+        }
+        id = conf.get("id");
+        if (id == null || id.isEmpty()) {
+            throw new IllegalStateException("Cluster id not configured");
+        }
+        JsonObject members = conf.get("members");
+        if (members == null || !members.contains(id)) {
+            throw new IllegalStateException("Cluster members must contain " + id);
+        }
+        String secret = conf.get("secret");
+        if (secret == null || secret.isEmpty()) {
+            throw new IllegalStateException("Cluster secret not configured");
+        }
+        byte[] key = secret.getBytes(CharsetUtil.UTF_8);
+        this.secret = new SecretKeySpec(key, ALGORITHM);
+        for (Map.Entry<String, Object> entry : members) {
+            String url = (String) entry.getValue();
+            if (url.endsWith("/")) {
+                url = url.substring(0, url.length() - 1);
+            }
+            urls.put(entry.getKey(), url);
+        }
+        int virtualNodes = conf.get("virtualNodes", 128);
+        long reconnectDelay = conf.get("reconnectDelay", 5);
+        ring = new HashRing(urls.keySet(), virtualNodes);
+
+        LocalKeys keys = LocalKeys.generate();
+        String dsId = "cluster-" + id + "-" + keys.encodedHashPublicKey();
+        String token = token(dsId);
+        for (Map.Entry<String, String> entry : urls.entrySet()) {
+            String member = entry.getKey();
+            if (member.equals(id)) {
+                continue;
+            }
+            String url = entry.getValue();
+            PeerNode peer = new PeerNode(broker, member, url, keys,
+                                            dsId, token, id, reconnectDelay);
+            peers.add(peer);
+            peer.start();
+        }
+        LOGGER.info("Joined cluster as `{}` with {} peer(s)", id, peers.size());
+    }
+
+    public synchronized void stop() {
+        for (PeerNode peer : peers) {
+            peer.stop();
+        }
+        peers.clear();
+        urls.clear();
+        ring = null;
+        secret = null;
+        id = null;
+    }
+
+    public boolean enabled() {
+        return ring != null;
+    }
+
+    /**
+     * @param dsId DsId of a responder link.
+     * @return Base URL of the member owning the link or {@code null} if
+     *         the link is owned by this member.
+     */
+    public String redirect(String dsId) {
+        HashRing ring = this.ring;
+        if (ring == null || dsId == null) {
+            return null;
+        }
+        String owner = ring.owner(dsId);
+        synchronized (this) {
+            if (owner.equals(id)) {
+                return null;
+            }
+            return urls.get(owner);
+        }
+    }
+
+    /**
+     * The token is bound to the dsId so a token seen on the wire is useless
+     * without the keys of the member it was issued to.
+     *
+     * @param dsId DsId of a connecting link.
+     * @param linkData Link data of the link, can be {@code null}.
+     * @return Whether the link is another member of the cluster.
+     */
+    public boolean isPeer(String dsId, JsonObject linkData) {
+        if (secret == null || dsId == null || linkData == null) {
+            return false;
+        }
+        String token = linkData.get("clusterToken");
+        if (token == null) {
+            return false;
+        }
+        String expected = token(dsId);
+        if (expected == null) {
+            return false;
+        }
+        byte[] a = token.getBytes(CharsetUtil.UTF_8);
+        byte[] b = expected.getBytes(CharsetUtil.UTF_8);
+        return MessageDigest.isEqual(a, b);
+    }
+
+    /**
+     * @param dsId DsId of a member.
+     * @return Token the member proves its membership with or {@code null}
+     *         if clustering is disabled.
+     */
+    String token(String dsId) {
+        SecretKeySpec secret = this.secret;
+        if (secret == null) {
+            return null;
+        }
+        try {
+            Mac mac = Mac.getInstance(ALGORITHM);
+            mac.init(secret);
+            byte[] hash = mac.doFinal(dsId.getBytes(CharsetUtil.UTF_8));
+            return UrlBase64.encode(hash);
+        } catch (GeneralSecurityException e) {
+            throw new RuntimeException(e);
+        }
+    }
+}
@@ -0,0 +1,57 @@
+package org.dsa.iot.broker.cluster;
+
+import org.dsa.iot.broker.node.Downstream;
+import org.dsa.iot.broker.node.RemoteLinkNode;
+import org.dsa.iot.broker.processor.Responder;
+import org.dsa.iot.broker.processor.stream.ListStream;
+import org.dsa.iot.broker.utils.ParsedPath;
+import org.dsa.iot.dslink.methods.StreamState;
+import org.dsa.iot.dslink.util.json.JsonArray;
+import org.dsa.iot.dslink.util.json.JsonObject;
+
+/**
+ * Lists the downstream of a peer to learn which links are connected to it.
+ * The stream is re-listed automatically when the peer reconnects.
+ *
+ * @author Samuel Grenier
+ */
+class DirectoryStream extends ListStream {
+
+    private final Downstream downstream;
+
+    public DirectoryStream(Responder responder,
+                           ParsedPath path,
+                           Downstream downstream) {
+        super(responder, path);
+        this.downstream = downstream;
+    }
+
+    @Override
+    public void dispatch(StreamState state, JsonObject response) {
+        super.dispatch(state, response);
+        JsonArray updates = response.get("updates");
+        if (updates == null) {
+            return;
+        }
+        PeerNode peer = (PeerNode) responder().node();
+        for (Object obj : updates) {
+            if (obj instanceof JsonObject) {
+                JsonObject json = (JsonObject) obj;
+                if ("remove".equals(json.get("change"))) {
+                    String name = json.get("name");
+                    downstream.removeRemote(name, peer);
+                }
+            } else if (obj instanceof JsonArray) {
+                JsonArray array = (JsonArray) obj;
+                String name = array.get(0);
+                Object value = array.get(1);
+                if (name.startsWith("$") || name.startsWith("@")
+                        || !(value instanceof JsonObject)) {
+                    continue;
+                }
+                JsonObject update = (JsonObject) value;
+                downstream.addRemote(new RemoteLinkNode(downstream, name, peer, update));
+            }
+        }
+    }
+}
@@ -0,0 +1,70 @@
+package org.dsa.iot.broker.cluster;
+
+import io.netty.util.CharsetUtil;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collection;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Consistent hash ring of the cluster members. Every member is placed on
+ * the ring multiple times so the keys are evenly distributed and adding or
+ * removing a member only moves the keys of that member.
+ *
+ * @author Samuel Grenier
+ */
+public class HashRing {
+
+    private final TreeMap<Long, String> ring = new TreeMap<>();
+
+    /**
+     * @param members IDs of the members on the ring.
+     * @param virtualNodes Amount of times each member is placed on the ring.
+     */
+    public HashRing(Collection<String> members, int virtualNodes) {
+        if (members == null) {
+            throw new NullPointerException("members");
+        } else if (members.isEmpty()) {
+            throw new IllegalArgumentException("members");
+        } else if (virtualNodes < 1) {
+            throw new IllegalArgumentException("virtualNodes");
+        }
+        for (String member : members) {
+            for (int i = 0; i < virtualNodes; ++i) {
+                ring.put(hash(member + "#" + i), member);
+            }
+        }
+    }
+
+    /**
+     * @param key Key to look up, typically a dsId.
+     * @return ID of the member owning the key.
+     */
+    public String owner(String key) {
+        if (key == null) {
+            throw new NullPointerException("key");
+        }
+        Map.Entry<Long, String> entry = ring.ceilingEntry(hash(key));
+        if (entry == null) {
+            entry = ring.firstEntry();
+        }
+        return entry.getValue();
+    }
+
+    static long hash(String key) {
+        MessageDigest md;
+        try {
+            md = MessageDigest.getInstance("MD5");
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+        byte[] digest = md.digest(key.getBytes(CharsetUtil.UTF_8));
+        long hash = 0;
+        for (int i = 0; i < 8; ++i) {
+            hash = (hash << 8) | (digest[i] & 0xFF);
+        }
+        return hash;
+    }
+}
@@ -0,0 +1,94 @@
+package org.dsa.iot.broker.cluster;
+
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelPipeline;
+import io.netty.channel.SimpleChannelInboundHandler;
+import io.netty.handler.codec.http.FullHttpResponse;
+import io.netty.handler.codec.http.websocketx.WebSocketClientHandshaker;
+import io.netty.handler.codec.http.websocketx.WebSocketFrameAggregator;
+import org.dsa.iot.broker.Broker;
+import org.dsa.iot.broker.server.DsaHandshake;
+import org.dsa.iot.broker.server.client.Client;
+import org.dsa.iot.shared.SharedObjects;
+
+/**
+ * Outgoing connection to another broker of the cluster. This broker is the
+ * requester of the connection, the peer responds on behalf of its links.
+ *
+ * @author Samuel Grenier
+ */
+class PeerClient extends Client {
+
+    private final PeerNode peer;
+
+    public PeerClient(Broker broker, DsaHandshake handshake, PeerNode peer) {
+        super(broker, handshake);
+        this.peer = peer;
+        node(peer);
+    }
+
+    @Override
+    protected void connected() {
+        peer.connected(this);
+    }
+
+    @Override
+    protected void disconnected() {
+        peer.disconnected(this);
+    }
+
+    @Override
+    protected void pingReceived(ChannelHandlerContext ctx) {
+        // The peer pings on connect, responding would ping it back forever
+    }
+
+    /**
+     * Completes the WebSocket handshake with the peer and hands the
+     * connection over to the client.
+     */
+    static class Upgrader extends SimpleChannelInboundHandler<FullHttpResponse> {
+
+        private final WebSocketClientHandshaker handshaker;
+        private final PeerClient client;
+        private boolean upgraded;
+
+        public Upgrader(WebSocketClientHandshaker handshaker, PeerClient client) {
+            this.handshaker = handshaker;
+            this.client = client;
+        }
+
+        @Override
+        public void channelActive(ChannelHandlerContext ctx) throws Exception {
+            super.channelActive(ctx);
+            handshaker.handshake(ctx.channel());
+        }
+
+        @Override
+        public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+            super.channelInactive(ctx);
+            if (!upgraded) {
+                client.peer.reconnect();
+            }
+        }
+
+        @Override
+        protected void channelRead0(ChannelHandlerContext ctx,
+                                    FullHttpResponse resp) {
+            handshaker.finishHandshake(ctx.channel(), resp);
+            upgraded = true;
+            int max = SharedObjects.MAX_MESSAGE_SIZE;
+            ChannelPipeline p = ctx.pipeline();
+            p.addLast(new WebSocketFrameAggregator(max));
+            p.addLast(client);
+            // The client must write from its own position in the pipeline
+            ChannelHandlerContext clientCtx = p.context(client);
+            p.remove(this);
+            client.channelActive(clientCtx);
+        }
+
+        @Override
+        public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) {
+            ctx.close();
+        }
+    }
+}
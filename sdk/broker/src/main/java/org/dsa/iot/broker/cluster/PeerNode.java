@@ -0,0 +1,297 @@
+package org.dsa.iot.broker.cluster;
+
+import io.netty.bootstrap.Bootstrap;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.ChannelPipeline;
+import io.netty.channel.socket.SocketChannel;
+import io.netty.handler.codec.http.DefaultHttpHeaders;
+import io.netty.handler.codec.http.HttpClientCodec;
+import io.netty.handler.codec.http.HttpObjectAggregator;
+import io.netty.handler.codec.http.HttpResponseStatus;
+import io.netty.handler.codec.http.websocketx.WebSocketClientHandshaker;
+import io.netty.handler.codec.http.websocketx.WebSocketClientHandshakerFactory;
+import io.netty.handler.codec.http.websocketx.WebSocketVersion;
+import io.netty.handler.ssl.SslContext;
+import io.netty.handler.ssl.SslContextBuilder;
+import io.netty.handler.ssl.util.InsecureTrustManagerFactory;
+import io.netty.util.CharsetUtil;
+import org.bouncycastle.jcajce.provider.digest.SHA256;
+import org.dsa.iot.broker.Broker;
+import org.dsa.iot.broker.node.DSLinkNode;
+import org.dsa.iot.broker.node.Downstream;
+import org.dsa.iot.broker.processor.Responder;
+import org.dsa.iot.broker.processor.stream.GenericStream;
+import org.dsa.iot.broker.processor.stream.Stream;
+import org.dsa.iot.broker.processor.stream.SubStream;
+import org.dsa.iot.broker.server.DsaHandshake;
+import org.dsa.iot.broker.server.client.Client;
+import org.dsa.iot.broker.utils.ParsedPath;
+import org.dsa.iot.broker.utils.RequestGenerator;
+import org.dsa.iot.dslink.handshake.LocalKeys;
+import org.dsa.iot.dslink.handshake.RemoteKey;
+import org.dsa.iot.dslink.util.Objects;
+import org.dsa.iot.dslink.util.URLInfo;
+import org.dsa.iot.dslink.util.UrlBase64;
+import org.dsa.iot.dslink.util.http.HttpClient;
+import org.dsa.iot.dslink.util.http.HttpResp;
+import org.dsa.iot.dslink.util.json.JsonObject;
+import org.dsa.iot.shared.SharedObjects;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.net.URI;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Another broker of the cluster. This broker connects to the peer as a
+ * requester and forwards the requests to the links connected to it using
+ * absolute paths. The peer is never listed in the downstream of this
+ * broker, its links are listed instead.
+ *
+ * @author Samuel Grenier
+ */
+public class PeerNode extends DSLinkNode {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(PeerNode.class);
+
+    private final Broker broker;
+    private final String member;
+    private final URLInfo url;
+    private final LocalKeys keys;
+    private final String dsId;
+    private final String token;
+    private final String clusterId;
+    private final long reconnectDelay;
+
+    private boolean running;
+    private ScheduledFuture<?> reconnect;
+    private PeerClient client;
+    private DirectoryStream directory;
+
+    /**
+     * @param broker Broker of this member.
+     * @param member ID of the peer.
+     * @param url Base URL of the peer.
+     * @param keys Keys of this member.
+     * @param dsId DsId this member connects to the peer with.
+     * @param token Token proving the membership of this member.
+     * @param clusterId ID of this member.
+     * @param reconnectDelay Delay in seconds before reconnecting.
+     */
+    public PeerNode(Broker broker,
+                    String member,
+                    String url,
+                    LocalKeys keys,
+                    String dsId,
+                    String token,
+                    String clusterId,
+                    long reconnectDelay) {
+        super(broker.tree().downstream(), "cluster-" + member);
+        this.broker = broker;
+        this.member = member;
+        this.url = URLInfo.parse(url);
+        this.keys = keys;
+        this.dsId = dsId;
+        this.token = token;
+        this.clusterId = clusterId;
+        this.reconnectDelay = reconnectDelay;
+    }
+
+    public String member() {
+        return member;
+    }
+
+    public synchronized void start() {
+        running = true;
+        scheduleConnect(0);
+    }
+
+    public void stop() {
+        PeerClient client;
+        synchronized (this) {
+            running = false;
+            if (reconnect != null) {
+                reconnect.cancel(false);
+                reconnect = null;
+            }
+            client = this.client;
+            this.client = null;
+        }
+        if (client != null) {
+            client.close();
+        }
+    }
+
+    @Override
+    public void connected(Client client) {
+        super.connected(client);
+        LOGGER.info("Connected to cluster member `{}`", member);
+        if (directory == null) {
+            Responder responder = processor().responder();
+            Downstream downstream = broker.tree().downstream();
+            String path = "/" + broker.downstream();
+            ParsedPath pp = ParsedPath.parse(broker.downstream(), path);
+            directory = new DirectoryStream(responder, pp, downstream);
+
+            int rid = responder.nextRid();
+            responder.stream().list().move(directory, rid);
+            client.writeRequest(RequestGenerator.list(pp, rid));
+        }
+    }
+
+    @Override
+    public void disconnected(Client client) {
+        if (client != client()) {
+            return;
+        }
+        super.disconnected(client);
+        broker.tree().downstream().removeRemotes(this);
+        LOGGER.warn("Disconnected from cluster member `{}`", member);
+        reconnect();
+    }
+
+    /**
+     * Peers are never listed, the links connected to them are.
+     */
+    @Override
+    public void accessible(boolean accessible) {
+    }
+
+    @Override
+    public SubStream subscribe(ParsedPath path, Client requester, int sid) {
+        Responder responder = processor().responder();
+        return responder.stream().sub().subscribe(path.absolute(), requester, sid);
+    }
+
+    @Override
+    public Stream invoke(ParsedPath path,
+                         Client requester,
+                         int rid,
+                         JsonObject params,
+                         String permit) {
+        return super.invoke(path.absolute(), requester, rid, params, permit);
+    }
+
+    @Override
+    public GenericStream set(ParsedPath path,
+                             Client requester,
+                             int rid,
+                             Object value,
+                             String permit) {
+        return super.set(path.absolute(), requester, rid, value, permit);
+    }
+
+    @Override
+    public GenericStream remove(ParsedPath path,
+                                Client requester,
+                                int rid,
+                                String permit) {
+        return super.remove(path.absolute(), requester, rid, permit);
+    }
+
+    @Override
+    public JsonObject list(ParsedPath path, Client requester, int rid) {
+        Responder responder = processor().responder();
+        responder.stream().list().add(path.absolute(), requester, rid);
+        return null;
+    }
+
+    synchronized void reconnect() {
+        scheduleConnect(reconnectDelay);
+    }
+
+    private synchronized void scheduleConnect(long delay) {
+        if (!running) {
+            return;
+        }
+        if (reconnect != null) {
+            reconnect.cancel(false);
+        }
+        reconnect = Objects.getDaemonThreadPool().schedule(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    connect();
+                } catch (Exception e) {
+                    String err = "Failed to connect to cluster member `{}`: {}";
+                    LOGGER.warn(err, member, e.getMessage());
+                    reconnect();
+                }
+            }
+        }, delay, TimeUnit.SECONDS);
+    }
+
+    private void connect() throws Exception {
+        JsonObject handshake = new JsonObject();
+        handshake.put("publicKey", keys.encodedPublicKey());
+        handshake.put("isRequester", true);
+        handshake.put("isResponder", false);
+        {
+            JsonObject linkData = new JsonObject();
+            linkData.put("cluster", clusterId);
+            linkData.put("clusterToken", token);
+            handshake.put("linkData", linkData);
+        }
+
+        HttpClient http = new HttpClient(url);
+        HttpResp resp = http.post("/conn?dsId=" + dsId, handshake.encode());
+        if (resp.getStatus().code() != HttpResponseStatus.OK.code()) {
+            throw new IllegalStateException("Bad status: " + resp.getStatus());
+        }
+        JsonObject json = new JsonObject(resp.getBody());
+        String auth = auth(json.<String>get("salt"), json.<String>get("tempKey"));
+
+        String scheme = url.secure ? "wss" : "ws";
+        String wsUri = json.get("wsUri");
+        URI uri = new URI(scheme + "://" + url.host + ":" + url.port
+                + wsUri + "?dsId=" + dsId + "&auth=" + auth);
+        WebSocketClientHandshaker handshaker = WebSocketClientHandshakerFactory
+                .newHandshaker(uri, WebSocketVersion.V13, null, true,
+                        new DefaultHttpHeaders(), SharedObjects.MAX_MESSAGE_SIZE);
+
+        // The peer responds to this broker, described by its own handshake
+        JsonObject local = new JsonObject();
+        local.put("isRequester", false);
+        local.put("isResponder", true);
+        DsaHandshake dh = new DsaHandshake(local, dsId, keys);
+        PeerClient client = new PeerClient(broker, dh, this);
+        final PeerClient.Upgrader upgrader = new PeerClient.Upgrader(handshaker, client);
+        synchronized (this) {
+            if (!running) {
+                return;
+            }
+            this.client = client;
+        }
+
+        Bootstrap b = new Bootstrap();
+        b.group(SharedObjects.getLoop());
+        b.channel(SharedObjects.getTransport().getChannel());
+        b.handler(new ChannelInitializer<SocketChannel>() {
+            @Override
+            protected void initChannel(SocketChannel ch) throws Exception {
+                ChannelPipeline p = ch.pipeline();
+                if (url.secure) {
+                    SslContextBuilder scb = SslContextBuilder.forClient();
+                    scb.trustManager(InsecureTrustManagerFactory.INSTANCE);
+                    SslContext ssl = scb.build();
+                    p.addLast(ssl.newHandler(ch.alloc()));
+                }
+                p.addLast(new HttpClientCodec());
+                p.addLast(new HttpObjectAggregator(8192));
+                p.addLast(upgrader);
+            }
+        });
+        b.connect(url.host, url.port).sync();
+    }
+
+    private String auth(String salt, String tempKey) {
+        byte[] s = salt.getBytes(CharsetUtil.UTF_8);
+        byte[] ss = RemoteKey.generate(keys, tempKey).getSharedSecret();
+        byte[] bytes = new byte[s.length + ss.length];
+        System.arraycopy(s, 0, bytes, 0, s.length);
+        System.arraycopy(ss, 0, bytes, s.length, ss.length);
+        SHA256.Digest sha = new SHA256.Digest();
+        return UrlBase64.encode(sha.digest(bytes));
+    }
+}
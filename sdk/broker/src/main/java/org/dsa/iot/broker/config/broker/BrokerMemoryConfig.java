@@ -1,5 +1,6 @@
 package org.dsa.iot.broker.config.broker;
 
+import org.dsa.iot.dslink.util.json.JsonArray;
 import org.dsa.iot.dslink.util.json.JsonObject;
 
 /**
@@ -25,6 +26,12 @@ public class BrokerMemoryConfig extends BrokerConfig {
     protected void addDefaultOpts() {
         addServerOpts();
         addBrokerOpts();
+        addMetricsOpts();
+        addQosOpts();
+        addInvokeOpts();
+        addRegistryOpts();
+        addClusterOpts();
+        addUpstreamOpts();
     }
 
     protected void addServerOpts() {
@@ -46,6 +53,37 @@ public class BrokerMemoryConfig extends BrokerConfig {
             https.put("certKeyPass", null);
             server.put("https", https);
         }
+        {
+            JsonObject transport = new JsonObject();
+            transport.put("type", "nio");
+            transport.put("bossThreads", 1);
+            transport.put("workerThreads", 0);
+            transport.put("reusePort", false);
+            server.put("transport", transport);
+        }
+        {
+            JsonObject handshake = new JsonObject();
+            handshake.put("keyPoolSize", 128);
+            handshake.put("keyRefillRate", 100);
+            handshake.put("workerThreads", 0);
+            handshake.put("queueSize", 1024);
+            server.put("handshake", handshake);
+        }
+        {
+            JsonObject websocket = new JsonObject();
+            websocket.put("maxFrameSize", 65536);
+            websocket.put("maxMessageSize", 67108864);
+            server.put("websocket", websocket);
+        }
+        {
+            JsonObject compression = new JsonObject();
+            compression.put("enabled", true);
+            compression.put("level", 6);
+            compression.put("threshold", 256);
+            compression.put("contextTakeover", true);
+            compression.put("disabledLinks", new JsonArray());
+            server.put("compression", compression);
+        }
         opts.put("server", server);
     }
 
@@ -54,4 +92,67 @@ public class BrokerMemoryConfig extends BrokerConfig {
         broker.put("downstreamName", "downstream");
         opts.put("broker", broker);
     }
+
+    protected void addMetricsOpts() {
+        JsonObject metrics = new JsonObject();
+        metrics.put("interval", 1);
+        metrics.put("dumpFile", null);
+        metrics.put("dumpInterval", 60);
+        metrics.put("jmx", false);
+        opts.put("metrics", metrics);
+    }
+
+    protected void addQosOpts() {
+        JsonObject qos = new JsonObject();
+        qos.put("enabled", true);
+        qos.put("gracePeriod", 300);
+        qos.put("maxQueueSize", 1000);
+        qos.put("logFile", null);
+        opts.put("qos", qos);
+    }
+
+    protected void addInvokeOpts() {
+        JsonObject invoke = new JsonObject();
+        // Shares identical invocations of matching actions
+        invoke.put("multiplex", false);
+        invoke.put("paths", new JsonArray());
+        invoke.put("readActions", false);
+        invoke.put("maxRows", 1000);
+        opts.put("invoke", invoke);
+    }
+
+    protected void addRegistryOpts() {
+        JsonObject registry = new JsonObject();
+        registry.put("enabled", false);
+        registry.put("file", "links.db");
+        // Interval in seconds the registry is saved at when it changed
+        registry.put("saveInterval", 5);
+        opts.put("registry", registry);
+    }
+
+    protected void addClusterOpts() {
+        JsonObject cluster = new JsonObject();
+        cluster.put("enabled", false);
+        cluster.put("id", null);
+        // Secret shared by every member, peers without it are plain links
+        cluster.put("secret", null);
+        // Member ID mapped to the base URL of the member, including this one
+        cluster.put("members", new JsonObject());
+        cluster.put("virtualNodes", 128);
+        cluster.put("reconnectDelay", 5);
+        opts.put("cluster", cluster);
+    }
+
+    protected void addUpstreamOpts() {
+        JsonObject upstream = new JsonObject();
+        upstream.put("enabled", false);
+        // Connection URL of the upstream broker, ex: http://host:8080/conn
+        upstream.put("url", null);
+        upstream.put("name", "broker");
+        upstream.put("token", null);
+        upstream.put("keyFile", ".upstream.key");
+        // Value updates are coalesced over this interval in milliseconds
+        upstream.put("coalesceInterval", 100);
+        opts.put("upstream", upstream);
+    }
 }
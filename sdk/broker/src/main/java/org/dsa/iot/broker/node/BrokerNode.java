@@ -1,6 +1,7 @@
 package org.dsa.iot.broker.node;
 
 import org.dsa.iot.broker.processor.stream.GenericStream;
+import org.dsa.iot.broker.processor.stream.Stream;
 import org.dsa.iot.broker.processor.stream.SubStream;
 import org.dsa.iot.broker.server.client.Client;
 import org.dsa.iot.broker.utils.ParsedPath;
@@ -12,6 +13,8 @@ import org.dsa.iot.dslink.util.json.JsonArray;
 import org.dsa.iot.dslink.util.json.JsonObject;
 
 import java.lang.ref.WeakReference;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 
@@ -132,10 +135,28 @@ public class BrokerNode<T extends BrokerNode> {
         }
     }
 
+    /**
+     * Removes a child, the requesters listing the node are notified.
+     *
+     * @param name Name of the child.
+     * @return The removed child or {@code null}.
+     */
+    public T removeChild(String name) {
+        T child = children.remove(name);
+        if (child != null && child.accessible()) {
+            childUpdate(child, true);
+        }
+        return child;
+    }
+
     public T getChild(String name) {
         return children.get(name);
     }
 
+    public Collection<T> getChildren() {
+        return Collections.unmodifiableCollection(children.values());
+    }
+
     public SubStream subscribe(ParsedPath path, Client requester, int sid) {
         if (subStream == null) {
             initializeValueSubs();
@@ -163,11 +184,11 @@ public class BrokerNode<T extends BrokerNode> {
         throw new UnsupportedOperationException();
     }
 
-    public GenericStream invoke(ParsedPath path,
-                                Client requester,
-                                int rid,
-                                JsonObject params,
-                                String permit) {
+    public Stream invoke(ParsedPath path,
+                         Client requester,
+                         int rid,
+                         JsonObject params,
+                         String permit) {
         throw new UnsupportedOperationException();
     }
 
@@ -248,11 +269,23 @@ public class BrokerNode<T extends BrokerNode> {
         JsonArray resps = new JsonArray();
         resps.add(resp);
         for (Map.Entry<Client, Integer> sub : pathSubs.entrySet()) {
+            if (!listable(sub.getKey(), node)) {
+                continue;
+            }
             resp.put("rid", sub.getValue());
             sub.getKey().writeResponse(resps);
         }
     }
 
+    /**
+     * @param requester Requester listing this node.
+     * @param child Child of this node.
+     * @return Whether the child is visible to the requester.
+     */
+    protected boolean listable(Client requester, BrokerNode child) {
+        return true;
+    }
+
     protected JsonArray generateValueUpdate() {
         JsonArray update = new JsonArray();
         update.add(null); // sid goes here
@@ -24,12 +24,18 @@ public class BrokerTree {
         return root;
     }
 
+    public Downstream downstream() {
+        return downstream;
+    }
+
     public BrokerNode getNode(ParsedPath path) {
         BrokerNode<?> node = getRoot();
         {
-            String[] split = path.split();
-            for (String name : split) {
-                BrokerNode tmp = node.getChild(name);
+            for (int i = 0; i < path.length(); ++i) {
+                BrokerNode tmp = node.getChild(path.segment(i));
+                if (tmp == null && node == downstream) {
+                    tmp = downstream.getRemote(path.segment(i));
+                }
                 if (tmp == null) {
                     if (!path.isRemote()) {
                         node = null;
@@ -50,11 +56,13 @@ public class BrokerTree {
         root.connected(client);
         root.propagateConnected(client);
         client.node(downstream.getChild(client.handshake().name()));
+        client.broker().metrics().clientConnected(client);
     }
 
     public void disconnected(Client client) {
         root.disconnected(client);
         root.propagateDisconnected(client);
+        client.broker().metrics().clientDisconnected(client);
         client.node(null);
     }
 }
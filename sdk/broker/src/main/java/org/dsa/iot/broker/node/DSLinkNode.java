@@ -1,8 +1,10 @@
 package org.dsa.iot.broker.node;
 
+import org.dsa.iot.broker.processor.InvokeRules;
 import org.dsa.iot.broker.processor.MessageProcessor;
 import org.dsa.iot.broker.processor.Responder;
 import org.dsa.iot.broker.processor.stream.GenericStream;
+import org.dsa.iot.broker.processor.stream.Stream;
 import org.dsa.iot.broker.processor.stream.SubStream;
 import org.dsa.iot.broker.processor.stream.manager.StreamManager;
 import org.dsa.iot.broker.server.client.Client;
@@ -13,6 +15,11 @@ import org.dsa.iot.dslink.util.json.JsonObject;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
 /**
  * @author Samuel Grenier
  */
@@ -29,6 +36,9 @@ public class DSLinkNode extends BrokerNode {
     private String disconnected;
     private JsonObject linkData;
 
+    // Last known list updates of the responder mapped by path
+    private final ConcurrentMap<String, JsonArray> lists = new ConcurrentHashMap<>();
+
     public DSLinkNode(Downstream parent, String name) {
         this(parent, name, new MessageProcessor());
     }
@@ -59,6 +69,7 @@ public class DSLinkNode extends BrokerNode {
             accessible(true);
         } else {
             this.linkData = null;
+            lists.clear();
             accessible(false);
         }
     }
@@ -74,6 +85,82 @@ public class DSLinkNode extends BrokerNode {
         LOGGER.info("Client `{}` has disconnected", client.handshake().dsId());
     }
 
+    /**
+     * Reserves the node for the link performing the handshake until it
+     * connects.
+     *
+     * @param dsId dsId of the link.
+     */
+    void reserve(String dsId) {
+        this.dsId = dsId;
+    }
+
+    /**
+     * Restores the state of a link persisted by a previous run of the
+     * broker. The link is considered disconnected until it reconnects with
+     * the same dsId.
+     *
+     * @param dsId Reserved dsId of the link.
+     * @param responder Whether the link was a responder.
+     * @param linkData Link data of the link, can be {@code null}.
+     * @param disconnected Time the link was last known to be connected.
+     * @param lists Last known list updates mapped by path.
+     */
+    public void restore(String dsId,
+                        boolean responder,
+                        JsonObject linkData,
+                        String disconnected,
+                        Map<String, JsonArray> lists) {
+        if (dsId == null) {
+            throw new NullPointerException("dsId");
+        } else if (client != null) {
+            throw new IllegalStateException("Link is connected");
+        }
+        this.dsId = dsId;
+        this.disconnected = disconnected;
+        if (responder) {
+            this.linkData = linkData;
+            if (lists != null) {
+                this.lists.putAll(lists);
+            }
+            processor.restore(this);
+            accessible(true);
+        }
+    }
+
+    /**
+     * @param path Path of the list.
+     * @return The last known list updates of the path or {@code null}.
+     */
+    public JsonArray lastList(String path) {
+        return lists.get(path);
+    }
+
+    /**
+     * @param path Path of the list.
+     * @param updates Last known list updates of the path.
+     */
+    public void lastList(String path, JsonArray updates) {
+        if (updates == null) {
+            lists.remove(path);
+        } else {
+            lists.put(path, updates);
+        }
+    }
+
+    /**
+     * @return The list updates of every path with a known list state,
+     *         preferring the live state over the last known state.
+     */
+    public Map<String, JsonArray> lastLists() {
+        Map<String, JsonArray> lists = new HashMap<>(this.lists);
+        Responder responder = processor.responder();
+        if (responder != null && client != null) {
+            lists.putAll(responder.stream().list().caches());
+        }
+        return lists;
+    }
+
     public String dsId() {
         return dsId;
     }
@@ -112,13 +199,19 @@ public class DSLinkNode extends BrokerNode {
     }
 
     @Override
-    public GenericStream invoke(ParsedPath path,
-                                Client requester,
-                                int rid,
-                                JsonObject params,
-                                String permit) {
+    public Stream invoke(ParsedPath path,
+                         Client requester,
+                         int rid,
+                         JsonObject params,
+                         String permit) {
         Responder responder = processor().responder();
-        GenericStream stream = new GenericStream(responder, path);
+        if (permit == null) {
+            Stream shared = invokeShared(responder, path, requester, rid, params);
+            if (shared != null) {
+                return shared;
+            }
+        }
+        GenericStream stream = new GenericStream(responder, path, "invoke");
         stream.add(requester, rid);
         int responderRid = responder.nextRid();
         responder.stream().addIfNull(responderRid, stream);
@@ -140,6 +233,30 @@ public class DSLinkNode extends BrokerNode {
         return stream;
     }
 
+    /**
+     * Multiplexes the invocation onto the stream of an identical
+     * invocation when the action is shareable.
+     *
+     * @return The shared stream or {@code null} if the invocation needs a
+     *         dedicated stream.
+     */
+    private Stream invokeShared(Responder responder,
+                                ParsedPath path,
+                                Client requester,
+                                int rid,
+                                JsonObject params) {
+        InvokeRules rules = requester.broker().invokes();
+        StreamManager sm = responder.stream();
+        JsonArray metadata = sm.list().cached(path);
+        if (metadata == null) {
+            metadata = lastList(path.base());
+        }
+        if (!rules.shareable(path, metadata)) {
+            return null;
+        }
+        return sm.invoke().join(path, params, requester, rid, rules.maxRows());
+    }
+
     @Override
     public GenericStream set(ParsedPath path,
                     Client requester,
@@ -147,7 +264,7 @@ public class DSLinkNode extends BrokerNode {
                     Object value,
                     String permit) {
         Responder responder = processor().responder();
-        GenericStream stream = new GenericStream(responder, path);
+        GenericStream stream = new GenericStream(responder, path, "set");
         stream.add(requester, rid);
         int responderRid = responder.nextRid();
         responder.stream().addIfNull(responderRid, stream);
@@ -173,7 +290,7 @@ public class DSLinkNode extends BrokerNode {
                              int rid,
                              String permit) {
         Responder responder = processor().responder();
-        GenericStream stream = new GenericStream(responder, path);
+        GenericStream stream = new GenericStream(responder, path, "remove");
         stream.add(requester, rid);
         int responderRid = responder.nextRid();
         responder.stream().addIfNull(responderRid, stream);
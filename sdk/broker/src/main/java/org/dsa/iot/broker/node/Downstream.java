@@ -1,8 +1,13 @@
 package org.dsa.iot.broker.node;
 
 import org.dsa.iot.broker.server.client.Client;
+import org.dsa.iot.broker.utils.ParsedPath;
+import org.dsa.iot.dslink.util.json.JsonArray;
+import org.dsa.iot.dslink.util.json.JsonObject;
 
 import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 /**
  * @author Samuel Grenier
@@ -12,6 +17,9 @@ public class Downstream extends BrokerNode<DSLinkNode> {
     private static final Random RANDOM = new Random();
     private static final String ALPHABET;
 
+    // Links connected to other brokers of the cluster
+    private final ConcurrentMap<String, RemoteLinkNode> remotes = new ConcurrentHashMap<>();
+
     public Downstream(BrokerNode parent, String name) {
         super(parent, name, "node");
     }
@@ -19,7 +27,7 @@ public class Downstream extends BrokerNode<DSLinkNode> {
     public String init(String name, String dsId) {
         synchronized (this) {
             DSLinkNode node = getChild(name);
-            if (node != null && node.dsId().equals(dsId)) {
+            if (node != null && dsId != null && dsId.equals(node.dsId())) {
                 if (node.client() != null) {
                     return null;
                 }
@@ -37,12 +45,32 @@ public class Downstream extends BrokerNode<DSLinkNode> {
             }
 
             node = new DSLinkNode(this, name);
+            node.reserve(dsId);
             node.accessible(false);
             addChild(node);
         }
         return name;
     }
 
+    /**
+     * Reserves the name of a link persisted by a previous run of the
+     * broker.
+     *
+     * @param name Name of the link.
+     * @return The node of the link or {@code null} if the name is taken.
+     */
+    public DSLinkNode restore(String name) {
+        synchronized (this) {
+            if (hasChild(name)) {
+                return null;
+            }
+            DSLinkNode node = new DSLinkNode(this, name);
+            node.accessible(false);
+            addChild(node);
+            return node;
+        }
+    }
+
     @Override
     public void connected(Client client) {
         super.connected(client);
@@ -54,6 +82,67 @@ public class Downstream extends BrokerNode<DSLinkNode> {
     public void propagateConnected(Client client) {
     }
 
+    public RemoteLinkNode getRemote(String name) {
+        return remotes.get(name);
+    }
+
+    /**
+     * Adds a link connected to another broker of the cluster. Local links
+     * always take precedence over remote links of the same name.
+     *
+     * @param node Remote link to add.
+     */
+    public void addRemote(RemoteLinkNode node) {
+        if (hasChild(node.name())) {
+            return;
+        }
+        remotes.put(node.name(), node);
+        childUpdate(node, false);
+    }
+
+    /**
+     * @param name Name of the remote link.
+     * @param peer Broker the link was connected to.
+     */
+    public void removeRemote(String name, DSLinkNode peer) {
+        RemoteLinkNode node = remotes.get(name);
+        if (node != null && node.peer() == peer && remotes.remove(name, node)) {
+            childUpdate(node, true);
+        }
+    }
+
+    /**
+     * @param peer Broker whose links are no longer reachable.
+     */
+    public void removeRemotes(DSLinkNode peer) {
+        for (RemoteLinkNode node : remotes.values()) {
+            removeRemote(node.name(), peer);
+        }
+    }
+
+    @Override
+    public JsonObject list(ParsedPath path, Client requester, int rid) {
+        JsonObject resp = super.list(path, requester, rid);
+        if (remotes.isEmpty() || requester.handshake().isClusterPeer()) {
+            return resp;
+        }
+        JsonArray updates = resp.get("updates");
+        for (RemoteLinkNode node : remotes.values()) {
+            JsonArray update = new JsonArray();
+            update.add(node.name());
+            update.add(node.getChildUpdate());
+            updates.add(update);
+        }
+        return resp;
+    }
+
+    @Override
+    protected boolean listable(Client requester, BrokerNode child) {
+        // Peers only learn about the links connected to this broker
+        return !(child instanceof RemoteLinkNode
+                && requester.handshake().isClusterPeer());
+    }
+
     private static char randomChar() {
         return ALPHABET.charAt(RANDOM.nextInt(ALPHABET.length()));
     }
@@ -0,0 +1,91 @@
+package org.dsa.iot.broker.node;
+
+import org.dsa.iot.broker.processor.stream.GenericStream;
+import org.dsa.iot.broker.processor.stream.Stream;
+import org.dsa.iot.broker.processor.stream.SubStream;
+import org.dsa.iot.broker.server.client.Client;
+import org.dsa.iot.broker.utils.ParsedPath;
+import org.dsa.iot.dslink.util.json.JsonObject;
+
+/**
+ * A link connected to another broker of the cluster. Every request is
+ * forwarded to the broker the link is connected to.
+ *
+ * @author Samuel Grenier
+ */
+public class RemoteLinkNode extends BrokerNode {
+
+    private final DSLinkNode peer;
+    private final JsonObject update;
+
+    /**
+     * @param parent Downstream node of this broker.
+     * @param name Name of the link.
+     * @param peer Broker the link is connected to.
+     * @param update List update of the link as received from the peer.
+     */
+    public RemoteLinkNode(Downstream parent,
+                          String name,
+                          DSLinkNode peer,
+                          JsonObject update) {
+        super(parent, name, DSLinkNode.PROFILE);
+        if (peer == null) {
+            throw new NullPointerException("peer");
+        }
+        this.peer = peer;
+        this.update = update;
+    }
+
+    public DSLinkNode peer() {
+        return peer;
+    }
+
+    @Override
+    public SubStream subscribe(ParsedPath path, Client requester, int sid) {
+        return peer.subscribe(path, requester, sid);
+    }
+
+    @Override
+    public void unsubscribe(SubStream stream, Client requester) {
+        peer.unsubscribe(stream, requester);
+    }
+
+    @Override
+    public Stream invoke(ParsedPath path,
+                         Client requester,
+                         int rid,
+                         JsonObject params,
+                         String permit) {
+        return peer.invoke(path, requester, rid, params, permit);
+    }
+
+    @Override
+    public GenericStream set(ParsedPath path,
+                             Client requester,
+                             int rid,
+                             Object value,
+                             String permit) {
+        return peer.set(path, requester, rid, value, permit);
+    }
+
+    @Override
+    public GenericStream remove(ParsedPath path,
+                                Client requester,
+                                int rid,
+                                String permit) {
+        return peer.remove(path, requester, rid, permit);
+    }
+
+    @Override
+    public JsonObject list(ParsedPath path, Client requester, int rid) {
+        return peer.list(path, requester, rid);
+    }
+
+    @Override
+    protected JsonObject getChildUpdate() {
+        if (update == null) {
+            return super.getChildUpdate();
+        }
+        return update;
+    }
+}
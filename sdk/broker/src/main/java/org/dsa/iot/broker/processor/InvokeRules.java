@@ -0,0 +1,118 @@
+package org.dsa.iot.broker.processor;
+
+import org.dsa.iot.broker.utils.ParsedPath;
+import org.dsa.iot.dslink.util.json.JsonArray;
+import org.dsa.iot.dslink.util.json.JsonObject;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.regex.Pattern;
+
+/**
+ * Decides which invocations can be multiplexed onto a single responder
+ * stream. An action is shared when its path matches one of the configured
+ * patterns or, when enabled, when its responder advertises it as a read
+ * only action returning a table or a stream. Patterns match the full path
+ * of the action, {@code *} matches any sequence of characters.
+ *
+ * @author Samuel Grenier
+ * @see org.dsa.iot.broker.processor.stream.InvokeStream
+ */
+public class InvokeRules {
+
+    private volatile boolean enabled;
+    private volatile boolean readActions;
+    private volatile int maxRows = 1000;
+    private volatile List<Pattern> paths = Collections.emptyList();
+
+    /**
+     * @param conf Invoke configuration, {@code null} disables multiplexing.
+     */
+    public void start(JsonObject conf) {
+        if (conf == null) {
+            enabled = false;
+            return;
+        }
+        int maxRows = conf.get("maxRows", 1000);
+        if (maxRows < 0) {
+            throw new IllegalStateException("Bad max rows: " + maxRows);
+        }
+        List<Pattern> paths = new ArrayList<>();
+        JsonArray array = conf.get("paths");
+        if (array != null) {
+            for (Object path : array) {
+                paths.add(compile((String) path));
+            }
+        }
+        this.paths = paths;
+        this.maxRows = maxRows;
+        this.readActions = conf.get("readActions", false);
+        this.enabled = conf.get("multiplex", false);
+    }
+
+    /**
+     * @return Maximum amount of rows cached for the replay of a shared
+     *         stream. Streams exceeding it stop accepting new requesters.
+     */
+    public int maxRows() {
+        return maxRows;
+    }
+
+    /**
+     * @param path Path of the action.
+     * @param metadata Last known list updates of the action, can be
+     *                 {@code null}.
+     * @return Whether the invocations of the action can be shared.
+     */
+    public boolean shareable(ParsedPath path, JsonArray metadata) {
+        if (!enabled) {
+            return false;
+        }
+        String full = path.full();
+        for (Pattern pattern : paths) {
+            if (pattern.matcher(full).matches()) {
+                return true;
+            }
+        }
+        if (!readActions || metadata == null) {
+            return false;
+        }
+        Object invokable = null;
+        Object result = null;
+        for (Object obj : metadata) {
+            if (!(obj instanceof JsonArray)) {
+                continue;
+            }
+            JsonArray update = (JsonArray) obj;
+            if (update.size() < 2) {
+                continue;
+            }
+            Object name = update.get(0);
+            if ("$invokable".equals(name)) {
+                invokable = update.get(1);
+            } else if ("$result".equals(name)) {
+                result = update.get(1);
+            }
+        }
+        return "read".equals(invokable)
+                && ("stream".equals(result) || "table".equals(result));
+    }
+
+    private static Pattern compile(String glob) {
+        StringBuilder regex = new StringBuilder();
+        int start = 0;
+        int index;
+        while ((index = glob.indexOf('*', start)) > -1) {
+            if (index > start) {
+                regex.append(Pattern.quote(glob.substring(start, index)));
+            }
+            regex.append(".*");
+            start = index + 1;
+        }
+        if (start < glob.length()) {
+            regex.append(Pattern.quote(glob.substring(start)));
+        }
+        return Pattern.compile(regex.toString());
+    }
+}
@@ -36,6 +36,18 @@ public class MessageProcessor {
         }
     }
 
+    /**
+     * Creates the responder of a link restored from the registry so
+     * requests can be handled like any other disconnected link.
+     *
+     * @param node Node of the restored link.
+     */
+    public void restore(DSLinkNode node) {
+        if (responder == null) {
+            responder = new Responder(node);
+        }
+    }
+
     public void processData(JsonObject data) {
         Requester requester = this.requester;
         if (requester != null) {
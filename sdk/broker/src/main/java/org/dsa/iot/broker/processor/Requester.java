@@ -5,6 +5,8 @@ import org.dsa.iot.broker.node.BrokerNode;
 import org.dsa.iot.broker.node.DSLinkNode;
 import org.dsa.iot.broker.processor.stream.Stream;
 import org.dsa.iot.broker.processor.stream.SubStream;
+import org.dsa.iot.broker.qos.QosManager;
+import org.dsa.iot.broker.qos.QosQueue;
 import org.dsa.iot.broker.server.client.Client;
 import org.dsa.iot.broker.utils.ParsedPath;
 import org.dsa.iot.dslink.methods.StreamState;
@@ -24,6 +26,7 @@ public class Requester extends LinkHandler {
     private final Map<Integer, Stream> reqStreams = new ConcurrentHashMap<>();
     private final Map<Integer, SubStream> subStreams = new HashMap<>();
     private final Map<ParsedPath, Integer> subPathSids = new HashMap<>();
+    private final Map<Integer, Integer> subQos = new HashMap<>();
 
     public Requester(DSLinkNode node) {
         super(node);
@@ -41,8 +44,18 @@ public class Requester extends LinkHandler {
         for (Stream stream : reqStreams.values()) {
             stream.close(client, true);
         }
-        for (SubStream stream : subStreams.values()) {
-            stream.node().unsubscribe(stream, client);
+        QosManager qos = client.broker().qos();
+        synchronized (subPathSids) {
+            for (Map.Entry<Integer, SubStream> entry : subStreams.entrySet()) {
+                SubStream stream = entry.getValue();
+                Integer level = subQos.get(entry.getKey());
+                if (level == null || !qos.retain(client, stream, level)) {
+                    stream.node().unsubscribe(stream, client);
+                }
+            }
+            subStreams.clear();
+            subPathSids.clear();
+            subQos.clear();
         }
     }
 
@@ -87,16 +100,30 @@ public class Requester extends LinkHandler {
                     JsonObject obj = (JsonObject) object;
                     ParsedPath path = parse(obj.get("path"));
                     Integer sid = obj.get("sid");
+                    Integer qos = obj.get("qos");
 
-                    BrokerNode node = broker.tree().getNode(path);
-                    SubStream stream = node.subscribe(path, client(), sid);
+                    SubStream stream = null;
+                    String dsId = client().handshake().dsId();
+                    QosQueue queue = broker.qos().claim(dsId, path);
+                    if (queue != null) {
+                        stream = queue.resume(client(), sid);
+                    }
+                    if (stream == null) {
+                        if (queue != null) {
+                            queue.replay(client(), sid);
+                        }
+                        BrokerNode node = broker.tree().getNode(path);
+                        stream = node.subscribe(path, client(), sid);
+                    }
 
                     synchronized (subPathSids) {
                         Integer prev = subPathSids.put(path, sid);
                         if (prev != null) {
                             subStreams.remove(prev);
+                            subQos.remove(prev);
                         }
                         subStreams.put(sid, stream);
+                        subQos.put(sid, qos != null ? qos : 0);
                     }
                 }
                 resp = closed();
@@ -109,11 +136,11 @@ public class Requester extends LinkHandler {
 
                     synchronized (subPathSids) {
                         SubStream stream = subStreams.remove(sid);
+                        subQos.remove(sid);
                         if (stream != null) {
                             ParsedPath pp = stream.path();
                             subPathSids.remove(pp);
-                            BrokerNode<?> node = broker.tree().getNode(pp);
-                            node.unsubscribe(stream, client());
+                            stream.node().unsubscribe(stream, client());
                         }
                     }
                 }
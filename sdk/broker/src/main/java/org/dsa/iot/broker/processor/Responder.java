@@ -1,6 +1,7 @@
 package org.dsa.iot.broker.processor;
 
 import org.dsa.iot.broker.node.DSLinkNode;
+import org.dsa.iot.broker.processor.stream.ListStream;
 import org.dsa.iot.broker.processor.stream.Stream;
 import org.dsa.iot.broker.processor.stream.manager.StreamManager;
 import org.dsa.iot.dslink.methods.StreamState;
@@ -57,6 +58,9 @@ public class Responder extends LinkHandler {
         Stream stream;
         if (state == StreamState.CLOSED) {
             stream = streamManager.remove(rid);
+            if (stream instanceof ListStream) {
+                ((ListStream) stream).forget();
+            }
         } else {
             stream = streamManager.get(rid);
         }
@@ -12,11 +12,27 @@ import org.dsa.iot.dslink.util.json.JsonObject;
  */
 public class GenericStream extends Stream {
 
+    private final String method;
+    private final long created;
+    private boolean responded;
+
     private Client requester;
     private int rid;
 
     public GenericStream(Responder responder, ParsedPath path) {
+        this(responder, path, null);
+    }
+
+    /**
+     * @param responder Responder the request is forwarded to.
+     * @param path Path of the request.
+     * @param method Method of the request, used to record the latency of
+     *               the first response.
+     */
+    public GenericStream(Responder responder, ParsedPath path, String method) {
         super(responder, path);
+        this.method = method;
+        this.created = System.nanoTime();
     }
 
     @Override
@@ -43,6 +59,10 @@ public class GenericStream extends Stream {
         if (isEmpty()) {
             return;
         }
+        if (!responded) {
+            responded = true;
+            recordLatency();
+        }
 
         response.put("rid", rid);
         JsonArray resps = new JsonArray();
@@ -69,6 +89,13 @@ public class GenericStream extends Stream {
         close();
     }
 
+    private void recordLatency() {
+        Client client = method != null ? responder().client() : null;
+        if (client != null) {
+            client.broker().metrics().recordLatency(method, created);
+        }
+    }
+
     private void close() {
         requester.processor().requester().removeStream(rid);
         close(requester, false);
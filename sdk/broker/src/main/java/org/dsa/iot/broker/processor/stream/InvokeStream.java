@@ -0,0 +1,226 @@
+package org.dsa.iot.broker.processor.stream;
+
+import org.dsa.iot.broker.processor.Responder;
+import org.dsa.iot.broker.server.client.Client;
+import org.dsa.iot.broker.utils.ParsedPath;
+import org.dsa.iot.dslink.methods.StreamState;
+import org.dsa.iot.dslink.util.json.JsonArray;
+import org.dsa.iot.dslink.util.json.JsonObject;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Invocation shared by every requester invoking the same action with the
+ * same parameters. The accumulated table is cached so requesters joining
+ * late receive a replay of it before the live updates. Once the table
+ * grows past the maximum amount of rows the replay is dropped and the
+ * stream stops accepting new requesters.
+ *
+ * @author Samuel Grenier
+ * @see org.dsa.iot.broker.processor.stream.manager.InvokeStreamManager
+ */
+public class InvokeStream extends Stream {
+
+    private final Map<Client, Integer> reqMap = new LinkedHashMap<>();
+    private final String key;
+    private final int responderRid;
+    private final int maxRows;
+    private final long created;
+
+    private final List<Object> rows = new ArrayList<>();
+    private JsonArray columns;
+    private String mode = "append";
+    private boolean responded;
+    private boolean replayable = true;
+    private boolean closed;
+
+    /**
+     * @param responder Responder the invocation is forwarded to.
+     * @param path Path of the action.
+     * @param key Key identifying the invocation.
+     * @param responderRid Rid of the invocation on the responder.
+     * @param maxRows Maximum amount of rows cached for late requesters.
+     */
+    public InvokeStream(Responder responder, ParsedPath path,
+                        String key, int responderRid, int maxRows) {
+        super(responder, path);
+        this.key = key;
+        this.responderRid = responderRid;
+        this.maxRows = maxRows;
+        this.created = System.nanoTime();
+    }
+
+    public String key() {
+        return key;
+    }
+
+    public int responderRid() {
+        return responderRid;
+    }
+
+    /**
+     * @return Whether requesters can still join the stream.
+     */
+    public synchronized boolean joinable() {
+        return replayable && !closed;
+    }
+
+    /**
+     * Adds a requester to the stream. Requesters joining after the first
+     * response are sent the accumulated table.
+     *
+     * @param requester Requester joining the stream.
+     * @param requesterRid Rid of the invocation on the requester.
+     * @return Whether the requester joined the stream.
+     */
+    public synchronized boolean join(Client requester, int requesterRid) {
+        if (!joinable() || reqMap.containsKey(requester)) {
+            return false;
+        }
+        reqMap.put(requester, requesterRid);
+        if (responded) {
+            JsonObject resp = new JsonObject();
+            resp.put("rid", requesterRid);
+            resp.put("stream", StreamState.OPEN.getJsonName());
+            if (columns != null) {
+                resp.put("columns", columns);
+            }
+            JsonArray updates = new JsonArray();
+            for (Object row : rows) {
+                updates.add(row);
+            }
+            resp.put("updates", updates);
+            JsonObject meta = new JsonObject();
+            meta.put("mode", "refresh");
+            resp.put("meta", meta);
+            write(requester, resp);
+        }
+        return true;
+    }
+
+    /**
+     * Closes the stream to new requesters if no requester is left.
+     *
+     * @return Whether the stream was released.
+     */
+    public synchronized boolean release() {
+        if (!reqMap.isEmpty()) {
+            return false;
+        }
+        closed = true;
+        return true;
+    }
+
+    @Override
+    public void add(Client requester, int requesterRid) {
+        if (!join(requester, requesterRid)) {
+            throw new IllegalStateException("Stream cannot be joined");
+        }
+    }
+
+    @Override
+    public synchronized void remove(Client requester) {
+        reqMap.remove(requester);
+    }
+
+    @Override
+    public synchronized boolean isEmpty() {
+        return reqMap.isEmpty();
+    }
+
+    @Override
+    public void dispatch(StreamState state, JsonObject response) {
+        synchronized (this) {
+            if (!responded) {
+                responded = true;
+                Client client = responder().client();
+                if (client != null) {
+                    client.broker().metrics().recordLatency("invoke", created);
+                }
+            }
+            cache(response);
+
+            for (Map.Entry<Client, Integer> entry : reqMap.entrySet()) {
+                Client client = entry.getKey();
+                int rid = entry.getValue();
+                if (state == StreamState.CLOSED) {
+                    client.processor().requester().removeStream(rid);
+                }
+                JsonObject resp = new JsonObject();
+                for (Map.Entry<String, Object> field : response) {
+                    resp.put(field.getKey(), field.getValue());
+                }
+                resp.put("rid", rid);
+                write(client, resp);
+            }
+            if (state == StreamState.CLOSED) {
+                closed = true;
+                reqMap.clear();
+            }
+        }
+        if (state == StreamState.CLOSED) {
+            responder().stream().invoke().remove(this);
+        }
+    }
+
+    @Override
+    public void responderConnected() {
+    }
+
+    @Override
+    public void responderDisconnected() {
+        List<Client> requesters;
+        synchronized (this) {
+            closed = true;
+            requesters = new ArrayList<>(reqMap.keySet());
+            for (Map.Entry<Client, Integer> entry : reqMap.entrySet()) {
+                Client client = entry.getKey();
+                int rid = entry.getValue();
+                client.processor().requester().removeStream(rid);
+                JsonObject resp = new JsonObject();
+                resp.put("rid", rid);
+                resp.put("stream", StreamState.CLOSED.getJsonName());
+                write(client, resp);
+            }
+        }
+        for (Client requester : requesters) {
+            close(requester, false);
+        }
+    }
+
+    private void cache(JsonObject response) {
+        JsonArray columns = response.get("columns");
+        if (columns != null) {
+            this.columns = columns;
+        }
+        JsonObject meta = response.get("meta");
+        if (meta != null && meta.get("mode") != null) {
+            mode = meta.get("mode");
+            if ("refresh".equals(mode)) {
+                rows.clear();
+            }
+        }
+        JsonArray updates = response.get("updates");
+        if (updates == null || !replayable) {
+            return;
+        }
+        // Streamed rows are kept as well, a replay without them would
+        // pass for the complete table
+        for (Object row : updates) {
+            rows.add(row);
+        }
+        if (rows.size() > maxRows) {
+            replayable = false;
+            rows.clear();
+        }
+    }
+
+    private static void write(Client client, JsonObject response) {
+        JsonArray resps = new JsonArray();
+        resps.add(response);
+        client.writeResponse(resps);
+    }
+}
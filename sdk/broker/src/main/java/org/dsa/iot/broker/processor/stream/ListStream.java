@@ -1,5 +1,6 @@
 package org.dsa.iot.broker.processor.stream;
 
+import io.netty.util.CharsetUtil;
 import org.dsa.iot.broker.node.DSLinkNode;
 import org.dsa.iot.broker.processor.Responder;
 import org.dsa.iot.broker.server.client.Client;
@@ -9,6 +10,7 @@ import org.dsa.iot.dslink.methods.StreamState;
 import org.dsa.iot.dslink.util.json.JsonArray;
 import org.dsa.iot.dslink.util.json.JsonObject;
 
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
@@ -16,17 +18,31 @@ import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 /**
+ * Caches the list state of a remote node. New requesters receive the cache
+ * as an encoded snapshot that is shared until the cache changes again. Each
+ * cached update is only encoded once, so rebuilding the snapshot after a
+ * single child changed is a byte copy of the untouched entries.
+ *
  * @author Samuel Grenier
  */
 public class ListStream extends Stream {
 
+    private static final byte[] RESPONSE_PREFIX;
+    private static final byte[] RESPONSE_SUFFIX;
+
     private final Map<Client, Integer> reqMap = new ConcurrentHashMap<>();
 
     private final ReentrantReadWriteLock cacheLock = new ReentrantReadWriteLock();
-    private final Map<String, JsonArray> cache = new ConcurrentHashMap<>();
+    private final Map<String, CacheEntry> cache = new LinkedHashMap<>();
+    private long version;
+    private volatile Snapshot snapshot;
+
+    // Time the list request was sent to the responder, 0 once answered
+    private volatile long requested;
 
     public ListStream(Responder responder, ParsedPath path) {
         super(responder, path);
+        this.requested = System.nanoTime();
     }
 
     @Override
@@ -43,19 +59,8 @@ public class ListStream extends Stream {
             if (cache.isEmpty()) {
                 return;
             }
-            JsonArray updates = new JsonArray();
-            for (JsonArray update : cache.values()) {
-                updates.add(update);
-            }
-
-            JsonObject resp = new JsonObject();
-            resp.put("rid", requesterRid);
-            resp.put("stream", StreamState.OPEN.getJsonName());
-            resp.put("updates", updates);
-
-            JsonArray resps = new JsonArray();
-            resps.add(resp);
-            requester.writeResponse(resps);
+            byte[] updates = snapshot();
+            requester.writeResponse(encodeResponse(requesterRid, updates));
         } finally {
             cacheLock.readLock().unlock();
         }
@@ -73,13 +78,22 @@ public class ListStream extends Stream {
 
     @Override
     public void dispatch(StreamState state, JsonObject response) {
+        long requested = this.requested;
+        if (requested != 0) {
+            this.requested = 0;
+            Client client = responder().client();
+            if (client != null) {
+                client.broker().metrics().recordLatency("list", requested);
+            }
+        }
+
         JsonArray updates = response.get("updates");
         if (updates != null) {
             List<Object> preInject = null;
             List<JsonArray> injectedData = null;
-            for (Object obj : updates) {
-                cacheLock.writeLock().lock();
-                try {
+            cacheLock.writeLock().lock();
+            try {
+                for (Object obj : updates) {
                     if (obj instanceof JsonObject) {
                         JsonObject json = (JsonObject) obj;
                         String name = json.get("name");
@@ -91,8 +105,15 @@ public class ListStream extends Stream {
                         JsonArray array = (JsonArray) obj;
                         String name = array.get(0);
                         if (name.equals("$is")) {
-                            cache.clear();
-                            {
+                            if (!path().isRemote()) {
+                                // Absolute paths receive the $base of the peer
+                                CacheEntry base = cache.get("$base");
+                                cache.clear();
+                                if (base != null) {
+                                    cache.put("$base", base);
+                                }
+                            } else {
+                                cache.clear();
                                 JsonArray base = new JsonArray();
                                 base.add("$base");
                                 base.add(responder().node().path());
@@ -100,26 +121,29 @@ public class ListStream extends Stream {
                                     preInject = new LinkedList<>();
                                 }
                                 preInject.add(base);
-                                cache.put("$base", base);
+                                cache.put("$base", new CacheEntry(base));
                             }
+                            cache.put(name, new CacheEntry(array));
                             if (path().base().equals("/")) {
                                 DSLinkNode node = responder().node();
                                 JsonArray update = node.linkDataUpdate();
                                 if (update != null) {
                                     String confName = update.get(0);
-                                    cache.put(confName, update);
+                                    cache.put(confName, new CacheEntry(update));
                                     if (injectedData == null) {
                                         injectedData = new LinkedList<>();
                                     }
                                     injectedData.add(update);
                                 }
                             }
+                            continue;
                         }
-                        cache.put(name, array);
+                        cache.put(name, new CacheEntry(array));
                     }
-                } finally {
-                    cacheLock.writeLock().unlock();
                 }
+                version++;
+            } finally {
+                cacheLock.writeLock().unlock();
             }
             if (preInject != null) {
                 updates.addAll(0, preInject);
@@ -150,6 +174,7 @@ public class ListStream extends Stream {
     public void responderConnected() {
         int rid = responder().nextRid();
         responder().stream().list().move(this, rid);
+        requested = System.nanoTime();
         JsonArray reqs = RequestGenerator.list(path(), rid);
         responder().client().writeRequest(reqs);
     }
@@ -158,7 +183,12 @@ public class ListStream extends Stream {
     public void responderDisconnected() {
         cacheLock.writeLock().lock();
         try {
+            if (!cache.isEmpty() && path().isRemote()) {
+                DSLinkNode node = responder().node();
+                node.lastList(path().base(), cachedUpdates());
+            }
             cache.clear();
+            version++;
         } finally {
             cacheLock.writeLock().unlock();
         }
@@ -184,4 +214,160 @@ public class ListStream extends Stream {
             client.writeResponse(resps);
         }
     }
+
+    /**
+     * Fills the empty cache of a disconnected responder with its last known
+     * list state so requesters are answered immediately.
+     *
+     * @param updates Last known list updates, can be {@code null}.
+     * @param disconnected Time the responder disconnected at.
+     */
+    public void seed(JsonArray updates, String disconnected) {
+        if (updates == null) {
+            return;
+        }
+        cacheLock.writeLock().lock();
+        try {
+            if (!cache.isEmpty()) {
+                return;
+            }
+            for (Object obj : updates) {
+                JsonArray update = (JsonArray) obj;
+                cache.put((String) update.get(0), new CacheEntry(update));
+            }
+            JsonArray update = new JsonArray();
+            update.add("$disconnectedTs");
+            update.add(disconnected);
+            cache.put("$disconnectedTs", new CacheEntry(update));
+            version++;
+        } finally {
+            cacheLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Drops the last known state of the list from the link once the stream
+     * is closed so it is no longer persisted.
+     */
+    public void forget() {
+        if (path().isRemote()) {
+            responder().node().lastList(path().base(), null);
+        }
+    }
+
+    /**
+     * @return The cached list updates or {@code null} if nothing is cached.
+     */
+    public JsonArray cached() {
+        cacheLock.readLock().lock();
+        try {
+            return cache.isEmpty() ? null : cachedUpdates();
+        } finally {
+            cacheLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Must be called with the cache lock held.
+     *
+     * @return The cached list updates.
+     */
+    private JsonArray cachedUpdates() {
+        JsonArray updates = new JsonArray();
+        for (Map.Entry<String, CacheEntry> entry : cache.entrySet()) {
+            if (!"$disconnectedTs".equals(entry.getKey())) {
+                updates.add(entry.getValue().update);
+            }
+        }
+        return updates;
+    }
+
+    /**
+     * Must be called with the cache lock held. Concurrent readers may
+     * rebuild the same snapshot, which is harmless as they are identical.
+     *
+     * @return The encoded updates array of the current cache.
+     */
+    private byte[] snapshot() {
+        Snapshot snapshot = this.snapshot;
+        if (snapshot != null && snapshot.version == version) {
+            return snapshot.encoded;
+        }
+
+        int size = 1 + Math.max(cache.size() - 1, 0) + 1;
+        for (CacheEntry entry : cache.values()) {
+            size += entry.encoded().length;
+        }
+
+        byte[] encoded = new byte[size];
+        int pos = 0;
+        encoded[pos++] = '[';
+        for (CacheEntry entry : cache.values()) {
+            if (pos > 1) {
+                encoded[pos++] = ',';
+            }
+            byte[] data = entry.encoded();
+            System.arraycopy(data, 0, encoded, pos, data.length);
+            pos += data.length;
+        }
+        encoded[pos] = ']';
+
+        this.snapshot = new Snapshot(version, encoded);
+        return encoded;
+    }
+
+    private static byte[] encodeResponse(int rid, byte[] updates) {
+        byte[] id = String.valueOf(rid).getBytes(CharsetUtil.UTF_8);
+        int prefix = RESPONSE_PREFIX.length;
+        int suffix = RESPONSE_SUFFIX.length;
+        byte[] resp = new byte[prefix + id.length + suffix + updates.length + 1];
+        int pos = 0;
+        System.arraycopy(RESPONSE_PREFIX, 0, resp, pos, prefix);
+        pos += prefix;
+        System.arraycopy(id, 0, resp, pos, id.length);
+        pos += id.length;
+        System.arraycopy(RESPONSE_SUFFIX, 0, resp, pos, suffix);
+        pos += suffix;
+        System.arraycopy(updates, 0, resp, pos, updates.length);
+        pos += updates.length;
+        resp[pos] = '}';
+        return resp;
+    }
+
+    private static class CacheEntry {
+
+        private final JsonArray update;
+        private volatile byte[] encoded;
+
+        public CacheEntry(JsonArray update) {
+            this.update = update;
+        }
+
+        public byte[] encoded() {
+            byte[] encoded = this.encoded;
+            if (encoded == null) {
+                encoded = update.encode();
+                this.encoded = encoded;
+            }
+            return encoded;
+        }
+    }
+
+    private static class Snapshot {
+
+        private final long version;
+        private final byte[] encoded;
+
+        public Snapshot(long version, byte[] encoded) {
+            this.version = version;
+            this.encoded = encoded;
+        }
+    }
+
+    static {
+        RESPONSE_PREFIX = "{\"rid\":".getBytes(CharsetUtil.UTF_8);
+        String open = StreamState.OPEN.getJsonName();
+        String suffix = ",\"stream\":\"" + open + "\",\"updates\":";
+        RESPONSE_SUFFIX = suffix.getBytes(CharsetUtil.UTF_8);
+    }
 }
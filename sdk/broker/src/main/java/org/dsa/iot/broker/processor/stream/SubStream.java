@@ -1,14 +1,13 @@
 package org.dsa.iot.broker.processor.stream;
 
 import org.dsa.iot.broker.node.BrokerNode;
+import org.dsa.iot.broker.qos.QosQueue;
 import org.dsa.iot.broker.server.client.Client;
 import org.dsa.iot.broker.utils.ParsedPath;
 import org.dsa.iot.dslink.util.json.JsonArray;
 import org.dsa.iot.dslink.util.json.JsonObject;
 
-import java.util.Map;
 import java.util.Objects;
-import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * @author Samuel Grenier
@@ -18,7 +17,11 @@ public class SubStream {
     private final ParsedPath path;
     private final BrokerNode node;
 
-    private Map<Client, Integer> clientMap = new ConcurrentHashMap<>();
+    private static final Subscriber[] EMPTY = new Subscriber[0];
+
+    // Copy-on-write, replaced on every add or remove
+    private final Object subsLock = new Object();
+    private volatile Subscriber[] subscribers = EMPTY;
     private JsonArray lastValueUpdate;
 
     public SubStream(ParsedPath path, BrokerNode node) {
@@ -35,9 +38,19 @@ public class SubStream {
     }
 
     public void add(Client requester, int sid) {
-        Integer prev = clientMap.put(requester, sid);
-        if (prev != null) {
-            return;
+        synchronized (subsLock) {
+            Subscriber[] subs = this.subscribers;
+            int index = indexOf(subs, requester);
+            if (index > -1) {
+                Subscriber[] tmp = subs.clone();
+                tmp[index] = new Subscriber(requester, sid);
+                this.subscribers = tmp;
+                return;
+            }
+            Subscriber[] tmp = new Subscriber[subs.length + 1];
+            System.arraycopy(subs, 0, tmp, 0, subs.length);
+            tmp[subs.length] = new Subscriber(requester, sid);
+            this.subscribers = tmp;
         }
         JsonArray lastValueUpdate = this.lastValueUpdate;
         if (lastValueUpdate != null) {
@@ -60,11 +73,79 @@ public class SubStream {
     }
 
     public void remove(Client requester) {
-        clientMap.remove(requester);
+        synchronized (subsLock) {
+            Subscriber[] subs = this.subscribers;
+            int index = indexOf(subs, requester);
+            if (index < 0) {
+                return;
+            } else if (subs.length == 1) {
+                this.subscribers = EMPTY;
+                return;
+            }
+            Subscriber[] tmp = new Subscriber[subs.length - 1];
+            System.arraycopy(subs, 0, tmp, 0, index);
+            System.arraycopy(subs, index + 1, tmp, index, tmp.length - index);
+            this.subscribers = tmp;
+        }
+    }
+
+    /**
+     * Queues the updates of a disconnected requester instead of writing
+     * them until it resumes or unsubscribes.
+     *
+     * @param requester Disconnected requester.
+     * @param queue Queue to retain the updates in.
+     * @return Whether the requester is subscribed to the stream.
+     */
+    public boolean retain(Client requester, QosQueue queue) {
+        synchronized (subsLock) {
+            Subscriber[] subs = this.subscribers;
+            int index = indexOf(subs, requester);
+            if (index < 0) {
+                return false;
+            }
+            Subscriber[] tmp = subs.clone();
+            tmp[index] = new Subscriber(requester, subs[index].sid, queue);
+            this.subscribers = tmp;
+            return true;
+        }
+    }
+
+    /**
+     * Moves a retained subscription over to a reconnected requester. The
+     * retained updates are replayed before the requester receives any live
+     * update, the last value is written instead when none were retained.
+     *
+     * @param old Disconnected requester the subscription was retained for.
+     * @param requester Reconnected requester.
+     * @param sid New subscription ID.
+     * @param queue Queue the updates were retained in.
+     * @return Whether the retained subscription was still present.
+     */
+    public boolean resume(Client old, Client requester, int sid, QosQueue queue) {
+        synchronized (subsLock) {
+            Subscriber[] subs = this.subscribers;
+            int index = indexOf(subs, old);
+            if (index < 0) {
+                return false;
+            }
+            // Updates dispatched to the queue from now on are forwarded
+            if (queue.handOver(requester, sid) == 0) {
+                JsonArray lastValueUpdate = this.lastValueUpdate;
+                if (lastValueUpdate != null) {
+                    writeUpdate(requester, sid, lastValueUpdate.get(1),
+                                lastValueUpdate.<String>get(2));
+                }
+            }
+            Subscriber[] tmp = subs.clone();
+            tmp[index] = new Subscriber(requester, sid);
+            this.subscribers = tmp;
+            return true;
+        }
     }
 
     public boolean isEmpty() {
-        return clientMap.isEmpty();
+        return subscribers.length == 0;
     }
 
     public void dispatch(JsonArray update) {
@@ -80,14 +161,77 @@ public class SubStream {
         JsonArray resps = new JsonArray();
         resps.add(resp);
 
-        for (Map.Entry<Client, Integer> entry : clientMap.entrySet()) {
-            Integer sid = entry.getValue();
-            update.set(0, sid);
+        Subscriber[] subs = this.subscribers;
+        if (subs.length > 0) {
+            subs[0].client.broker().metrics().recordFanout(subs.length);
+        }
+        for (int i = 0; i < subs.length; ++i) {
+            Subscriber sub = subs[i];
+            if (sub.queue != null) {
+                sub.queue.offer(update.get(1), update.<String>get(2));
+                continue;
+            }
+            update.set(0, sub.sid);
+            if (!sub.client.writeResponse(resps)) {
+                node().unsubscribe(this, sub.client);
+            }
+        }
+    }
+
+    /**
+     * @param requester Requester to write to.
+     * @param sid Subscription ID of the requester.
+     * @param value Value of the update.
+     * @param ts Timestamp of the update.
+     */
+    public static void writeUpdate(Client requester, int sid, Object value, String ts) {
+        JsonArray update = new JsonArray();
+        update.add(sid);
+        update.add(value);
+        update.add(ts);
 
-            Client requester = entry.getKey();
-            if (!requester.writeResponse(resps)) {
-                node().unsubscribe(this, requester);
+        JsonArray updates = new JsonArray();
+        updates.add(update);
+        writeUpdates(requester, updates);
+    }
+
+    /**
+     * @param requester Requester to write to.
+     * @param updates Value updates to write in a single response.
+     */
+    public static void writeUpdates(Client requester, JsonArray updates) {
+        JsonObject resp = new JsonObject();
+        resp.put("rid", 0);
+        resp.put("updates", updates);
+
+        JsonArray resps = new JsonArray();
+        resps.add(resp);
+        requester.writeResponse(resps);
+    }
+
+    private static int indexOf(Subscriber[] subs, Client client) {
+        for (int i = 0; i < subs.length; ++i) {
+            if (subs[i].client == client) {
+                return i;
             }
         }
+        return -1;
+    }
+
+    private static class Subscriber {
+
+        private final Client client;
+        private final int sid;
+        private final QosQueue queue;
+
+        public Subscriber(Client client, int sid) {
+            this(client, sid, null);
+        }
+
+        public Subscriber(Client client, int sid, QosQueue queue) {
+            this.client = client;
+            this.sid = sid;
+            this.queue = queue;
+        }
     }
 }
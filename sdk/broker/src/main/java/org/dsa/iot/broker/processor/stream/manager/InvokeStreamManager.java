@@ -0,0 +1,130 @@
+package org.dsa.iot.broker.processor.stream.manager;
+
+import org.dsa.iot.broker.processor.Responder;
+import org.dsa.iot.broker.processor.stream.InvokeStream;
+import org.dsa.iot.broker.server.client.Client;
+import org.dsa.iot.broker.utils.ParsedPath;
+import org.dsa.iot.dslink.util.json.JsonArray;
+import org.dsa.iot.dslink.util.json.JsonObject;
+
+import java.lang.ref.WeakReference;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Multiplexes identical invocations of shareable actions onto a single
+ * responder stream.
+ *
+ * @author Samuel Grenier
+ */
+public class InvokeStreamManager {
+
+    private final Map<String, InvokeStream> keyStreamMap = new HashMap<>();
+    private final WeakReference<StreamManager> manager;
+
+    public InvokeStreamManager(StreamManager manager) {
+        Objects.requireNonNull(manager, "manager");
+        this.manager = new WeakReference<>(manager);
+    }
+
+    /**
+     * Joins the open stream of an identical invocation or opens a new one.
+     *
+     * @param path Path of the action.
+     * @param params Parameters of the invocation, can be {@code null}.
+     * @param requester Requester invoking the action.
+     * @param requesterRid Rid of the invocation on the requester.
+     * @param maxRows Maximum amount of rows cached for late requesters.
+     * @return The joined stream or {@code null} if the requester must open
+     *         a dedicated stream.
+     */
+    public InvokeStream join(ParsedPath path,
+                             JsonObject params,
+                             Client requester,
+                             int requesterRid,
+                             int maxRows) {
+        if (path == null) {
+            throw new NullPointerException("path");
+        } else if (requester == null) {
+            throw new NullPointerException("requester");
+        }
+        Responder responder = manager().responder();
+        Client client = responder.client();
+        if (client == null) {
+            return null;
+        }
+
+        String key = key(path, params);
+        InvokeStream stream;
+        boolean created = false;
+        synchronized (keyStreamMap) {
+            stream = keyStreamMap.get(key);
+            if (stream == null || !stream.joinable()) {
+                int rid = responder.nextRid();
+                stream = new InvokeStream(responder, path, key, rid, maxRows);
+                keyStreamMap.put(key, stream);
+                manager().addIfNull(rid, stream);
+                created = true;
+            }
+            if (!stream.join(requester, requesterRid)) {
+                return null;
+            }
+        }
+        requester.processor().requester().addStream(requesterRid, stream);
+
+        if (created) {
+            JsonObject req = new JsonObject();
+            req.put("rid", stream.responderRid());
+            req.put("path", path.base());
+            req.put("method", "invoke");
+            if (params != null) {
+                req.put("params", params);
+            }
+            JsonArray reqs = new JsonArray();
+            reqs.add(req);
+            client.writeRequest(reqs);
+        }
+        return stream;
+    }
+
+    /**
+     * Stops sharing a stream once its last requester left. Requesters can
+     * join the stream until it is released.
+     *
+     * @param stream Stream to release.
+     * @return The responder rid of the stream or {@code null} if a
+     *         requester joined it in the meantime.
+     */
+    public Integer release(InvokeStream stream) {
+        synchronized (keyStreamMap) {
+            if (!stream.release()) {
+                return null;
+            }
+            remove(stream);
+        }
+        return stream.responderRid();
+    }
+
+    /**
+     * @param stream Stream to stop sharing.
+     */
+    public void remove(InvokeStream stream) {
+        synchronized (keyStreamMap) {
+            if (keyStreamMap.get(stream.key()) == stream) {
+                keyStreamMap.remove(stream.key());
+            }
+        }
+    }
+
+    private static String key(ParsedPath path, JsonObject params) {
+        if (params == null) {
+            return path.full();
+        }
+        return path.full() + '\n' + params.toString();
+    }
+
+    protected StreamManager manager() {
+        return manager.get();
+    }
+}
@@ -12,7 +12,9 @@ import org.dsa.iot.dslink.util.json.JsonArray;
 import org.dsa.iot.dslink.util.json.JsonObject;
 
 import java.lang.ref.WeakReference;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
@@ -62,7 +64,8 @@ public class ListStreamManager {
                         pathListMap.put(path, rid);
                         JsonArray req = RequestGenerator.list(path, rid);
                         client.writeRequest(req);
-                    } else if (path.base().equals("/")) {
+                    } else if (path.base().equals("/")
+                            && responder.node().lastList("/") == null) {
                         JsonObject resp = new JsonObject();
                         resp.put("rid", requesterRid);
                         resp.put("stream", StreamState.OPEN.getJsonName());
@@ -106,8 +109,13 @@ public class ListStreamManager {
 
         Stream stream = manager().get(rid);
         if (stream == null) {
-            stream = new ListStream(manager().responder(), path);
-            stream = manager().addIfNull(rid, stream);
+            Responder responder = manager().responder();
+            ListStream list = new ListStream(responder, path);
+            if (responder.client() == null) {
+                DSLinkNode node = responder.node();
+                list.seed(node.lastList(path.base()), node.disconnected());
+            }
+            stream = manager().addIfNull(rid, list);
         }
 
         stream.add(requester, requesterRid);
@@ -127,6 +135,50 @@ public class ListStreamManager {
         manager().addIfNull(rid, stream);
     }
 
+    /**
+     * @return The cached list updates of every listed path mapped by path.
+     */
+    public Map<String, JsonArray> caches() {
+        List<Integer> rids;
+        listLock.readLock().lock();
+        try {
+            rids = new ArrayList<>(pathListMap.values());
+        } finally {
+            listLock.readLock().unlock();
+        }
+        Map<String, JsonArray> caches = new HashMap<>();
+        for (Integer rid : rids) {
+            Stream stream = manager().get(rid);
+            if (stream instanceof ListStream && stream.path().isRemote()) {
+                JsonArray cached = ((ListStream) stream).cached();
+                if (cached != null) {
+                    caches.put(stream.path().base(), cached);
+                }
+            }
+        }
+        return caches;
+    }
+
+    /**
+     * @param path Path of the list.
+     * @return The cached list updates of the path or {@code null} if the
+     *         path is not listed.
+     */
+    public JsonArray cached(ParsedPath path) {
+        Integer rid;
+        listLock.readLock().lock();
+        try {
+            rid = pathListMap.get(path);
+        } finally {
+            listLock.readLock().unlock();
+        }
+        Stream stream = manager().get(rid);
+        if (stream instanceof ListStream) {
+            return ((ListStream) stream).cached();
+        }
+        return null;
+    }
+
     public Integer remove(Stream stream) {
         if (stream == null) {
             return null;
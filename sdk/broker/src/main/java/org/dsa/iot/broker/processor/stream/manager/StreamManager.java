@@ -3,6 +3,7 @@ package org.dsa.iot.broker.processor.stream.manager;
 import io.netty.util.internal.ConcurrentSet;
 import org.dsa.iot.broker.processor.Responder;
 import org.dsa.iot.broker.processor.stream.GenericStream;
+import org.dsa.iot.broker.processor.stream.InvokeStream;
 import org.dsa.iot.broker.processor.stream.ListStream;
 import org.dsa.iot.broker.processor.stream.Stream;
 import org.dsa.iot.broker.server.client.Client;
@@ -24,6 +25,7 @@ public class StreamManager {
 
     private final ListStreamManager lsm = new ListStreamManager(this);
     private final SubStreamManager ssm = new SubStreamManager(this);
+    private final InvokeStreamManager ism = new InvokeStreamManager(this);
     private final WeakReference<Responder> responder;
 
     public StreamManager(Responder responder) {
@@ -39,6 +41,10 @@ public class StreamManager {
         return ssm;
     }
 
+    public InvokeStreamManager invoke() {
+        return ism;
+    }
+
     public void close(Client requester, Stream stream, boolean write) {
         close(requester, Collections.singleton(stream), write);
     }
@@ -60,9 +66,22 @@ public class StreamManager {
                 continue;
             }
 
+            Integer respRid = null;
+            if (stream instanceof InvokeStream) {
+                respRid = ism.release((InvokeStream) stream);
+                if (respRid == null) {
+                    continue;
+                }
+            }
+
             streamSet.remove(stream);
+            if (stream instanceof ListStream) {
+                ((ListStream) stream).forget();
+            }
             streamLock.writeLock().lock();
-            Integer respRid = lsm.remove(stream);
+            if (respRid == null) {
+                respRid = lsm.remove(stream);
+            }
             if (respRid != null) {
                 streamMap.remove(respRid);
             }
@@ -90,6 +109,7 @@ public class StreamManager {
     }
 
     public void responderConnected() {
+        ssm.responderConnected();
         for (Stream stream : streamSet) {
             stream.responderConnected();
         }
@@ -150,6 +170,8 @@ public class StreamManager {
         }
         if (stream instanceof ListStream) {
             lsm.remove(stream);
+        } else if (stream instanceof InvokeStream) {
+            ism.remove((InvokeStream) stream);
         } else if (stream != null
                     && !(stream instanceof GenericStream)) {
             String name = stream.getClass().getName();
@@ -5,23 +5,44 @@ import org.dsa.iot.broker.processor.stream.SubStream;
 import org.dsa.iot.broker.server.client.Client;
 import org.dsa.iot.broker.utils.ParsedPath;
 import org.dsa.iot.broker.utils.RequestGenerator;
+import org.dsa.iot.dslink.util.Objects;
 import org.dsa.iot.dslink.util.json.JsonArray;
 
 import java.lang.ref.WeakReference;
-import java.util.HashMap;
-import java.util.Map;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 /**
+ * Manages the subscriptions to a responder. Subscribe and unsubscribe
+ * operations are gathered over a short window and sent to the responder
+ * as a single multi-path request.
+ *
  * @author Samuel Grenier
  */
 public class SubStreamManager {
 
+    /**
+     * Time in milliseconds subscribe and unsubscribe operations are gathered
+     * before being sent. Can be configured through the
+     * {@code dsa.broker.subscribeWindow} system property, 0 disables it.
+     */
+    public static final long WINDOW;
+
     private final ReentrantReadWriteLock subLock = new ReentrantReadWriteLock();
     private final Map<Integer, SubStream> subStreams = new HashMap<>();
     private final Map<ParsedPath, Integer> subPaths = new HashMap<>();
+    // Subscriptions waiting for their first value, mapped to the request time
+    private final Map<Integer, Long> pending = new ConcurrentHashMap<>();
     private final WeakReference<StreamManager> manager;
 
+    // Operations waiting for the window to be flushed
+    private final Object batchLock = new Object();
+    private Map<Integer, ParsedPath> batchSubs = new LinkedHashMap<>();
+    private Set<Integer> batchUnsubs = new LinkedHashSet<>();
+    private boolean flushScheduled;
+
     public SubStreamManager(StreamManager manager) {
         this.manager = new WeakReference<>(manager);
     }
@@ -40,7 +61,7 @@ public class SubStreamManager {
             subLock.readLock().unlock();
         }
 
-        JsonArray req = null;
+        boolean created = false;
         if (respSid == null) {
             subLock.writeLock().lock();
             try {
@@ -48,12 +69,12 @@ public class SubStreamManager {
                 if (respSid != null) {
                     stream = subStreams.get(respSid);
                 } else {
-                    int rid = responder().nextRid();
                     respSid = responder().nextSid();
                     subPaths.put(path, respSid);
-                    req = RequestGenerator.subscribe(path, respSid, rid);
+                    created = true;
                     stream = new SubStream(path, responder().node());
                     subStreams.put(respSid, stream);
+                    pending.put(respSid, System.nanoTime());
                 }
             } finally {
                 subLock.writeLock().unlock();
@@ -61,8 +82,8 @@ public class SubStreamManager {
         }
 
         stream.add(requester, sid);
-        if (req != null) {
-            responder().client().writeRequest(req);
+        if (created) {
+            queueSubscribe(respSid, path);
         }
         return stream;
     }
@@ -84,18 +105,116 @@ public class SubStreamManager {
             try {
                 subPaths.remove(stream.path());
                 subStreams.remove(sid);
+                pending.remove(sid);
             } finally {
                 subLock.writeLock().unlock();
             }
+            queueUnsubscribe(sid);
+        }
+    }
+
+    /**
+     * Subscribes to every path again as a reconnected responder has no
+     * knowledge of the previous subscriptions. The paths are read under the
+     * batch lock so an unsubscribe cannot be dropped between the snapshot
+     * and the reset of the batch.
+     */
+    public void responderConnected() {
+        synchronized (batchLock) {
+            subLock.readLock().lock();
+            try {
+                batchUnsubs.clear();
+                for (Map.Entry<ParsedPath, Integer> entry : subPaths.entrySet()) {
+                    batchSubs.put(entry.getValue(), entry.getKey());
+                }
+            } finally {
+                subLock.readLock().unlock();
+            }
+        }
+        flush();
+    }
+
+    private void queueSubscribe(int sid, ParsedPath path) {
+        if (WINDOW <= 0) {
+            Map<Integer, ParsedPath> subs = Collections.singletonMap(sid, path);
+            write(subs, Collections.<Integer>emptySet());
+            return;
+        }
+        synchronized (batchLock) {
+            batchSubs.put(sid, path);
+            scheduleFlush();
+        }
+    }
+
+    private void queueUnsubscribe(int sid) {
+        if (WINDOW <= 0) {
+            synchronized (batchLock) {
+                // Resubscribed by a reconnect but not sent yet
+                if (batchSubs.remove(sid) != null) {
+                    return;
+                }
+            }
+            Map<Integer, ParsedPath> subs = Collections.emptyMap();
+            write(subs, Collections.singleton(sid));
+            return;
+        }
+        synchronized (batchLock) {
+            // The responder never saw the subscription, nothing to undo
+            if (batchSubs.remove(sid) == null) {
+                batchUnsubs.add(sid);
+            }
+            scheduleFlush();
+        }
+    }
 
-            int rid = responder().nextRid();
-            JsonArray req = RequestGenerator.unsubscribe(rid, sid);
+    private void scheduleFlush() {
+        if (flushScheduled) {
+            return;
+        }
+        flushScheduled = true;
+        Objects.getDaemonThreadPool().schedule(new Runnable() {
+            @Override
+            public void run() {
+                flush();
+            }
+        }, WINDOW, TimeUnit.MILLISECONDS);
+    }
 
-            Client responder = responder().client();
-            if (responder != null) {
-                responder.writeRequest(req);
+    /**
+     * Sends all the gathered subscribe and unsubscribe operations.
+     */
+    public void flush() {
+        Map<Integer, ParsedPath> subs;
+        Set<Integer> unsubs;
+        synchronized (batchLock) {
+            flushScheduled = false;
+            subs = batchSubs;
+            unsubs = batchUnsubs;
+            if (subs.isEmpty() && unsubs.isEmpty()) {
+                return;
             }
+            batchSubs = new LinkedHashMap<>();
+            batchUnsubs = new LinkedHashSet<>();
+        }
+        write(subs, unsubs);
+    }
+
+    private void write(Map<Integer, ParsedPath> subs, Set<Integer> unsubs) {
+        Responder responder = responder();
+        Client client = responder != null ? responder.client() : null;
+        if (client == null) {
+            return;
+        }
+        JsonArray reqs = new JsonArray();
+        if (!unsubs.isEmpty()) {
+            int rid = responder.nextRid();
+            reqs.mergeIn(RequestGenerator.unsubscribe(rid, unsubs));
         }
+        if (!subs.isEmpty()) {
+            int rid = responder.nextRid();
+            reqs.mergeIn(RequestGenerator.subscribe(subs, rid));
+        }
+        client.writeRequest(reqs);
     }
 
     public void dispatch(JsonArray updates) {
@@ -107,6 +226,9 @@ public class SubStreamManager {
             for (Object obj : updates) {
                 JsonArray update = (JsonArray) obj;
                 Integer sid = update.get(0);
+                if (!pending.isEmpty()) {
+                    recordLatency(sid);
+                }
                 SubStream stream = subStreams.get(sid);
                 if (stream != null) {
                     stream.dispatch(update);
@@ -117,8 +239,21 @@ public class SubStreamManager {
         }
     }
 
+    private void recordLatency(Integer sid) {
+        Long requested = pending.remove(sid);
+        Client client = requested != null ? responder().client() : null;
+        if (client != null) {
+            client.broker().metrics().recordLatency("subscribe", requested);
+        }
+    }
+
     public Responder responder() {
         StreamManager manager = this.manager.get();
         return manager != null ? manager.responder() : null;
     }
+
+    static {
+        String window = System.getProperty("dsa.broker.subscribeWindow", "10");
+        WINDOW = Math.max(0, Long.parseLong(window));
+    }
 }
@@ -0,0 +1,163 @@
+package org.dsa.iot.broker.qos;
+
+import io.netty.util.CharsetUtil;
+import org.dsa.iot.dslink.util.json.JsonObject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Append only log of the retained subscriptions. Every record is a single
+ * line of JSON. The log is replayed when the broker starts and compacted
+ * to the current state afterwards.
+ *
+ * @author Samuel Grenier
+ */
+public class QosLog {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(QosLog.class);
+    private static final byte NEW_LINE = '\n';
+
+    private final File file;
+    private OutputStream out;
+    private long records;
+
+    public QosLog(File file) {
+        if (file == null) {
+            throw new NullPointerException("file");
+        }
+        this.file = file;
+    }
+
+    /**
+     * @return Amount of records appended since the log was last compacted.
+     */
+    public synchronized long records() {
+        return records;
+    }
+
+    /**
+     * @return All the records stored in the log.
+     */
+    public synchronized List<JsonObject> read() {
+        List<JsonObject> list = new ArrayList<>();
+        if (!file.isFile()) {
+            return list;
+        }
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(
+                new FileInputStream(file), CharsetUtil.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.isEmpty()) {
+                    continue;
+                }
+                try {
+                    list.add(new JsonObject(line));
+                } catch (RuntimeException e) {
+                    // A partially written record is expected after a crash
+                    LOGGER.warn("Skipping corrupt QoS log record in {}", file);
+                }
+            }
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        return list;
+    }
+
+    public void retain(String dsId, String path, int qos) {
+        JsonObject obj = record("retain", dsId, path);
+        obj.put("qos", qos);
+        append(obj);
+    }
+
+    public void update(String dsId, String path, Object value, String ts) {
+        JsonObject obj = record("update", dsId, path);
+        obj.put("value", value);
+        obj.put("ts", ts);
+        append(obj);
+    }
+
+    public void drop(String dsId, String path) {
+        append(record("drop", dsId, path));
+    }
+
+    /**
+     * Replaces the log with the designated records.
+     *
+     * @param state Records representing the current state.
+     */
+    public synchronized void rewrite(List<JsonObject> state) {
+        close();
+        File tmp = new File(file.getPath() + ".tmp");
+        try (FileOutputStream fos = new FileOutputStream(tmp)) {
+            OutputStream out = new BufferedOutputStream(fos);
+            for (JsonObject obj : state) {
+                out.write(obj.encode());
+                out.write(NEW_LINE);
+            }
+            out.flush();
+            fos.getFD().sync();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        try {
+            // The previous log stays intact if the move fails
+            Files.move(tmp.toPath(), file.toPath(),
+                       StandardCopyOption.REPLACE_EXISTING,
+                       StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to replace " + file, e);
+        }
+        records = 0;
+    }
+
+    public synchronized void flush() {
+        if (out != null) {
+            try {
+                out.flush();
+            } catch (IOException e) {
+                LOGGER.warn("Failed to flush QoS log {}", file);
+            }
+        }
+    }
+
+    public synchronized void close() {
+        if (out != null) {
+            try {
+                out.close();
+            } catch (IOException ignored) {
+            }
+            out = null;
+        }
+    }
+
+    private synchronized void append(JsonObject obj) {
+        try {
+            if (out == null) {
+                File parent = file.getAbsoluteFile().getParentFile();
+                if (parent != null && !parent.isDirectory() && !parent.mkdirs()) {
+                    throw new IOException("Failed to create " + parent);
+                }
+                out = new BufferedOutputStream(new FileOutputStream(file, true));
+            }
+            out.write(obj.encode());
+            out.write(NEW_LINE);
+            records++;
+        } catch (IOException e) {
+            LOGGER.warn("Failed to append to QoS log {}", file);
+        }
+    }
+
+    static JsonObject record(String op, String dsId, String path) {
+        JsonObject obj = new JsonObject();
+        obj.put("op", op);
+        obj.put("dsId", dsId);
+        obj.put("path", path);
+        return obj;
+    }
+}
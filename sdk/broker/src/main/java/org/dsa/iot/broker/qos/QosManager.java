@@ -0,0 +1,299 @@
+package org.dsa.iot.broker.qos;
+
+import org.dsa.iot.broker.processor.stream.SubStream;
+import org.dsa.iot.broker.server.client.Client;
+import org.dsa.iot.broker.utils.ParsedPath;
+import org.dsa.iot.dslink.util.Objects;
+import org.dsa.iot.dslink.util.json.JsonArray;
+import org.dsa.iot.dslink.util.json.JsonObject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps QoS 2 and 3 subscriptions alive after their requester disconnected.
+ * Value updates are retained for a grace period and replayed when the
+ * requester reconnects with the same dsId and subscribes to the same path
+ * again. Subscriptions that are not reclaimed within the grace period are
+ * unsubscribed.
+ *
+ * @author Samuel Grenier
+ * @see org.dsa.iot.broker.config.broker.BrokerMemoryConfig
+ */
+public class QosManager {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(QosManager.class);
+    private static final long COMPACT_THRESHOLD = 100000;
+
+    private final ConcurrentMap<String, Session> sessions = new ConcurrentHashMap<>();
+
+    private boolean enabled;
+    private long gracePeriod = 300;
+    private int maxQueueSize = 1000;
+    private QosLog log;
+    private ScheduledFuture<?> flusher;
+
+    /**
+     * @param conf QoS configuration, {@code null} disables QoS.
+     */
+    public synchronized void start(JsonObject conf) {
+        stop();
+        if (conf == null) {
+            return;
+        }
+        enabled = conf.get("enabled", false);
+        if (!enabled) {
+            return;
+        }
+        gracePeriod = getPositive(conf, "gracePeriod", 300);
+        maxQueueSize = (int) getPositive(conf, "maxQueueSize", 1000);
+
+        String logFile = conf.get("logFile");
+        if (logFile != null && !logFile.isEmpty()) {
+            log = new QosLog(new File(logFile));
+            restore();
+            flusher = Objects.getDaemonThreadPool().scheduleWithFixedDelay(new Runnable() {
+                @Override
+                public void run() {
+                    QosLog log = QosManager.this.log;
+                    if (log == null) {
+                        return;
+                    }
+                    if (log.records() > COMPACT_THRESHOLD) {
+                        log.rewrite(state());
+                    } else {
+                        log.flush();
+                    }
+                }
+            }, 1, 1, TimeUnit.SECONDS);
+        }
+    }
+
+    public synchronized void stop() {
+        if (flusher != null) {
+            flusher.cancel(false);
+            flusher = null;
+        }
+        for (Session session : sessions.values()) {
+            session.cancel();
+        }
+        sessions.clear();
+        if (log != null) {
+            log.close();
+            log = null;
+        }
+        enabled = false;
+    }
+
+    public boolean enabled() {
+        return enabled;
+    }
+
+    /**
+     * Retains the subscription of a disconnected requester. The requester
+     * stays subscribed to the stream while its updates are queued.
+     *
+     * @param client Requester that disconnected.
+     * @param stream Stream the requester is subscribed to.
+     * @param qos QoS level of the subscription.
+     * @return Whether the subscription is retained.
+     */
+    public boolean retain(Client client, SubStream stream, int qos) {
+        if (!enabled || qos < 2) {
+            return false;
+        }
+        String dsId = client.handshake().dsId();
+        String path = stream.path().full();
+        QosLog log = this.log;
+        QosQueue queue = new QosQueue(log, dsId, path, qos, maxQueueSize);
+        queue.attach(stream, client);
+        if (!stream.retain(client, queue)) {
+            return false;
+        }
+        Session session = session(dsId);
+        session.put(queue);
+        session.schedule();
+        if (log != null) {
+            log.retain(dsId, path, qos);
+        }
+        return true;
+    }
+
+    /**
+     * Claims a retained subscription of a reconnected requester.
+     *
+     * @param dsId DsId of the requester.
+     * @param path Path the requester subscribed to.
+     * @return The retained updates or {@code null} if there are none.
+     */
+    public QosQueue claim(String dsId, ParsedPath path) {
+        if (!enabled) {
+            return null;
+        }
+        Session session = sessions.get(dsId);
+        if (session == null) {
+            return null;
+        }
+        QosQueue queue = session.remove(path.full());
+        if (queue != null) {
+            QosLog log = this.log;
+            if (log != null) {
+                log.drop(dsId, queue.path());
+            }
+        }
+        return queue;
+    }
+
+    private void expire(String dsId) {
+        Session session = sessions.remove(dsId);
+        if (session == null) {
+            return;
+        }
+        LOGGER.info("QoS subscriptions of `{}` have expired", dsId);
+        QosLog log = this.log;
+        for (QosQueue queue : session.drain()) {
+            queue.expire();
+            if (log != null) {
+                log.drop(dsId, queue.path());
+            }
+        }
+    }
+
+    private Session session(String dsId) {
+        Session session = sessions.get(dsId);
+        if (session == null) {
+            Session tmp = new Session(dsId);
+            session = sessions.putIfAbsent(dsId, tmp);
+            if (session == null) {
+                session = tmp;
+            }
+        }
+        return session;
+    }
+
+    private void restore() {
+        int restored = 0;
+        for (JsonObject obj : log.read()) {
+            String op = obj.get("op");
+            String dsId = obj.get("dsId");
+            String path = obj.get("path");
+            Session session = sessions.get(dsId);
+            if ("retain".equals(op)) {
+                int qos = obj.get("qos");
+                QosQueue queue = new QosQueue(log, dsId, path, qos, maxQueueSize);
+                session(dsId).put(queue);
+                restored++;
+            } else if (session == null) {
+                continue;
+            } else if ("update".equals(op)) {
+                QosQueue queue = session.get(path);
+                if (queue != null) {
+                    queue.add(obj.get("value"), obj.<String>get("ts"));
+                }
+            } else if ("drop".equals(op)) {
+                session.remove(path);
+            }
+        }
+        log.rewrite(state());
+        for (Session session : sessions.values()) {
+            session.schedule();
+        }
+        if (restored > 0) {
+            LOGGER.info("Restored {} QoS subscription(s)", restored);
+        }
+    }
+
+    private List<JsonObject> state() {
+        List<JsonObject> state = new ArrayList<>();
+        for (Session session : sessions.values()) {
+            for (QosQueue queue : session.queues.values()) {
+                JsonObject retain = QosLog.record("retain", session.dsId, queue.path());
+                retain.put("qos", queue.qos());
+                state.add(retain);
+                for (JsonArray update : queue.snapshot()) {
+                    JsonObject obj = QosLog.record("update", session.dsId, queue.path());
+                    obj.put("value", update.get(0));
+                    obj.put("ts", update.get(1));
+                    state.add(obj);
+                }
+            }
+        }
+        return state;
+    }
+
+    private static long getPositive(JsonObject conf, String name, long def) {
+        Number n = conf.get(name);
+        if (n == null) {
+            return def;
+        } else if (n.longValue() < 1) {
+            throw new IllegalArgumentException("Invalid QoS " + name);
+        }
+        return n.longValue();
+    }
+
+    private class Session {
+
+        private final Map<String, QosQueue> queues = new ConcurrentHashMap<>();
+        private final String dsId;
+        private ScheduledFuture<?> expiry;
+
+        public Session(String dsId) {
+            this.dsId = dsId;
+        }
+
+        public void put(QosQueue queue) {
+            QosQueue old = queues.put(queue.path(), queue);
+            if (old != null) {
+                old.expire();
+            }
+        }
+
+        public QosQueue get(String path) {
+            return queues.get(path);
+        }
+
+        public QosQueue remove(String path) {
+            QosQueue queue = queues.remove(path);
+            if (queues.isEmpty() && sessions.remove(dsId, this)) {
+                cancel();
+            }
+            return queue;
+        }
+
+        public List<QosQueue> drain() {
+            List<QosQueue> list = new ArrayList<>(queues.values());
+            queues.clear();
+            return list;
+        }
+
+        /**
+         * Restarts the grace period of the session.
+         */
+        public synchronized void schedule() {
+            if (expiry != null) {
+                expiry.cancel(false);
+            }
+            expiry = Objects.getDaemonThreadPool().schedule(new Runnable() {
+                @Override
+                public void run() {
+                    expire(dsId);
+                }
+            }, gracePeriod, TimeUnit.SECONDS);
+        }
+
+        public synchronized void cancel() {
+            if (expiry != null) {
+                expiry.cancel(false);
+                expiry = null;
+            }
+        }
+    }
+}
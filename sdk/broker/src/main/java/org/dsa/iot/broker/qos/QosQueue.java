@@ -0,0 +1,178 @@
+package org.dsa.iot.broker.qos;
+
+import org.dsa.iot.broker.processor.stream.SubStream;
+import org.dsa.iot.broker.server.client.Client;
+import org.dsa.iot.dslink.util.json.JsonArray;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+
+/**
+ * Retains the value updates of a subscription while its requester is
+ * disconnected. QoS 2 only retains the last value, QoS 3 retains every
+ * update up to the maximum size of the queue, dropping the oldest first.
+ *
+ * @author Samuel Grenier
+ */
+public class QosQueue {
+
+    private final Deque<JsonArray> updates = new ArrayDeque<>();
+    private final QosLog log;
+    private final String dsId;
+    private final String path;
+    private final int qos;
+    private final int maxSize;
+
+    private SubStream stream;
+    private Client client;
+
+    // Requester the updates are forwarded to once the queue was handed over
+    private Client forward;
+    private int forwardSid;
+
+    QosQueue(QosLog log, String dsId, String path, int qos, int maxSize) {
+        if (qos < 2 || qos > 3) {
+            throw new IllegalArgumentException("qos");
+        } else if (maxSize < 1) {
+            throw new IllegalArgumentException("maxSize");
+        }
+        this.log = log;
+        this.dsId = dsId;
+        this.path = path;
+        this.qos = qos;
+        this.maxSize = qos == 2 ? 1 : maxSize;
+    }
+
+    public String path() {
+        return path;
+    }
+
+    public int qos() {
+        return qos;
+    }
+
+    /**
+     * @param value Value of the update.
+     * @param ts Timestamp of the update.
+     */
+    public synchronized void offer(Object value, String ts) {
+        if (forward != null) {
+            SubStream.writeUpdate(forward, forwardSid, value, ts);
+            return;
+        }
+        add(value, ts);
+        if (log != null) {
+            log.update(dsId, path, value, ts);
+        }
+    }
+
+    /**
+     * Moves the subscription over to the reconnected requester and replays
+     * the retained updates to it.
+     *
+     * @param requester Reconnected requester.
+     * @param sid New subscription ID of the requester.
+     * @return The stream the requester is now subscribed to or {@code null}
+     *         if the queue is not attached to a stream.
+     */
+    public SubStream resume(Client requester, int sid) {
+        SubStream stream;
+        Client client;
+        synchronized (this) {
+            stream = this.stream;
+            client = this.client;
+            this.stream = null;
+            this.client = null;
+        }
+        if (stream == null || !stream.resume(client, requester, sid, this)) {
+            return null;
+        }
+        return stream;
+    }
+
+    /**
+     * Replays the retained updates to the reconnected requester, updates
+     * offered afterwards are forwarded to it directly so none are lost or
+     * reordered while the stream swaps the subscriber.
+     *
+     * @param requester Reconnected requester.
+     * @param sid Subscription ID of the requester.
+     * @return The amount of updates replayed.
+     */
+    public synchronized int handOver(Client requester, int sid) {
+        int replayed = replay(requester, sid);
+        forward = requester;
+        forwardSid = sid;
+        return replayed;
+    }
+
+    /**
+     * Writes the retained updates to the requester and clears them.
+     *
+     * @param requester Requester to write the updates to.
+     * @param sid Subscription ID of the requester.
+     * @return The amount of updates written.
+     */
+    public int replay(Client requester, int sid) {
+        List<JsonArray> updates = drain();
+        if (updates.isEmpty()) {
+            return 0;
+        }
+        JsonArray array = new JsonArray();
+        for (JsonArray update : updates) {
+            JsonArray u = new JsonArray();
+            u.add(sid);
+            u.add(update.get(0));
+            u.add(update.get(1));
+            array.add(u);
+        }
+        SubStream.writeUpdates(requester, array);
+        return updates.size();
+    }
+
+    synchronized void attach(SubStream stream, Client client) {
+        this.stream = stream;
+        this.client = client;
+    }
+
+    /**
+     * Detaches the queue from its stream, unsubscribing the disconnected
+     * requester.
+     */
+    void expire() {
+        SubStream stream;
+        Client client;
+        synchronized (this) {
+            stream = this.stream;
+            client = this.client;
+            this.stream = null;
+            this.client = null;
+            updates.clear();
+        }
+        if (stream != null) {
+            stream.node().unsubscribe(stream, client);
+        }
+    }
+
+    synchronized void add(Object value, String ts) {
+        JsonArray update = new JsonArray();
+        update.add(value);
+        update.add(ts);
+        updates.addLast(update);
+        if (updates.size() > maxSize) {
+            updates.removeFirst();
+        }
+    }
+
+    synchronized List<JsonArray> snapshot() {
+        return new ArrayList<>(updates);
+    }
+
+    private synchronized List<JsonArray> drain() {
+        List<JsonArray> list = new ArrayList<>(updates);
+        updates.clear();
+        return list;
+    }
+}
@@ -0,0 +1,170 @@
+package org.dsa.iot.broker.registry;
+
+import org.dsa.iot.broker.Broker;
+import org.dsa.iot.broker.node.DSLinkNode;
+import org.dsa.iot.broker.node.Downstream;
+import org.dsa.iot.dslink.util.Objects;
+import org.dsa.iot.dslink.util.TimeUtils;
+import org.dsa.iot.dslink.util.json.JsonArray;
+import org.dsa.iot.dslink.util.json.JsonObject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Persists the links known to the broker along with the last known list
+ * state of the responders. When the broker starts, the names reserved by
+ * the links are restored so they stay stable and lists of disconnected
+ * responders are answered from the last known state without waiting for
+ * them to reconnect.
+ *
+ * @author Samuel Grenier
+ * @see org.dsa.iot.broker.config.broker.BrokerMemoryConfig
+ */
+public class LinkRegistry {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(LinkRegistry.class);
+
+    private final Broker broker;
+    private RegistryStore store;
+    private ScheduledFuture<?> saver;
+
+    public LinkRegistry(Broker broker) {
+        if (broker == null) {
+            throw new NullPointerException("broker");
+        }
+        this.broker = broker;
+    }
+
+    /**
+     * Restores the persisted links into the tree.
+     *
+     * @param conf Registry configuration, {@code null} disables it.
+     */
+    public synchronized void start(JsonObject conf) {
+        stop();
+        if (conf == null || !conf.get("enabled", false)) {
+            return;
+        }
+        String file = conf.get("file");
+        if (file == null || file.isEmpty()) {
+            throw new IllegalStateException("Link registry file not configured");
+        }
+        long interval = conf.get("saveInterval", 5);
+        if (interval <= 0) {
+            throw new IllegalStateException("Bad save interval: " + interval);
+        }
+
+        store = new RegistryStore(new File(file));
+        restore();
+        saver = Objects.getDaemonThreadPool().scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    save();
+                } catch (RuntimeException e) {
+                    LOGGER.warn("Failed to save the link registry\n{}", e);
+                }
+            }
+        }, interval, interval, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Saves the registry one last time and stops saving it.
+     */
+    public synchronized void stop() {
+        if (saver != null) {
+            saver.cancel(false);
+            saver = null;
+        }
+        if (store != null) {
+            save();
+            store = null;
+        }
+    }
+
+    /**
+     * Saves the current state of the links, the store is left untouched
+     * if nothing changed.
+     */
+    public synchronized void save() {
+        RegistryStore store = this.store;
+        if (store != null) {
+            store.write(state());
+        }
+    }
+
+    private JsonObject state() {
+        JsonObject links = new JsonObject();
+        Downstream downstream = broker.tree().downstream();
+        for (DSLinkNode node : downstream.getChildren()) {
+            String dsId = node.dsId();
+            if (dsId == null) {
+                // Reserved but never claimed
+                continue;
+            }
+            JsonObject link = new JsonObject();
+            link.put("dsId", dsId);
+            boolean responder = node.accessible();
+            link.put("responder", responder);
+            if (responder) {
+                if (node.disconnected() != null) {
+                    link.put("disconnected", node.disconnected());
+                }
+                if (node.linkData() != null) {
+                    link.put("linkData", node.linkData());
+                }
+                JsonObject lists = new JsonObject();
+                for (Map.Entry<String, JsonArray> entry : node.lastLists().entrySet()) {
+                    lists.put(entry.getKey(), entry.getValue());
+                }
+                link.put("lists", lists);
+            }
+            links.put(node.name(), link);
+        }
+        JsonObject state = new JsonObject();
+        state.put("links", links);
+        return state;
+    }
+
+    private void restore() {
+        JsonObject state = store.read();
+        if (state == null) {
+            return;
+        }
+        JsonObject links = state.get("links");
+        if (links == null) {
+            return;
+        }
+        // Links that were connected when the registry was last saved
+        String saved = TimeUtils.format(store.lastSaved());
+        Downstream downstream = broker.tree().downstream();
+        int restored = 0;
+        for (Map.Entry<String, Object> entry : links) {
+            JsonObject link = (JsonObject) entry.getValue();
+            DSLinkNode node = downstream.restore(entry.getKey());
+            if (node == null) {
+                continue;
+            }
+            Map<String, JsonArray> lists = new HashMap<>();
+            JsonObject obj = link.get("lists");
+            if (obj != null) {
+                for (Map.Entry<String, Object> list : obj) {
+                    lists.put(list.getKey(), (JsonArray) list.getValue());
+                }
+            }
+            node.restore((String) link.get("dsId"),
+                         link.get("responder", false),
+                         (JsonObject) link.get("linkData"),
+                         link.get("disconnected", saved),
+                         lists);
+            restored++;
+        }
+        LOGGER.info("Restored {} link(s) from the registry", restored);
+    }
+}
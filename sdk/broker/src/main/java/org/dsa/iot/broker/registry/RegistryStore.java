@@ -0,0 +1,98 @@
+package org.dsa.iot.broker.registry;
+
+import org.dsa.iot.dslink.util.FileUtils;
+import org.dsa.iot.dslink.util.json.EncodingFormat;
+import org.dsa.iot.dslink.util.json.JsonObject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+
+/**
+ * Stores the link registry as a single MessagePack encoded snapshot. The
+ * snapshot is written and synced to a temporary file first and atomically
+ * moved over the previous one so a crash never leaves a partially written
+ * registry.
+ *
+ * @author Samuel Grenier
+ */
+public class RegistryStore {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(RegistryStore.class);
+
+    private final File file;
+    private byte[] written;
+
+    public RegistryStore(File file) {
+        if (file == null) {
+            throw new NullPointerException("file");
+        }
+        this.file = file;
+    }
+
+    /**
+     * @return The stored snapshot or {@code null} if there is none.
+     */
+    public synchronized JsonObject read() {
+        if (!file.isFile()) {
+            return null;
+        }
+        try {
+            byte[] bytes = FileUtils.readAllBytes(file);
+            JsonObject obj = new JsonObject(EncodingFormat.MESSAGE_PACK, bytes);
+            written = bytes;
+            return obj;
+        } catch (IOException | RuntimeException e) {
+            LOGGER.warn("Ignoring unreadable link registry {}", file);
+            return null;
+        }
+    }
+
+    /**
+     * @return Time in milliseconds the snapshot was last saved at.
+     */
+    public long lastSaved() {
+        return file.lastModified();
+    }
+
+    /**
+     * Writes the snapshot unless it is identical to the stored one, in
+     * which case only the time it was last saved at is updated.
+     *
+     * @param snapshot Snapshot to store.
+     * @return Whether the snapshot was written.
+     */
+    public synchronized boolean write(JsonObject snapshot) {
+        byte[] bytes = snapshot.encode(EncodingFormat.MESSAGE_PACK);
+        if (Arrays.equals(bytes, written)) {
+            if (!file.setLastModified(System.currentTimeMillis())) {
+                LOGGER.warn("Failed to touch link registry {}", file);
+            }
+            return false;
+        }
+        File tmp = new File(file.getPath() + ".tmp");
+        try {
+            File parent = file.getAbsoluteFile().getParentFile();
+            if (parent != null && !parent.isDirectory() && !parent.mkdirs()) {
+                throw new IOException("Failed to create " + parent);
+            }
+            try (FileOutputStream fos = new FileOutputStream(tmp)) {
+                fos.write(bytes);
+                fos.getFD().sync();
+            }
+            // The previous snapshot stays intact if the move fails
+            Files.move(tmp.toPath(), file.toPath(),
+                       StandardCopyOption.REPLACE_EXISTING,
+                       StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to replace " + file, e);
+        }
+        written = bytes;
+        return true;
+    }
+}
@@ -0,0 +1,124 @@
+package org.dsa.iot.broker.server;
+
+import io.netty.channel.ChannelHandler;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.handler.codec.http.HttpHeaderNames;
+import io.netty.handler.codec.http.HttpRequest;
+import io.netty.handler.codec.http.QueryStringDecoder;
+import io.netty.handler.codec.http.websocketx.extensions.WebSocketServerExtensionHandler;
+import io.netty.handler.codec.http.websocketx.extensions.WebSocketServerExtensionHandshaker;
+import org.dsa.iot.dslink.util.json.JsonArray;
+import org.dsa.iot.dslink.util.json.JsonObject;
+import org.dsa.iot.shared.DeflatePolicy;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * WebSocket compression of the links connected to the broker. Links can
+ * be excluded by name, typically links on the same LAN as the broker where
+ * bandwidth is cheaper than CPU.
+ *
+ * @author Samuel Grenier
+ * @see DeflatePolicy
+ */
+public class Compression {
+
+    public static final Compression DEFAULT = new Compression(
+            DeflatePolicy.DEFAULT, Collections.<String>emptySet());
+
+    private final DeflatePolicy policy;
+    private final Set<String> disabledLinks;
+
+    public Compression(DeflatePolicy policy, Set<String> disabledLinks) {
+        if (policy == null) {
+            throw new NullPointerException("policy");
+        } else if (disabledLinks == null) {
+            throw new NullPointerException("disabledLinks");
+        }
+        this.policy = policy;
+        this.disabledLinks = disabledLinks;
+    }
+
+    public DeflatePolicy policy() {
+        return policy;
+    }
+
+    /**
+     * @param dsId DsId of the connecting link.
+     * @return Whether compression is negotiated with the link.
+     */
+    public boolean enabled(String dsId) {
+        if (!policy.enabled()) {
+            return false;
+        } else if (dsId == null || disabledLinks.isEmpty()) {
+            return true;
+        }
+        try {
+            return !disabledLinks.contains(DsaHandshake.dsIdToName(dsId));
+        } catch (RuntimeException ignored) {
+            // Invalid dsIds are rejected by the handshake
+            return true;
+        }
+    }
+
+    /**
+     * @return Handler negotiating the extension or {@code null} if
+     *         compression is disabled.
+     */
+    public ChannelHandler newHandler() {
+        WebSocketServerExtensionHandshaker handshaker = policy.serverHandshaker();
+        if (handshaker == null) {
+            return null;
+        }
+        return new Handler(handshaker);
+    }
+
+    /**
+     * @param conf Compression configuration, can be {@code null}.
+     * @return The configured compression.
+     */
+    public static Compression fromConfig(JsonObject conf) {
+        if (conf == null) {
+            return DEFAULT;
+        }
+        DeflatePolicy def = DEFAULT.policy;
+        DeflatePolicy policy = new DeflatePolicy(
+                conf.get("enabled", def.enabled()),
+                conf.get("level", def.level()),
+                conf.get("threshold", def.threshold()),
+                conf.get("contextTakeover", def.contextTakeover()));
+        Set<String> disabled = new HashSet<>();
+        JsonArray links = conf.get("disabledLinks");
+        if (links != null) {
+            for (Object link : links) {
+                disabled.add((String) link);
+            }
+        }
+        return new Compression(policy, disabled);
+    }
+
+    private class Handler extends WebSocketServerExtensionHandler {
+
+        public Handler(WebSocketServerExtensionHandshaker handshaker) {
+            super(handshaker);
+        }
+
+        @Override
+        public void channelRead(ChannelHandlerContext ctx,
+                                Object msg) throws Exception {
+            if (msg instanceof HttpRequest) {
+                HttpRequest req = (HttpRequest) msg;
+                QueryStringDecoder dec = new QueryStringDecoder(req.uri());
+                List<String> dsId = dec.parameters().get("dsId");
+                if (dsId != null && !dsId.isEmpty() && !enabled(dsId.get(0))) {
+                    // Nothing offered, nothing negotiated
+                    req.headers().remove(HttpHeaderNames.SEC_WEBSOCKET_EXTENSIONS);
+                }
+            }
+            super.channelRead(ctx, msg);
+        }
+    }
+}
@@ -27,12 +27,25 @@ public class DsaHandshake {
     private boolean isRequester;
     private boolean isResponder;
     private JsonObject linkData;
+    private boolean clusterPeer;
 
     private String name;
     private String salt;
     private LocalKeys tempKey;
 
     public DsaHandshake(JsonObject handshake, String dsId) {
+        this(handshake, dsId, LocalKeys.generate());
+    }
+
+    /**
+     * @param handshake Handshake sent by the link.
+     * @param dsId DsId of the link.
+     * @param tempKey Ephemeral key pair used to derive the shared secret.
+     */
+    public DsaHandshake(JsonObject handshake, String dsId, LocalKeys tempKey) {
+        if (tempKey == null) {
+            throw new NullPointerException("tempKey");
+        }
         this.dsId = dsId;
         this.publicKey = handshake.get("publicKey");
         this.isRequester = getBool(handshake, "isRequester");
@@ -41,7 +54,7 @@ public class DsaHandshake {
 
         this.name = dsIdToName(dsId);
         this.salt = generateSalt();
-        this.tempKey = LocalKeys.generate();
+        this.tempKey = tempKey;
     }
 
     public String name() {
@@ -64,12 +77,22 @@ public class DsaHandshake {
         return isResponder;
     }
 
+    /**
+     * @return Whether the link authenticated as another broker of the
+     *         cluster.
+     */
+    public boolean isClusterPeer() {
+        return clusterPeer;
+    }
+
     public ByteBuf initialize(Broker broker) {
         Client client = new Client(broker, this);
 
         ClientManager manager = broker.clientManager();
         manager.clientConnecting(client);
 
+        clusterPeer = broker.cluster().isPeer(dsId, linkData);
+
         JsonObject obj = new JsonObject();
         obj.put("tempKey", tempKey.encodedPublicKey());
         obj.put("salt", salt);
@@ -117,7 +140,7 @@ public class DsaHandshake {
         return new String(b, CharsetUtil.UTF_8);
     }
 
-    private static String dsIdToName(String dsId) {
+    static String dsIdToName(String dsId) {
         String tmp = dsId.substring(0, dsId.length() - 43);
         if (tmp.lastIndexOf('-') > -1) {
             tmp = tmp.substring(0, tmp.length() - 1);
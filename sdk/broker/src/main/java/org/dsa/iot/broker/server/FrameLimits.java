@@ -0,0 +1,51 @@
+package org.dsa.iot.broker.server;
+
+import org.dsa.iot.dslink.util.json.JsonObject;
+import org.dsa.iot.shared.SharedObjects;
+
+/**
+ * WebSocket frame limits of the links connected to the broker. Outgoing
+ * messages larger than the maximum frame size are fragmented and incoming
+ * fragmented messages are aggregated up to the maximum message size.
+ *
+ * @author Samuel Grenier
+ */
+public class FrameLimits {
+
+    public static final FrameLimits DEFAULT = new FrameLimits(
+            SharedObjects.MAX_FRAME_SIZE, SharedObjects.MAX_MESSAGE_SIZE);
+
+    private final int maxFrameSize;
+    private final int maxMessageSize;
+
+    public FrameLimits(int maxFrameSize, int maxMessageSize) {
+        if (maxFrameSize <= 0) {
+            throw new IllegalArgumentException("maxFrameSize");
+        } else if (maxMessageSize <= 0) {
+            throw new IllegalArgumentException("maxMessageSize");
+        }
+        this.maxFrameSize = maxFrameSize;
+        this.maxMessageSize = maxMessageSize;
+    }
+
+    public int maxFrameSize() {
+        return maxFrameSize;
+    }
+
+    public int maxMessageSize() {
+        return maxMessageSize;
+    }
+
+    /**
+     * @param conf WebSocket configuration, can be {@code null}.
+     * @return The configured limits.
+     */
+    public static FrameLimits fromConfig(JsonObject conf) {
+        if (conf == null) {
+            return DEFAULT;
+        }
+        int frame = conf.get("maxFrameSize", DEFAULT.maxFrameSize);
+        int message = conf.get("maxMessageSize", DEFAULT.maxMessageSize);
+        return new FrameLimits(frame, message);
+    }
+}
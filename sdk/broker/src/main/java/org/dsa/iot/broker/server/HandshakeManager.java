@@ -0,0 +1,125 @@
+package org.dsa.iot.broker.server;
+
+import org.dsa.iot.dslink.handshake.LocalKeys;
+import org.dsa.iot.dslink.util.json.JsonObject;
+
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs the cryptography of handshakes on a bounded worker pool instead of
+ * the I/O threads. Handshakes that cannot be queued are rejected so that a
+ * reconnect storm cannot build up an unbounded backlog.
+ *
+ * @author Samuel Grenier
+ */
+public class HandshakeManager {
+
+    private final KeyPool keys;
+    private final int threads;
+    private final int queueSize;
+    private ThreadPoolExecutor workers;
+
+    /**
+     * @param keyPoolSize Maximum amount of pre-generated keys.
+     * @param keyRefillRate Maximum amount of keys generated per second.
+     * @param threads Amount of worker threads, 0 uses the processor count.
+     * @param queueSize Maximum amount of handshakes waiting for a worker.
+     */
+    public HandshakeManager(int keyPoolSize,
+                            int keyRefillRate,
+                            int threads,
+                            int queueSize) {
+        if (threads < 0) {
+            throw new IllegalArgumentException("threads");
+        } else if (queueSize < 1) {
+            throw new IllegalArgumentException("queueSize");
+        }
+        if (threads == 0) {
+            threads = Runtime.getRuntime().availableProcessors();
+        }
+        this.keys = new KeyPool(keyPoolSize, keyRefillRate);
+        this.threads = threads;
+        this.queueSize = queueSize;
+    }
+
+    public synchronized void start() {
+        stop();
+        keys.start();
+        BlockingQueue<Runnable> queue = new ArrayBlockingQueue<>(queueSize);
+        workers = new ThreadPoolExecutor(threads, threads,
+                                         60, TimeUnit.SECONDS,
+                                         queue, new WorkerFactory());
+    }
+
+    public synchronized void stop() {
+        if (workers != null) {
+            workers.shutdownNow();
+            workers = null;
+        }
+        keys.stop();
+    }
+
+    /**
+     * @return Pool of ephemeral keys.
+     */
+    public KeyPool keys() {
+        return keys;
+    }
+
+    /**
+     * @return A new ephemeral key pair.
+     */
+    public LocalKeys takeKey() {
+        return keys.take();
+    }
+
+    /**
+     * @param task Handshake task to execute.
+     * @return Whether the task was queued or rejected.
+     */
+    public boolean execute(Runnable task) {
+        ThreadPoolExecutor workers = this.workers;
+        if (workers == null) {
+            return false;
+        }
+        try {
+            workers.execute(task);
+            return true;
+        } catch (RejectedExecutionException e) {
+            return false;
+        }
+    }
+
+    /**
+     * @param conf Handshake configuration, can be {@code null}.
+     * @return A handshake manager using the configured values.
+     */
+    public static HandshakeManager create(JsonObject conf) {
+        int keyPoolSize = 128;
+        int keyRefillRate = 100;
+        int workerThreads = 0;
+        int queueSize = 1024;
+        if (conf != null) {
+            keyPoolSize = conf.get("keyPoolSize", keyPoolSize);
+            keyRefillRate = conf.get("keyRefillRate", keyRefillRate);
+            workerThreads = conf.get("workerThreads", workerThreads);
+            queueSize = conf.get("queueSize", queueSize);
+        }
+        return new HandshakeManager(keyPoolSize, keyRefillRate,
+                                    workerThreads, queueSize);
+    }
+
+    private static class WorkerFactory implements ThreadFactory {
+
+        private final AtomicInteger count = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable r) {
+            String name = "Broker-Handshake-" + count.incrementAndGet();
+            Thread t = new Thread(r, name);
+            t.setDaemon(true);
+            return t;
+        }
+    }
+}
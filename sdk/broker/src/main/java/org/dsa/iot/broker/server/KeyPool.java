@@ -0,0 +1,95 @@
+package org.dsa.iot.broker.server;
+
+import org.dsa.iot.dslink.handshake.LocalKeys;
+import org.dsa.iot.dslink.util.Objects;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Pool of pre-generated ephemeral key pairs used by handshakes. The pool is
+ * filled in the background at a bounded rate so that a burst of connecting
+ * links does not have to wait for key generation.
+ *
+ * @author Samuel Grenier
+ */
+public class KeyPool {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(KeyPool.class);
+    private static final int REFILLS_PER_SECOND = 10;
+
+    private final BlockingQueue<LocalKeys> keys;
+    private final int refillBatch;
+    private ScheduledExecutorService refiller;
+
+    /**
+     * @param size Maximum amount of keys kept in the pool.
+     * @param refillRate Maximum amount of keys generated per second.
+     */
+    public KeyPool(int size, int refillRate) {
+        if (size < 1) {
+            throw new IllegalArgumentException("size");
+        } else if (refillRate < 1) {
+            throw new IllegalArgumentException("refillRate");
+        }
+        this.keys = new ArrayBlockingQueue<>(size);
+        this.refillBatch = Math.max(1, refillRate / REFILLS_PER_SECOND);
+    }
+
+    public synchronized void start() {
+        stop();
+        refiller = Objects.createDaemonThreadPool(1);
+        refiller.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    refill();
+                } catch (Exception e) {
+                    LOGGER.error("Failed to generate handshake keys", e);
+                }
+            }
+        }, 0, 1000 / REFILLS_PER_SECOND, TimeUnit.MILLISECONDS);
+    }
+
+    public synchronized void stop() {
+        if (refiller != null) {
+            refiller.shutdownNow();
+            refiller = null;
+        }
+        keys.clear();
+    }
+
+    /**
+     * Takes a key out of the pool. When the pool is drained a key is
+     * generated on the calling thread.
+     *
+     * @return An unused key pair.
+     */
+    public LocalKeys take() {
+        LocalKeys key = keys.poll();
+        if (key == null) {
+            LOGGER.debug("Handshake key pool is drained");
+            key = LocalKeys.generate();
+        }
+        return key;
+    }
+
+    /**
+     * @return Amount of keys available in the pool.
+     */
+    public int available() {
+        return keys.size();
+    }
+
+    private void refill() {
+        for (int i = 0; i < refillBatch && keys.remainingCapacity() > 0; ++i) {
+            if (!keys.offer(LocalKeys.generate())) {
+                break;
+            }
+        }
+    }
+}
@@ -3,15 +3,17 @@ package org.dsa.iot.broker.server;
 import io.netty.bootstrap.ServerBootstrap;
 import io.netty.channel.*;
 import io.netty.channel.socket.SocketChannel;
-import io.netty.channel.socket.nio.NioServerSocketChannel;
 import io.netty.handler.codec.http.HttpObjectAggregator;
 import io.netty.handler.codec.http.HttpServerCodec;
-import io.netty.handler.codec.http.websocketx.extensions.compression.WebSocketServerCompressionHandler;
 import io.netty.handler.ssl.SslContext;
 import org.dsa.iot.broker.Broker;
+import org.dsa.iot.shared.Transport;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
 /**
  * @author Samuel Grenier
  */
@@ -23,10 +25,27 @@ public class Server {
     private final String host;
     private final int port;
     private final SslContext ssl;
-    private Channel channel;
+    private final HandshakeManager handshakes;
+    private final FrameLimits limits;
+    private final Compression compression;
+    private final List<Channel> channels = new CopyOnWriteArrayList<>();
 
+    /**
+     * @param host Host to bind to.
+     * @param port Port to bind to.
+     * @param ssl SSL context, {@code null} for plain HTTP.
+     * @param broker Broker the connected links belong to.
+     * @param handshakes Worker pool for the handshakes, {@code null}
+     *                   performs them on the I/O threads.
+     * @param limits WebSocket frame limits, {@code null} uses the defaults.
+     * @param compression WebSocket compression, {@code null} uses the
+     *                    defaults.
+     */
     public Server(String host, int port,
-                  SslContext ssl, Broker broker) {
+                  SslContext ssl, Broker broker,
+                  HandshakeManager handshakes,
+                  FrameLimits limits,
+                  Compression compression) {
         if (host == null) {
             throw new NullPointerException("host");
         } else if (broker == null) {
@@ -38,30 +57,58 @@ public class Server {
         this.host = host;
         this.port = port;
         this.ssl = ssl;
+        this.handshakes = handshakes;
+        this.limits = limits != null ? limits : FrameLimits.DEFAULT;
+        this.compression = compression != null ? compression : Compression.DEFAULT;
     }
 
     public void start(EventLoopGroup bossLoop,
                       EventLoopGroup workerLoop) {
+        start(Transport.forGroup(bossLoop), bossLoop, workerLoop, 1);
+    }
+
+    /**
+     * Binds the server and blocks until it is stopped.
+     *
+     * @param transport Transport compatible with the event loops.
+     * @param bossLoop Event loops accepting connections.
+     * @param workerLoop Event loops handling accepted connections.
+     * @param acceptors Amount of server channels to bind to the same port.
+     *                  Anything above 1 requires SO_REUSEPORT support from
+     *                  the transport.
+     */
+    public void start(Transport transport,
+                      EventLoopGroup bossLoop,
+                      EventLoopGroup workerLoop,
+                      int acceptors) {
         ServerBootstrap strap = new ServerBootstrap();
-        strap.channel(NioServerSocketChannel.class);
+        strap.channel(transport.getServerChannel());
         strap.childHandler(new WsServerInitializer());
         strap.group(bossLoop, workerLoop);
+        if (acceptors > 1) {
+            transport.enableReusePort(strap);
+        }
 
-        ChannelFuture fut = strap.bind(host, port);
-        fut.syncUninterruptibly();
+        for (int i = 0; i < Math.max(acceptors, 1); ++i) {
+            ChannelFuture fut = strap.bind(host, port);
+            fut.syncUninterruptibly();
+            channels.add(fut.channel());
+        }
         {
             String pretty = ssl != null ? "HTTPS" : "HTTP";
-            LOGGER.info("{} server bound to {} on port {}", pretty, host, port);
+            LOGGER.info("{} server bound to {} on port {} with {} acceptor(s)",
+                        pretty, host, port, channels.size());
+        }
+        for (Channel channel : channels) {
+            channel.closeFuture().syncUninterruptibly();
         }
-        channel = fut.channel();
-        channel.closeFuture().syncUninterruptibly();
     }
 
     public void stop() {
-        if (channel != null) {
+        for (Channel channel : channels) {
             channel.close();
-            channel = null;
         }
+        channels.clear();
     }
 
     private class WsServerInitializer extends ChannelInitializer<SocketChannel> {
@@ -74,8 +121,11 @@ public class Server {
             }
             pipeline.addLast(new HttpServerCodec());
             pipeline.addLast(new HttpObjectAggregator(65536));
-            pipeline.addLast(new WebSocketServerCompressionHandler());
-            pipeline.addLast(new WsServerHandler(broker, ssl != null));
+            ChannelHandler deflate = compression.newHandler();
+            if (deflate != null) {
+                pipeline.addLast(deflate);
+            }
+            pipeline.addLast(new WsServerHandler(broker, ssl != null, handshakes, limits));
         }
     }
 }
@@ -1,10 +1,10 @@
 package org.dsa.iot.broker.server;
 
 import io.netty.channel.EventLoopGroup;
-import io.netty.channel.nio.NioEventLoopGroup;
 import io.netty.handler.ssl.SslContext;
 import org.dsa.iot.broker.Broker;
 import org.dsa.iot.dslink.util.json.JsonObject;
+import org.dsa.iot.shared.Transport;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -20,8 +20,13 @@ public class ServerManager {
     private final JsonObject serverConf;
     private final Broker broker;
 
+    private Transport transport;
     private EventLoopGroup bossLoop;
     private EventLoopGroup workerLoop;
+    private int acceptors;
+    private HandshakeManager handshakes;
+    private FrameLimits limits;
+    private Compression compression;
 
     private Server httpServer;
     private Server httpsServer;
@@ -40,8 +45,17 @@ public class ServerManager {
     public void start() throws Exception {
         stop();
         LOGGER.info("Servers are starting");
-        bossLoop = new NioEventLoopGroup(1);
-        workerLoop = new NioEventLoopGroup();
+        JsonObject transportConf = serverConf.get("transport");
+        initTransport(transportConf);
+
+        JsonObject handshakeConf = serverConf.get("handshake");
+        handshakes = HandshakeManager.create(handshakeConf);
+        handshakes.start();
+
+        JsonObject websocketConf = serverConf.get("websocket");
+        limits = FrameLimits.fromConfig(websocketConf);
+        JsonObject compressionConf = serverConf.get("compression");
+        compression = Compression.fromConfig(compressionConf);
 
         final JsonObject httpConf = serverConf.get("http");
         final JsonObject httpsConf = serverConf.get("https");
@@ -78,6 +92,10 @@ public class ServerManager {
     }
 
     public void stop() {
+        if (handshakes != null) {
+            handshakes.stop();
+            handshakes = null;
+        }
         if (!(bossLoop == null || workerLoop == null)) {
             bossLoop.shutdownGracefully();
             workerLoop.shutdownGracefully();
@@ -92,11 +110,46 @@ public class ServerManager {
         }
     }
 
+    private void initTransport(JsonObject conf) {
+        String type = "nio";
+        int bossThreads = 1;
+        int workerThreads = 0;
+        boolean reusePort = false;
+        if (conf != null) {
+            type = conf.get("type", type);
+            bossThreads = conf.get("bossThreads", bossThreads);
+            workerThreads = conf.get("workerThreads", workerThreads);
+            reusePort = conf.get("reusePort", reusePort);
+        }
+        if (bossThreads < 1) {
+            throw new IllegalStateException("bossThreads must be at least 1");
+        } else if (workerThreads < 0) {
+            throw new IllegalStateException("workerThreads must not be negative");
+        }
+
+        transport = Transport.select(type);
+        if (!("auto".equals(type) || transport.getName().equals(type))) {
+            String warn = "Transport `{}` is unavailable, falling back to `{}`";
+            LOGGER.warn(warn, type, transport.getName());
+        }
+        if (reusePort && !transport.supportsReusePort()) {
+            String warn = "Transport `{}` does not support reusePort";
+            LOGGER.warn(warn, transport.getName());
+            reusePort = false;
+        }
+        LOGGER.info("Using the {} transport", transport.getName());
+
+        // Each acceptor is bound to the same port on its own boss thread
+        acceptors = reusePort ? bossThreads : 1;
+        bossLoop = transport.createGroup(bossThreads);
+        workerLoop = transport.createGroup(workerThreads);
+    }
+
     private void startHttpServer(JsonObject conf) {
         String host = conf.get("host");
         int port = conf.get("port");
-        httpServer = new Server(host, port, null, broker);
-        httpServer.start(bossLoop, workerLoop);
+        httpServer = new Server(host, port, null, broker, handshakes, limits, compression);
+        httpServer.start(transport, bossLoop, workerLoop, acceptors);
     }
 
     private void startHttpsServer(JsonObject conf) {
@@ -121,7 +174,7 @@ public class ServerManager {
 
         String host = conf.get("host");
         int port = conf.get("port");
-        httpsServer = new Server(host, port, ssl, broker);
-        httpsServer.start(bossLoop, workerLoop);
+        httpsServer = new Server(host, port, ssl, broker, handshakes, limits, compression);
+        httpsServer.start(transport, bossLoop, workerLoop, acceptors);
     }
 }
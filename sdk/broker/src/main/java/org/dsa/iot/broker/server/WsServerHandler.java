@@ -5,13 +5,17 @@ import io.netty.channel.Channel;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.channel.SimpleChannelInboundHandler;
 import io.netty.handler.codec.http.*;
+import io.netty.handler.codec.http.websocketx.WebSocketFrameAggregator;
 import io.netty.handler.codec.http.websocketx.WebSocketServerHandshaker;
 import io.netty.handler.codec.http.websocketx.WebSocketServerHandshakerFactory;
 import io.netty.util.AsciiString;
 import io.netty.util.CharsetUtil;
 import org.dsa.iot.broker.Broker;
 import org.dsa.iot.broker.server.client.Client;
+import org.dsa.iot.dslink.handshake.LocalKeys;
 import org.dsa.iot.dslink.util.json.JsonObject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import java.util.List;
 
@@ -20,17 +24,48 @@ import java.util.List;
  */
 public class WsServerHandler extends SimpleChannelInboundHandler<FullHttpRequest> {
 
+    private static final Logger LOGGER = LoggerFactory.getLogger(WsServerHandler.class);
     private static final HttpVersion VERSION = HttpVersion.HTTP_1_1;
 
     private final Broker broker;
     private final boolean secure;
+    private final HandshakeManager handshakes;
+    private final FrameLimits limits;
 
     public WsServerHandler(Broker broker, boolean secure) {
+        this(broker, secure, null);
+    }
+
+    /**
+     * @param broker Broker the links connect to.
+     * @param secure Whether the connection is over SSL.
+     * @param handshakes Worker pool for the handshake cryptography,
+     *                   {@code null} performs it on the I/O thread.
+     */
+    public WsServerHandler(Broker broker,
+                           boolean secure,
+                           HandshakeManager handshakes) {
+        this(broker, secure, handshakes, null);
+    }
+
+    /**
+     * @param broker Broker the links connect to.
+     * @param secure Whether the connection is over SSL.
+     * @param handshakes Worker pool for the handshake cryptography,
+     *                   {@code null} performs it on the I/O thread.
+     * @param limits WebSocket frame limits, {@code null} uses the defaults.
+     */
+    public WsServerHandler(Broker broker,
+                           boolean secure,
+                           HandshakeManager handshakes,
+                           FrameLimits limits) {
         if (broker == null) {
             throw new NullPointerException("broker");
         }
         this.broker = broker;
         this.secure = secure;
+        this.handshakes = handshakes;
+        this.limits = limits != null ? limits : FrameLimits.DEFAULT;
     }
 
     @Override
@@ -46,7 +81,7 @@ public class WsServerHandler extends SimpleChannelInboundHandler<FullHttpRequest
         String dsId = getParam(dec, "dsId");
         if ("/conn".equals(dec.path())
                 && req.method() == HttpMethod.POST) {
-            handleNewConn(ctx, req, dsId);
+            handleNewConn(ctx, req, req.uri(), dsId);
         } else if ("/ws".equals(dec.path())
                 && req.method() == HttpMethod.GET) {
             String auth = getParam(dec, "auth");
@@ -57,19 +92,71 @@ public class WsServerHandler extends SimpleChannelInboundHandler<FullHttpRequest
 
     }
 
-    private void handleNewConn(ChannelHandlerContext ctx,
+    private void handleNewConn(final ChannelHandlerContext ctx,
                                FullHttpRequest req,
-                               String dsId) {
-        ByteBuf content;
-        {
-            String data = req.content().toString(CharsetUtil.UTF_8);
+                               final String uri,
+                               final String dsId) {
+        final String data = req.content().toString(CharsetUtil.UTF_8);
+        if (handshakes == null) {
             JsonObject json = new JsonObject(data);
-            DsaHandshake handshake = new DsaHandshake(json, dsId);
-            content = handshake.initialize(broker);
-            if (content == null) {
-                sendForbidden(ctx);
+            if (redirect(ctx, uri, json, dsId)) {
                 return;
             }
+            DsaHandshake handshake = new DsaHandshake(json, dsId);
+            sendConnResponse(ctx, handshake.initialize(broker));
+            return;
+        }
+        boolean queued = handshakes.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    JsonObject json = new JsonObject(data);
+                    if (redirect(ctx, uri, json, dsId)) {
+                        return;
+                    }
+                    LocalKeys key = handshakes.takeKey();
+                    DsaHandshake handshake = new DsaHandshake(json, dsId, key);
+                    sendConnResponse(ctx, handshake.initialize(broker));
+                } catch (Exception e) {
+                    LOGGER.error("Failed to handshake with {}\n{}", dsId, e);
+                    ctx.close();
+                }
+            }
+        });
+        if (!queued) {
+            sendUnavailable(ctx);
+        }
+    }
+
+    /**
+     * Redirects responders to the cluster member that owns them.
+     *
+     * @return Whether the link was redirected.
+     */
+    private boolean redirect(ChannelHandlerContext ctx,
+                             String uri,
+                             JsonObject json,
+                             String dsId) {
+        Boolean responder = json.get("isResponder");
+        if (responder == null || !responder) {
+            return false;
+        }
+        String owner = broker.cluster().redirect(dsId);
+        if (owner == null) {
+            return false;
+        }
+        HttpResponseStatus stat = HttpResponseStatus.TEMPORARY_REDIRECT;
+        FullHttpResponse resp = new DefaultFullHttpResponse(VERSION, stat);
+        resp.headers().set(HttpHeaderNames.LOCATION, owner + uri);
+        sendHttpResponse(ctx, resp);
+        return true;
+    }
+
+    private static void sendConnResponse(ChannelHandlerContext ctx,
+                                         ByteBuf content) {
+        if (content == null) {
+            sendForbidden(ctx);
+            return;
         }
         HttpResponseStatus stat = HttpResponseStatus.OK;
         FullHttpResponse res = new DefaultFullHttpResponse(VERSION, stat, content);
@@ -88,28 +175,72 @@ public class WsServerHandler extends SimpleChannelInboundHandler<FullHttpRequest
         sendHttpResponse(ctx, res);
     }
 
-    private void handleWsConn(ChannelHandlerContext ctx,
-                              FullHttpRequest req,
-                              String auth,
+    private void handleWsConn(final ChannelHandlerContext ctx,
+                              final FullHttpRequest req,
+                              final String auth,
                               String dsId) {
-        Client client;
-        // Validate the auth and dsId
-        {
-            client = broker.clientManager().getPendingClient(dsId);
-            if (client == null || !client.handshake().validate(auth)) {
+        final Client client = broker.clientManager().getPendingClient(dsId);
+        if (client == null) {
+            sendForbidden(ctx);
+            return;
+        } else if (handshakes == null) {
+            if (client.handshake().validate(auth)) {
+                upgrade(ctx, req, client);
+            } else {
                 sendForbidden(ctx);
-                return;
             }
+            return;
+        }
+
+        // The request must outlive this handler until the upgrade is done
+        req.retain();
+        boolean queued = handshakes.execute(new Runnable() {
+            @Override
+            public void run() {
+                boolean valid;
+                try {
+                    valid = client.handshake().validate(auth);
+                } catch (Exception e) {
+                    LOGGER.error("Failed to validate auth", e);
+                    valid = false;
+                }
+                final boolean isValid = valid;
+                ctx.executor().execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            if (isValid) {
+                                upgrade(ctx, req, client);
+                            } else {
+                                sendForbidden(ctx);
+                            }
+                        } finally {
+                            req.release();
+                        }
+                    }
+                });
+            }
+        });
+        if (!queued) {
+            req.release();
+            sendUnavailable(ctx);
         }
+    }
 
-        // Allow the handshake to continue
+    private void upgrade(ChannelHandlerContext ctx,
+                         FullHttpRequest req,
+                         Client client) {
+        int maxMessageSize = limits.maxMessageSize();
         WebSocketServerHandshakerFactory ws = new WebSocketServerHandshakerFactory(
-                getWebSocketLocation(req), null, true, Integer.MAX_VALUE);
+                getWebSocketLocation(req), null, true, maxMessageSize);
         WebSocketServerHandshaker handshake = ws.newHandshaker(req);
         if (handshake == null) {
             Channel c = ctx.channel();
             WebSocketServerHandshakerFactory.sendUnsupportedVersionResponse(c);
         } else {
+            client.maxFrameSize(limits.maxFrameSize());
+            // Fragmented messages are reassembled before being handled
+            ctx.pipeline().addLast(new WebSocketFrameAggregator(maxMessageSize));
             ctx.pipeline().addLast(client);
             ctx.pipeline().remove(WsServerHandler.class);
             handshake.handshake(ctx.channel(), req);
@@ -133,6 +264,11 @@ public class WsServerHandler extends SimpleChannelInboundHandler<FullHttpRequest
         }
     }
 
+    private static void sendUnavailable(ChannelHandlerContext ctx) {
+        HttpResponseStatus stat = HttpResponseStatus.SERVICE_UNAVAILABLE;
+        sendHttpResponse(ctx, new DefaultFullHttpResponse(VERSION, stat));
+    }
+
     private static void sendForbidden(ChannelHandlerContext ctx) {
         HttpResponseStatus stat = HttpResponseStatus.FORBIDDEN;
         sendHttpResponse(ctx, new DefaultFullHttpResponse(VERSION, stat));
@@ -2,7 +2,6 @@ package org.dsa.iot.broker.server.client;
 
 import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
 import io.netty.buffer.ByteBuf;
-import io.netty.buffer.Unpooled;
 import io.netty.channel.*;
 import io.netty.handler.codec.http.websocketx.*;
 import io.netty.util.CharsetUtil;
@@ -10,22 +9,38 @@ import org.dsa.iot.broker.Broker;
 import org.dsa.iot.broker.node.DSLinkNode;
 import org.dsa.iot.broker.processor.MessageProcessor;
 import org.dsa.iot.broker.server.DsaHandshake;
+import org.dsa.iot.broker.utils.LinkMetrics;
+import org.dsa.iot.broker.utils.Metrics;
+import org.dsa.iot.dslink.util.json.EncodingFormat;
 import org.dsa.iot.dslink.util.json.JsonArray;
 import org.dsa.iot.dslink.util.json.JsonObject;
+import org.dsa.iot.shared.FrameWriter;
+import org.dsa.iot.shared.SharedObjects;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.IOException;
+import java.io.OutputStream;
+
 /**
  * @author Samuel Grenier
  */
 public class Client extends SimpleChannelInboundHandler<WebSocketFrame> {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(Client.class);
+    private static final byte[] RESPONSES_PREFIX;
+    private static final byte[] RESPONSES_SUFFIX;
+    private static final byte[] EMPTY_OBJECT;
+
+    private final LinkMetrics metrics = new LinkMetrics();
     private final DsaHandshake handshake;
     private final Broker broker;
 
     private ChannelHandlerContext ctx;
+    // Serializes the messages so fragments never interleave
+    private volatile FrameWriter writer;
     private DSLinkNode node;
+    private int maxFrameSize = SharedObjects.MAX_FRAME_SIZE;
 
     private JsonArray requestsCache;
     private JsonArray responsesCache;
@@ -44,10 +59,25 @@ public class Client extends SimpleChannelInboundHandler<WebSocketFrame> {
         this.node = node;
     }
 
+    public DSLinkNode node() {
+        return node;
+    }
+
     public MessageProcessor processor() {
         return node.processor();
     }
 
+    /**
+     * @param maxFrameSize Maximum payload size of the frames written to the
+     *                     link, larger messages are fragmented.
+     */
+    public void maxFrameSize(int maxFrameSize) {
+        if (maxFrameSize <= 0) {
+            throw new IllegalArgumentException("maxFrameSize");
+        }
+        this.maxFrameSize = maxFrameSize;
+    }
+
     public DsaHandshake handshake() {
         return handshake;
     }
@@ -56,15 +86,93 @@ public class Client extends SimpleChannelInboundHandler<WebSocketFrame> {
         return broker;
     }
 
+    public LinkMetrics metrics() {
+        return metrics;
+    }
+
+    /**
+     * @return Amount of requests waiting for the channel to be writable.
+     */
+    public synchronized int queuedRequests() {
+        JsonArray cache = requestsCache;
+        return cache != null ? cache.size() : 0;
+    }
+
+    /**
+     * @return Amount of responses waiting for the channel to be writable.
+     */
+    public synchronized int queuedResponses() {
+        JsonArray cache = responsesCache;
+        return cache != null ? cache.size() : 0;
+    }
+
+    /**
+     * @return Amount of messages waiting for the channel to be writable
+     *         before being encoded.
+     */
+    public int queuedMessages() {
+        FrameWriter writer = this.writer;
+        return writer != null ? writer.queued() : 0;
+    }
+
+    /**
+     * @return Amount of bytes written to the channel that are not yet
+     *         flushed to the socket.
+     */
+    public long pendingWriteBytes() {
+        ChannelHandlerContext ctx = this.ctx;
+        if (ctx == null) {
+            return 0;
+        }
+        ChannelOutboundBuffer buf = ctx.channel().unsafe().outboundBuffer();
+        return buf != null ? buf.totalPendingWriteBytes() : 0;
+    }
+
     public void close() {
         ChannelHandlerContext ctx = this.ctx;
         if (ctx != null) {
             ctx.close();
             this.ctx = null;
-            broker().clientManager().clientDisconnected(this);
+            disconnected();
         }
     }
 
+    /**
+     * Called once the WebSocket connection is established.
+     */
+    protected void connected() {
+        broker.clientManager().clientConnected(this);
+    }
+
+    /**
+     * Called once the WebSocket connection is closed.
+     */
+    protected void disconnected() {
+        broker.clientManager().clientDisconnected(this);
+    }
+
+    /**
+     * Called when the link sends an empty message to keep the connection
+     * alive.
+     *
+     * @param ctx Context of the connection.
+     */
+    protected void pingReceived(ChannelHandlerContext ctx) {
+        write(ctx, EMPTY_OBJECT);
+    }
+
+    private synchronized JsonArray takeRequests() {
+        JsonArray cache = requestsCache;
+        requestsCache = null;
+        return cache;
+    }
+
+    private synchronized JsonArray takeResponses() {
+        JsonArray cache = responsesCache;
+        responsesCache = null;
+        return cache;
+    }
+
     @SuppressFBWarnings("IS2_INCONSISTENT_SYNC")
     public boolean writeRequest(JsonArray requests) {
         ChannelHandlerContext ctx = this.ctx;
@@ -92,7 +200,7 @@ public class Client extends SimpleChannelInboundHandler<WebSocketFrame> {
         }
         JsonObject top = new JsonObject();
         top.put("requests", requests);
-        write(ctx, new String(top.encode(), CharsetUtil.UTF_8));
+        write(ctx, top);
         return true;
     }
 
@@ -123,26 +231,137 @@ public class Client extends SimpleChannelInboundHandler<WebSocketFrame> {
         }
         JsonObject top = new JsonObject();
         top.put("responses", responses);
-        write(ctx, new String(top.encode(), CharsetUtil.UTF_8));
+        write(ctx, top);
+        return true;
+    }
+
+    /**
+     * Writes a single response that has already been encoded into JSON.
+     * This allows the same encoded data to be shared across multiple
+     * requesters without encoding it for each one.
+     *
+     * @param response Encoded response object.
+     * @return Whether the response was written or queued.
+     */
+    public boolean writeResponse(byte[] response) {
+        ChannelHandlerContext ctx = this.ctx;
+        if (ctx == null) {
+            return false;
+        }
+        if (responsesCache != null || !ctx.channel().isWritable()) {
+            JsonArray resps = new JsonArray();
+            resps.add(new JsonObject(EncodingFormat.JSON, response));
+            return writeResponse(resps);
+        }
+        int prefix = RESPONSES_PREFIX.length;
+        int suffix = RESPONSES_SUFFIX.length;
+        byte[] data = new byte[prefix + response.length + suffix];
+        System.arraycopy(RESPONSES_PREFIX, 0, data, 0, prefix);
+        System.arraycopy(response, 0, data, prefix, response.length);
+        System.arraycopy(RESPONSES_SUFFIX, 0, data, prefix + response.length, suffix);
+        write(ctx, data);
         return true;
     }
 
-    private void write(ChannelHandlerContext ctx, String data) {
-        byte[] bytes = data.getBytes(CharsetUtil.UTF_8);
-        ByteBuf buf = Unpooled.wrappedBuffer(bytes);
-        TextWebSocketFrame frame = new TextWebSocketFrame(buf);
-        ctx.channel().writeAndFlush(frame);
-        broker().metrics().incrementOut();
-        if (LOGGER.isDebugEnabled()) {
-            LOGGER.debug("[Sent] {}: {}", handshake().dsId(), data);
+    /**
+     * Queues the message on the writer of the connection. The message is
+     * encoded on the event loop of the channel, messages larger than the
+     * maximum frame size are sent as fragments.
+     */
+    private void write(ChannelHandlerContext ctx, final JsonObject obj) {
+        writer(ctx).write(new FrameWriter.Message(false) {
+
+            private long start;
+
+            @Override
+            protected void encode(OutputStream out) {
+                start = System.nanoTime();
+                obj.encode(EncodingFormat.JSON, out);
+            }
+
+            @Override
+            protected void sent(long written) {
+                Metrics metrics = broker().metrics();
+                metrics.recordEncode(System.nanoTime() - start);
+                metrics.sent(Client.this.metrics, (int) written);
+                if (LOGGER.isDebugEnabled()) {
+                    LOGGER.debug("[Sent] {}: {}", handshake().dsId(), obj);
+                }
+            }
+
+            @Override
+            protected void failed(Exception cause) {
+                String dsId = handshake().dsId();
+                LOGGER.error("Failed to write message to {}", dsId, cause);
+            }
+        });
+    }
+
+    private void write(ChannelHandlerContext ctx, final byte[] data) {
+        writer(ctx).write(new FrameWriter.Message(false) {
+            @Override
+            protected void encode(OutputStream out) throws IOException {
+                out.write(data, 0, data.length);
+            }
+
+            @Override
+            protected void sent(long written) {
+                broker().metrics().sent(metrics, data.length);
+                if (LOGGER.isDebugEnabled()) {
+                    String s = new String(data, CharsetUtil.UTF_8);
+                    LOGGER.debug("[Sent] {}: {}", handshake().dsId(), s);
+                }
+            }
+
+            @Override
+            protected void failed(Exception cause) {
+                String dsId = handshake().dsId();
+                LOGGER.error("Failed to write message to {}", dsId, cause);
+            }
+        });
+    }
+
+    private FrameWriter writer(ChannelHandlerContext ctx) {
+        FrameWriter writer = this.writer;
+        if (writer == null) {
+            synchronized (this) {
+                writer = this.writer;
+                if (writer == null) {
+                    writer = new FrameWriter(ctx.channel(), maxFrameSize);
+                    this.writer = writer;
+                }
+            }
         }
+        return writer;
     }
 
     @Override
     public void channelActive(ChannelHandlerContext ctx) {
         this.ctx = ctx;
-        write(ctx, "{}");
-        broker.clientManager().clientConnected(this);
+        write(ctx, EMPTY_OBJECT);
+        connected();
+    }
+
+    /**
+     * Resumes the messages held back while the channel was not writable.
+     */
+    @Override
+    public void channelWritabilityChanged(ChannelHandlerContext ctx) throws Exception {
+        if (ctx.channel().isWritable()) {
+            FrameWriter writer = this.writer;
+            if (writer != null) {
+                writer.resume();
+            }
+            JsonArray requests = takeRequests();
+            if (requests != null) {
+                writeRequest(requests);
+            }
+            JsonArray responses = takeResponses();
+            if (responses != null) {
+                writeResponse(responses);
+            }
+        }
+        super.channelWritabilityChanged(ctx);
     }
 
     @Override
@@ -155,16 +374,19 @@ public class Client extends SimpleChannelInboundHandler<WebSocketFrame> {
                                 WebSocketFrame frame) throws Exception {
         final Channel channel = ctx.channel();
         if (frame instanceof TextWebSocketFrame) {
+            Metrics metrics = broker().metrics();
+            metrics.received(this.metrics, frame.content().readableBytes());
             String data = ((TextWebSocketFrame) frame).text();
-            broker().metrics().incrementIn();
             if (LOGGER.isDebugEnabled()) {
                 LOGGER.debug("[Received] {}: {}", handshake().dsId(), data);
             }
             if ("{}".equals(data)) {
-                write(ctx, "{}");
+                pingReceived(ctx);
             } else {
                 try {
+                    long start = System.nanoTime();
                     JsonObject obj = new JsonObject(data);
+                    metrics.recordDecode(System.nanoTime() - start);
                     processor().processData(obj);
                 } catch (RuntimeException e) {
                     String dsId = handshake().dsId();
@@ -185,4 +407,10 @@ public class Client extends SimpleChannelInboundHandler<WebSocketFrame> {
             throw new UnsupportedOperationException(err);
         }
     }
+
+    static {
+        RESPONSES_PREFIX = "{\"responses\":[".getBytes(CharsetUtil.UTF_8);
+        RESPONSES_SUFFIX = "]}".getBytes(CharsetUtil.UTF_8);
+        EMPTY_OBJECT = "{}".getBytes(CharsetUtil.UTF_8);
+    }
 }
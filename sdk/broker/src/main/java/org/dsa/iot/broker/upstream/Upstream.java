@@ -0,0 +1,230 @@
+package org.dsa.iot.broker.upstream;
+
+import org.dsa.iot.broker.Broker;
+import org.dsa.iot.broker.node.DSLinkNode;
+import org.dsa.iot.broker.server.DsaHandshake;
+import org.dsa.iot.dslink.config.Configuration;
+import org.dsa.iot.dslink.connection.ConnectionManager;
+import org.dsa.iot.dslink.connection.ConnectionType;
+import org.dsa.iot.dslink.connection.DataHandler;
+import org.dsa.iot.dslink.connection.DataHandler.DataReceived;
+import org.dsa.iot.dslink.handshake.LocalHandshake;
+import org.dsa.iot.dslink.handshake.LocalKeys;
+import org.dsa.iot.dslink.node.NodeManager;
+import org.dsa.iot.dslink.util.handler.Handler;
+import org.dsa.iot.dslink.util.json.JsonArray;
+import org.dsa.iot.dslink.util.json.JsonObject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+
+/**
+ * Connects the broker to an upstream broker as a responder link. The
+ * upstream broker becomes a requester of this broker and its list,
+ * subscribe, invoke, set and remove requests are processed against the
+ * downstream of this broker, the rest of the local tree is not exposed. As
+ * the upstream broker is a single requester, every path it subscribes to
+ * shares a single subscription no matter how many of its own requesters
+ * are watching it.
+ *
+ * @author Samuel Grenier
+ * @see org.dsa.iot.broker.config.broker.BrokerMemoryConfig
+ */
+public class Upstream {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(Upstream.class);
+
+    private final Broker broker;
+
+    private ConnectionManager manager;
+    private UpstreamNode node;
+    private DsaHandshake handshake;
+    private long interval;
+    private volatile UpstreamClient client;
+
+    public Upstream(Broker broker) {
+        if (broker == null) {
+            throw new NullPointerException("broker");
+        }
+        this.broker = broker;
+    }
+
+    /**
+     * @param conf Upstream configuration, {@code null} disables it.
+     */
+    public synchronized void start(JsonObject conf) {
+        stop();
+        if (conf == null || !conf.get("enabled", false)) {
+            return;
+        }
+        String url = conf.get("url");
+        if (url == null) {
+            throw new IllegalStateException("Upstream url not configured");
+        }
+        String name = conf.get("name", "broker");
+        String token = conf.get("token");
+        String keyFile = conf.get("keyFile", ".upstream.key");
+        interval = conf.get("coalesceInterval", 100);
+
+        Configuration config = new Configuration();
+        config.setAuthEndpoint(url);
+        config.setDsId(name);
+        config.setKeys(LocalKeys.getFromFileSystem(new File(keyFile)));
+        config.setConnectionType(ConnectionType.WEB_SOCKET);
+        config.setRequester(false);
+        config.setResponder(true);
+        if (token != null) {
+            config.setToken(token);
+        }
+
+        // The upstream broker as seen by this broker
+        {
+            JsonObject json = new JsonObject();
+            json.put("isRequester", true);
+            json.put("isResponder", false);
+            LocalKeys keys = config.getKeys();
+            String dsId = "upstream-" + keys.encodedHashPublicKey();
+            handshake = new DsaHandshake(json, dsId, keys);
+            node = new UpstreamNode(broker);
+        }
+
+        manager = new ConnectionManager(config, new LocalHandshake(config));
+        manager.setPreInitHandler(new Handler<ConnectionManager.Client>() {
+            @Override
+            public void handle(ConnectionManager.Client event) {
+                final DataHandler handler = event.getHandler();
+                handler.setReqHandler(new Handler<DataReceived>() {
+                    @Override
+                    public void handle(DataReceived event) {
+                        process(handler, event);
+                    }
+                });
+                event.setResponderOnConnected(new Handler<ConnectionManager.Client>() {
+                    @Override
+                    public void handle(ConnectionManager.Client event) {
+                        connected(handler);
+                    }
+                });
+                event.setResponderOnDisconnected(new Handler<Void>() {
+                    @Override
+                    public void handle(Void event) {
+                        disconnected();
+                    }
+                });
+            }
+        });
+        manager.start(new Handler<ConnectionManager.Client>() {
+            @Override
+            public void handle(ConnectionManager.Client event) {
+                LOGGER.info("Connected to upstream broker");
+            }
+        });
+    }
+
+    public synchronized void stop() {
+        if (manager != null) {
+            manager.stop();
+            manager = null;
+        }
+        disconnected();
+    }
+
+    private void connected(DataHandler handler) {
+        UpstreamClient client;
+        synchronized (this) {
+            client = new UpstreamClient(broker, handshake, node, handler, interval);
+            this.client = client;
+        }
+        node.connected(client);
+    }
+
+    private void disconnected() {
+        UpstreamClient client;
+        synchronized (this) {
+            client = this.client;
+            this.client = null;
+        }
+        if (client != null) {
+            client.purge();
+            node.disconnected(client);
+        }
+    }
+
+    private void process(DataHandler handler, DataReceived data) {
+        UpstreamClient client = this.client;
+        if (client == null) {
+            return;
+        }
+        JsonArray requests = data.getData();
+        try {
+            JsonObject obj = new JsonObject();
+            obj.put("requests", scope(broker.downstream(), requests));
+            client.processor().processData(obj);
+        } catch (RuntimeException e) {
+            LOGGER.error("Error occurred processing upstream requests\n{}", e);
+        }
+        if (requests != null) {
+            for (Object o : requests) {
+                JsonObject req = (JsonObject) o;
+                if ("unsubscribe".equals(req.get("method"))) {
+                    client.purge((JsonArray) req.get("sids"));
+                }
+            }
+        }
+        handler.writeAck(data.getMsgId());
+    }
+
+    /**
+     * Resolves the paths of upstream requests from the downstream of this
+     * broker, the root of the link as seen by the upstream broker. The rest
+     * of the local tree such as {@code /sys} is never exposed.
+     *
+     * @param downstream Name of the downstream of this broker.
+     * @param requests Requests of the upstream broker, updated in place.
+     * @return The requests.
+     */
+    static JsonArray scope(String downstream, JsonArray requests) {
+        if (requests == null) {
+            return new JsonArray();
+        }
+        for (Object o : requests) {
+            JsonObject req = (JsonObject) o;
+            scopePath(downstream, req);
+            JsonArray paths = req.get("paths");
+            if (paths != null) {
+                for (Object p : paths) {
+                    scopePath(downstream, (JsonObject) p);
+                }
+            }
+        }
+        return requests;
+    }
+
+    private static void scopePath(String downstream, JsonObject obj) {
+        String path = obj.get("path");
+        if (path == null) {
+            return;
+        }
+        path = NodeManager.normalizePath(path, true);
+        if ("/".equals(path)) {
+            path = "";
+        }
+        obj.put("path", "/" + downstream + path);
+    }
+
+    /**
+     * Holds the requester state of the upstream broker. The node is never
+     * listed in the downstream of this broker.
+     */
+    private static class UpstreamNode extends DSLinkNode {
+
+        public UpstreamNode(Broker broker) {
+            super(broker.tree().downstream(), "upstream");
+        }
+
+        @Override
+        public void accessible(boolean accessible) {
+        }
+    }
+}
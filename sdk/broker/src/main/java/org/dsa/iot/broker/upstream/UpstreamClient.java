@@ -0,0 +1,181 @@
+package org.dsa.iot.broker.upstream;
+
+import org.dsa.iot.broker.Broker;
+import org.dsa.iot.broker.node.DSLinkNode;
+import org.dsa.iot.broker.server.DsaHandshake;
+import org.dsa.iot.broker.server.client.Client;
+import org.dsa.iot.dslink.connection.DataHandler;
+import org.dsa.iot.dslink.util.Objects;
+import org.dsa.iot.dslink.util.json.EncodingFormat;
+import org.dsa.iot.dslink.util.json.JsonArray;
+import org.dsa.iot.dslink.util.json.JsonObject;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The upstream broker as a requester of this broker. Responses are written
+ * through the SDK connection. Value updates are coalesced per subscription
+ * so only the last value of each interval is sent upstream.
+ *
+ * @author Samuel Grenier
+ */
+class UpstreamClient extends Client {
+
+    private final DataHandler handler;
+    private final long interval;
+
+    private final Object lock = new Object();
+    private Map<Integer, Object> values = new LinkedHashMap<>();
+    private boolean flushScheduled;
+
+    /**
+     * @param broker Broker the upstream connection belongs to.
+     * @param handshake Handshake describing the upstream broker.
+     * @param node Node processing the requests of the upstream broker.
+     * @param handler Connection to the upstream broker.
+     * @param interval Interval in milliseconds value updates are coalesced
+     *                 over, 0 disables coalescing.
+     */
+    public UpstreamClient(Broker broker,
+                          DsaHandshake handshake,
+                          DSLinkNode node,
+                          DataHandler handler,
+                          long interval) {
+        super(broker, handshake);
+        if (handler == null) {
+            throw new NullPointerException("handler");
+        }
+        this.handler = handler;
+        this.interval = interval;
+        node(node);
+    }
+
+    @Override
+    public boolean writeRequest(JsonArray requests) {
+        // The upstream broker is never a responder of this broker
+        return false;
+    }
+
+    @Override
+    public boolean writeResponse(JsonArray responses) {
+        if (!handler.isConnected()) {
+            return false;
+        }
+        for (Object obj : responses) {
+            JsonObject resp = (JsonObject) obj;
+            Integer rid = resp.get("rid");
+            if (interval > 0 && rid != null && rid == 0) {
+                coalesce((JsonArray) resp.get("updates"));
+            } else {
+                handler.writeResponse(resp);
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public boolean writeResponse(byte[] response) {
+        JsonArray resps = new JsonArray();
+        resps.add(new JsonObject(EncodingFormat.JSON, response));
+        return writeResponse(resps);
+    }
+
+    private void coalesce(JsonArray updates) {
+        if (updates == null) {
+            return;
+        }
+        synchronized (lock) {
+            for (Object obj : updates) {
+                // The update is reused for the next subscriber
+                Integer sid;
+                Object copy;
+                if (obj instanceof JsonArray) {
+                    JsonArray update = (JsonArray) obj;
+                    JsonArray array = new JsonArray();
+                    for (int i = 0; i < update.size(); ++i) {
+                        array.add(update.get(i));
+                    }
+                    sid = array.get(0);
+                    copy = array;
+                } else if (obj instanceof JsonObject) {
+                    JsonObject map = new JsonObject();
+                    for (Map.Entry<String, Object> entry : (JsonObject) obj) {
+                        map.put(entry.getKey(), entry.getValue());
+                    }
+                    sid = map.get("sid");
+                    copy = map;
+                } else {
+                    continue;
+                }
+                if (sid != null) {
+                    values.put(sid, copy);
+                }
+            }
+            if (flushScheduled || values.isEmpty()) {
+                return;
+            }
+            flushScheduled = true;
+        }
+        Objects.getDaemonThreadPool().schedule(new Runnable() {
+            @Override
+            public void run() {
+                flush();
+            }
+        }, interval, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Drops the pending updates of subscriptions once they are unsubscribed
+     * so they are not sent after the unsubscribe response.
+     *
+     * @param sids Unsubscribed sids.
+     */
+    public void purge(JsonArray sids) {
+        if (sids == null) {
+            return;
+        }
+        synchronized (lock) {
+            for (Object sid : sids) {
+                values.remove(sid);
+            }
+        }
+    }
+
+    /**
+     * Drops every pending update once the connection is closed.
+     */
+    public void purge() {
+        synchronized (lock) {
+            values.clear();
+        }
+    }
+
+    /**
+     * Sends the last value of every subscription updated since the last
+     * flush.
+     */
+    public void flush() {
+        Map<Integer, Object> values;
+        synchronized (lock) {
+            flushScheduled = false;
+            values = this.values;
+            if (values.isEmpty()) {
+                return;
+            }
+            this.values = new LinkedHashMap<>();
+        }
+        if (!handler.isConnected()) {
+            return;
+        }
+        JsonArray updates = new JsonArray();
+        for (Object update : values.values()) {
+            updates.add(update);
+        }
+        JsonObject resp = new JsonObject();
+        resp.put("rid", 0);
+        resp.put("updates", updates);
+        handler.writeResponse(resp);
+    }
+}
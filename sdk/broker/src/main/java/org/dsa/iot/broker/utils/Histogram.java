@@ -0,0 +1,164 @@
+package org.dsa.iot.broker.utils;
+
+import org.dsa.iot.dslink.util.json.JsonObject;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A concurrent histogram with log-linear buckets in the style of an HDR
+ * histogram. Values below 64 are counted exactly, larger values are counted
+ * in buckets with a relative error of at most ~3%. Recording a value never
+ * allocates and never blocks.
+ *
+ * @author Samuel Grenier
+ */
+public class Histogram {
+
+    private static final int SUB_BITS = 5;
+    private static final int HALF = 1 << SUB_BITS;
+    private static final int LINEAR = HALF << 1;
+    private static final int BUCKETS = (63 - SUB_BITS) * HALF + HALF;
+
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+    private final StripedCounter sum = new StripedCounter();
+    private final AtomicLong max = new AtomicLong();
+    private final String unit;
+
+    /**
+     * @param unit Unit of the recorded values, used when reporting.
+     */
+    public Histogram(String unit) {
+        if (unit == null) {
+            throw new NullPointerException("unit");
+        }
+        this.unit = unit;
+    }
+
+    /**
+     * @param value Value to record, negative values are recorded as 0.
+     */
+    public void record(long value) {
+        if (value < 0) {
+            value = 0;
+        }
+        buckets.incrementAndGet(index(value));
+        sum.add(value);
+        long m;
+        while (value > (m = max.get())) {
+            if (max.compareAndSet(m, value)) {
+                break;
+            }
+        }
+    }
+
+    /**
+     * @param reset Whether to reset the histogram after taking the snapshot.
+     * @return A snapshot of the recorded values.
+     */
+    public Snapshot snapshot(boolean reset) {
+        long[] counts = new long[BUCKETS];
+        long count = 0;
+        for (int i = 0; i < BUCKETS; ++i) {
+            long c = reset ? buckets.getAndSet(i, 0) : buckets.get(i);
+            counts[i] = c;
+            count += c;
+        }
+        long total = reset ? sum.sumThenReset() : sum.sum();
+        long maximum = reset ? max.getAndSet(0) : max.get();
+        return new Snapshot(unit, counts, count, total, maximum);
+    }
+
+    static int index(long value) {
+        if (value < LINEAR) {
+            return (int) value;
+        }
+        int msb = 63 - Long.numberOfLeadingZeros(value);
+        int shift = msb - SUB_BITS;
+        return shift * HALF + (int) (value >>> shift);
+    }
+
+    static long lowerBound(int index) {
+        if (index < LINEAR) {
+            return index;
+        }
+        int shift = index / HALF - 1;
+        long sub = index - shift * HALF;
+        return sub << shift;
+    }
+
+    static long highestEquivalent(int index) {
+        if (index < LINEAR) {
+            return index;
+        }
+        int shift = index / HALF - 1;
+        return lowerBound(index) + (1L << shift) - 1;
+    }
+
+    public static class Snapshot {
+
+        private final String unit;
+        private final long[] counts;
+        private final long count;
+        private final long sum;
+        private final long max;
+
+        private Snapshot(String unit,
+                         long[] counts,
+                         long count,
+                         long sum,
+                         long max) {
+            this.unit = unit;
+            this.counts = counts;
+            this.count = count;
+            this.sum = sum;
+            this.max = max;
+        }
+
+        public long count() {
+            return count;
+        }
+
+        public long max() {
+            return max;
+        }
+
+        public double mean() {
+            return count == 0 ? 0 : (double) sum / count;
+        }
+
+        /**
+         * @param percentile Percentile between 0 and 100.
+         * @return The highest value equivalent to the value at the
+         *         percentile, capped at the recorded maximum.
+         */
+        public long percentile(double percentile) {
+            if (count == 0) {
+                return 0;
+            }
+            long target = (long) Math.ceil(count * (percentile / 100D));
+            target = Math.max(1, Math.min(count, target));
+            long seen = 0;
+            for (int i = 0; i < counts.length; ++i) {
+                seen += counts[i];
+                if (seen >= target) {
+                    return Math.min(highestEquivalent(i), max);
+                }
+            }
+            return max;
+        }
+
+        public JsonObject toJson() {
+            JsonObject obj = new JsonObject();
+            obj.put("unit", unit);
+            obj.put("count", count);
+            obj.put("mean", mean());
+            obj.put("p50", percentile(50));
+            obj.put("p90", percentile(90));
+            obj.put("p99", percentile(99));
+            obj.put("p999", percentile(99.9));
+            obj.put("max", max);
+            return obj;
+        }
+    }
+}
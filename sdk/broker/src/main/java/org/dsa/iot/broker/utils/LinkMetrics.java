@@ -0,0 +1,41 @@
+package org.dsa.iot.broker.utils;
+
+/**
+ * Traffic counters of a single connected link. The counters are reset by
+ * {@link Metrics} every interval to compute the rates.
+ *
+ * @author Samuel Grenier
+ */
+public class LinkMetrics {
+
+    private final StripedCounter messagesIn = new StripedCounter();
+    private final StripedCounter messagesOut = new StripedCounter();
+    private final StripedCounter bytesIn = new StripedCounter();
+    private final StripedCounter bytesOut = new StripedCounter();
+
+    public void received(int bytes) {
+        messagesIn.increment();
+        bytesIn.add(bytes);
+    }
+
+    public void sent(int bytes) {
+        messagesOut.increment();
+        bytesOut.add(bytes);
+    }
+
+    public StripedCounter messagesIn() {
+        return messagesIn;
+    }
+
+    public StripedCounter messagesOut() {
+        return messagesOut;
+    }
+
+    public StripedCounter bytesIn() {
+        return bytesIn;
+    }
+
+    public StripedCounter bytesOut() {
+        return bytesOut;
+    }
+}
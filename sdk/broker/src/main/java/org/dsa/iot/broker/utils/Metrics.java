@@ -1,90 +1,405 @@
 package org.dsa.iot.broker.utils;
 
+import io.netty.util.CharsetUtil;
 import org.dsa.iot.broker.Broker;
 import org.dsa.iot.broker.node.BrokerNode;
+import org.dsa.iot.broker.node.DSLinkNode;
+import org.dsa.iot.broker.server.client.Client;
 import org.dsa.iot.dslink.node.value.Value;
 import org.dsa.iot.dslink.node.value.ValueType;
+import org.dsa.iot.dslink.util.FileUtils;
 import org.dsa.iot.dslink.util.Objects;
+import org.dsa.iot.dslink.util.json.JsonObject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
-import java.util.concurrent.atomic.AtomicInteger;
 
 /**
+ * Collects the broker metrics. Every interval the counters are turned into
+ * rates and the histograms are reset, the results are published to the
+ * nodes under {@code /sys} where they can be subscribed to. The results can
+ * also be dumped to a file and exposed over JMX.
+ *
  * @author Samuel Grenier
+ * @see org.dsa.iot.broker.config.broker.BrokerMemoryConfig
  */
-public class Metrics {
+public class Metrics implements MetricsMXBean {
 
-    private final BrokerNode<?> messagesInNode;
-    private final BrokerNode<?> messagesOutNode;
+    private static final Logger LOGGER = LoggerFactory.getLogger(Metrics.class);
+    private static final String[] METHODS = {
+            "list", "set", "remove", "invoke", "subscribe"
+    };
+
+    private final StripedCounter messagesIn = new StripedCounter();
+    private final StripedCounter messagesOut = new StripedCounter();
+    private final StripedCounter bytesIn = new StripedCounter();
+    private final StripedCounter bytesOut = new StripedCounter();
+
+    private final Map<String, Histogram> latencies;
+    private final Histogram fanout = new Histogram("subscribers");
+    private final Histogram encodeTime = new Histogram("ns");
+    private final Histogram decodeTime = new Histogram("ns");
+
+    private final Map<Client, BrokerNode> links = new ConcurrentHashMap<>();
+
+    private final BrokerNode<BrokerNode> sys;
+    private final BrokerNode<BrokerNode> linksNode;
+    private final Map<String, BrokerNode> nodes = new HashMap<>();
 
-    private AtomicInteger messagesIn;
-    private AtomicInteger messagesOut;
     private ScheduledFuture<?> future;
+    private ObjectName objectName;
+    private File dumpFile;
+    private int dumpTicks;
+    private int ticks;
+    private long lastTick;
+
+    private volatile JsonObject snapshot = new JsonObject();
+
+    private Metrics(BrokerNode<BrokerNode> sys) {
+        this.sys = sys;
+
+        addNumberNode("messagesInPerSecond");
+        addNumberNode("messagesOutPerSecond");
+        addNumberNode("bytesInPerSecond");
+        addNumberNode("bytesOutPerSecond");
+        nodes.put("subscriptionFanout", addMapNode(sys, "subscriptionFanout"));
+        nodes.put("encodeTime", addMapNode(sys, "encodeTime"));
+        nodes.put("decodeTime", addMapNode(sys, "decodeTime"));
+
+        BrokerNode<BrokerNode> latency = new BrokerNode<>(sys, "latency");
+        sys.addChild(latency);
+        Map<String, Histogram> latencies = new HashMap<>();
+        for (String method : METHODS) {
+            latencies.put(method, new Histogram("us"));
+            nodes.put("latency/" + method, addMapNode(latency, method));
+        }
+        this.latencies = Collections.unmodifiableMap(latencies);
+
+        linksNode = new BrokerNode<>(sys, "links");
+        sys.addChild(linksNode);
+    }
+
+    /**
+     * @param link Metrics of the link the message was received from.
+     * @param bytes Size of the received message.
+     */
+    public void received(LinkMetrics link, int bytes) {
+        messagesIn.increment();
+        bytesIn.add(bytes);
+        link.received(bytes);
+    }
+
+    /**
+     * @param link Metrics of the link the message was sent to.
+     * @param bytes Size of the sent message.
+     */
+    public void sent(LinkMetrics link, int bytes) {
+        messagesOut.increment();
+        bytesOut.add(bytes);
+        link.sent(bytes);
+    }
+
+    /**
+     * Records the time between a request being forwarded to a responder and
+     * the first response being received.
+     *
+     * @param method Method of the request.
+     * @param start Time the request was forwarded from {@link System#nanoTime}.
+     */
+    public void recordLatency(String method, long start) {
+        Histogram h = latencies.get(method);
+        if (h != null) {
+            h.record((System.nanoTime() - start) / 1000);
+        }
+    }
+
+    /**
+     * @param subscribers Amount of subscribers a value update was sent to.
+     */
+    public void recordFanout(int subscribers) {
+        fanout.record(subscribers);
+    }
+
+    public void recordEncode(long nanos) {
+        encodeTime.record(nanos);
+    }
 
-    public Metrics(BrokerNode msgIn, BrokerNode msgOut) {
-        this.messagesInNode = msgIn;
-        this.messagesOutNode = msgOut;
+    public void recordDecode(long nanos) {
+        decodeTime.record(nanos);
     }
 
-    public void incrementIn() {
-        AtomicInteger in = this.messagesIn;
-        if (in != null) {
-            in.incrementAndGet();
+    /**
+     * Publishes the metrics of a link under {@code /sys/links}.
+     *
+     * @param client Client that connected.
+     */
+    @SuppressWarnings("unchecked")
+    public void clientConnected(Client client) {
+        DSLinkNode node = client.node();
+        if (node == null) {
+            return;
+        }
+        String name = node.name();
+        synchronized (linksNode) {
+            BrokerNode link = linksNode.getChild(name);
+            if (link == null) {
+                link = addMapNode(linksNode, name);
+            }
+            links.put(client, link);
         }
     }
 
-    public void incrementOut() {
-        AtomicInteger out = this.messagesOut;
-        if (out != null) {
-            out.incrementAndGet();
+    /**
+     * Removes the metrics of a link once its last client disconnected.
+     *
+     * @param client Client that disconnected.
+     */
+    public void clientDisconnected(Client client) {
+        synchronized (linksNode) {
+            BrokerNode link = links.remove(client);
+            if (link != null && !links.containsValue(link)) {
+                linksNode.removeChild(link.name());
+            }
         }
     }
 
-    public synchronized void start() {
+    public void start() {
+        start(null);
+    }
+
+    /**
+     * @param conf Metrics configuration, {@code null} uses the defaults.
+     */
+    public synchronized void start(JsonObject conf) {
         stop();
-        messagesIn = new AtomicInteger();
-        messagesOut = new AtomicInteger();
+        int interval = 1;
+        int dumpInterval = 60;
+        String dumpPath = null;
+        boolean jmx = false;
+        if (conf != null) {
+            interval = getInt(conf, "interval", interval);
+            dumpInterval = getInt(conf, "dumpInterval", dumpInterval);
+            dumpPath = conf.get("dumpFile");
+            Boolean b = conf.get("jmx");
+            jmx = b != null && b;
+        }
+
+        if (dumpPath != null && !dumpPath.isEmpty()) {
+            dumpFile = new File(dumpPath);
+            dumpTicks = Math.max(1, dumpInterval / interval);
+        }
+        if (jmx) {
+            registerMBean();
+        }
+
+        messagesIn.sumThenReset();
+        messagesOut.sumThenReset();
+        bytesIn.sumThenReset();
+        bytesOut.sumThenReset();
+        lastTick = System.nanoTime();
         future = Objects.getDaemonThreadPool().scheduleWithFixedDelay(new Runnable() {
             @Override
             public void run() {
-                AtomicInteger in = messagesIn;
-                AtomicInteger out = messagesOut;
-                if (in != null && out != null) {
-                    Value i = new Value(in.getAndSet(0));
-                    Value o = new Value(out.getAndSet(0));
-                    messagesInNode.setValue(i);
-                    messagesOutNode.setValue(o);
+                try {
+                    tick();
+                } catch (Exception e) {
+                    LOGGER.error("Failed to update metrics", e);
                 }
             }
-        }, 0, 1, TimeUnit.SECONDS);
+        }, interval, interval, TimeUnit.SECONDS);
     }
 
     public synchronized void stop() {
         if (future != null) {
             future.cancel(false);
             future = null;
-            messagesIn = null;
-            messagesOut = null;
+        }
+        if (objectName != null) {
+            try {
+                MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+                server.unregisterMBean(objectName);
+            } catch (Exception e) {
+                LOGGER.warn("Failed to unregister metrics MBean", e);
+            }
+            objectName = null;
+        }
+        dumpFile = null;
+        ticks = 0;
+    }
+
+    @Override
+    public long getMessagesInPerSecond() {
+        return getLong("messagesInPerSecond");
+    }
+
+    @Override
+    public long getMessagesOutPerSecond() {
+        return getLong("messagesOutPerSecond");
+    }
+
+    @Override
+    public long getBytesInPerSecond() {
+        return getLong("bytesInPerSecond");
+    }
+
+    @Override
+    public long getBytesOutPerSecond() {
+        return getLong("bytesOutPerSecond");
+    }
+
+    @Override
+    public int getConnectedLinks() {
+        return links.size();
+    }
+
+    @Override
+    public String getSnapshot() {
+        return new String(snapshot.encode(), CharsetUtil.UTF_8);
+    }
+
+    /**
+     * @return All metrics of the last interval.
+     */
+    public JsonObject snapshot() {
+        return snapshot;
+    }
+
+    private synchronized void tick() {
+        long now = System.nanoTime();
+        double elapsed = (now - lastTick) / 1e9;
+        lastTick = now;
+        if (elapsed <= 0) {
+            return;
+        }
+
+        JsonObject snapshot = new JsonObject();
+        snapshot.put("timestamp", System.currentTimeMillis());
+        publishRate(snapshot, "messagesInPerSecond", messagesIn, elapsed);
+        publishRate(snapshot, "messagesOutPerSecond", messagesOut, elapsed);
+        publishRate(snapshot, "bytesInPerSecond", bytesIn, elapsed);
+        publishRate(snapshot, "bytesOutPerSecond", bytesOut, elapsed);
+        publish(snapshot, "subscriptionFanout", fanout);
+        publish(snapshot, "encodeTime", encodeTime);
+        publish(snapshot, "decodeTime", decodeTime);
+
+        JsonObject latency = new JsonObject();
+        for (String method : METHODS) {
+            JsonObject json = latencies.get(method).snapshot(true).toJson();
+            nodes.get("latency/" + method).setValue(new Value(json));
+            latency.put(method, json);
+        }
+        snapshot.put("latency", latency);
+
+        JsonObject linksJson = new JsonObject();
+        for (Map.Entry<Client, BrokerNode> entry : links.entrySet()) {
+            Client client = entry.getKey();
+            LinkMetrics m = client.metrics();
+            JsonObject json = new JsonObject();
+            json.put("messagesInPerSecond", rate(m.messagesIn(), elapsed));
+            json.put("messagesOutPerSecond", rate(m.messagesOut(), elapsed));
+            json.put("bytesInPerSecond", rate(m.bytesIn(), elapsed));
+            json.put("bytesOutPerSecond", rate(m.bytesOut(), elapsed));
+            json.put("queuedRequests", client.queuedRequests());
+            json.put("queuedResponses", client.queuedResponses());
+            json.put("queuedMessages", client.queuedMessages());
+            json.put("pendingWriteBytes", client.pendingWriteBytes());
+
+            BrokerNode node = entry.getValue();
+            node.setValue(new Value(json));
+            linksJson.put(node.name(), json);
+        }
+        snapshot.put("links", linksJson);
+        this.snapshot = snapshot;
+
+        File dumpFile = this.dumpFile;
+        if (dumpFile != null && ++ticks >= dumpTicks) {
+            ticks = 0;
+            try {
+                FileUtils.write(dumpFile, snapshot.encodePrettily());
+            } catch (Exception e) {
+                LOGGER.warn("Failed to dump metrics to {}", dumpFile, e);
+            }
+        }
+    }
+
+    private void publishRate(JsonObject snapshot,
+                             String name,
+                             StripedCounter counter,
+                             double elapsed) {
+        long rate = rate(counter, elapsed);
+        nodes.get(name).setValue(new Value(rate));
+        snapshot.put(name, rate);
+    }
+
+    private void publish(JsonObject snapshot, String name, Histogram h) {
+        JsonObject json = h.snapshot(true).toJson();
+        nodes.get(name).setValue(new Value(json));
+        snapshot.put(name, json);
+    }
+
+    private long getLong(String name) {
+        Number n = snapshot.get(name);
+        return n != null ? n.longValue() : 0;
+    }
+
+    private void registerMBean() {
+        try {
+            ObjectName name = new ObjectName("org.dsa.iot.broker:type=Metrics");
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            server.registerMBean(this, name);
+            objectName = name;
+        } catch (Exception e) {
+            LOGGER.warn("Failed to register metrics MBean", e);
         }
     }
 
+    @SuppressWarnings("unchecked")
+    private void addNumberNode(String name) {
+        BrokerNode node = new BrokerNode(sys, name);
+        node.setValueType(ValueType.NUMBER);
+        node.setValue(new Value(0));
+        sys.addChild(node);
+        nodes.put(name, node);
+    }
+
+    @SuppressWarnings("unchecked")
+    private BrokerNode addMapNode(BrokerNode<BrokerNode> parent, String name) {
+        BrokerNode node = new BrokerNode(parent, name);
+        node.setValueType(ValueType.MAP);
+        node.setValue(new Value(new JsonObject()));
+        parent.addChild(node);
+        return node;
+    }
+
+    private static long rate(StripedCounter counter, double elapsed) {
+        return Math.round(counter.sumThenReset() / elapsed);
+    }
+
+    private static int getInt(JsonObject conf, String name, int def) {
+        Number n = conf.get(name);
+        if (n == null) {
+            return def;
+        } else if (n.intValue() < 1) {
+            throw new IllegalArgumentException("Invalid metrics " + name);
+        }
+        return n.intValue();
+    }
+
     @SuppressWarnings("unchecked")
     public static Metrics create(Broker broker) {
         BrokerNode node = broker.tree().getRoot();
         BrokerNode sys = new BrokerNode(node, "sys");
         node.addChild(sys);
-
-        BrokerNode msgIn = new BrokerNode(sys, "messagesInPerSecond");
-        msgIn.setValueType(ValueType.NUMBER);
-        msgIn.setValue(new Value(0));
-        sys.addChild(msgIn);
-
-        BrokerNode msgOut = new BrokerNode(sys, "messagesOutPerSecond");
-        msgOut.setValueType(ValueType.NUMBER);
-        msgOut.setValue(new Value(0));
-        sys.addChild(msgOut);
-
-        return new Metrics(msgIn, msgOut);
+        return new Metrics(sys);
     }
 }
@@ -0,0 +1,25 @@
+package org.dsa.iot.broker.utils;
+
+/**
+ * Management interface of the broker metrics when JMX is enabled.
+ *
+ * @author Samuel Grenier
+ * @see Metrics
+ */
+public interface MetricsMXBean {
+
+    long getMessagesInPerSecond();
+
+    long getMessagesOutPerSecond();
+
+    long getBytesInPerSecond();
+
+    long getBytesOutPerSecond();
+
+    int getConnectedLinks();
+
+    /**
+     * @return All metrics of the last interval encoded as JSON.
+     */
+    String getSnapshot();
+}
@@ -3,21 +3,49 @@ package org.dsa.iot.broker.utils;
 import org.dsa.iot.dslink.node.NodeManager;
 import org.dsa.iot.dslink.util.StringUtils;
 
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
 /**
+ * Parsed paths are immutable and interned. Parsing the same path again
+ * returns the cached instance without performing any allocations.
+ *
  * @author Samuel Grenier
  */
 public class ParsedPath {
 
+    /**
+     * Maximum amount of paths kept in the cache. Can be configured through
+     * the {@code dsa.broker.pathCacheSize} system property.
+     */
+    public static final int CACHE_SIZE;
+    private static final Map<String, ParsedPath> CACHE;
+
+    private final String downstream;
     private final boolean isRemote;
     private final String[] splitPath;
     private final String fullPath;
+    private final String basePath;
+    private final int hash;
+    private volatile ParsedPath absolute;
 
-    private ParsedPath(boolean isRemote,
+    private ParsedPath(String downstream,
+                       boolean isRemote,
                        String[] split,
                        String fullPath) {
+        this.downstream = downstream;
         this.isRemote = isRemote;
         this.splitPath = split;
         this.fullPath = fullPath;
+        this.hash = fullPath != null ? fullPath.hashCode() : 0;
+        if (isRemote) {
+            String[] tmp = new String[split.length - 2];
+            System.arraycopy(split, 2, tmp, 0, tmp.length);
+            this.basePath = "/" + StringUtils.join(tmp, "/");
+        } else {
+            this.basePath = fullPath;
+        }
     }
 
     /**
@@ -27,13 +55,48 @@ public class ParsedPath {
         return isRemote;
     }
 
+    /**
+     * The absolute form of a remote path uses the full path as its base. It
+     * is used to forward the path to another broker which resolves it from
+     * its own root.
+     *
+     * @return The absolute form of the path.
+     */
+    public ParsedPath absolute() {
+        if (!isRemote) {
+            return this;
+        }
+        ParsedPath abs = absolute;
+        if (abs == null) {
+            abs = new ParsedPath(downstream, false, splitPath, fullPath);
+            absolute = abs;
+        }
+        return abs;
+    }
+
     /**
      * @return The split path during parsing.
+     * @see #segment(int) To iterate the path without copying.
      */
     public String[] split() {
         return splitPath.clone();
     }
 
+    /**
+     * @return The amount of segments in the split path.
+     */
+    public int length() {
+        return splitPath.length;
+    }
+
+    /**
+     * @param index Index of the segment.
+     * @return The segment of the split path at the designated index.
+     */
+    public String segment(int index) {
+        return splitPath[index];
+    }
+
     /**
      * @return The full path
      */
@@ -45,13 +108,7 @@ public class ParsedPath {
      * @return The base path of the remote path.
      */
     public String base() {
-        if (isRemote()) {
-            String[] tmp = new String[splitPath.length - 2];
-            System.arraycopy(splitPath, 2, tmp, 0, tmp.length);
-            return "/" + StringUtils.join(tmp, "/");
-        } else {
-            return fullPath;
-        }
+        return basePath;
     }
 
     /**
@@ -61,10 +118,50 @@ public class ParsedPath {
      */
     public static ParsedPath parse(String downstream,
                                    String path) {
-        path = NodeManager.normalizePath(path, true);
-        String[] split = NodeManager.splitPath(path);
-        boolean ir = split.length > 1 && split[0].equals(downstream);
-        return new ParsedPath(ir, split, path);
+        ParsedPath pp = get(downstream, path);
+        if (pp != null) {
+            return pp;
+        }
+
+        String full = NodeManager.normalizePath(path, true);
+        pp = get(downstream, full);
+        if (pp == null) {
+            String[] split = NodeManager.splitPath(full);
+            boolean ir = split.length > 1 && split[0].equals(downstream);
+            pp = new ParsedPath(downstream, ir, split, full);
+            put(full, pp);
+        }
+        if (!full.equals(path)) {
+            put(path, pp);
+        }
+        return pp;
+    }
+
+    private static ParsedPath get(String downstream, String path) {
+        if (path == null) {
+            return null;
+        }
+        ParsedPath pp = CACHE.get(path);
+        if (pp == null) {
+            return null;
+        }
+        String ds = pp.downstream;
+        if (ds == null ? downstream == null : ds.equals(downstream)) {
+            return pp;
+        }
+        return null;
+    }
+
+    private static void put(String path, ParsedPath pp) {
+        if (CACHE.size() >= CACHE_SIZE) {
+            // Evict an arbitrary entry to keep the cache bounded
+            Iterator<String> it = CACHE.keySet().iterator();
+            if (it.hasNext()) {
+                it.next();
+                it.remove();
+            }
+        }
+        CACHE.put(path, pp);
     }
 
     @Override
@@ -75,12 +172,22 @@ public class ParsedPath {
             return false;
         }
 
-        String other = ((ParsedPath) o).full();
-        return other == null ? full() == null : other.equals(full());
+        ParsedPath other = (ParsedPath) o;
+        if (hash != other.hash) {
+            return false;
+        }
+        String full = other.full();
+        return full == null ? full() == null : full.equals(full());
     }
 
     @Override
     public int hashCode() {
-        return fullPath != null ? fullPath.hashCode() : 0;
+        return hash;
+    }
+
+    static {
+        String size = System.getProperty("dsa.broker.pathCacheSize", "16384");
+        CACHE_SIZE = Math.max(1, Integer.parseInt(size));
+        CACHE = new ConcurrentHashMap<>();
     }
 }
@@ -3,6 +3,10 @@ package org.dsa.iot.broker.utils;
 import org.dsa.iot.dslink.util.json.JsonArray;
 import org.dsa.iot.dslink.util.json.JsonObject;
 
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
+
 /**
  * @author Samuel Grenier
  */
@@ -20,18 +24,27 @@ public class RequestGenerator {
     }
 
     public static JsonArray subscribe(ParsedPath path, int sid, int rid) {
+        return subscribe(Collections.singletonMap(sid, path), rid);
+    }
+
+    /**
+     * @param paths Paths to subscribe to mapped by their subscription ID.
+     * @param rid Request ID.
+     * @return A single subscribe request containing all the paths.
+     */
+    public static JsonArray subscribe(Map<Integer, ParsedPath> paths, int rid) {
         JsonObject req = new JsonObject();
         req.put("rid", rid);
         req.put("method", "subscribe");
         {
-            JsonArray paths = new JsonArray();
-            {
+            JsonArray array = new JsonArray();
+            for (Map.Entry<Integer, ParsedPath> entry : paths.entrySet()) {
                 JsonObject obj = new JsonObject();
-                obj.put("path", path.base());
-                obj.put("sid", sid);
-                paths.add(obj);
+                obj.put("path", entry.getValue().base());
+                obj.put("sid", entry.getKey());
+                array.add(obj);
             }
-            req.put("paths", paths);
+            req.put("paths", array);
         }
 
         JsonArray reqs = new JsonArray();
@@ -40,12 +53,23 @@ public class RequestGenerator {
     }
 
     public static JsonArray unsubscribe(int rid, int sid) {
+        return unsubscribe(rid, Collections.singleton(sid));
+    }
+
+    /**
+     * @param rid Request ID.
+     * @param sids Subscription IDs to unsubscribe from.
+     * @return A single unsubscribe request containing all the IDs.
+     */
+    public static JsonArray unsubscribe(int rid, Collection<Integer> sids) {
         JsonObject req = new JsonObject();
         req.put("rid", rid);
         req.put("method", "unsubscribe");
-        JsonArray sids = new JsonArray();
-        sids.add(sid);
-        req.put("sids", sids);
+        JsonArray array = new JsonArray();
+        for (Integer sid : sids) {
+            array.add(sid);
+        }
+        req.put("sids", array);
 
         JsonArray reqs = new JsonArray();
         reqs.add(req);
@@ -0,0 +1,69 @@
+package org.dsa.iot.broker.utils;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A counter that spreads concurrent updates across multiple cells to reduce
+ * contention. Threads are mapped to cells by their ID, which keeps a thread
+ * on the same cell. Cells are padded to separate cache lines.
+ *
+ * @author Samuel Grenier
+ */
+public class StripedCounter {
+
+    private static final int STRIPES;
+    private static final int PADDING = 8;
+
+    private final AtomicLongArray cells = new AtomicLongArray(STRIPES * PADDING);
+
+    public void increment() {
+        add(1);
+    }
+
+    public void add(long x) {
+        cells.addAndGet(index(), x);
+    }
+
+    /**
+     * @return Sum of all cells. Not atomic with concurrent updates.
+     */
+    public long sum() {
+        long sum = 0;
+        for (int i = 0; i < STRIPES; ++i) {
+            sum += cells.get(i * PADDING);
+        }
+        return sum;
+    }
+
+    /**
+     * Resets each cell while summing them. Updates that happen concurrently
+     * are either counted or kept for the next call, never lost.
+     *
+     * @return Sum of all cells before they were reset.
+     */
+    public long sumThenReset() {
+        long sum = 0;
+        for (int i = 0; i < STRIPES; ++i) {
+            sum += cells.getAndSet(i * PADDING, 0);
+        }
+        return sum;
+    }
+
+    private static int index() {
+        long id = Thread.currentThread().getId();
+        int h = (int) (id ^ (id >>> 32));
+        h ^= (h >>> 16);
+        h *= 0x85ebca6b;
+        h ^= (h >>> 13);
+        return (h & (STRIPES - 1)) * PADDING;
+    }
+
+    static {
+        int cpus = Runtime.getRuntime().availableProcessors();
+        int stripes = 1;
+        while (stripes < cpus * 2) {
+            stripes <<= 1;
+        }
+        STRIPES = stripes;
+    }
+}
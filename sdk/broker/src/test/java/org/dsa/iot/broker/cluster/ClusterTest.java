@@ -0,0 +1,305 @@
+package org.dsa.iot.broker.cluster;
+
+import org.dsa.iot.broker.Broker;
+import org.dsa.iot.broker.config.broker.BrokerMemoryConfig;
+import org.dsa.iot.broker.node.BrokerTree;
+import org.dsa.iot.broker.node.DSLinkNode;
+import org.dsa.iot.broker.server.DsaHandshake;
+import org.dsa.iot.broker.server.client.Client;
+import org.dsa.iot.broker.server.client.ClientManager;
+import org.dsa.iot.dslink.connection.ConnectionType;
+import org.dsa.iot.dslink.config.Configuration;
+import org.dsa.iot.dslink.handshake.LocalHandshake;
+import org.dsa.iot.dslink.handshake.LocalKeys;
+import org.dsa.iot.dslink.handshake.RemoteHandshake;
+import org.dsa.iot.dslink.util.json.EncodingFormat;
+import org.dsa.iot.dslink.util.json.JsonArray;
+import org.dsa.iot.dslink.util.json.JsonObject;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Runs two brokers of a cluster in the same JVM.
+ *
+ * @author Samuel Grenier
+ */
+public class ClusterTest {
+
+    private static final long TIMEOUT = 15000;
+    private static final String SECRET = "cluster-secret";
+
+    private Broker a;
+    private Broker b;
+    private String urlA;
+
+    @Before
+    public void setUp() throws IOException {
+        int portA = freePort();
+        int portB = freePort();
+        urlA = "http://127.0.0.1:" + portA;
+        String urlB = "http://127.0.0.1:" + portB;
+        JsonObject members = new JsonObject();
+        members.put("a", urlA);
+        members.put("b", urlB);
+        a = createBroker("a", portA, members, SECRET);
+        b = createBroker("b", portB, members, SECRET);
+        a.start();
+        b.start();
+    }
+
+    @After
+    public void tearDown() {
+        a.stop();
+        b.stop();
+    }
+
+    @Test
+    public void peersJoinAndRouteRequests() throws Exception {
+        awaitPeer(a, "b");
+        awaitPeer(b, "a");
+
+        // A responder owned by b is redirected to it by a
+        LocalKeys keys;
+        String dsId;
+        do {
+            keys = LocalKeys.generate();
+            dsId = "link-" + keys.encodedHashPublicKey();
+        } while (a.cluster().redirect(dsId) == null);
+        Configuration conf = new Configuration();
+        conf.setDsId("link");
+        conf.setKeys(keys);
+        conf.setConnectionType(ConnectionType.WEB_SOCKET);
+        conf.setAuthEndpoint(urlA + "/conn");
+        conf.setResponder(true);
+        RemoteHandshake rh = RemoteHandshake.generate(new LocalHandshake(conf),
+                                                      conf.getAuthEndpoint());
+        Assert.assertNull(b.cluster().redirect(dsId));
+        Assert.assertNotEquals(conf.getAuthEndpoint().port, rh.getEndpoint().port);
+        Assert.assertEquals("/downstream/link", rh.getPath());
+
+        // The link connects to b, a learns about it from b
+        JsonObject json = new JsonObject();
+        json.put("isResponder", true);
+        RecordingClient link = connect(b, json, dsId);
+        long deadline = System.currentTimeMillis() + TIMEOUT;
+        while (a.tree().downstream().getRemote("link") == null) {
+            Assert.assertTrue(System.currentTimeMillis() < deadline);
+            Thread.sleep(20);
+        }
+
+        // Requests made on a are routed to the link through b
+        json = new JsonObject();
+        json.put("isRequester", true);
+        LocalKeys reqKeys = LocalKeys.generate();
+        RecordingClient requester = connect(a, json,
+                "req-" + reqKeys.encodedHashPublicKey());
+        requester.processor().processData(subscribe("/downstream/link/x", 1));
+
+        JsonObject sub;
+        deadline = System.currentTimeMillis() + TIMEOUT;
+        while ((sub = find(link.requests, "/x")) == null) {
+            Assert.assertTrue(System.currentTimeMillis() < deadline);
+            Thread.sleep(20);
+        }
+        int sid = sub.get("sid");
+
+        // Values of the link are routed back to the requester on a
+        JsonArray update = new JsonArray();
+        update.add(sid);
+        update.add(5);
+        update.add("ts");
+        JsonArray updates = new JsonArray();
+        updates.add(update);
+        JsonObject resp = new JsonObject();
+        resp.put("rid", 0);
+        resp.put("updates", updates);
+        JsonArray resps = new JsonArray();
+        resps.add(resp);
+        JsonObject data = new JsonObject();
+        data.put("responses", resps);
+        link.processor().processData(data);
+
+        deadline = System.currentTimeMillis() + TIMEOUT;
+        while (!received(requester.responses, 1, 5)) {
+            Assert.assertTrue(System.currentTimeMillis() < deadline);
+            Thread.sleep(20);
+        }
+    }
+
+    @Test
+    public void peersRequireSecret() throws Exception {
+        awaitPeer(a, "b");
+        JsonObject linkData = new JsonObject();
+        linkData.put("cluster", "c");
+        linkData.put("clusterToken", "forged");
+        JsonObject json = new JsonObject();
+        json.put("isRequester", true);
+        json.put("linkData", linkData);
+        LocalKeys keys = LocalKeys.generate();
+        String dsId = "cluster-c-" + keys.encodedHashPublicKey();
+        RecordingClient client = connect(a, json, dsId);
+        Assert.assertFalse(client.handshake().isClusterPeer());
+
+        DSLinkNode peer = a.tree().downstream().getChild("cluster-b");
+        Assert.assertTrue(peer.client().handshake().isClusterPeer());
+    }
+
+    private static void awaitPeer(Broker broker, String member)
+                                            throws InterruptedException {
+        long deadline = System.currentTimeMillis() + TIMEOUT;
+        while (true) {
+            DSLinkNode node = broker.tree().downstream().getChild("cluster-" + member);
+            Client client = node != null ? node.client() : null;
+            if (client != null && client.handshake().isClusterPeer()) {
+                return;
+            }
+            Assert.assertTrue("Peer " + member + " never joined",
+                              System.currentTimeMillis() < deadline);
+            Thread.sleep(20);
+        }
+    }
+
+    private static RecordingClient connect(Broker broker,
+                                           JsonObject json,
+                                           String dsId) {
+        DsaHandshake handshake = new DsaHandshake(json, dsId);
+        Assert.assertNotNull(handshake.initialize(broker));
+        RecordingClient client = new RecordingClient(broker, handshake);
+        client.connect();
+        return client;
+    }
+
+    private static JsonObject subscribe(String path, int sid) {
+        JsonObject p = new JsonObject();
+        p.put("path", path);
+        p.put("sid", sid);
+        JsonArray paths = new JsonArray();
+        paths.add(p);
+        JsonObject req = new JsonObject();
+        req.put("rid", 1);
+        req.put("method", "subscribe");
+        req.put("paths", paths);
+        JsonArray reqs = new JsonArray();
+        reqs.add(req);
+        JsonObject data = new JsonObject();
+        data.put("requests", reqs);
+        return data;
+    }
+
+    private static JsonObject find(List<JsonObject> requests, String path) {
+        for (JsonObject req : requests) {
+            if (!"subscribe".equals(req.get("method"))) {
+                continue;
+            }
+            JsonArray paths = req.get("paths");
+            for (Object o : paths) {
+                JsonObject p = (JsonObject) o;
+                if (path.equals(p.get("path"))) {
+                    return p;
+                }
+            }
+        }
+        return null;
+    }
+
+    private static boolean received(List<JsonObject> responses, int sid, int value) {
+        for (JsonObject resp : responses) {
+            JsonArray updates = resp.get("updates");
+            if (updates == null) {
+                continue;
+            }
+            for (Object o : updates) {
+                if (!(o instanceof JsonArray)) {
+                    continue;
+                }
+                JsonArray update = (JsonArray) o;
+                if (sid == (Integer) update.get(0)
+                        && value == (Integer) update.get(1)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private static Broker createBroker(String id,
+                                       int port,
+                                       JsonObject members,
+                                       String secret) {
+        BrokerMemoryConfig config = new BrokerMemoryConfig();
+        BrokerTree tree = new BrokerTree();
+        Broker broker = new Broker(config, new ClientManager(), tree);
+        tree.initialize(broker.downstream());
+
+        JsonObject server = config.get().get("server");
+        JsonObject http = server.get("http");
+        http.put("host", "127.0.0.1");
+        http.put("port", port);
+
+        JsonObject cluster = config.get().get("cluster");
+        cluster.put("enabled", true);
+        cluster.put("id", id);
+        cluster.put("members", members);
+        cluster.put("secret", secret);
+        cluster.put("reconnectDelay", 1);
+        return broker;
+    }
+
+    private static int freePort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+
+    /**
+     * Link connected in process, the messages the broker writes to it are
+     * recorded.
+     */
+    private static class RecordingClient extends Client {
+
+        private final List<JsonObject> requests = new CopyOnWriteArrayList<>();
+        private final List<JsonObject> responses = new CopyOnWriteArrayList<>();
+
+        RecordingClient(Broker broker, DsaHandshake handshake) {
+            super(broker, handshake);
+        }
+
+        void connect() {
+            connected();
+        }
+
+        @Override
+        public boolean writeRequest(JsonArray requests) {
+            for (Object o : requests) {
+                this.requests.add(copy((JsonObject) o));
+            }
+            return true;
+        }
+
+        @Override
+        public boolean writeResponse(JsonArray responses) {
+            for (Object o : responses) {
+                this.responses.add(copy((JsonObject) o));
+            }
+            return true;
+        }
+
+        @Override
+        public boolean writeResponse(byte[] response) {
+            responses.add(new JsonObject(EncodingFormat.JSON, response));
+            return true;
+        }
+
+        // Updates are reused for every subscriber once written
+        private static JsonObject copy(JsonObject obj) {
+            return new JsonObject(EncodingFormat.JSON, obj.encode());
+        }
+    }
+}
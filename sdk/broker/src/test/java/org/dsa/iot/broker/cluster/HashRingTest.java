@@ -0,0 +1,57 @@
+package org.dsa.iot.broker.cluster;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * @author Samuel Grenier
+ */
+public class HashRingTest {
+
+    @Test
+    public void distribution() {
+        HashRing ring = new HashRing(Arrays.asList("a", "b", "c"), 128);
+        Map<String, Integer> counts = new HashMap<>();
+        for (int i = 0; i < 30000; ++i) {
+            String owner = ring.owner("link-" + i);
+            Integer count = counts.get(owner);
+            counts.put(owner, count == null ? 1 : count + 1);
+        }
+        Assert.assertEquals(3, counts.size());
+        for (int count : counts.values()) {
+            Assert.assertTrue("Unbalanced: " + counts, count > 7000 && count < 13000);
+        }
+    }
+
+    @Test
+    public void addingMemberOnlyMovesItsKeys() {
+        HashRing before = new HashRing(Arrays.asList("a", "b", "c"), 128);
+        HashRing after = new HashRing(Arrays.asList("a", "b", "c", "d"), 128);
+        int moved = 0;
+        for (int i = 0; i < 10000; ++i) {
+            String key = "link-" + i;
+            String owner = after.owner(key);
+            if (!owner.equals(before.owner(key))) {
+                Assert.assertEquals("d", owner);
+                moved++;
+            }
+        }
+        Assert.assertTrue(moved > 0);
+    }
+
+    @Test
+    public void singleMember() {
+        HashRing ring = new HashRing(Collections.singleton("a"), 1);
+        Assert.assertEquals("a", ring.owner("link"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void noMembers() {
+        new HashRing(Collections.<String>emptyList(), 128);
+    }
+}
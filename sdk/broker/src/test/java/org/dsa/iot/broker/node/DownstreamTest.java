@@ -0,0 +1,34 @@
+package org.dsa.iot.broker.node;
+
+import org.dsa.iot.broker.Broker;
+import org.dsa.iot.broker.config.broker.BrokerMemoryConfig;
+import org.dsa.iot.broker.server.client.ClientManager;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * @author Samuel Grenier
+ */
+public class DownstreamTest {
+
+    private static final String DSID = "link-AAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAA";
+
+    @Test
+    public void pendingReservationKept() {
+        Downstream downstream = createBroker().tree().downstream();
+        Assert.assertEquals("link", downstream.init("link", DSID));
+        // The link reserving the name has not connected yet
+        String other = "link-BBBBBBBBBBBBBBBBBBBBBBBBBBBBBBBBBBBBBBBBBBB";
+        Assert.assertNotEquals("link", downstream.init("link", other));
+        Assert.assertEquals("link", downstream.init("link", DSID));
+    }
+
+    private static Broker createBroker() {
+        BrokerTree tree = new BrokerTree();
+        Broker broker = new Broker(new BrokerMemoryConfig(),
+                                    new ClientManager(),
+                                    tree);
+        tree.initialize(broker.downstream());
+        return broker;
+    }
+}
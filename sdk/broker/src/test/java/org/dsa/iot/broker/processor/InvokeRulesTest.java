@@ -0,0 +1,68 @@
+package org.dsa.iot.broker.processor;
+
+import org.dsa.iot.broker.utils.ParsedPath;
+import org.dsa.iot.dslink.util.json.JsonArray;
+import org.dsa.iot.dslink.util.json.JsonObject;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * @author Samuel Grenier
+ */
+public class InvokeRulesTest {
+
+    private static final ParsedPath HISTORY = ParsedPath.parse("downstream",
+            "/downstream/historian/data/getHistory");
+    private static final ParsedPath RESET = ParsedPath.parse("downstream",
+            "/downstream/historian/data/reset");
+
+    @Test
+    public void disabledByDefault() {
+        InvokeRules rules = new InvokeRules();
+        Assert.assertFalse(rules.shareable(HISTORY, null));
+        rules.start(null);
+        Assert.assertFalse(rules.shareable(HISTORY, null));
+    }
+
+    @Test
+    public void pathPatterns() {
+        JsonArray paths = new JsonArray();
+        paths.add("/downstream/*/getHistory");
+        JsonObject conf = new JsonObject();
+        conf.put("multiplex", true);
+        conf.put("paths", paths);
+
+        InvokeRules rules = new InvokeRules();
+        rules.start(conf);
+        Assert.assertTrue(rules.shareable(HISTORY, null));
+        Assert.assertFalse(rules.shareable(RESET, null));
+    }
+
+    @Test
+    public void readActions() {
+        JsonObject conf = new JsonObject();
+        conf.put("multiplex", true);
+        conf.put("readActions", true);
+        InvokeRules rules = new InvokeRules();
+        rules.start(conf);
+
+        JsonArray metadata = new JsonArray();
+        metadata.add(update("$is", "node"));
+        metadata.add(update("$invokable", "read"));
+        Assert.assertFalse(rules.shareable(HISTORY, metadata));
+        metadata.add(update("$result", "table"));
+        Assert.assertTrue(rules.shareable(HISTORY, metadata));
+
+        metadata = new JsonArray();
+        metadata.add(update("$invokable", "write"));
+        metadata.add(update("$result", "stream"));
+        Assert.assertFalse(rules.shareable(RESET, metadata));
+    }
+
+    private static JsonArray update(String name, Object value) {
+        JsonArray update = new JsonArray();
+        update.add(name);
+        update.add(value);
+        return update;
+    }
+}
@@ -0,0 +1,120 @@
+package org.dsa.iot.broker.processor.stream;
+
+import org.dsa.iot.broker.Broker;
+import org.dsa.iot.broker.config.broker.BrokerMemoryConfig;
+import org.dsa.iot.broker.node.BrokerTree;
+import org.dsa.iot.broker.node.DSLinkNode;
+import org.dsa.iot.broker.processor.Responder;
+import org.dsa.iot.broker.server.DsaHandshake;
+import org.dsa.iot.broker.server.client.Client;
+import org.dsa.iot.broker.server.client.ClientManager;
+import org.dsa.iot.broker.utils.ParsedPath;
+import org.dsa.iot.dslink.methods.StreamState;
+import org.dsa.iot.dslink.util.json.JsonArray;
+import org.dsa.iot.dslink.util.json.JsonObject;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * @author Samuel Grenier
+ */
+public class InvokeStreamTest {
+
+    private static final String DSID = "AAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAA";
+
+    private Broker broker;
+    private Responder responder;
+
+    @Before
+    public void setup() {
+        BrokerTree tree = new BrokerTree();
+        broker = new Broker(new BrokerMemoryConfig(),
+                            new ClientManager(),
+                            tree);
+        tree.initialize(broker.downstream());
+        DSLinkNode node = new DSLinkNode(tree.downstream(), "historian");
+        responder = new Responder(node);
+    }
+
+    @Test
+    public void streamedRowsReplayed() {
+        InvokeStream stream = stream(10);
+        RecordingClient first = client("first");
+        Assert.assertTrue(stream.join(first, 1));
+        stream.dispatch(StreamState.OPEN, response(rows(0, 3), "stream"));
+        stream.dispatch(StreamState.OPEN, response(rows(3, 2), null));
+
+        RecordingClient late = client("late");
+        Assert.assertTrue(stream.join(late, 7));
+        JsonObject replay = late.responses.get(0);
+        Assert.assertEquals(7, (int) replay.<Integer>get("rid"));
+        JsonArray updates = replay.get("updates");
+        Assert.assertEquals(5, updates.size());
+        Assert.assertEquals(4, (int) ((JsonArray) updates.get(4)).<Integer>get(0));
+    }
+
+    @Test
+    public void streamedRowsPastMaxNotJoinable() {
+        InvokeStream stream = stream(4);
+        Assert.assertTrue(stream.join(client("first"), 1));
+        stream.dispatch(StreamState.OPEN, response(rows(0, 3), "stream"));
+        Assert.assertTrue(stream.joinable());
+        stream.dispatch(StreamState.OPEN, response(rows(3, 3), null));
+        Assert.assertFalse(stream.joinable());
+        Assert.assertFalse(stream.join(client("late"), 2));
+    }
+
+    private InvokeStream stream(int maxRows) {
+        ParsedPath path = ParsedPath.parse("downstream",
+                "/downstream/historian/data/getHistory");
+        return new InvokeStream(responder, path, "key", 1, maxRows);
+    }
+
+    private RecordingClient client(String name) {
+        DsaHandshake handshake = new DsaHandshake(new JsonObject(), name + "-" + DSID);
+        return new RecordingClient(broker, handshake);
+    }
+
+    private static JsonObject response(JsonArray updates, String mode) {
+        JsonObject resp = new JsonObject();
+        resp.put("stream", StreamState.OPEN.getJsonName());
+        resp.put("updates", updates);
+        if (mode != null) {
+            JsonObject meta = new JsonObject();
+            meta.put("mode", mode);
+            resp.put("meta", meta);
+        }
+        return resp;
+    }
+
+    private static JsonArray rows(int from, int count) {
+        JsonArray rows = new JsonArray();
+        for (int i = from; i < from + count; ++i) {
+            JsonArray row = new JsonArray();
+            row.add(i);
+            rows.add(row);
+        }
+        return rows;
+    }
+
+    private static class RecordingClient extends Client {
+
+        private final List<JsonObject> responses = new ArrayList<>();
+
+        RecordingClient(Broker broker, DsaHandshake handshake) {
+            super(broker, handshake);
+        }
+
+        @Override
+        public boolean writeResponse(JsonArray responses) {
+            for (Object o : responses) {
+                this.responses.add((JsonObject) o);
+            }
+            return true;
+        }
+    }
+}
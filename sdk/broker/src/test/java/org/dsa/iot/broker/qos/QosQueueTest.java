@@ -0,0 +1,181 @@
+package org.dsa.iot.broker.qos;
+
+import org.dsa.iot.broker.Broker;
+import org.dsa.iot.broker.config.broker.BrokerMemoryConfig;
+import org.dsa.iot.broker.node.BrokerNode;
+import org.dsa.iot.broker.node.BrokerTree;
+import org.dsa.iot.broker.processor.stream.SubStream;
+import org.dsa.iot.broker.server.DsaHandshake;
+import org.dsa.iot.broker.server.client.Client;
+import org.dsa.iot.broker.server.client.ClientManager;
+import org.dsa.iot.broker.utils.ParsedPath;
+import org.dsa.iot.dslink.util.json.JsonArray;
+import org.dsa.iot.dslink.util.json.JsonObject;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * @author Samuel Grenier
+ */
+public class QosQueueTest {
+
+    private static final String DSID = "link-AAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAA";
+
+    @Test
+    public void qos2KeepsLastValue() {
+        QosQueue queue = new QosQueue(null, "link", "/data/a", 2, 1000);
+        queue.offer(1, "ts1");
+        queue.offer(2, "ts2");
+
+        List<JsonArray> updates = queue.snapshot();
+        Assert.assertEquals(1, updates.size());
+        Assert.assertEquals(2, (int) updates.get(0).<Integer>get(0));
+        Assert.assertEquals("ts2", updates.get(0).get(1));
+    }
+
+    @Test
+    public void qos3DropsOldest() {
+        QosQueue queue = new QosQueue(null, "link", "/data/a", 3, 3);
+        for (int i = 0; i < 5; ++i) {
+            queue.offer(i, "ts" + i);
+        }
+
+        List<JsonArray> updates = queue.snapshot();
+        Assert.assertEquals(3, updates.size());
+        Assert.assertEquals(2, (int) updates.get(0).<Integer>get(0));
+        Assert.assertEquals(4, (int) updates.get(2).<Integer>get(0));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void invalidQos() {
+        new QosQueue(null, "link", "/data/a", 1, 1000);
+    }
+
+    @Test
+    public void logRoundTrip() throws IOException {
+        File file = File.createTempFile("qos", ".log");
+        try {
+            QosLog log = new QosLog(file);
+            log.retain("link", "/data/a", 3);
+            log.update("link", "/data/a", 5, "ts");
+            log.drop("link", "/data/a");
+            log.close();
+
+            List<JsonObject> records = log.read();
+            Assert.assertEquals(3, records.size());
+            Assert.assertEquals("retain", records.get(0).get("op"));
+            Assert.assertEquals(3, (int) records.get(0).<Integer>get("qos"));
+            Assert.assertEquals(5, (int) records.get(1).<Integer>get("value"));
+            Assert.assertEquals("drop", records.get(2).get("op"));
+
+            log.rewrite(records.subList(0, 1));
+            Assert.assertEquals(1, log.read().size());
+            Assert.assertEquals(0, log.records());
+        } finally {
+            Assert.assertTrue(file.delete());
+        }
+    }
+
+    @Test
+    public void resumeReplaysBeforeLiveUpdates() {
+        Broker broker = createBroker();
+        RecordingClient old = new RecordingClient(broker);
+        RecordingClient requester = new RecordingClient(broker);
+        SubStream stream = stream();
+        QosQueue queue = retain(stream, old);
+        stream.dispatch(update(1, "ts1"));
+        stream.dispatch(update(2, "ts2"));
+        Assert.assertTrue(old.updates.isEmpty());
+
+        Assert.assertSame(stream, queue.resume(requester, 7));
+        // An update racing the swap is forwarded after the replay
+        queue.offer(3, "ts3");
+        stream.dispatch(update(4, "ts4"));
+
+        Assert.assertEquals(4, requester.updates.size());
+        for (int i = 0; i < 4; ++i) {
+            JsonArray update = requester.updates.get(i);
+            Assert.assertEquals(7, (int) update.<Integer>get(0));
+            Assert.assertEquals(i + 1, (int) update.<Integer>get(1));
+        }
+        Assert.assertTrue(old.updates.isEmpty());
+    }
+
+    @Test
+    public void resumeSendsLastValue() {
+        Broker broker = createBroker();
+        RecordingClient old = new RecordingClient(broker);
+        RecordingClient requester = new RecordingClient(broker);
+        SubStream stream = stream();
+        stream.dispatch(update(5, "ts5"));
+        QosQueue queue = retain(stream, old);
+
+        Assert.assertSame(stream, queue.resume(requester, 3));
+        Assert.assertEquals(1, requester.updates.size());
+        JsonArray update = requester.updates.get(0);
+        Assert.assertEquals(3, (int) update.<Integer>get(0));
+        Assert.assertEquals(5, (int) update.<Integer>get(1));
+        Assert.assertEquals("ts5", update.get(2));
+    }
+
+    private static SubStream stream() {
+        ParsedPath path = ParsedPath.parse("downstream", "/data/a");
+        return new SubStream(path, new BrokerNode(null, "a"));
+    }
+
+    private static QosQueue retain(SubStream stream, Client client) {
+        stream.add(client, 1);
+        QosQueue queue = new QosQueue(null, "link", "/data/a", 3, 10);
+        queue.attach(stream, client);
+        Assert.assertTrue(stream.retain(client, queue));
+        return queue;
+    }
+
+    private static JsonArray update(int value, String ts) {
+        JsonArray update = new JsonArray();
+        update.add(0);
+        update.add(value);
+        update.add(ts);
+        return update;
+    }
+
+    private static Broker createBroker() {
+        BrokerTree tree = new BrokerTree();
+        Broker broker = new Broker(new BrokerMemoryConfig(),
+                                   new ClientManager(),
+                                   tree);
+        tree.initialize(broker.downstream());
+        return broker;
+    }
+
+    private static class RecordingClient extends Client {
+
+        private final List<JsonArray> updates = new ArrayList<>();
+
+        RecordingClient(Broker broker) {
+            super(broker, new DsaHandshake(new JsonObject(), DSID));
+        }
+
+        @Override
+        public boolean writeResponse(JsonArray responses) {
+            for (Object o : responses) {
+                JsonArray list = ((JsonObject) o).get("updates");
+                for (Object update : list) {
+                    // Dispatch reuses the update array for every subscriber
+                    JsonArray u = (JsonArray) update;
+                    JsonArray copy = new JsonArray();
+                    copy.add(u.get(0));
+                    copy.add(u.get(1));
+                    copy.add(u.get(2));
+                    updates.add(copy);
+                }
+            }
+            return true;
+        }
+    }
+}
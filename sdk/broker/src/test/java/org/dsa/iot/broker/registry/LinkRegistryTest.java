@@ -0,0 +1,163 @@
+package org.dsa.iot.broker.registry;
+
+import org.dsa.iot.broker.Broker;
+import org.dsa.iot.broker.config.broker.BrokerMemoryConfig;
+import org.dsa.iot.broker.node.BrokerTree;
+import org.dsa.iot.broker.node.DSLinkNode;
+import org.dsa.iot.broker.node.Downstream;
+import org.dsa.iot.broker.server.DsaHandshake;
+import org.dsa.iot.broker.server.client.Client;
+import org.dsa.iot.broker.server.client.ClientManager;
+import org.dsa.iot.dslink.handshake.LocalKeys;
+import org.dsa.iot.dslink.util.json.JsonArray;
+import org.dsa.iot.dslink.util.json.JsonObject;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * @author Samuel Grenier
+ */
+public class LinkRegistryTest {
+
+    private static final String DSID = "link-AAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAA";
+
+    @Test
+    public void roundTrip() throws IOException {
+        File file = File.createTempFile("links", ".db");
+        try {
+            Broker broker = createBroker();
+            LinkRegistry registry = new LinkRegistry(broker);
+            registry.start(config(file));
+
+            JsonObject linkData = new JsonObject();
+            linkData.put("site", "a");
+            JsonArray update = new JsonArray();
+            update.add("$is");
+            update.add("node");
+            JsonArray updates = new JsonArray();
+            updates.add(update);
+            Map<String, JsonArray> lists = Collections.singletonMap("/", updates);
+
+            Downstream downstream = broker.tree().downstream();
+            DSLinkNode node = downstream.restore("link");
+            node.restore(DSID, true, linkData, "ts", lists);
+            registry.stop();
+
+            broker = createBroker();
+            registry = new LinkRegistry(broker);
+            registry.start(config(file));
+            registry.stop();
+
+            downstream = broker.tree().downstream();
+            node = downstream.getChild("link");
+            Assert.assertNotNull(node);
+            Assert.assertEquals(DSID, node.dsId());
+            Assert.assertEquals("ts", node.disconnected());
+            Assert.assertEquals("a", node.linkData().get("site"));
+            Assert.assertTrue(node.accessible());
+
+            JsonArray list = node.lastList("/");
+            Assert.assertNotNull(list);
+            Assert.assertEquals("$is", ((JsonArray) list.get(0)).get(0));
+
+            // The restored name is only reserved for the same dsId
+            Assert.assertEquals("link", downstream.init("link", DSID));
+            String other = "link-BBBBBBBBBBBBBBBBBBBBBBBBBBBBBBBBBBBBBBBBBBB";
+            Assert.assertNotEquals("link", downstream.init("link", other));
+        } finally {
+            Assert.assertTrue(file.delete());
+        }
+    }
+
+    @Test
+    public void closedListForgotten() {
+        Broker broker = createBroker();
+        JsonArray update = new JsonArray();
+        update.add("$is");
+        update.add("node");
+        JsonArray updates = new JsonArray();
+        updates.add(update);
+        Map<String, JsonArray> lists = Collections.singletonMap("/", updates);
+        DSLinkNode node = broker.tree().downstream().restore("link");
+        node.restore(DSID, true, null, "ts", lists);
+
+        JsonObject json = new JsonObject();
+        json.put("isRequester", true);
+        String dsId = "req-" + LocalKeys.generate().encodedHashPublicKey();
+        DsaHandshake handshake = new DsaHandshake(json, dsId);
+        Assert.assertNotNull(handshake.initialize(broker));
+        RequesterClient requester = new RequesterClient(broker, handshake);
+        requester.connect();
+
+        requester.processor().processData(request(1, "list", "/downstream/link"));
+        Assert.assertNotNull(node.lastList("/"));
+        requester.processor().processData(request(1, "close", null));
+        Assert.assertNull(node.lastList("/"));
+    }
+
+    @Test
+    public void unchangedStateIsNotRewritten() throws IOException {
+        File file = File.createTempFile("links", ".db");
+        try {
+            RegistryStore store = new RegistryStore(file);
+            JsonObject state = new JsonObject();
+            state.put("links", new JsonObject());
+            Assert.assertTrue(store.write(state));
+            Assert.assertFalse(store.write(state));
+            Assert.assertNotNull(new RegistryStore(file).read());
+        } finally {
+            Assert.assertTrue(file.delete());
+        }
+    }
+
+    private static JsonObject config(File file) {
+        JsonObject conf = new JsonObject();
+        conf.put("enabled", true);
+        conf.put("file", file.getPath());
+        return conf;
+    }
+
+    private static JsonObject request(int rid, String method, String path) {
+        JsonObject req = new JsonObject();
+        req.put("rid", rid);
+        req.put("method", method);
+        if (path != null) {
+            req.put("path", path);
+        }
+        JsonArray reqs = new JsonArray();
+        reqs.add(req);
+        JsonObject data = new JsonObject();
+        data.put("requests", reqs);
+        return data;
+    }
+
+    private static Broker createBroker() {
+        BrokerTree tree = new BrokerTree();
+        Broker broker = new Broker(new BrokerMemoryConfig(),
+                                    new ClientManager(),
+                                    tree);
+        tree.initialize(broker.downstream());
+        return broker;
+    }
+
+    private static class RequesterClient extends Client {
+
+        RequesterClient(Broker broker, DsaHandshake handshake) {
+            super(broker, handshake);
+        }
+
+        void connect() {
+            connected();
+        }
+
+        @Override
+        public boolean writeResponse(JsonArray responses) {
+            return true;
+        }
+    }
+}
@@ -0,0 +1,121 @@
+package org.dsa.iot.broker.server;
+
+import io.netty.buffer.Unpooled;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.handler.codec.http.websocketx.TextWebSocketFrame;
+import io.netty.handler.codec.http.websocketx.WebSocketFrame;
+import io.netty.handler.codec.http.websocketx.WebSocketFrameAggregator;
+import io.netty.handler.codec.http.websocketx.extensions.WebSocketClientExtension;
+import io.netty.handler.codec.http.websocketx.extensions.WebSocketExtension;
+import io.netty.handler.codec.http.websocketx.extensions.WebSocketServerExtension;
+import io.netty.util.CharsetUtil;
+import org.dsa.iot.dslink.util.json.JsonArray;
+import org.dsa.iot.dslink.util.json.JsonObject;
+import org.dsa.iot.shared.DeflatePolicy;
+import org.dsa.iot.shared.FrameOutputStream;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.IOException;
+
+/**
+ * @author Samuel Grenier
+ */
+public class CompressionTest {
+
+    private static final String DSID = "link-AAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAA";
+
+    @Test
+    public void smallMessagesAreNotCompressed() {
+        DeflatePolicy policy = new DeflatePolicy(true, 6, 64, true);
+        EmbeddedChannel[] channels = negotiate(policy);
+
+        String msg = "{\"responses\":[]}";
+        channels[0].writeOutbound(text(msg));
+        WebSocketFrame frame = channels[0].readOutbound();
+        Assert.assertEquals(0, frame.rsv() & WebSocketExtension.RSV1);
+        Assert.assertEquals(msg, receive(channels[1], frame));
+    }
+
+    @Test
+    public void fragmentedRoundTrip() throws IOException {
+        for (boolean takeover : new boolean[] {true, false}) {
+            DeflatePolicy policy = new DeflatePolicy(true, 6, 64, takeover);
+            EmbeddedChannel[] channels = negotiate(policy);
+            for (int i = 0; i < 3; i++) {
+                StringBuilder sb = new StringBuilder();
+                for (int j = 0; j < 500; j++) {
+                    sb.append("[\"value\",").append(j * i).append("],");
+                }
+                String msg = sb.toString();
+
+                FrameOutputStream out = new FrameOutputStream(channels[0], false, 256);
+                byte[] bytes = msg.getBytes(CharsetUtil.UTF_8);
+                out.write(bytes, 0, bytes.length);
+                out.close();
+                Assert.assertTrue(out.fragmented());
+
+                WebSocketFrame frame;
+                int compressed = 0;
+                String received = null;
+                while ((frame = channels[0].readOutbound()) != null) {
+                    compressed += frame.content().readableBytes();
+                    received = receive(channels[1], frame);
+                }
+                Assert.assertTrue(compressed < bytes.length);
+                Assert.assertEquals(msg, received);
+            }
+        }
+    }
+
+    @Test
+    public void disabledLinks() {
+        JsonObject conf = new JsonObject();
+        JsonArray links = new JsonArray();
+        links.add("link");
+        conf.put("disabledLinks", links);
+        Compression compression = Compression.fromConfig(conf);
+        Assert.assertFalse(compression.enabled(DSID));
+        Assert.assertTrue(compression.enabled("other-" + DSID.substring(5)));
+        Assert.assertTrue(compression.enabled("bad"));
+
+        conf = new JsonObject();
+        conf.put("enabled", false);
+        compression = Compression.fromConfig(conf);
+        Assert.assertFalse(compression.enabled(DSID));
+        Assert.assertNull(compression.newHandler());
+    }
+
+    /**
+     * @return The compressing channel followed by the decompressing one.
+     */
+    private static EmbeddedChannel[] negotiate(DeflatePolicy policy) {
+        WebSocketServerExtension server = policy.serverHandshaker()
+                .handshakeExtension(policy.clientHandshaker().newRequestData());
+        Assert.assertNotNull(server);
+        WebSocketClientExtension client = policy.clientHandshaker()
+                .handshakeExtension(server.newReponseData());
+        Assert.assertNotNull(client);
+        return new EmbeddedChannel[] {
+                new EmbeddedChannel(server.newExtensionEncoder()),
+                new EmbeddedChannel(client.newExtensionDecoder(),
+                                    new WebSocketFrameAggregator(1 << 20))
+        };
+    }
+
+    private static String receive(EmbeddedChannel channel, WebSocketFrame frame) {
+        channel.writeInbound(frame);
+        TextWebSocketFrame msg = channel.readInbound();
+        if (msg == null) {
+            return null;
+        }
+        String text = msg.text();
+        msg.release();
+        return text;
+    }
+
+    private static TextWebSocketFrame text(String msg) {
+        byte[] bytes = msg.getBytes(CharsetUtil.UTF_8);
+        return new TextWebSocketFrame(Unpooled.wrappedBuffer(bytes));
+    }
+}
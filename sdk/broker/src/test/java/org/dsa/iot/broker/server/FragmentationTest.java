@@ -0,0 +1,122 @@
+package org.dsa.iot.broker.server;
+
+import io.netty.channel.ChannelOutboundBuffer;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.handler.codec.http.websocketx.ContinuationWebSocketFrame;
+import io.netty.handler.codec.http.websocketx.TextWebSocketFrame;
+import io.netty.handler.codec.http.websocketx.WebSocketFrame;
+import io.netty.handler.codec.http.websocketx.WebSocketFrameAggregator;
+import io.netty.util.CharsetUtil;
+import org.dsa.iot.dslink.util.json.EncodingFormat;
+import org.dsa.iot.dslink.util.json.JsonArray;
+import org.dsa.iot.dslink.util.json.JsonObject;
+import org.dsa.iot.shared.FrameOutputStream;
+import org.dsa.iot.shared.FrameWriter;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * @author Samuel Grenier
+ */
+public class FragmentationTest {
+
+    @Test
+    public void smallMessageIsNotFragmented() {
+        EmbeddedChannel channel = new EmbeddedChannel();
+        FrameOutputStream out = new FrameOutputStream(channel, false, 1024);
+        new JsonObject().encode(EncodingFormat.JSON, out);
+
+        TextWebSocketFrame frame = channel.readOutbound();
+        Assert.assertTrue(frame.isFinalFragment());
+        Assert.assertEquals("{}", frame.text());
+        Assert.assertFalse(out.fragmented());
+        Assert.assertNull(channel.readOutbound());
+        frame.release();
+    }
+
+    @Test
+    public void largeMessageRoundTrip() {
+        JsonArray updates = new JsonArray();
+        for (int i = 0; i < 1000; i++) {
+            updates.add("value-" + i);
+        }
+        JsonObject obj = new JsonObject();
+        obj.put("updates", updates);
+
+        EmbeddedChannel out = new EmbeddedChannel();
+        FrameOutputStream stream = new FrameOutputStream(out, false, 512);
+        obj.encode(EncodingFormat.JSON, stream);
+        Assert.assertTrue(stream.fragmented());
+
+        EmbeddedChannel in = new EmbeddedChannel(new WebSocketFrameAggregator(1 << 20));
+        int frames = 0;
+        WebSocketFrame frame;
+        while ((frame = out.readOutbound()) != null) {
+            Assert.assertTrue(frame.content().readableBytes() <= 512);
+            if (frames++ > 0) {
+                Assert.assertTrue(frame instanceof ContinuationWebSocketFrame);
+            }
+            in.writeInbound(frame);
+        }
+        Assert.assertTrue(frames > 1);
+
+        TextWebSocketFrame aggregated = in.readInbound();
+        Assert.assertEquals(stream.written(), aggregated.content().readableBytes());
+        JsonObject decoded = new JsonObject(aggregated.text());
+        aggregated.release();
+        JsonArray array = decoded.get("updates");
+        Assert.assertEquals(1000, array.size());
+        Assert.assertEquals("value-999", array.get(999));
+    }
+
+    @Test
+    public void messagesHeldWhileUnwritable() {
+        EmbeddedChannel channel = new EmbeddedChannel();
+        ChannelOutboundBuffer buf = channel.unsafe().outboundBuffer();
+        FrameWriter writer = new FrameWriter(channel, 512);
+        buf.setUserDefinedWritability(1, false);
+        writer.write(new TextMessage("{\"a\":1}"));
+        writer.write(new TextMessage(null));
+        writer.write(new TextMessage("{\"b\":2}"));
+        Assert.assertEquals(3, writer.queued());
+        Assert.assertNull(channel.readOutbound());
+
+        buf.setUserDefinedWritability(1, true);
+        writer.resume();
+        Assert.assertEquals(0, writer.queued());
+        // The failed message is discarded without affecting the others
+        TextWebSocketFrame frame = channel.readOutbound();
+        Assert.assertEquals("{\"a\":1}", frame.text());
+        frame.release();
+        frame = channel.readOutbound();
+        Assert.assertEquals("{\"b\":2}", frame.text());
+        frame.release();
+        Assert.assertNull(channel.readOutbound());
+        Assert.assertTrue(channel.isOpen());
+    }
+
+    private static class TextMessage extends FrameWriter.Message {
+        private final String text;
+
+        TextMessage(String text) {
+            super(false);
+            this.text = text;
+        }
+
+        @Override
+        protected void encode(OutputStream out) throws IOException {
+            if (text == null) {
+                throw new IOException("Encoding failed");
+            }
+            byte[] bytes = text.getBytes(CharsetUtil.UTF_8);
+            out.write(bytes, 0, bytes.length);
+        }
+
+        @Override
+        protected void failed(Exception cause) {
+        }
+    }
+}
@@ -0,0 +1,159 @@
+package org.dsa.iot.broker.upstream;
+
+import org.dsa.iot.broker.Broker;
+import org.dsa.iot.broker.config.broker.BrokerMemoryConfig;
+import org.dsa.iot.broker.node.BrokerTree;
+import org.dsa.iot.broker.node.DSLinkNode;
+import org.dsa.iot.broker.server.DsaHandshake;
+import org.dsa.iot.broker.server.client.ClientManager;
+import org.dsa.iot.dslink.connection.DataHandler;
+import org.dsa.iot.dslink.util.json.JsonArray;
+import org.dsa.iot.dslink.util.json.JsonObject;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * @author Samuel Grenier
+ */
+public class UpstreamTest {
+
+    private static final String DSID = "upstream-AAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAA";
+
+    @Test
+    public void updatesCoalescedPerSid() {
+        RecordingHandler handler = new RecordingHandler();
+        UpstreamClient client = createClient(handler);
+
+        JsonArray updates = new JsonArray();
+        updates.add(arrayUpdate(1, 1));
+        updates.add(mapUpdate(2, 1));
+        updates.add(arrayUpdate(1, 2));
+        updates.add(mapUpdate(2, 2));
+        client.writeResponse(updates(updates));
+        // The updates are reused for the next subscriber
+        ((JsonArray) updates.get(2)).set(1, 3);
+        ((JsonObject) updates.get(3)).put("value", 3);
+        Assert.assertTrue(handler.responses.isEmpty());
+
+        client.flush();
+        Assert.assertEquals(1, handler.responses.size());
+        JsonArray sent = handler.responses.get(0).get("updates");
+        Assert.assertEquals(2, sent.size());
+        JsonArray array = sent.get(0);
+        Assert.assertEquals(1, (int) array.<Integer>get(0));
+        Assert.assertEquals(2, (int) array.<Integer>get(1));
+        JsonObject map = sent.get(1);
+        Assert.assertEquals(2, (int) map.<Integer>get("sid"));
+        Assert.assertEquals(2, (int) map.<Integer>get("value"));
+    }
+
+    @Test
+    public void unsubscribedUpdatesPurged() {
+        RecordingHandler handler = new RecordingHandler();
+        UpstreamClient client = createClient(handler);
+
+        JsonArray updates = new JsonArray();
+        updates.add(arrayUpdate(1, 1));
+        updates.add(mapUpdate(2, 1));
+        client.writeResponse(updates(updates));
+        JsonArray sids = new JsonArray();
+        sids.add(1);
+        client.purge(sids);
+        client.flush();
+        JsonArray sent = handler.responses.get(0).get("updates");
+        Assert.assertEquals(1, sent.size());
+        Assert.assertEquals(2, (int) ((JsonObject) sent.get(0)).<Integer>get("sid"));
+
+        client.writeResponse(updates(updates));
+        client.purge();
+        client.flush();
+        Assert.assertEquals(1, handler.responses.size());
+    }
+
+    @Test
+    public void onlyDownstreamExposed() {
+        JsonObject list = new JsonObject();
+        list.put("rid", 1);
+        list.put("method", "list");
+        list.put("path", "/");
+
+        JsonObject sys = new JsonObject();
+        sys.put("rid", 2);
+        sys.put("method", "invoke");
+        sys.put("path", "/sys/stop");
+
+        JsonObject path = new JsonObject();
+        path.put("path", "link/a");
+        path.put("sid", 1);
+        JsonArray paths = new JsonArray();
+        paths.add(path);
+        JsonObject sub = new JsonObject();
+        sub.put("rid", 3);
+        sub.put("method", "subscribe");
+        sub.put("paths", paths);
+
+        JsonArray requests = new JsonArray();
+        requests.add(list);
+        requests.add(sys);
+        requests.add(sub);
+        Upstream.scope("downstream", requests);
+        Assert.assertEquals("/downstream", list.get("path"));
+        Assert.assertEquals("/downstream/sys/stop", sys.get("path"));
+        Assert.assertEquals("/downstream/link/a", path.get("path"));
+    }
+
+    private static UpstreamClient createClient(DataHandler handler) {
+        BrokerTree tree = new BrokerTree();
+        Broker broker = new Broker(new BrokerMemoryConfig(),
+                                   new ClientManager(),
+                                   tree);
+        tree.initialize(broker.downstream());
+        DsaHandshake handshake = new DsaHandshake(new JsonObject(), DSID);
+        DSLinkNode node = new DSLinkNode(tree.downstream(), "upstream");
+        // Flushed by the tests
+        return new UpstreamClient(broker, handshake, node, handler, 60000);
+    }
+
+    private static JsonArray updates(JsonArray updates) {
+        JsonObject resp = new JsonObject();
+        resp.put("rid", 0);
+        resp.put("updates", updates);
+        JsonArray resps = new JsonArray();
+        resps.add(resp);
+        return resps;
+    }
+
+    private static JsonArray arrayUpdate(int sid, int value) {
+        JsonArray update = new JsonArray();
+        update.add(sid);
+        update.add(value);
+        update.add("ts");
+        return update;
+    }
+
+    private static JsonObject mapUpdate(int sid, int value) {
+        JsonObject update = new JsonObject();
+        update.put("sid", sid);
+        update.put("value", value);
+        update.put("ts", "ts");
+        return update;
+    }
+
+    private static class RecordingHandler extends DataHandler {
+
+        private final List<JsonObject> responses = new ArrayList<>();
+
+        @Override
+        public boolean isConnected() {
+            return true;
+        }
+
+        @Override
+        public void writeResponse(JsonObject object) {
+            responses.add(object);
+        }
+    }
+}
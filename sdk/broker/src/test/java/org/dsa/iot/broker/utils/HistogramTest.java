@@ -0,0 +1,51 @@
+package org.dsa.iot.broker.utils;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * @author Samuel Grenier
+ */
+public class HistogramTest {
+
+    @Test
+    public void buckets() {
+        for (long v = 0; v < 1 << 20; v += 7) {
+            int index = Histogram.index(v);
+            Assert.assertTrue(Histogram.lowerBound(index) <= v);
+            Assert.assertTrue(Histogram.highestEquivalent(index) >= v);
+        }
+        Assert.assertEquals(63, Histogram.index(63));
+        Assert.assertEquals(64, Histogram.lowerBound(Histogram.index(64)));
+        Histogram.index(Long.MAX_VALUE);
+    }
+
+    @Test
+    public void percentiles() {
+        Histogram h = new Histogram("us");
+        for (int i = 1; i <= 1000; ++i) {
+            h.record(i);
+        }
+        Histogram.Snapshot s = h.snapshot(true);
+        Assert.assertEquals(1000, s.count());
+        Assert.assertEquals(1000, s.max());
+        Assert.assertEquals(500.5, s.mean(), 0.001);
+        Assert.assertEquals(500, s.percentile(50), 500 * 0.04);
+        Assert.assertEquals(990, s.percentile(99), 990 * 0.04);
+        Assert.assertEquals(1000, s.percentile(100));
+
+        s = h.snapshot(false);
+        Assert.assertEquals(0, s.count());
+        Assert.assertEquals(0, s.percentile(99));
+    }
+
+    @Test
+    public void stripedCounter() {
+        StripedCounter c = new StripedCounter();
+        c.add(5);
+        c.increment();
+        Assert.assertEquals(6, c.sum());
+        Assert.assertEquals(6, c.sumThenReset());
+        Assert.assertEquals(0, c.sum());
+    }
+}
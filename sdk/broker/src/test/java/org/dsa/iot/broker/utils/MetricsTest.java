@@ -0,0 +1,53 @@
+package org.dsa.iot.broker.utils;
+
+import org.dsa.iot.broker.Broker;
+import org.dsa.iot.broker.config.broker.BrokerMemoryConfig;
+import org.dsa.iot.broker.node.BrokerNode;
+import org.dsa.iot.broker.node.BrokerTree;
+import org.dsa.iot.broker.node.DSLinkNode;
+import org.dsa.iot.broker.server.DsaHandshake;
+import org.dsa.iot.broker.server.client.Client;
+import org.dsa.iot.broker.server.client.ClientManager;
+import org.dsa.iot.dslink.util.json.JsonObject;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * @author Samuel Grenier
+ */
+public class MetricsTest {
+
+    private static final String DSID = "link-AAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAA";
+
+    @Test
+    public void linkRemovedOnceDisconnected() {
+        BrokerTree tree = new BrokerTree();
+        Broker broker = new Broker(new BrokerMemoryConfig(),
+                                   new ClientManager(),
+                                   tree);
+        tree.initialize(broker.downstream());
+        DSLinkNode node = new DSLinkNode(tree.downstream(), "link");
+        Client first = client(broker, node);
+        Client second = client(broker, node);
+
+        Metrics metrics = broker.metrics();
+        BrokerNode links = tree.getRoot().getChild("sys").getChild("links");
+        metrics.clientConnected(first);
+        metrics.clientConnected(second);
+        Assert.assertEquals(2, metrics.getConnectedLinks());
+        Assert.assertNotNull(links.getChild("link"));
+
+        // Kept while a client of the link is still connected
+        metrics.clientDisconnected(first);
+        Assert.assertNotNull(links.getChild("link"));
+        metrics.clientDisconnected(second);
+        Assert.assertNull(links.getChild("link"));
+        Assert.assertEquals(0, metrics.getConnectedLinks());
+    }
+
+    private static Client client(Broker broker, DSLinkNode node) {
+        Client client = new Client(broker, new DsaHandshake(new JsonObject(), DSID));
+        client.node(node);
+        return client;
+    }
+}
@@ -0,0 +1,60 @@
+package org.dsa.iot.broker.utils;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * @author Samuel Grenier
+ */
+public class ParsedPathTest {
+
+    @Test
+    public void remote() {
+        ParsedPath pp = ParsedPath.parse("downstream", "/downstream/link/a/b");
+        Assert.assertTrue(pp.isRemote());
+        Assert.assertEquals("/downstream/link/a/b", pp.full());
+        Assert.assertEquals("/a/b", pp.base());
+        Assert.assertEquals(4, pp.length());
+        Assert.assertEquals("link", pp.segment(1));
+
+        pp = ParsedPath.parse("downstream", "/downstream/link");
+        Assert.assertTrue(pp.isRemote());
+        Assert.assertEquals("/", pp.base());
+    }
+
+    @Test
+    public void local() {
+        ParsedPath pp = ParsedPath.parse("downstream", "/sys/messagesInPerSecond");
+        Assert.assertFalse(pp.isRemote());
+        Assert.assertEquals(pp.full(), pp.base());
+
+        pp = ParsedPath.parse("downstream", "/");
+        Assert.assertFalse(pp.isRemote());
+        Assert.assertEquals(0, pp.length());
+    }
+
+    @Test
+    public void interned() {
+        ParsedPath a = ParsedPath.parse("downstream", "/downstream/link/c");
+        ParsedPath b = ParsedPath.parse("downstream", "downstream/link/c/");
+        ParsedPath c = ParsedPath.parse("downstream", "/downstream/link/c");
+        Assert.assertSame(a, b);
+        Assert.assertSame(a, c);
+    }
+
+    @Test
+    public void downstreamChange() {
+        ParsedPath a = ParsedPath.parse("downstream", "/conns/link/d");
+        ParsedPath b = ParsedPath.parse("conns", "/conns/link/d");
+        Assert.assertFalse(a.isRemote());
+        Assert.assertTrue(b.isRemote());
+        Assert.assertEquals(a, b);
+    }
+
+    @Test
+    public void splitIsCopied() {
+        ParsedPath pp = ParsedPath.parse("downstream", "/downstream/link/e");
+        pp.split()[0] = "modified";
+        Assert.assertEquals("downstream", pp.segment(0));
+    }
+}
@@ -0,0 +1,50 @@
+package org.dsa.iot.broker.utils;
+
+import org.dsa.iot.dslink.util.json.JsonArray;
+import org.dsa.iot.dslink.util.json.JsonObject;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * @author Samuel Grenier
+ */
+public class RequestGeneratorTest {
+
+    @Test
+    public void multiPathSubscribe() {
+        Map<Integer, ParsedPath> paths = new LinkedHashMap<>();
+        paths.put(1, ParsedPath.parse("downstream", "/downstream/link/a"));
+        paths.put(2, ParsedPath.parse("downstream", "/downstream/link/b"));
+
+        JsonArray reqs = RequestGenerator.subscribe(paths, 5);
+        Assert.assertEquals(1, reqs.size());
+        JsonObject req = reqs.get(0);
+        Assert.assertEquals(5, (int) req.<Integer>get("rid"));
+        Assert.assertEquals("subscribe", req.get("method"));
+
+        JsonArray array = req.get("paths");
+        Assert.assertEquals(2, array.size());
+        JsonObject first = array.get(0);
+        Assert.assertEquals("/a", first.get("path"));
+        Assert.assertEquals(1, (int) first.<Integer>get("sid"));
+        JsonObject second = array.get(1);
+        Assert.assertEquals("/b", second.get("path"));
+        Assert.assertEquals(2, (int) second.<Integer>get("sid"));
+    }
+
+    @Test
+    public void multiSidUnsubscribe() {
+        JsonArray reqs = RequestGenerator.unsubscribe(7, Arrays.asList(3, 4));
+        Assert.assertEquals(1, reqs.size());
+        JsonObject req = reqs.get(0);
+        Assert.assertEquals("unsubscribe", req.get("method"));
+        JsonArray sids = req.get("sids");
+        Assert.assertEquals(2, sids.size());
+        Assert.assertEquals(3, (int) sids.<Integer>get(0));
+        Assert.assertEquals(4, (int) sids.<Integer>get(1));
+    }
+}
@@ -92,7 +92,11 @@ public class ConnectionManager {
                 switch (type) {
                     case WEB_SOCKET:
                         WebSocketConnector connector = new WebSocketConnector();
-                        connector.setEndpoint(configuration.getAuthEndpoint());
+                        URLInfo endpoint = remoteHandshake.getEndpoint();
+                        if (endpoint == null) {
+                            endpoint = configuration.getAuthEndpoint();
+                        }
+                        connector.setEndpoint(endpoint);
                         connector.setRemoteHandshake(remoteHandshake);
                         connector.setLocalHandshake(localHandshake);
                         connector.setOnConnected(new Handler<Void>() {
@@ -6,6 +6,7 @@ import org.dsa.iot.dslink.config.Configuration;
 import org.dsa.iot.dslink.util.StringUtils;
 import org.dsa.iot.dslink.util.UrlBase64;
 import org.dsa.iot.dslink.util.json.JsonObject;
+import org.dsa.iot.shared.DeflatePolicy;
 
 /**
  * Holds the necessary information to perform a handshake to a remote server.
@@ -113,7 +114,7 @@ public class LocalHandshake {
         obj.put("isResponder", isResponder);
         obj.put("linkData", linkData);
         obj.put("version", "1.0.4");
-        obj.put("enableWebSocketCompression", true);
+        obj.put("enableWebSocketCompression", DeflatePolicy.DEFAULT.enabled());
 
         /*String formats = System.getProperty(PropertyReference.FORMATS);
         String[] split = formats != null ? formats.split(",") : null;
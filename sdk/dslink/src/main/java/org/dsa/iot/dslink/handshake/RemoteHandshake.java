@@ -1,5 +1,7 @@
 package org.dsa.iot.dslink.handshake;
 
+import io.netty.handler.codec.http.HttpHeaderNames;
+import io.netty.handler.codec.http.HttpHeaders;
 import io.netty.handler.codec.http.HttpResponseStatus;
 import org.dsa.iot.dslink.util.URLInfo;
 import org.dsa.iot.dslink.util.http.HttpClient;
@@ -19,6 +21,7 @@ public class RemoteHandshake {
     private final String salt;
     private final String path;
     private final EncodingFormat format;
+    private URLInfo endpoint;
 
     /**
      * Populates the handshake with data from the server.
@@ -67,6 +70,15 @@ public class RemoteHandshake {
         return path;
     }
 
+    /**
+     * @return The authentication endpoint the handshake was completed
+     *         with or {@code null} if unknown. It differs from the
+     *         configured endpoint when the server redirected the DSLink.
+     */
+    public URLInfo getEndpoint() {
+        return endpoint;
+    }
+
     /**
      * @return The format to be used when communicating to the endpoint.
      */
@@ -100,12 +112,33 @@ public class RemoteHandshake {
         byte[] content = lh.toJson().encode();
         HttpResp resp = client.post(fullPath, content);
         HttpResponseStatus status = resp.getStatus();
+
+        // Clustered brokers redirect the DSLink to the broker owning it
+        String location = getLocation(resp);
+        if (status.code() == HttpResponseStatus.TEMPORARY_REDIRECT.code()
+                && location != null) {
+            URLInfo redirect = URLInfo.parse(location);
+            url = new URLInfo(redirect.protocol, redirect.host,
+                                redirect.port, url.path, redirect.secure);
+            resp = new HttpClient(url).post(redirect.path, content);
+            status = resp.getStatus();
+        }
         if (status.code() != HttpResponseStatus.OK.code()) {
             throw new RuntimeException("Bad status: " + status);
         }
 
         JsonObject o = new JsonObject(resp.getBody());
         LocalKeys k = lh.getKeys();
-        return new RemoteHandshake(k, o);
+        RemoteHandshake handshake = new RemoteHandshake(k, o);
+        handshake.endpoint = url;
+        return handshake;
+    }
+
+    private static String getLocation(HttpResp resp) {
+        HttpHeaders headers = resp.getHeaders();
+        if (headers == null) {
+            return null;
+        }
+        return headers.get(HttpHeaderNames.LOCATION);
     }
 }
@@ -10,6 +10,8 @@ import org.dsa.iot.dslink.util.handler.Handler;
 import org.dsa.iot.dslink.util.json.JsonArray;
 import org.dsa.iot.dslink.util.json.JsonObject;
 
+import java.io.PrintWriter;
+import java.io.StringWriter;
 import java.util.Collections;
 import java.util.LinkedList;
 import java.util.List;
@@ -237,11 +239,29 @@ public class Table {
      * tables.
      */
     public synchronized void close() {
+        close(null);
+    }
+
+    /**
+     * Closes a streaming table with an error, the requester is told the
+     * results it received are incomplete.
+     *
+     * @param cause Failure of the table, can be null to close it normally.
+     */
+    public synchronized void close(Throwable cause) {
         DataHandler writer = this.writer;
         if (writer != null) {
             JsonObject obj = new JsonObject();
             obj.put("rid", rid);
             obj.put("stream", StreamState.CLOSED.getJsonName());
+            if (cause != null) {
+                JsonObject err = new JsonObject();
+                err.put("msg", cause.getMessage());
+                StringWriter trace = new StringWriter();
+                cause.printStackTrace(new PrintWriter(trace));
+                err.put("detail", trace.toString());
+                obj.put("error", err);
+            }
             writer.writeResponse(obj, false);
             this.writer = null;
             Handler<Void> closeHandler = this.closeHandler;
@@ -4,7 +4,6 @@ import io.netty.bootstrap.Bootstrap;
 import io.netty.buffer.ByteBuf;
 import io.netty.channel.*;
 import io.netty.channel.socket.SocketChannel;
-import io.netty.channel.socket.nio.NioSocketChannel;
 import io.netty.handler.codec.http.*;
 import io.netty.handler.ssl.SslContext;
 import io.netty.handler.ssl.SslContextBuilder;
@@ -36,7 +35,7 @@ public class DefaultHttpProvider extends HttpProvider {
 
             Bootstrap b = new Bootstrap();
             b.group(SharedObjects.getLoop());
-            b.channel(NioSocketChannel.class);
+            b.channel(SharedObjects.getTransport().getChannel());
             b.handler(new Initializer(handler, url.secure));
             ChannelFuture fut = b.connect(url.host, url.port);
             Channel chan = fut.sync().channel();
@@ -81,6 +80,7 @@ public class DefaultHttpProvider extends HttpProvider {
         HttpResp resp = new HttpResp();
         resp.setStatus(handler.getStatus());
         resp.setBody(handler.getContent());
+        resp.setHeaders(handler.getHeaders());
         return resp;
     }
 
@@ -115,6 +115,7 @@ public class DefaultHttpProvider extends HttpProvider {
 
         private StringBuffer content = new StringBuffer();
         private HttpResponseStatus status;
+        private HttpHeaders headers;
         private Throwable t;
 
         @Override
@@ -123,6 +124,7 @@ public class DefaultHttpProvider extends HttpProvider {
             if (msg instanceof HttpResponse) {
                 HttpResponse resp = (HttpResponse) msg;
                 status = resp.status();
+                headers = resp.headers();
             }
             if (msg instanceof HttpContent) {
                 ByteBuf buf = ((HttpContent) msg).content();
@@ -147,6 +149,10 @@ public class DefaultHttpProvider extends HttpProvider {
             return status;
         }
 
+        public HttpHeaders getHeaders() {
+            return headers;
+        }
+
         public String getContent() {
             return content.toString();
         }
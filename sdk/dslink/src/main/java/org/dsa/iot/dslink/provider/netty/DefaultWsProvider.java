@@ -2,15 +2,12 @@ package org.dsa.iot.dslink.provider.netty;
 
 import io.netty.bootstrap.Bootstrap;
 import io.netty.buffer.ByteBuf;
-import io.netty.buffer.Unpooled;
 import io.netty.channel.*;
 import io.netty.channel.socket.SocketChannel;
-import io.netty.channel.socket.nio.NioSocketChannel;
 import io.netty.handler.codec.http.*;
 import io.netty.handler.codec.http.websocketx.*;
 import io.netty.handler.codec.http.websocketx.extensions.WebSocketClientExtensionHandler;
 import io.netty.handler.codec.http.websocketx.extensions.WebSocketClientExtensionHandshaker;
-import io.netty.handler.codec.http.websocketx.extensions.compression.PerMessageDeflateClientExtensionHandshaker;
 import io.netty.handler.ssl.SslContext;
 import io.netty.handler.ssl.SslContextBuilder;
 import io.netty.handler.ssl.util.InsecureTrustManagerFactory;
@@ -21,11 +18,14 @@ import org.dsa.iot.dslink.util.URLInfo;
 import org.dsa.iot.dslink.util.http.WsClient;
 import org.dsa.iot.dslink.util.json.EncodingFormat;
 import org.dsa.iot.dslink.util.json.JsonObject;
+import org.dsa.iot.shared.DeflatePolicy;
+import org.dsa.iot.shared.FrameWriter;
 import org.dsa.iot.shared.SharedObjects;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.net.ssl.TrustManagerFactory;
+import java.io.OutputStream;
 import java.net.URI;
 import java.net.URISyntaxException;
 
@@ -54,12 +54,12 @@ public class DefaultWsProvider extends WsProvider {
         WebSocketVersion v = WebSocketVersion.V13;
         HttpHeaders h = new DefaultHttpHeaders();
         final WebSocketClientHandshaker wsch = WebSocketClientHandshakerFactory
-                .newHandshaker(uri, v, null, true, h, Integer.MAX_VALUE);
+                .newHandshaker(uri, v, null, true, h, SharedObjects.MAX_MESSAGE_SIZE);
         final WebSocketHandler handler = new WebSocketHandler(wsch, client);
 
         Bootstrap b = new Bootstrap();
         b.group(SharedObjects.getLoop());
-        b.channel(NioSocketChannel.class);
+        b.channel(SharedObjects.getTransport().getChannel());
         b.handler(new ChannelInitializer<SocketChannel>() {
             @Override
             protected void initChannel(SocketChannel ch) throws Exception {
@@ -74,8 +74,10 @@ public class DefaultWsProvider extends WsProvider {
                 p.addLast(new HttpClientCodec());
                 p.addLast(new HttpObjectAggregator(8192));
                 WebSocketClientExtensionHandshaker com
-                        = new PerMessageDeflateClientExtensionHandshaker();
-                p.addLast(new WebSocketClientExtensionHandler(com));
+                        = DeflatePolicy.DEFAULT.clientHandshaker();
+                if (com != null) {
+                    p.addLast(new WebSocketClientExtensionHandler(com));
+                }
                 p.addLast(handler);
             }
         });
@@ -87,6 +89,7 @@ public class DefaultWsProvider extends WsProvider {
         private final WsClient client;
 
         private WebSocketClientHandshaker handshake;
+        private FrameWriter writer;
 
         public WebSocketHandler(WebSocketClientHandshaker handshake,
                                 WsClient client) {
@@ -100,6 +103,15 @@ public class DefaultWsProvider extends WsProvider {
             handshake.handshake(ctx.channel());
         }
 
+        @Override
+        public void channelWritabilityChanged(ChannelHandlerContext ctx) throws Exception {
+            FrameWriter writer = this.writer;
+            if (writer != null && ctx.channel().isWritable()) {
+                writer.resume();
+            }
+            super.channelWritabilityChanged(ctx);
+        }
+
         @Override
         public void channelInactive(ChannelHandlerContext ctx) throws Exception {
             super.channelInactive(ctx);
@@ -119,6 +131,11 @@ public class DefaultWsProvider extends WsProvider {
                 }
 
                 handshake = null;
+                writer = new FrameWriter(ch, SharedObjects.MAX_FRAME_SIZE);
+                // Fragmented messages are reassembled before being handled
+                int max = SharedObjects.MAX_MESSAGE_SIZE;
+                ctx.pipeline().addBefore(ctx.name(), "ws-aggregator",
+                                         new WebSocketFrameAggregator(max));
                 client.onConnected(new NetworkClient() {
 
                     @Override
@@ -127,22 +144,31 @@ public class DefaultWsProvider extends WsProvider {
                     }
 
                     @Override
-                    public void write(EncodingFormat format,
-                                      JsonObject data) {
-                        byte[] bytes = data.encode(format);
-                        ByteBuf buf = Unpooled.wrappedBuffer(bytes);
-                        WebSocketFrame frame = null;
+                    public void write(final EncodingFormat format,
+                                      final JsonObject data) {
+                        boolean binary;
                         if (format == EncodingFormat.MESSAGE_PACK) {
-                            frame = new BinaryWebSocketFrame(buf);
+                            binary = true;
                         } else if (format == EncodingFormat.JSON) {
-                            frame = new TextWebSocketFrame(buf);
+                            binary = false;
                         } else {
                             String err = "Unsupported encoding format: {}";
                             LOGGER.error(err, format);
+                            return;
                         }
-                        if (frame != null) {
-                            ch.writeAndFlush(frame);
-                        }
+                        // Large messages are sent as fragmented frames,
+                        // encoded on the event loop of the channel
+                        writer.write(new FrameWriter.Message(binary) {
+                            @Override
+                            protected void encode(OutputStream out) {
+                                data.encode(format, out);
+                            }
+
+                            @Override
+                            protected void failed(Exception cause) {
+                                LOGGER.error("Failed to write message", cause);
+                            }
+                        });
                     }
 
                     @Override
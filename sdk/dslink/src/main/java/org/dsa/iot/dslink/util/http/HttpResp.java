@@ -1,5 +1,6 @@
 package org.dsa.iot.dslink.util.http;
 
+import io.netty.handler.codec.http.HttpHeaders;
 import io.netty.handler.codec.http.HttpResponseStatus;
 
 /**
@@ -9,6 +10,7 @@ public class HttpResp {
 
     private HttpResponseStatus status;
     private String body;
+    private HttpHeaders headers;
 
     public HttpResponseStatus getStatus() {
         return status;
@@ -25,4 +27,16 @@ public class HttpResp {
     public void setBody(String body) {
         this.body = body;
     }
+
+    /**
+     * @return Headers of the response or {@code null} if the provider
+     *         does not support them.
+     */
+    public HttpHeaders getHeaders() {
+        return headers;
+    }
+
+    public void setHeaders(HttpHeaders headers) {
+        this.headers = headers;
+    }
 }
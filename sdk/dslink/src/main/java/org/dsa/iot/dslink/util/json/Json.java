@@ -43,17 +43,40 @@ public class Json {
         return performEncode(format, obj, new DefaultPrettyPrinter());
     }
 
+    /**
+     * Encodes the object directly into the stream without buffering the
+     * whole encoded object. The stream is closed once the object is
+     * encoded.
+     *
+     * @param format Format to encode the object in.
+     * @param obj Object to encode.
+     * @param out Stream to write the encoded object to.
+     */
+    public static void encode(EncodingFormat format,
+                              Object obj,
+                              OutputStream out) {
+        performEncode(format, obj, null, out);
+    }
+
     private static byte[] performEncode(EncodingFormat format,
                                         Object obj,
                                         PrettyPrinter printer) {
         ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        performEncode(format, obj, printer, baos);
+        return baos.toByteArray();
+    }
+
+    private static void performEncode(EncodingFormat format,
+                                      Object obj,
+                                      PrettyPrinter printer,
+                                      OutputStream out) {
         JsonEncoding enc = JsonEncoding.UTF8;
         JsonGenerator gen;
         try {
             if (format == EncodingFormat.JSON) {
-                gen = JSON_FACTORY.createGenerator(baos, enc);
+                gen = JSON_FACTORY.createGenerator(out, enc);
             } else if (format == EncodingFormat.MESSAGE_PACK) {
-                gen = MSG_FACTORY.createGenerator(baos, enc);
+                gen = MSG_FACTORY.createGenerator(out, enc);
             } else {
                 throw new UnsupportedOperationException(format.toJson());
             }
@@ -68,7 +91,6 @@ public class Json {
                 ListEncoder.write(gen, (JsonArray) obj);
             }
             gen.close();
-            return baos.toByteArray();
         } catch (Exception e) {
             throw new RuntimeException(e);
         }
@@ -2,6 +2,7 @@ package org.dsa.iot.dslink.util.json;
 
 import io.netty.util.CharsetUtil;
 
+import java.io.OutputStream;
 import java.util.*;
 
 /**
@@ -47,6 +48,16 @@ public class JsonObject implements Iterable<Map.Entry<String, Object>> {
         return Json.encode(format, this);
     }
 
+    /**
+     * @param format Format to encode the object in.
+     * @param out Stream to write the encoded object to, closed once the
+     *            object is encoded.
+     * @see Json#encode(EncodingFormat, Object, OutputStream)
+     */
+    public void encode(EncodingFormat format, OutputStream out) {
+        Json.encode(format, this, out);
+    }
+
     public byte[] encodePrettily() {
         return encodePrettily(EncodingFormat.JSON);
     }
@@ -5,11 +5,15 @@ import org.dsa.iot.dslink.node.value.Value;
 import org.dsa.iot.dslink.util.Objects;
 import org.dsa.iot.dslink.util.handler.CompleteHandler;
 import org.dsa.iot.dslink.util.handler.Handler;
+import org.dsa.iot.historian.utils.PathQueryData;
 import org.dsa.iot.historian.utils.QueryData;
+import org.dsa.iot.historian.utils.SampleBuffer;
 import org.dsa.iot.historian.utils.TimeParser;
+import org.dsa.iot.historian.utils.WriteBatch;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.List;
 import java.util.concurrent.ScheduledThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 
@@ -63,6 +67,16 @@ public abstract class Database {
         }
     }
 
+    /**
+     * @return Whether the database is connected, the connection may still
+     *         be dropped while writing.
+     */
+    public boolean isConnected() {
+        synchronized (connectedLock) {
+            return connected;
+        }
+    }
+
     private void reconnect(final Handler<Database> onConnect) {
         logger.info("Reconnecting in {} seconds", delay);
         STPE.schedule(new Runnable() {
@@ -95,6 +109,20 @@ public abstract class Database {
      */
     public abstract void write(String path, Value value, long ts);
 
+    /**
+     * Writes multiple values at once. Databases supporting batch statements,
+     * multi row inserts or group commits should override this, by default
+     * each row is written individually.
+     *
+     * @param batch Rows to write, times are in UTC.
+     * @see #write(String, Value, long)
+     */
+    public void writeBatch(WriteBatch batch) {
+        for (int i = 0; i < batch.size(); ++i) {
+            write(batch.getPath(i), batch.getValue(i), batch.getTime(i));
+        }
+    }
+
     /**
      * Times must be in UTC. At the end of the query, the {@code handler} must
      * receive a {@code null} event in order to close the table stream.
@@ -109,6 +137,104 @@ public abstract class Database {
                                long to,
                                CompleteHandler<QueryData> handler);
 
+    /**
+     * Queries multiple paths over the same range. The values of a path are
+     * received in order, the values of different paths may be interleaved.
+     * Databases able to query multiple series at once should override this,
+     * by default each path is queried in turn.
+     *
+     * @param paths Paths to query.
+     * @param from Beginning search time.
+     * @param to End search time.
+     * @param handler Handler callback for incoming data.
+     * @see #query(String, long, long, CompleteHandler)
+     */
+    public void query(List<String> paths,
+                      long from,
+                      long to,
+                      CompleteHandler<PathQueryData> handler) {
+        queryPath(paths, 0, from, to, handler);
+    }
+
+    private void queryPath(final List<String> paths,
+                           final int index,
+                           final long from,
+                           final long to,
+                           final CompleteHandler<PathQueryData> handler) {
+        if (index >= paths.size()) {
+            handler.complete();
+            return;
+        }
+        final String path = paths.get(index);
+        query(path, from, to, new CompleteHandler<QueryData>() {
+            @Override
+            public void handle(QueryData event) {
+                Value value = event.getValue();
+                handler.handle(new PathQueryData(path, value, event.getTimestamp()));
+            }
+
+            @Override
+            public void complete() {
+                queryPath(paths, index + 1, from, to, handler);
+            }
+        });
+    }
+
+    /**
+     * Performs a query emitting the samples into a reusable buffer. The
+     * {@code handler} receives the buffer whenever it is full and once more
+     * before completing, it must consume the samples before returning as the
+     * buffer is cleared and refilled afterwards. Databases able to decode
+     * numbers without allocating should override this, by default the
+     * samples are copied from {@link #query}.
+     *
+     * @param path Path to query.
+     * @param from Beginning search time.
+     * @param to End search time.
+     * @param buffer Buffer the samples are emitted into.
+     * @param handler Handler callback for filled buffers.
+     */
+    public void querySamples(String path,
+                             long from,
+                             long to,
+                             final SampleBuffer buffer,
+                             final CompleteHandler<SampleBuffer> handler) {
+        query(path, from, to, new CompleteHandler<QueryData>() {
+            @Override
+            public void handle(QueryData event) {
+                Value value = event.getValue();
+                if (value == null) {
+                    return;
+                }
+                buffer.add(event.getTimestamp(), value);
+                if (buffer.isFull()) {
+                    handler.handle(buffer);
+                    buffer.clear();
+                }
+            }
+
+            @Override
+            public void complete() {
+                if (!buffer.isEmpty()) {
+                    handler.handle(buffer);
+                    buffer.clear();
+                }
+                handler.complete();
+            }
+        });
+    }
+
+    /**
+     * Databases returning {@code true} allow history queries over long
+     * ranges to be split into sub-ranges queried in parallel. Queries must
+     * then be thread safe and complete before returning.
+     *
+     * @return Whether queries can be performed concurrently.
+     */
+    public boolean isConcurrentQuerySupported() {
+        return false;
+    }
+
     /**
      * @param path Path to query.
      * @return The first value stored in the database.
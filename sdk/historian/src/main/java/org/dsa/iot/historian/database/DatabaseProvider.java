@@ -9,7 +9,9 @@ import org.dsa.iot.dslink.node.actions.Parameter;
 import org.dsa.iot.dslink.node.value.Value;
 import org.dsa.iot.dslink.node.value.ValueType;
 import org.dsa.iot.dslink.util.handler.Handler;
+import org.dsa.iot.historian.stats.GetMultiHistory;
 
+import java.io.File;
 import java.util.Map;
 
 /**
@@ -49,6 +51,16 @@ public abstract class DatabaseProvider {
      */
     public abstract Permission dbPermission();
 
+    /**
+     * Watch groups spill the values they cannot keep in memory into this
+     * directory while the database is unavailable.
+     *
+     * @return Directory of the spill files.
+     */
+    public File getSpillDirectory() {
+        return new File("spill");
+    }
+
     /**
      * Override to handle newly created watches. Can be used to add custom
      * actions to the watch.
@@ -97,6 +109,7 @@ public abstract class DatabaseProvider {
         node.setMetaData(db);
         initCreateWatchGroupAct(node);
         initDeleteAct(node);
+        GetMultiHistory.initAction(node, db);
 
         // Handle watch groups
         Map<String, Node> children = node.getChildren();
@@ -149,8 +162,8 @@ public abstract class DatabaseProvider {
             for (Node n : children.values()) {
                 WatchGroup g = n.getMetaData();
                 if (g != null) {
-                    g.unsubscribe();
-                    g.close();
+                    // Nothing is left to resume into a recreated group
+                    g.delete();
                 }
             }
         }
@@ -0,0 +1,227 @@
+package org.dsa.iot.historian.database;
+
+import org.dsa.iot.dslink.util.Objects;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Hashed time wheel firing the interval logging of every watch group. A
+ * single periodic tick serves all the groups instead of a thread pool per
+ * group. Every task is split into shards spread over its period so large
+ * groups do not sample all of their watches at once, each shard still
+ * receives the time of the period it samples aligned to the epoch.
+ *
+ * @author Samuel Grenier
+ */
+public class IntervalScheduler {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(IntervalScheduler.class);
+    private static final IntervalScheduler INSTANCE = new IntervalScheduler();
+
+    /**
+     * Resolution of the wheel in milliseconds.
+     */
+    static final long TICK = 100;
+    private static final int WHEEL_SIZE = 512;
+
+    private final Queue<Entry> added = new ConcurrentLinkedQueue<>();
+    private final List<List<Entry>> wheel = new ArrayList<>(WHEEL_SIZE);
+    private final List<Entry> due = new ArrayList<>();
+    private ScheduledFuture<?> future;
+    private long tick = -1; // Last processed tick
+
+    IntervalScheduler() {
+        for (int i = 0; i < WHEEL_SIZE; ++i) {
+            wheel.add(new ArrayList<Entry>());
+        }
+    }
+
+    /**
+     * @return The scheduler shared by every watch group.
+     */
+    public static IntervalScheduler getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * @param period Period of the task in milliseconds.
+     * @param shards Amount of shards to spread over the period, limited to
+     *               one per tick.
+     * @param start Start of the first period to fire, or 0 to fire from the
+     *              next shard due.
+     * @param task Task sampling a shard.
+     * @return The registration to cancel the task with.
+     */
+    public Registration schedule(long period, int shards, long start, Task task) {
+        if (task == null) {
+            throw new NullPointerException("task");
+        } else if (period < 1) {
+            throw new IllegalArgumentException("period < 1");
+        }
+        shards = (int) Math.max(1, Math.min(shards, period / TICK));
+        Registration registration = new Registration();
+        long now = System.currentTimeMillis();
+        for (int i = 0; i < shards; ++i) {
+            Entry entry = new Entry(registration, task, period, start, i, shards);
+            entry.setDeadline(now);
+            added.add(entry);
+        }
+        start();
+        return registration;
+    }
+
+    private synchronized void start() {
+        if (future == null && this == INSTANCE) {
+            future = Objects.getDaemonThreadPool().scheduleAtFixedRate(new Runnable() {
+                @Override
+                public void run() {
+                    advance(System.currentTimeMillis());
+                }
+            }, TICK, TICK, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Fires every shard due up to a time, ticks missed by a slow tick are
+     * caught up.
+     *
+     * @param now Current time.
+     */
+    synchronized void advance(long now) {
+        long current = now / TICK;
+        if (tick < 0) {
+            tick = current - 1;
+        }
+        Entry entry;
+        while ((entry = added.poll()) != null) {
+            insert(entry);
+        }
+        while (tick < current) {
+            ++tick;
+            Iterator<Entry> it = bucket(tick).iterator();
+            while (it.hasNext()) {
+                entry = it.next();
+                if (entry.isCancelled()) {
+                    it.remove();
+                } else if (entry.deadline / TICK <= tick) {
+                    it.remove();
+                    due.add(entry);
+                }
+            }
+            for (Entry e : due) {
+                e.run();
+                // Periods missed entirely are skipped rather than burst, a
+                // deadline within the tick is not fired twice
+                e.setDeadline(Math.max(now, e.deadline));
+                if (!e.isCancelled()) {
+                    insert(e);
+                }
+            }
+            due.clear();
+        }
+    }
+
+    private void insert(Entry entry) {
+        long t = Math.max(entry.deadline / TICK, tick + 1);
+        bucket(t).add(entry);
+    }
+
+    private List<Entry> bucket(long tick) {
+        return wheel.get((int) (tick % WHEEL_SIZE));
+    }
+
+    /**
+     * Samples a shard of a periodic task.
+     */
+    public interface Task {
+
+        /**
+         * @param time Start of the period being sampled.
+         * @param shard Index of the shard.
+         * @param shards Amount of shards of the task.
+         */
+        void run(long time, int shard, int shards);
+    }
+
+    public static class Registration {
+
+        private volatile long cancelled = Long.MAX_VALUE;
+
+        /**
+         * Stops firing the task, a shard already firing completes.
+         */
+        public void cancel() {
+            cancel(Long.MIN_VALUE);
+        }
+
+        /**
+         * Stops firing the task from a period, the shards of the previous
+         * periods still fire.
+         *
+         * @param from Start of the first period not to fire.
+         */
+        public void cancel(long from) {
+            cancelled = Math.min(cancelled, from);
+        }
+
+        public boolean isCancelled() {
+            return cancelled != Long.MAX_VALUE;
+        }
+    }
+
+    private static class Entry {
+
+        private final Registration registration;
+        private final Task task;
+        private final long period;
+        private final long start;
+        private final long offset;
+        private final int shard;
+        private final int shards;
+        private long deadline;
+
+        Entry(Registration registration, Task task, long period,
+              long start, int shard, int shards) {
+            this.registration = registration;
+            this.task = task;
+            this.period = period;
+            this.start = start;
+            this.offset = shard * period / shards;
+            this.shard = shard;
+            this.shards = shards;
+        }
+
+        /**
+         * Moves to the first offset after a time of a period not before the
+         * start.
+         */
+        void setDeadline(long now) {
+            long from = Math.max(now, start + offset - 1);
+            long time = from - offset;
+            deadline = time - time % period + offset;
+            if (deadline <= from) {
+                deadline += period;
+            }
+        }
+
+        boolean isCancelled() {
+            return deadline - offset >= registration.cancelled;
+        }
+
+        void run() {
+            try {
+                task.run(deadline - offset, shard, shards);
+            } catch (RuntimeException e) {
+                LOGGER.error("Interval task failed", e);
+            }
+        }
+    }
+}
@@ -73,6 +73,8 @@ class OverwriteHistoryAction implements Handler<ActionResult> {
                 for (Long timestamp : timestampsOfValuesToOverwrite) {
                     db.write(path, newValue, timestamp);
                 }
+                // The recent values no longer match the database
+                watch.clearRecent();
             }
         });
     }
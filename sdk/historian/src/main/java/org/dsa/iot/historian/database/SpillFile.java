@@ -0,0 +1,424 @@
+package org.dsa.iot.historian.database;
+
+import org.dsa.iot.dslink.node.value.Value;
+import org.dsa.iot.dslink.node.value.ValueType;
+import org.dsa.iot.dslink.util.json.JsonArray;
+import org.dsa.iot.dslink.util.json.JsonObject;
+import org.dsa.iot.historian.utils.WriteBatch;
+
+import java.io.*;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+
+/**
+ * Append only file of the values a watch group could not keep in memory.
+ * Values are read back in the order they were appended, the file is
+ * emptied once every value was read. An existing file is resumed from the
+ * last committed read position so values spilled before a restart are
+ * written once.
+ * <pre>
+ * long    position of the first value not written yet
+ * values of (UTF     path
+ *            long    time
+ *            byte    kind, followed by the value)
+ * </pre>
+ *
+ * @author Samuel Grenier
+ */
+final class SpillFile implements Closeable {
+
+    private static final byte DOUBLE = 0;
+    private static final byte LONG = 1;
+    private static final byte BOOL = 2;
+    private static final byte STRING = 3;
+    private static final byte MAP = 4;
+    private static final byte ARRAY = 5;
+    private static final byte BINARY = 6;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final int HEADER_SIZE = 8;
+
+    private final File file;
+    private DataOutputStream out;
+    private DataInputStream in;
+    private CountingInput counter;
+    private RandomAccessFile header;
+    private long size; // Bytes appended
+    private long pending; // Values appended but not read
+    private long uncommitted; // Values read but not committed
+    private long position = HEADER_SIZE; // Position of the next value to read
+    private long committed = HEADER_SIZE;
+
+    /**
+     * @param file File to spill into, the values of an existing file are
+     *             resumed.
+     * @throws IOException Failed to read an existing file.
+     */
+    SpillFile(File file) throws IOException {
+        this.file = file;
+        if (file.exists()) {
+            resume();
+        }
+    }
+
+    /**
+     * @param path Path of the value.
+     * @param value Value to spill.
+     * @param ts Time of the value in UTC.
+     * @throws IOException Failed to write the value.
+     */
+    void append(String path, Value value, long ts) throws IOException {
+        if (out == null) {
+            File parent = file.getParentFile();
+            if (parent != null && !parent.isDirectory() && !parent.mkdirs()) {
+                throw new IOException("Failed to create " + parent);
+            }
+            FileOutputStream fos = new FileOutputStream(file, true);
+            out = new DataOutputStream(new BufferedOutputStream(fos));
+            if (size == 0) {
+                out.writeLong(HEADER_SIZE);
+                size = HEADER_SIZE;
+            }
+        }
+        int before = out.size();
+        writeRecord(out, path, value, ts);
+        size += out.size() - before;
+        pending++;
+    }
+
+    /**
+     * Adds values older than every value not committed yet, the values
+     * read but not committed are read again afterwards. The file is
+     * rewritten and replaced atomically.
+     *
+     * @param batch Values to add in front of the file.
+     * @throws IOException Failed to rewrite the file.
+     */
+    void prepend(WriteBatch batch) throws IOException {
+        flush();
+        File parent = file.getAbsoluteFile().getParentFile();
+        if (parent != null && !parent.isDirectory() && !parent.mkdirs()) {
+            throw new IOException("Failed to create " + parent);
+        }
+        File tmp = new File(file.getPath() + ".tmp");
+        long length;
+        try (FileOutputStream fos = new FileOutputStream(tmp)) {
+            DataOutputStream tmpOut = new DataOutputStream(new BufferedOutputStream(fos));
+            tmpOut.writeLong(HEADER_SIZE);
+            for (int i = 0; i < batch.size(); ++i) {
+                writeRecord(tmpOut, batch.getPath(i), batch.getValue(i), batch.getTime(i));
+            }
+            tmpOut.flush();
+            if (size > committed) {
+                try (FileInputStream fis = new FileInputStream(file)) {
+                    long pos = committed;
+                    while (pos < size) {
+                        pos += fis.getChannel().transferTo(pos, size - pos, fos.getChannel());
+                    }
+                }
+            }
+            fos.getFD().sync();
+            length = fos.getChannel().size();
+        }
+        long count = batch.size() + pending + uncommitted;
+        close();
+        Files.move(tmp.toPath(), file.toPath(),
+                   StandardCopyOption.REPLACE_EXISTING,
+                   StandardCopyOption.ATOMIC_MOVE);
+        size = length;
+        pending = count;
+        uncommitted = 0;
+        position = HEADER_SIZE;
+        committed = HEADER_SIZE;
+    }
+
+    /**
+     * Reads the next values in the order they were appended. The values
+     * are read again after a restart unless they are committed.
+     *
+     * @param batch Batch receiving the values.
+     * @param max Maximum amount of values to read.
+     * @return The amount of values read.
+     * @throws IOException Failed to read the values.
+     */
+    int read(WriteBatch batch, int max) throws IOException {
+        if (pending == 0) {
+            return 0;
+        }
+        flush();
+        if (in == null) {
+            FileInputStream fis = new FileInputStream(file);
+            counter = new CountingInput(fis);
+            in = new DataInputStream(counter);
+            long skip = position;
+            while (skip > 0) {
+                long skipped = in.skip(skip);
+                if (skipped <= 0) {
+                    throw new EOFException();
+                }
+                skip -= skipped;
+            }
+        }
+        int read = 0;
+        while (read < max && pending > 0) {
+            String path = in.readUTF();
+            long ts = in.readLong();
+            batch.add(path, readValue(in), ts);
+            position = counter.count;
+            pending--;
+            uncommitted++;
+            read++;
+        }
+        return read;
+    }
+
+    /**
+     * Records that every value read so far was written so they are not
+     * read again after a restart.
+     *
+     * @throws IOException Failed to record the position.
+     */
+    void commit() throws IOException {
+        if (position == committed) {
+            return;
+        }
+        if (header == null) {
+            header = new RandomAccessFile(file, "rw");
+        }
+        header.seek(0);
+        header.writeLong(position);
+        committed = position;
+        uncommitted = 0;
+    }
+
+    void flush() throws IOException {
+        if (out != null) {
+            out.flush();
+        }
+    }
+
+    /**
+     * @return The amount of values not read yet.
+     */
+    long getPending() {
+        return pending;
+    }
+
+    /**
+     * @return The size of the file in bytes.
+     */
+    long getSize() {
+        return size;
+    }
+
+    /**
+     * Deletes the file, values not read yet are discarded.
+     *
+     * @throws IOException Failed to delete the file.
+     */
+    void reset() throws IOException {
+        close();
+        size = 0;
+        pending = 0;
+        uncommitted = 0;
+        position = HEADER_SIZE;
+        committed = HEADER_SIZE;
+        if (file.exists() && !file.delete()) {
+            throw new IOException("Failed to delete " + file);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        IOException ex = null;
+        if (out != null) {
+            try {
+                out.close();
+            } catch (IOException e) {
+                ex = e;
+            }
+            out = null;
+        }
+        if (in != null) {
+            try {
+                in.close();
+            } catch (IOException e) {
+                ex = e;
+            }
+            in = null;
+            counter = null;
+        }
+        if (header != null) {
+            try {
+                header.close();
+            } catch (IOException e) {
+                ex = e;
+            }
+            header = null;
+        }
+        if (ex != null) {
+            throw ex;
+        }
+    }
+
+    /**
+     * Counts the values of an existing file not committed yet, a value
+     * partially written before a crash is truncated.
+     */
+    private void resume() throws IOException {
+        long valid = 0;
+        long start = HEADER_SIZE;
+        long count = 0;
+        try (CountingInput counter = new CountingInput(new FileInputStream(file))) {
+            DataInputStream in = new DataInputStream(counter);
+            try {
+                start = in.readLong();
+                valid = HEADER_SIZE;
+                while (true) {
+                    in.readUTF();
+                    in.readLong();
+                    readValue(in);
+                    if (valid >= start) {
+                        count++;
+                    }
+                    valid = counter.count;
+                }
+            } catch (IOException ignored) {
+                // The rest of the file is incomplete
+            }
+        }
+        if (valid < file.length()) {
+            try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+                raf.setLength(valid);
+            }
+        }
+        size = valid;
+        pending = count;
+        if (valid == 0) {
+            // Not even the header was written
+            start = HEADER_SIZE;
+        } else if (start < HEADER_SIZE || start > valid) {
+            throw new IOException("Bad read position " + start + " in " + file);
+        }
+        position = start;
+        committed = start;
+    }
+
+    private static void writeRecord(DataOutputStream out, String path,
+                                    Value value, long ts) throws IOException {
+        out.writeUTF(path);
+        out.writeLong(ts);
+        writeValue(out, value);
+    }
+
+    private static void writeValue(DataOutputStream out, Value value) throws IOException {
+        ValueType type = value.getType();
+        if (type.compare(ValueType.NUMBER)) {
+            Number n = value.getNumber();
+            if (n instanceof Double
+                    || n instanceof Float
+                    || n instanceof BigDecimal
+                    || n instanceof BigInteger) {
+                out.writeByte(DOUBLE);
+                out.writeDouble(n.doubleValue());
+            } else {
+                out.writeByte(LONG);
+                out.writeLong(n.longValue());
+            }
+        } else if (type.compare(ValueType.BOOL)) {
+            out.writeByte(BOOL);
+            out.writeBoolean(value.getBool());
+        } else if (type.compare(ValueType.MAP)) {
+            out.writeByte(MAP);
+            writeBytes(out, value.getMap().toString().getBytes(UTF_8));
+        } else if (type.compare(ValueType.ARRAY)) {
+            out.writeByte(ARRAY);
+            writeBytes(out, value.getArray().toString().getBytes(UTF_8));
+        } else if (type.compare(ValueType.BINARY)) {
+            out.writeByte(BINARY);
+            writeBytes(out, value.getBinary());
+        } else {
+            String s = value.getString();
+            out.writeByte(STRING);
+            writeBytes(out, (s != null ? s : value.toString()).getBytes(UTF_8));
+        }
+    }
+
+    private static Value readValue(DataInputStream in) throws IOException {
+        byte kind = in.readByte();
+        switch (kind) {
+            case DOUBLE:
+                return new Value(in.readDouble());
+            case LONG:
+                long l = in.readLong();
+                if (l >= Integer.MIN_VALUE && l <= Integer.MAX_VALUE) {
+                    return new Value((int) l);
+                }
+                return new Value(l);
+            case BOOL:
+                return new Value(in.readBoolean());
+            case MAP:
+                return new Value(new JsonObject(new String(readBytes(in), UTF_8)));
+            case ARRAY:
+                return new Value(new JsonArray(new String(readBytes(in), UTF_8)));
+            case BINARY:
+                return new Value(readBytes(in));
+            case STRING:
+                return new Value(new String(readBytes(in), UTF_8));
+            default:
+                throw new IOException("Unknown kind: " + kind);
+        }
+    }
+
+    private static void writeBytes(DataOutputStream out, byte[] bytes) throws IOException {
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static byte[] readBytes(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0) {
+            throw new IOException("Invalid length: " + length);
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return bytes;
+    }
+
+    private static class CountingInput extends FilterInputStream {
+
+        private long count;
+
+        CountingInput(InputStream in) {
+            super(new BufferedInputStream(in));
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b > -1) {
+                count++;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int read = super.read(b, off, len);
+            if (read > 0) {
+                count += read;
+            }
+            return read;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = super.skip(n);
+            count += skipped;
+            return skipped;
+        }
+    }
+}
@@ -2,112 +2,212 @@ package org.dsa.iot.historian.database;
 
 import org.dsa.iot.dslink.link.Requester;
 import org.dsa.iot.dslink.methods.requests.RemoveRequest;
+import org.dsa.iot.dslink.node.NodeManager;
 import org.dsa.iot.dslink.node.value.SubscriptionValue;
 import org.dsa.iot.dslink.node.value.Value;
 import org.dsa.iot.dslink.util.SubData;
 import org.dsa.iot.dslink.util.handler.Handler;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
-import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.List;
-import java.util.Map;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 /**
- * Manages subscriptions in the historian.
+ * Manages subscriptions in the historian. Paths newly watched are
+ * subscribed in batches and every update is dispatched to the watches of
+ * its path without locking.
  *
  * @author Samuel Grenier
  */
 public class SubscriptionPool {
 
-    private final Map<String, SubHandler> subscriptions = new HashMap<>();
+    private static final Logger LOGGER = LoggerFactory.getLogger(SubscriptionPool.class);
+
+    /**
+     * Maximum amount of paths subscribed with a single request.
+     */
+    static final int SUBSCRIBE_CHUNK = 500;
+
+    private final ConcurrentMap<String, SubHandler> subscriptions = new ConcurrentHashMap<>();
+    private final Handler<SubscriptionValue> dispatcher = new Handler<SubscriptionValue>() {
+        @Override
+        public void handle(SubscriptionValue event) {
+            SubHandler handler = subscriptions.get(event.getPath());
+            if (handler != null) {
+                handler.handle(event);
+            }
+        }
+    };
+
+    // Orders the subscribe and unsubscribe requests of a path
+    private final Object requestLock = new Object();
     private final Requester requester;
 
     public SubscriptionPool(Requester requester) {
         this.requester = requester;
     }
 
-    public synchronized void subscribe(String path, Watch watch) {
-        SubHandler handler = subscriptions.get(path);
-        if (handler == null) {
-            handler = new SubHandler();
-            subscriptions.put(path, handler);
-            handler.addWatch(watch);
-            requester.subscribe(new SubData(path, 1), handler);
-        } else {
-            handler.addWatch(watch);
+    public void subscribe(String path, Watch watch) {
+        path = NodeManager.normalizePath(path, true);
+        SubHandler handler = add(path, watch);
+        if (handler != null) {
+            Map<String, SubHandler> created = new HashMap<>();
+            created.put(path, handler);
+            send(created);
         }
     }
 
-    public synchronized void unsubscribe(String path, Watch watch) {
-        SubHandler handler = subscriptions.get(path);
-        if (handler != null) {
-            handler.removeWatch(watch);
-            if (handler.isEmpty()) {
-                String getHistoryActionAliasPath = path + "/@@getHistory";
+    /**
+     * Subscribes to the paths of many watches with as few requests as
+     * possible.
+     *
+     * @param watches Watches to subscribe.
+     */
+    public void subscribe(Collection<Watch> watches) {
+        Map<String, SubHandler> created = new HashMap<>();
+        for (Watch watch : watches) {
+            String path = NodeManager.normalizePath(watch.getPath(), true);
+            SubHandler handler = add(path, watch);
+            if (handler != null) {
+                created.put(path, handler);
+                if (created.size() >= SUBSCRIBE_CHUNK) {
+                    send(created);
+                    created = new HashMap<>();
+                }
+            }
+        }
+        if (!created.isEmpty()) {
+            send(created);
+        }
+    }
 
+    public void unsubscribe(String path, Watch watch) {
+        String key = NodeManager.normalizePath(path, true);
+        synchronized (requestLock) {
+            SubHandler handler = subscriptions.get(key);
+            if (handler != null && handler.removeWatch(watch)) {
+                subscriptions.remove(key, handler);
+
+                String getHistoryActionAliasPath = path + "/@@getHistory";
                 requester.unsubscribe(path, null);
                 requester.remove(new RemoveRequest(getHistoryActionAliasPath), null);
-                subscriptions.remove(path);
             }
         }
     }
 
-    private static class SubHandler implements Handler<SubscriptionValue> {
-        private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
-        private final List<Watch> watches = new ArrayList<>();
+    /**
+     * @param path Path to check.
+     * @return Whether more than one watch is subscribed to the path.
+     */
+    public boolean isShared(String path) {
+        SubHandler handler = subscriptions.get(NodeManager.normalizePath(path, true));
+        return handler != null && handler.watches.size() > 1;
+    }
 
-        public boolean isEmpty() {
-            lock.readLock().lock();
-            try {
-                return watches.isEmpty();
-            } finally {
-                lock.readLock().unlock();
+    /**
+     * @return The handler created for the path when it must be subscribed.
+     */
+    private SubHandler add(String path, Watch watch) {
+        while (true) {
+            SubHandler handler = subscriptions.get(path);
+            if (handler != null && handler.addWatch(watch)) {
+                return null;
+            }
+            SubHandler created = new SubHandler();
+            created.addWatch(watch);
+            if (handler == null) {
+                if (subscriptions.putIfAbsent(path, created) == null) {
+                    return created;
+                }
+            } else if (subscriptions.replace(path, handler, created)) {
+                // The previous handler was closed, its unsubscribe
+                // request is sent before the subscribe request
+                return created;
             }
         }
+    }
 
-        public void addWatch(Watch watch) {
-            lock.writeLock().lock();
-            try {
-                if (!watches.contains(watch)) {
-                    watches.add(watch);
+    /**
+     * Paths unsubscribed since their handler was created are skipped, as
+     * are paths the requester is already subscribed to. A failed request
+     * only loses its own chunk.
+     */
+    private void send(Map<String, SubHandler> created) {
+        synchronized (requestLock) {
+            Set<SubData> paths = new HashSet<>();
+            for (Map.Entry<String, SubHandler> entry : created.entrySet()) {
+                String path = entry.getKey();
+                SubHandler handler = entry.getValue();
+                if (handler.closed || subscriptions.get(path) != handler) {
+                    continue;
+                } else if (requester.isSubscribed(path)) {
+                    LOGGER.warn("Path {} is already subscribed", path);
+                    continue;
                 }
-            } finally {
-                lock.writeLock().unlock();
+                paths.add(new SubData(path, 1));
+            }
+            if (paths.isEmpty()) {
+                return;
+            }
+            try {
+                requester.subscribe(paths, dispatcher);
+            } catch (RuntimeException e) {
+                LOGGER.error("Failed to subscribe to {} paths", paths.size(), e);
             }
         }
+    }
 
-        public void removeWatch(Watch watch) {
-            lock.writeLock().lock();
-            try {
-                watches.remove(watch);
-            } finally {
-                lock.writeLock().unlock();
+    private static class SubHandler implements Handler<SubscriptionValue> {
+        private final List<Watch> watches = new CopyOnWriteArrayList<>();
+        private volatile boolean closed;
+
+        /**
+         * @return Whether the watch was added, a closed handler must be
+         * replaced.
+         */
+        public synchronized boolean addWatch(Watch watch) {
+            if (closed) {
+                return false;
+            }
+            if (!watches.contains(watch)) {
+                watches.add(watch);
+            }
+            return true;
+        }
+
+        /**
+         * @return Whether the last watch was removed and the path must be
+         * unsubscribed.
+         */
+        public synchronized boolean removeWatch(Watch watch) {
+            if (closed) {
+                return false;
             }
+            watches.remove(watch);
+            closed = watches.isEmpty();
+            return closed;
         }
 
         @Override
         public void handle(SubscriptionValue event) {
-            lock.readLock().lock();
+            Value val = event.getValue();
+            if (val == null) {
+                return;
+            }
             try {
-                Value val = event.getValue();
-                if (val == null) {
-                    return;
-                }
-                try {
-                    if ((val.getTime() < 0) && !val.isImmutable()) {
-                        val.setTime(System.currentTimeMillis());
-                    }
-                } catch (Exception x) {
-                    //Just in case there are parsing errors because of wacky
-                    //timestamp formatting.
+                if ((val.getTime() < 0) && !val.isImmutable()) {
                     val.setTime(System.currentTimeMillis());
                 }
-                for (Watch w : watches) {
-                    w.onData(event);
-                }
-            } finally {
-                lock.readLock().unlock();
+            } catch (Exception x) {
+                //Just in case there are parsing errors because of wacky
+                //timestamp formatting.
+                val.setTime(System.currentTimeMillis());
+            }
+            for (Watch w : watches) {
+                w.onData(event);
             }
         }
     }
@@ -19,13 +19,14 @@ import org.dsa.iot.dslink.util.json.JsonArray;
 import org.dsa.iot.dslink.util.json.JsonObject;
 import org.dsa.iot.historian.stats.GetHistory;
 import org.dsa.iot.historian.utils.QueryData;
+import org.dsa.iot.historian.utils.SampleBuffer;
+import org.dsa.iot.historian.utils.SampleRing;
 import org.dsa.iot.historian.utils.WatchUpdate;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.util.ArrayList;
-import java.util.List;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.HashMap;
+import java.util.Map;
 
 /**
  * @author Samuel Grenier
@@ -33,8 +34,11 @@ import java.util.concurrent.locks.ReentrantReadWriteLock;
 public class Watch {
     private static final Logger LOGGER = LoggerFactory.getLogger(Watch.class);
 
-    private final ReentrantReadWriteLock rtLock = new ReentrantReadWriteLock();
-    private final List<Handler<QueryData>> rtHandlers = new ArrayList<>();
+    private static final int RECENT_SAMPLES = 1024;
+
+    private final Map<Handler<QueryData>, SampleRing.Cursor> rtHandlers = new HashMap<>();
+    private final Object recentLock = new Object();
+    private volatile SampleRing recent;
     private final WatchGroup group;
     private final Node node;
 
@@ -274,35 +278,94 @@ public class Watch {
         }
     }
 
-    public void addHandler(Handler<QueryData> handler) {
+    /**
+     * The ring is only allocated once it is read or tailed, watches that
+     * are never queried do not retain any value.
+     *
+     * @return The most recently written values of the watch.
+     */
+    public SampleRing getRecent() {
+        SampleRing recent = this.recent;
+        if (recent == null) {
+            synchronized (recentLock) {
+                recent = this.recent;
+                if (recent == null) {
+                    recent = new SampleRing(RECENT_SAMPLES);
+                    this.recent = recent;
+                }
+            }
+        }
+        return recent;
+    }
+
+    /**
+     * Drops the recent values, the ring is not allocated for it.
+     */
+    public void clearRecent() {
+        SampleRing recent = this.recent;
+        if (recent != null) {
+            recent.clear();
+        }
+    }
+
+    /**
+     * @return Whether other watches write the values of the same path, the
+     *         recent values of the watch are then incomplete.
+     */
+    public boolean isShared() {
+        SubscriptionPool pool = group.getDb().getProvider().getPool();
+        return pool.isShared(watchedPath);
+    }
+
+    /**
+     * The handler tails the recently written values, it is called on the
+     * loop rather than by the writer.
+     *
+     * @param handler Handler receiving the written values.
+     * @see #getRecent()
+     */
+    public void addHandler(final Handler<QueryData> handler) {
         if (handler == null) {
             return;
         }
-        rtLock.writeLock().lock();
-        try {
-            rtHandlers.add(handler);
-        } finally {
-            rtLock.writeLock().unlock();
+        final SampleBuffer samples = new SampleBuffer(64);
+        SampleRing.Cursor cursor = getRecent().tail(-1, new Handler<SampleRing.Cursor>() {
+            @Override
+            public void handle(SampleRing.Cursor event) {
+                while (event.read(samples) > 0) {
+                    for (int i = 0; i < samples.size(); ++i) {
+                        long ts = samples.getTime(i);
+                        handler.handle(new QueryData(samples.getValue(i), ts));
+                    }
+                    samples.clear();
+                }
+            }
+        });
+        synchronized (rtHandlers) {
+            rtHandlers.put(handler, cursor);
         }
     }
 
     public void removeHandler(Handler<QueryData> handler) {
-        rtLock.writeLock().lock();
-        try {
-            rtHandlers.remove(handler);
-        } finally {
-            rtLock.writeLock().unlock();
+        SampleRing.Cursor cursor;
+        synchronized (rtHandlers) {
+            cursor = rtHandlers.remove(handler);
+        }
+        if (cursor != null) {
+            getRecent().remove(cursor);
         }
     }
 
+    /**
+     * Called once the data is written to the database. Readers are only
+     * notified, the writer never waits on them.
+     *
+     * @param data Data written to the database.
+     */
     public void notifyHandlers(QueryData data) {
-        rtLock.readLock().lock();
-        try {
-            for (Handler<QueryData> h : rtHandlers) {
-                h.handle(data);
-            }
-        } finally {
-            rtLock.readLock().unlock();
+        SampleRing recent = this.recent;
+        if (recent != null) {
+            recent.add(data.getTimestamp(), data.getValue());
         }
     }
 
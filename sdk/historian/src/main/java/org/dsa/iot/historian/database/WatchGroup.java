@@ -13,36 +13,86 @@ import org.dsa.iot.dslink.node.value.SubscriptionValue;
 import org.dsa.iot.dslink.node.value.Value;
 import org.dsa.iot.dslink.node.value.ValueType;
 import org.dsa.iot.dslink.provider.LoopProvider;
+import org.dsa.iot.dslink.util.Objects;
 import org.dsa.iot.dslink.util.StringUtils;
 import org.dsa.iot.dslink.util.handler.Handler;
+import org.dsa.iot.historian.stats.rollup.RollupTier;
+import org.dsa.iot.historian.stats.rollup.RollupTiers;
 import org.dsa.iot.historian.utils.QueryData;
 import org.dsa.iot.historian.utils.WatchUpdate;
+import org.dsa.iot.historian.utils.WriteBatch;
 
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
 import java.util.*;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * @author Samuel Grenier
  */
 public class WatchGroup {
-    private static final int MINIMUM_AMOUNT_OF_THREADS = 3;
+    private static final Logger LOGGER = LoggerFactory.getLogger(WatchGroup.class);
+    private static final int WATCHES_PER_SHARD = 1000;
     private static final long DEFAULT_INTERVAL_IN_SECONDS = 5;
     private static final int DEFAULT_BUFFER_FLUSH_TIME_IN_SECONDS = 5;
+    private static final int DEFAULT_BATCH_SIZE = 500;
+    private static final long DEFAULT_FLUSH_LATENCY_IN_MILLIS = 0;
     private static final LoggingType DEFAULT_LOGGING_TYPE = LoggingType.ALL_DATA;
+    private static final int DEFAULT_QUEUE_SIZE = 10000;
+    private static final long RETRY_DELAY_IN_SECONDS = 5;
+    private static final long MAX_SPILL_SIZE = 256 * 1024 * 1024;
 
     private final Permission permission;
     private final Database db;
     private final Node node;
     private final Queue<WatchUpdate> queue = new ConcurrentLinkedDeque<>();
+    private final AtomicInteger queued = new AtomicInteger();
     private final Object writeLoopLock = new Object();
-    private final ScheduledExecutorService intervalScheduler;
+    private final Object flushLock = new Object();
+    private final Object ingestLock = new Object();
+    private final AtomicBoolean drainScheduled = new AtomicBoolean();
+    private final AtomicBoolean retryScheduled = new AtomicBoolean();
+    private final AtomicLong dropped = new AtomicLong();
     private final List<Watch> watches = new ArrayList<>();
+    private volatile Watch[] watchSnapshot;
+    private List<Watch> restoring; // Guarded by the watches
 
     private ScheduledFuture<?> bufferFut;
-    private ScheduledFuture<?> scheduledIntervalWriter;
+    private IntervalScheduler.Registration intervalWriter;
+    private int intervalShards;
     private LoggingType loggingType = DEFAULT_LOGGING_TYPE;
     private long interval = DEFAULT_INTERVAL_IN_SECONDS;
     private int bufferFlushTime = DEFAULT_BUFFER_FLUSH_TIME_IN_SECONDS;
+    private int batchSize = DEFAULT_BATCH_SIZE;
+    private long flushLatency = DEFAULT_FLUSH_LATENCY_IN_MILLIS;
+    private String rollupTiers = "";
+    private RollupTiers tiers;
+    private int queueSize = DEFAULT_QUEUE_SIZE;
+
+    // Batch being written, kept until it is written successfully
+    private final WriteBatch batch = new WriteBatch();
+    private final List<Watch> batchWatches = new ArrayList<>();
+    private boolean batchSpilled; // Whether the batch was read from the spill
+    private final WriteBatch summaries = new WriteBatch();
+
+    // Values overflowing the queue, guarded by the ingest lock
+    private SpillFile spill;
+    private volatile boolean spilling;
+    private boolean spillFailed;
+    private volatile boolean dbAvailable = true;
+    private volatile boolean closed;
+    private volatile double writeLatency;
+
+    private Node queueDepthNode;
+    private Node spilledNode;
+    private Node writeLatencyNode;
+    private Node droppedNode;
 
     /**
      * @param perm Permission all actions should be set to.
@@ -53,15 +103,85 @@ public class WatchGroup {
         this.permission = perm;
         this.node = node;
         this.db = db;
-
-        int availableProcessors = Runtime.getRuntime().availableProcessors();
-        intervalScheduler = Executors.newScheduledThreadPool(Math.min(MINIMUM_AMOUNT_OF_THREADS, availableProcessors));
     }
 
+    /**
+     * Stops the ingestion, values not written yet are spilled so they are
+     * written after the next start.
+     */
     public void close() {
+        close(true);
+    }
+
+    /**
+     * Stops the ingestion and drops the values not written yet along with
+     * the spill file, the group or its database is being deleted.
+     */
+    void delete() {
+        close(false);
+        unsubscribe();
+        deleteSpill();
+    }
+
+    private void close(boolean keepPending) {
+        closed = true;
         if (bufferFut != null) {
             bufferFut.cancel(true);
         }
+        synchronized (writeLoopLock) {
+            if (intervalWriter != null) {
+                intervalWriter.cancel();
+                intervalWriter = null;
+                intervalShards = 0;
+            }
+        }
+        synchronized (flushLock) {
+            synchronized (ingestLock) {
+                if (!keepPending) {
+                    queue.clear();
+                    queued.set(0);
+                    batch.clear();
+                    batchWatches.clear();
+                    summaries.clear();
+                }
+                WriteBatch pending = new WriteBatch();
+                if (!batchSpilled) {
+                    for (int i = 0; i < batch.size(); ++i) {
+                        pending.add(batch.getPath(i), batch.getValue(i), batch.getTime(i));
+                    }
+                }
+                batch.clear();
+                batchWatches.clear();
+                WatchUpdate update;
+                while ((update = queue.poll()) != null) {
+                    queued.decrementAndGet();
+                    Value value = update.getUpdate().getValue();
+                    if (value != null) {
+                        pending.add(update.getWatch().getPath(), value, getTime(update, value));
+                    }
+                }
+                try {
+                    if (!pending.isEmpty()) {
+                        if (spill == null) {
+                            spill = new SpillFile(getSpillFile());
+                        }
+                        // Queued values are older than the spilled ones
+                        spill.prepend(pending);
+                    }
+                } catch (IOException e) {
+                    dropped.addAndGet(pending.size());
+                    LOGGER.error("Failed to spill {} values", pending.size(), e);
+                }
+                if (spill != null) {
+                    try {
+                        spill.close();
+                    } catch (IOException e) {
+                        LOGGER.error("Failed to close the spill file", e);
+                    }
+                    spill = null;
+                }
+            }
+        }
     }
 
     /**
@@ -74,6 +194,13 @@ public class WatchGroup {
         return db;
     }
 
+    /**
+     * @return The rollup tiers maintained by the group or {@code null}.
+     */
+    public RollupTiers getRollupTiers() {
+        return tiers;
+    }
+
     /**
      * Writes to the database based on the watch group settings.
      *
@@ -81,6 +208,9 @@ public class WatchGroup {
      * @param sv    Subscription update received from the server.
      */
     public void write(Watch watch, SubscriptionValue sv) {
+        if (closed) {
+            return;
+        }
         boolean doWrite = false;
         switch (loggingType) {
             case ALL_DATA: {
@@ -102,19 +232,21 @@ public class WatchGroup {
         }
 
         if (doWrite) {
-            WatchUpdate update = new WatchUpdate(watch, sv);
-            if (bufferFut != null) {
-                queue.add(update);
-                return;
-            } else if (!queue.isEmpty()) {
-                handleQueue();
+            // Values are written behind so a slow database never holds
+            // up the subscriptions
+            enqueue(new WatchUpdate(watch, sv));
+            if (bufferFut == null || spilling || queued.get() >= batchSize) {
+                requestDrain();
             }
-            dbWrite(update);
-            watch.handleLastWritten(sv.getValue());
         }
     }
 
-    private void writeWatchesToBuffer(Date nowTimestamp) {
+    /**
+     * @param watches Watches to sample.
+     * @param time Aligned time of the interval being sampled.
+     */
+    private void writeWatchesToBuffer(Watch[] watches, long time) {
+        List<WatchUpdate> updates = new ArrayList<>(watches.length);
         for (Watch watch : watches) {
             if (!watch.isEnabled()) {
                 continue;
@@ -122,9 +254,11 @@ public class WatchGroup {
 
             WatchUpdate update = watch.getLastWatchUpdate();
             if (update != null) {
-                addWatchUpdateToBuffer(update, nowTimestamp);
+                update.updateTimestamp(time);
+                updates.add(update);
             }
         }
+        enqueue(updates);
     }
 
     /**
@@ -133,6 +267,12 @@ public class WatchGroup {
      * @param path Watch path.
      */
     protected void initWatch(String path) {
+        createWatch(path);
+        scheduleWriteToBuffer();
+        scheduleBufferFlush();
+    }
+
+    private void createWatch(String path) {
         NodeBuilder b = node.createChild(path);
         b.setValueType(ValueType.DYNAMIC);
         b.setValue(null);
@@ -141,43 +281,66 @@ public class WatchGroup {
         watch.init(permission, db);
         n.setMetaData(watch);
         db.getProvider().onWatchAdded(watch);
-
-        scheduleWriteToBuffer();
-        scheduleBufferFlush();
     }
 
+    /**
+     * Large groups are sampled in shards spread over the interval, every
+     * shard is still logged at the aligned time of the interval.
+     */
     private void scheduleWriteToBuffer() {
-        if (!LoggingType.INTERVAL.equals(loggingType)) {
+        if (!LoggingType.INTERVAL.equals(loggingType) || interval <= 0) {
             return;
         }
 
-        if (scheduledIntervalWriter == null || scheduledIntervalWriter.isDone()) {
-            long now = new Date().getTime();
-            long initialDelayBeforeLogging = findInitialDelayOfLogging(now);
-            scheduledIntervalWriter = intervalScheduler.scheduleAtFixedRate(new Runnable() {
-                @Override
-                public void run() {
-                    writeWatchesToBuffer(new Date());
+        int shards;
+        synchronized (watches) {
+            shards = (watches.size() + WATCHES_PER_SHARD - 1) / WATCHES_PER_SHARD;
+        }
+        shards = Math.max(1, shards);
+        long period = interval * 1000;
+        synchronized (writeLoopLock) {
+            long start = 0;
+            if (intervalWriter != null) {
+                if (shards <= intervalShards) {
+                    return;
                 }
-            }, initialDelayBeforeLogging, interval * 1000, TimeUnit.MILLISECONDS);
+                // The current interval completes with the previous shards
+                long now = System.currentTimeMillis();
+                start = now - now % period + period;
+                intervalWriter.cancel(start);
+            }
+            intervalShards = shards;
+            IntervalScheduler scheduler = IntervalScheduler.getInstance();
+            intervalWriter = scheduler.schedule(period, shards, start, new IntervalWriter());
         }
     }
 
-    private long findInitialDelayOfLogging(long now) {
-        return interval * 1000 - now % (interval * 1000);
-    }
-
     /**
-     * Subscribes to the entire watch group.
+     * Subscribes to the entire watch group. The paths of the restored
+     * watches are subscribed together once every watch is initialized.
      */
     public void subscribe() {
-        Map<String, Node> children = node.getChildren();
-        for (Node n : children.values()) {
-            if (n.getAction() == null) {
-                String path = n.getName().replaceAll("%2F", "/").replaceAll("%2E", ".");
-                initWatch(path);
+        List<Watch> restored = new ArrayList<>();
+        synchronized (watches) {
+            restoring = restored;
+        }
+        try {
+            Map<String, Node> children = node.getChildren();
+            for (Node n : children.values()) {
+                if (isWatch(n)) {
+                    String path = n.getName().replaceAll("%2F", "/").replaceAll("%2E", ".");
+                    createWatch(path);
+                }
+            }
+        } finally {
+            synchronized (watches) {
+                restoring = null;
             }
         }
+        db.getProvider().getPool().subscribe(restored);
+
+        scheduleWriteToBuffer();
+        scheduleBufferFlush();
     }
 
     /**
@@ -189,25 +352,29 @@ public class WatchGroup {
         cancelIntervalScheduler();
 
         for (Node n : children.values()) {
-            if (n.getAction() == null) {
+            if (isWatch(n)) {
                 Watch w = n.getMetaData();
                 w.unsubscribe();
             }
         }
     }
 
+    private static boolean isWatch(Node n) {
+        return n.getAction() == null && n.getRoConfig("ingest") == null;
+    }
+
     protected void initSettings() {
         useExistingValuesForEditAction();
+        initIngestMetrics();
+        resumeSpill();
 
         createAddWatchAction();
         createEditAction();
         createDeleteAction();
         createRestoreGetHistoryAction();
 
-        if (LoggingType.INTERVAL.equals(loggingType)) {
-            scheduleWriteToBuffer();
-            scheduleBufferFlush();
-        }
+        scheduleWriteToBuffer();
+        scheduleBufferFlush();
     }
 
     private void createDeleteAction() {
@@ -217,7 +384,7 @@ public class WatchGroup {
             @Override
             public void handle(ActionResult event) {
                 Node node = event.getNode().getParent();
-                unsubscribe();
+                delete();
                 node.delete();
             }
         }));
@@ -233,11 +400,24 @@ public class WatchGroup {
         editBuilder.setRoConfig("lt", new Value(loggingType.getName()));
         // Interval
         editBuilder.setRoConfig("i", new Value(interval));
+        // Batch size
+        editBuilder.setRoConfig("bs", new Value(batchSize));
+        // Flush latency
+        editBuilder.setRoConfig("fl", new Value(flushLatency));
+        // Rollup tiers
+        editBuilder.setRoConfig("rt", new Value(rollupTiers));
+        // Queue size
+        editBuilder.setRoConfig("qs", new Value(queueSize));
 
         final Parameter bufferFlushTime = createBufferFlushTimeParameter();
         final Parameter loggingTypeParameter = createLoggingTypeParameter();
         final Parameter intervalParameter = createIntervalParameter();
-        Action editAction = createEditAction(bufferFlushTime, loggingTypeParameter, intervalParameter);
+        final Parameter batchSizeParameter = createBatchSizeParameter();
+        final Parameter flushLatencyParameter = createFlushLatencyParameter();
+        final Parameter rollupTiersParameter = createRollupTiersParameter();
+        final Parameter queueSizeParameter = createQueueSizeParameter();
+        Action editAction = createEditAction(bufferFlushTime, loggingTypeParameter, intervalParameter,
+                batchSizeParameter, flushLatencyParameter, rollupTiersParameter, queueSizeParameter);
 
         editBuilder.setAction(editAction);
         editBuilder.build();
@@ -278,17 +458,27 @@ public class WatchGroup {
         addWatchPathBuilder.build();
     }
 
-    private Action createEditAction(Parameter bufferFlushTime, Parameter loggingTypeParameter, Parameter intervalParameter) {
+    private Action createEditAction(Parameter bufferFlushTime, Parameter loggingTypeParameter, Parameter intervalParameter,
+                                    Parameter batchSizeParameter, Parameter flushLatencyParameter,
+                                    Parameter rollupTiersParameter, Parameter queueSizeParameter) {
         EditSettingsHandler editSettingsHandler = new EditSettingsHandler();
         Action editAction = new Action(permission, editSettingsHandler);
         editSettingsHandler.setAction(editAction);
         editSettingsHandler.setBufferFlushTimeParam(bufferFlushTime);
         editSettingsHandler.setLoggingTypeParam(loggingTypeParameter);
         editSettingsHandler.setIntervalParam(intervalParameter);
+        editSettingsHandler.setBatchSizeParam(batchSizeParameter);
+        editSettingsHandler.setFlushLatencyParam(flushLatencyParameter);
+        editSettingsHandler.setRollupTiersParam(rollupTiersParameter);
+        editSettingsHandler.setQueueSizeParam(queueSizeParameter);
 
         editAction.addParameter(bufferFlushTime);
         editAction.addParameter(loggingTypeParameter);
         editAction.addParameter(intervalParameter);
+        editAction.addParameter(batchSizeParameter);
+        editAction.addParameter(flushLatencyParameter);
+        editAction.addParameter(rollupTiersParameter);
+        editAction.addParameter(queueSizeParameter);
         return editAction;
     }
 
@@ -318,13 +508,50 @@ public class WatchGroup {
         return bufferFlushTimeParameter;
     }
 
+    private Parameter createBatchSizeParameter() {
+        final Parameter batchSizeParameter = new Parameter("Batch Size", ValueType.NUMBER);
+        String description = "Batch size controls the maximum amount of buffered values written into the database at once.\n"
+                + "A full buffer is written immediately when logging type is not interval";
+        batchSizeParameter.setDescription(description);
+        batchSizeParameter.setDefaultValue(new Value(batchSize));
+        return batchSizeParameter;
+    }
+
+    private Parameter createFlushLatencyParameter() {
+        final Parameter flushLatencyParameter = new Parameter("Flush Latency", ValueType.NUMBER);
+        String description = "Flush latency controls how many milliseconds values are buffered before being written.\n"
+                + "Setting a latency of 0 means to record data immediately. "
+                + "This setting has no effect when logging type is interval.";
+        flushLatencyParameter.setDescription(description);
+        flushLatencyParameter.setDefaultValue(new Value(flushLatency));
+        return flushLatencyParameter;
+    }
+
+    private Parameter createRollupTiersParameter() {
+        final Parameter rollupTiersParameter = new Parameter("Rollup Tiers", ValueType.STRING);
+        String description = "Comma separated rollup tiers such as 1m,1h,1d summarized as values are written.\n"
+                + "Get history uses the tiers for aligned intervals instead of reading every value.";
+        rollupTiersParameter.setDescription(description);
+        rollupTiersParameter.setDefaultValue(new Value(rollupTiers));
+        return rollupTiersParameter;
+    }
+
+    private Parameter createQueueSizeParameter() {
+        final Parameter queueSizeParameter = new Parameter("Queue Size", ValueType.NUMBER);
+        String description = "Queue size controls the maximum amount of values waiting to be written in memory.\n"
+                + "Values overflowing the queue or received while the database is unavailable are spilled to disk.";
+        queueSizeParameter.setDescription(description);
+        queueSizeParameter.setDefaultValue(new Value(queueSize));
+        return queueSizeParameter;
+    }
+
     private void createRestoreGetHistoryAction() {
         NodeBuilder nodeBuilder = node.createChild("restoreGetHistoryAction");
         nodeBuilder.setDisplayName("Restore GetHistory aliases");
         nodeBuilder.setAction(new Action(permission, new Handler<ActionResult>() {
             @Override
             public void handle(ActionResult event) {
-                for (Watch watch : watches) {
+                for (Watch watch : getWatchSnapshot()) {
                     watch.addGetHistoryActionAlias();
                 }
             }
@@ -354,11 +581,60 @@ public class WatchGroup {
         if (interval != null) {
             this.interval = interval.getNumber().longValue();
         }
+
+        Value batchSize = existingEditNode.getRoConfig("bs");
+        if (batchSize != null) {
+            this.batchSize = Math.max(1, batchSize.getNumber().intValue());
+        }
+
+        Value flushLatency = existingEditNode.getRoConfig("fl");
+        if (flushLatency != null) {
+            this.flushLatency = flushLatency.getNumber().longValue();
+        }
+
+        Value rollupTiers = existingEditNode.getRoConfig("rt");
+        if (rollupTiers != null) {
+            setRollupTiers(rollupTiers.getString());
+        }
+
+        Value queueSize = existingEditNode.getRoConfig("qs");
+        if (queueSize != null) {
+            this.queueSize = Math.max(1, queueSize.getNumber().intValue());
+        }
+    }
+
+    /**
+     * @param rollupTiers Comma separated tiers to maintain.
+     */
+    void setRollupTiers(String rollupTiers) {
+        List<RollupTier> list = RollupTier.parseList(rollupTiers);
+        this.rollupTiers = rollupTiers == null ? "" : rollupTiers;
+        this.tiers = list.isEmpty() ? null : new RollupTiers(db, list);
     }
 
+    /**
+     * @param batchSize Maximum amount of values written at once.
+     * @param flushLatency Time in milliseconds values are buffered for.
+     */
+    void setBatching(int batchSize, long flushLatency) {
+        this.batchSize = Math.max(1, batchSize);
+        this.flushLatency = Math.max(0, flushLatency);
+        scheduleBufferFlush();
+    }
+
+    /**
+     * Interval logging flushes the buffer every buffer flush time seconds,
+     * other logging types buffer values for the flush latency when set.
+     */
     private void scheduleBufferFlush() {
-        if (!LoggingType.INTERVAL.equals(loggingType)) {
-            return;
+        long delay;
+        TimeUnit unit;
+        if (LoggingType.INTERVAL.equals(loggingType)) {
+            delay = this.bufferFlushTime;
+            unit = TimeUnit.SECONDS;
+        } else {
+            delay = this.flushLatency;
+            unit = TimeUnit.MILLISECONDS;
         }
 
         synchronized (writeLoopLock) {
@@ -367,7 +643,7 @@ public class WatchGroup {
                 bufferFut = null;
             }
 
-            if (this.bufferFlushTime <= 0) {
+            if (delay <= 0) {
                 return;
             }
 
@@ -376,73 +652,535 @@ public class WatchGroup {
                 public void run() {
                     handleQueue();
                 }
-            }, this.bufferFlushTime, this.bufferFlushTime, TimeUnit.SECONDS);
+            }, delay, delay, unit);
         }
     }
 
+    /**
+     * Writes the buffered updates in batches of at most the batch size, the
+     * spilled values are written once the queue is empty.
+     */
     private void handleQueue() {
-        int size = queue.size();
-
-        WatchUpdate update = null;
-        for (int i = 0; i < size; ++i) {
-            update = queue.poll();
-            dbWrite(update);
+        synchronized (flushLock) {
+            if (closed) {
+                return;
+            }
+            Map<Watch, Value> lastWritten = new LinkedHashMap<>();
+            try {
+                if (!db.isConnected()) {
+                    unavailable();
+                } else {
+                    dbAvailable = true;
+                    if (writeBatch(lastWritten) && drainQueue(lastWritten)) {
+                        drainSpill(lastWritten);
+                    }
+                }
+            } finally {
+                for (Map.Entry<Watch, Value> entry : lastWritten.entrySet()) {
+                    entry.getKey().handleLastWritten(entry.getValue());
+                }
+                updateIngestMetrics();
+                if (spilling) {
+                    // Nothing else drains the spill when no flush is
+                    // scheduled
+                    scheduleRetry();
+                } else if (bufferFut == null ? !queue.isEmpty() : queued.get() >= batchSize) {
+                    // Updates queued during the drain are not left waiting
+                    requestDrain();
+                }
+            }
         }
+    }
 
-        if (update != null) {
+    /**
+     * Only the updates queued when the drain starts are written so writers
+     * outpacing the database cannot hold the flush forever, the updates
+     * queued meanwhile are written by the next drain.
+     *
+     * @return Whether the updates queued at the start were written.
+     */
+    private boolean drainQueue(Map<Watch, Value> lastWritten) {
+        int remaining = queued.get();
+        WatchUpdate update;
+        while (remaining-- > 0 && (update = queue.poll()) != null) {
+            queued.decrementAndGet();
+            Watch watch = update.getWatch();
             Value value = update.getUpdate().getValue();
-            update.getWatch().handleLastWritten(value);
+            if (value == null) {
+                continue;
+            }
+
+            batch.add(watch.getPath(), value, getTime(update, value));
+            batchWatches.add(watch);
+            if (batch.size() >= batchSize && !writeBatch(lastWritten)) {
+                return false;
+            }
+        }
+        return writeBatch(lastWritten);
+    }
+
+    private void drainSpill(Map<Watch, Value> lastWritten) {
+        Map<String, Watch> watchesByPath = null;
+        while (true) {
+            synchronized (ingestLock) {
+                if (spill == null || spill.getPending() == 0) {
+                    // Every value was written in order, the queue takes
+                    // new values again
+                    if (spilling) {
+                        if (spill != null) {
+                            resetSpill();
+                        }
+                        spilling = false;
+                    }
+                    return;
+                }
+                try {
+                    if (spill.read(batch, batchSize) > 0) {
+                        batchSpilled = true;
+                    }
+                } catch (IOException e) {
+                    LOGGER.error("Failed to read the spill file, dropping {} values",
+                                 spill.getPending(), e);
+                    dropped.addAndGet(spill.getPending());
+                    resetSpill();
+                }
+            }
+            if (watchesByPath == null) {
+                watchesByPath = new HashMap<>();
+                synchronized (watches) {
+                    for (Watch watch : watches) {
+                        watchesByPath.put(watch.getPath(), watch);
+                    }
+                }
+            }
+            // Values spilled before a restart may not have a watch yet
+            for (int i = batchWatches.size(); i < batch.size(); ++i) {
+                batchWatches.add(watchesByPath.get(batch.getPath(i)));
+            }
+            if (!writeBatch(lastWritten)) {
+                return;
+            }
         }
     }
 
-    private void dbWrite(WatchUpdate update) {
+    /**
+     * A batch failing to be written is kept and retried before any other
+     * value.
+     *
+     * @return Whether the batch was written.
+     */
+    private boolean writeBatch(Map<Watch, Value> lastWritten) {
+        if (!writeSummaries()) {
+            return false;
+        } else if (batch.isEmpty()) {
+            return true;
+        }
+        long start = System.nanoTime();
+        try {
+            db.writeBatch(batch);
+        } catch (RuntimeException e) {
+            LOGGER.error("Failed to write {} values, retrying in {} seconds",
+                         batch.size(), RETRY_DELAY_IN_SECONDS, e);
+            unavailable();
+            return false;
+        }
+        writeLatency = (System.nanoTime() - start) / 1e6;
+        dbAvailable = true;
+        if (batchSpilled) {
+            commitSpill();
+        }
+
+        RollupTiers tiers = this.tiers;
+        for (int i = 0; i < batch.size(); ++i) {
+            if (tiers != null) {
+                tiers.update(batch.getPath(i), batch.getValue(i), batch.getTime(i));
+            }
+            Watch watch = batchWatches.get(i);
+            if (watch != null) {
+                Value value = batch.getValue(i);
+                watch.notifyHandlers(new QueryData(value, batch.getTime(i)));
+                lastWritten.put(watch, value);
+            }
+        }
+        batch.clear();
+        batchWatches.clear();
+        batchSpilled = false;
+        return writeSummaries();
+    }
+
+    /**
+     * Summaries of the rollup tiers are written apart from the values they
+     * were computed from, a failure only retries the summaries.
+     *
+     * @return Whether every summary was written.
+     */
+    private boolean writeSummaries() {
+        RollupTiers tiers = this.tiers;
+        if (tiers != null) {
+            tiers.drainTo(summaries);
+        }
+        if (summaries.isEmpty()) {
+            return true;
+        }
+        try {
+            db.writeBatch(summaries);
+        } catch (RuntimeException e) {
+            LOGGER.error("Failed to write {} rollup summaries, retrying in {} seconds",
+                         summaries.size(), RETRY_DELAY_IN_SECONDS, e);
+            unavailable();
+            return false;
+        }
+        summaries.clear();
+        return true;
+    }
+
+    /**
+     * Spilled values written are not written again after a restart.
+     */
+    private void commitSpill() {
+        synchronized (ingestLock) {
+            if (spill != null) {
+                try {
+                    spill.commit();
+                } catch (IOException e) {
+                    LOGGER.error("Failed to commit the spill file", e);
+                }
+            }
+        }
+    }
+
+    /**
+     * The queued values are moved to disk while the database is
+     * unavailable, new values are spilled until the database is back.
+     */
+    private void unavailable() {
+        dbAvailable = false;
+        synchronized (ingestLock) {
+            if (!spilling) {
+                spilling = true;
+                // The failed batch is older than the queue
+                if (!batchSpilled) {
+                    for (int i = 0; i < batch.size(); ++i) {
+                        spill(batch.getPath(i), batch.getValue(i), batch.getTime(i));
+                    }
+                    batch.clear();
+                    batchWatches.clear();
+                }
+                WatchUpdate update;
+                while ((update = queue.poll()) != null) {
+                    queued.decrementAndGet();
+                    spill(update);
+                }
+            }
+        }
+        scheduleRetry();
+    }
+
+    private void scheduleRetry() {
+        if (!closed && retryScheduled.compareAndSet(false, true)) {
+            Objects.getDaemonThreadPool().schedule(new Runnable() {
+                @Override
+                public void run() {
+                    retryScheduled.set(false);
+                    handleQueue();
+                }
+            }, RETRY_DELAY_IN_SECONDS, TimeUnit.SECONDS);
+        }
+    }
+
+    private void requestDrain() {
+        if (!closed && dbAvailable && drainScheduled.compareAndSet(false, true)) {
+            Objects.getDaemonThreadPool().execute(new Runnable() {
+                @Override
+                public void run() {
+                    drainScheduled.set(false);
+                    handleQueue();
+                }
+            });
+        }
+    }
+
+    private long getTime(WatchUpdate update, Value value) {
+        if (LoggingType.INTERVAL == loggingType) {
+            return update.getIntervalTimestamp();
+        }
+        return value.getTime();
+    }
+
+    /**
+     * Values are queued in memory until the queue is full or the database
+     * is unavailable. They are then spilled until every spilled value was
+     * written so the values are still written in order.
+     */
+    private void enqueue(WatchUpdate update) {
+        synchronized (ingestLock) {
+            offer(update);
+        }
+    }
+
+    /**
+     * The ingest lock is taken once for the whole shard of an interval.
+     */
+    private void enqueue(List<WatchUpdate> updates) {
+        synchronized (ingestLock) {
+            for (WatchUpdate update : updates) {
+                offer(update);
+            }
+        }
+    }
+
+    private void offer(WatchUpdate update) {
+        if (closed) {
+            // Values are no longer spilled once the group closed
+            return;
+        }
+        if (!spilling && dbAvailable && queued.get() < queueSize) {
+            queue.add(update);
+            queued.incrementAndGet();
+            return;
+        }
+        spilling = true;
+        spill(update);
+    }
+
+    private void spill(WatchUpdate update) {
         Value value = update.getUpdate().getValue();
         if (value != null) {
-            long time;
-            if (LoggingType.INTERVAL == loggingType) {
-                time = update.getIntervalTimestamp();
-            } else {
-                time = value.getTime();
+            spill(update.getWatch().getPath(), value, getTime(update, value));
+        }
+    }
+
+    private void spill(String path, Value value, long ts) {
+        try {
+            if (spill == null) {
+                spill = new SpillFile(getSpillFile());
             }
-            Watch watch = update.getWatch();
+            if (spill.getSize() >= MAX_SPILL_SIZE) {
+                dropped.incrementAndGet();
+                return;
+            }
+            spill.append(path, value, ts);
+            spillFailed = false;
+        } catch (IOException e) {
+            dropped.incrementAndGet();
+            if (!spillFailed) {
+                spillFailed = true;
+                LOGGER.error("Failed to spill {}", path, e);
+            }
+        }
+    }
 
-            db.write(watch.getPath(), value, time);
-            watch.notifyHandlers(new QueryData(value, time));
+    private void resetSpill() {
+        try {
+            spill.reset();
+        } catch (IOException e) {
+            LOGGER.error("Failed to delete the spill file", e);
         }
     }
 
+    private File getSpillFile() {
+        File dir = db.getProvider().getSpillDirectory();
+        dir = new File(dir, node.getParent().getName());
+        return new File(dir, node.getName() + ".spill");
+    }
+
+    /**
+     * Values spilled before a restart are written once the database is
+     * available.
+     */
+    private void resumeSpill() {
+        File file = getSpillFile();
+        if (!file.exists()) {
+            return;
+        }
+        synchronized (ingestLock) {
+            try {
+                spill = new SpillFile(file);
+                spilling = spill.getPending() > 0;
+            } catch (IOException e) {
+                LOGGER.error("Failed to resume {}", file, e);
+            }
+        }
+        requestDrain();
+    }
+
+    private void deleteSpill() {
+        synchronized (ingestLock) {
+            if (spill == null) {
+                try {
+                    spill = new SpillFile(getSpillFile());
+                } catch (IOException e) {
+                    LOGGER.error("Failed to delete the spill file", e);
+                    return;
+                }
+            }
+            resetSpill();
+            spill = null;
+            spilling = false;
+        }
+    }
+
+    private void initIngestMetrics() {
+        NodeBuilder b = node.createChild("ingest");
+        b.setDisplayName("Ingest");
+        b.setSerializable(false);
+        b.setRoConfig("ingest", new Value(true));
+        Node ingest = b.build();
+
+        queueDepthNode = createMetric(ingest, "queueDepth", "Queue Depth");
+        spilledNode = createMetric(ingest, "spilled", "Spilled Values");
+        writeLatencyNode = createMetric(ingest, "writeLatency", "Write Latency");
+        writeLatencyNode.setAttribute("unit", new Value("ms"));
+        droppedNode = createMetric(ingest, "dropped", "Dropped Values");
+        updateIngestMetrics();
+    }
+
+    private static Node createMetric(Node parent, String name, String displayName) {
+        NodeBuilder b = parent.createChild(name);
+        b.setDisplayName(displayName);
+        b.setSerializable(false);
+        b.setValueType(ValueType.NUMBER);
+        return b.build();
+    }
+
+    /**
+     * Also flushes the spilled values to disk.
+     */
+    private void updateIngestMetrics() {
+        long spilled = 0;
+        synchronized (ingestLock) {
+            if (spill != null) {
+                spilled = spill.getPending();
+                try {
+                    spill.flush();
+                } catch (IOException e) {
+                    LOGGER.error("Failed to flush the spill file", e);
+                }
+            }
+        }
+        if (queueDepthNode == null) {
+            return;
+        }
+        long depth = queued.get() + batch.size() + spilled;
+        queueDepthNode.setValue(new Value(depth));
+        spilledNode.setValue(new Value(spilled));
+        writeLatencyNode.setValue(new Value(writeLatency));
+        droppedNode.setValue(new Value(dropped.get()));
+    }
+
     public boolean canWriteOnNewData() {
         return !LoggingType.INTERVAL.equals(loggingType);
     }
 
-    public synchronized void addWatchUpdateToBuffer(WatchUpdate watchUpdate, Date date) {
+    public void addWatchUpdateToBuffer(WatchUpdate watchUpdate, Date date) {
         long withoutMs = ((date.getTime() + 500) / 1000) * 1000;
         watchUpdate.updateTimestamp(withoutMs);
-        queue.add(watchUpdate);
+        enqueue(watchUpdate);
     }
 
     private void cancelBufferWrite() {
-        if (bufferFut != null) {
-            bufferFut.cancel(true);
+        synchronized (writeLoopLock) {
+            if (bufferFut != null) {
+                bufferFut.cancel(false);
+                bufferFut = null;
+            }
         }
-        queue.clear();
+        // Buffered values are written rather than dropped
+        handleQueue();
     }
 
     public void cancelIntervalScheduler() {
-        if (scheduledIntervalWriter != null) {
-            scheduledIntervalWriter.cancel(true);
+        synchronized (writeLoopLock) {
+            if (intervalWriter != null) {
+                intervalWriter.cancel();
+                intervalWriter = null;
+                intervalShards = 0;
+            }
         }
         cancelBufferWrite();
     }
 
     public void addWatch(Watch watch) {
-        watches.add(watch);
+        synchronized (watches) {
+            watches.add(watch);
+            watchSnapshot = null;
+            if (restoring != null) {
+                restoring.add(watch);
+                return;
+            }
+        }
 
         db.getProvider().getPool().subscribe(watch.getPath(), watch);
     }
 
     public void removeFromWatches(Watch watch) {
-        watches.remove(watch);
+        synchronized (watches) {
+            watches.remove(watch);
+            watchSnapshot = null;
+        }
+        RollupTiers tiers = this.tiers;
+        if (tiers != null) {
+            tiers.remove(watch.getPath());
+        }
+    }
+
+    /**
+     * @return The watches of the group, the array must not be modified.
+     */
+    private Watch[] getWatchSnapshot() {
+        Watch[] snapshot = watchSnapshot;
+        if (snapshot == null) {
+            synchronized (watches) {
+                snapshot = watchSnapshot;
+                if (snapshot == null) {
+                    snapshot = watches.toArray(new Watch[watches.size()]);
+                    watchSnapshot = snapshot;
+                }
+            }
+        }
+        return snapshot;
+    }
+
+    /**
+     * Samples the shards of the interval logging. Watches are assigned to
+     * a shard by identity so adding or removing watches never moves the
+     * others to a different shard within an interval.
+     */
+    private class IntervalWriter implements IntervalScheduler.Task {
+        private Watch[] source;
+        private Watch[][] slices;
+
+        @Override
+        public void run(long time, int shard, int shards) {
+            writeWatchesToBuffer(getSlices(shards)[shard], time);
+        }
+
+        private synchronized Watch[][] getSlices(int shards) {
+            Watch[] snapshot = getWatchSnapshot();
+            if (snapshot == source) {
+                return slices;
+            }
+            int[] sizes = new int[shards];
+            for (Watch watch : snapshot) {
+                sizes[shardOf(watch, shards)]++;
+            }
+            Watch[][] slices = new Watch[shards][];
+            for (int i = 0; i < shards; ++i) {
+                slices[i] = new Watch[sizes[i]];
+                sizes[i] = 0;
+            }
+            for (Watch watch : snapshot) {
+                int i = shardOf(watch, shards);
+                slices[i][sizes[i]++] = watch;
+            }
+            this.source = snapshot;
+            this.slices = slices;
+            return slices;
+        }
+
+        private int shardOf(Watch watch, int shards) {
+            return (System.identityHashCode(watch) & Integer.MAX_VALUE) % shards;
+        }
     }
 
     private class EditSettingsHandler implements Handler<ActionResult> {
@@ -451,6 +1189,10 @@ public class WatchGroup {
         private Parameter bufferFlushTimeParameter;
         private Parameter loggingTypeParameter;
         private Parameter intervalInSecondsParameter;
+        private Parameter batchSizeParameter;
+        private Parameter flushLatencyParameter;
+        private Parameter rollupTiersParameter;
+        private Parameter queueSizeParameter;
 
         public void setAction(Action a) {
             this.action = a;
@@ -468,10 +1210,30 @@ public class WatchGroup {
             this.intervalInSecondsParameter = intervalInSeconds;
         }
 
+        public void setBatchSizeParam(Parameter batchSize) {
+            this.batchSizeParameter = batchSize;
+        }
+
+        public void setFlushLatencyParam(Parameter flushLatency) {
+            this.flushLatencyParameter = flushLatency;
+        }
+
+        public void setRollupTiersParam(Parameter rollupTiers) {
+            this.rollupTiersParameter = rollupTiers;
+        }
+
+        public void setQueueSizeParam(Parameter queueSize) {
+            this.queueSizeParameter = queueSize;
+        }
+
         @Override
         public void handle(ActionResult event) {
             Node node = event.getNode();
 
+            Value rollupTiersValue = event.getParameter(rollupTiersParameter.getName(), new Value(""));
+            // Validates the tiers before any setting is applied
+            RollupTier.parseList(rollupTiersValue.getString());
+
             cancelIntervalScheduler();
 
             Value loggingTypeValue = event.getParameter(loggingTypeParameter.getName(), ValueType.STRING);
@@ -486,6 +1248,21 @@ public class WatchGroup {
                 intervalInSecondsAsValue.set(0);
             }
 
+            Value batchSizeValue = event.getParameter(batchSizeParameter.getName(), batchSizeParameter.getType());
+            if (batchSizeValue.getNumber().intValue() < 1) {
+                batchSizeValue.set(1);
+            }
+
+            Value flushLatencyValue = event.getParameter(flushLatencyParameter.getName(), flushLatencyParameter.getType());
+            if (flushLatencyValue.getNumber().longValue() < 0) {
+                flushLatencyValue.set(0);
+            }
+
+            Value queueSizeValue = event.getParameter(queueSizeParameter.getName(), new Value(queueSize));
+            if (queueSizeValue.getNumber().intValue() < 1) {
+                queueSizeValue.set(1);
+            }
+
             node.setRoConfig("bft", bufferFlushTimeValue);
             bufferFlushTimeParameter.setDefaultValue(bufferFlushTimeValue);
             bufferFlushTime = bufferFlushTimeValue.getNumber().intValue();
@@ -498,10 +1275,32 @@ public class WatchGroup {
             intervalInSecondsParameter.setDefaultValue(intervalInSecondsAsValue);
             interval = intervalInSecondsAsValue.getNumber().longValue();
 
+            node.setRoConfig("bs", batchSizeValue);
+            batchSizeParameter.setDefaultValue(batchSizeValue);
+            batchSize = batchSizeValue.getNumber().intValue();
+
+            node.setRoConfig("fl", flushLatencyValue);
+            flushLatencyParameter.setDefaultValue(flushLatencyValue);
+            flushLatency = flushLatencyValue.getNumber().longValue();
+
+            node.setRoConfig("rt", rollupTiersValue);
+            rollupTiersParameter.setDefaultValue(rollupTiersValue);
+            if (!rollupTiers.equals(rollupTiersValue.getString())) {
+                setRollupTiers(rollupTiersValue.getString());
+            }
+
+            node.setRoConfig("qs", queueSizeValue);
+            queueSizeParameter.setDefaultValue(queueSizeValue);
+            queueSize = queueSizeValue.getNumber().intValue();
+
             List<Parameter> params = new LinkedList<>();
             params.add(bufferFlushTimeParameter);
             params.add(loggingTypeParameter);
             params.add(intervalInSecondsParameter);
+            params.add(batchSizeParameter);
+            params.add(flushLatencyParameter);
+            params.add(rollupTiersParameter);
+            params.add(queueSizeParameter);
             action.setParams(params);
 
             scheduleBufferFlush();
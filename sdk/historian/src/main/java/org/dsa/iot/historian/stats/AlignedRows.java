@@ -0,0 +1,126 @@
+package org.dsa.iot.historian.stats;
+
+import org.dsa.iot.dslink.node.value.Value;
+import org.dsa.iot.historian.stats.interval.IntervalParser;
+import org.dsa.iot.historian.stats.interval.IntervalProcessor;
+import org.dsa.iot.historian.stats.rollup.Rollup;
+import org.dsa.iot.historian.utils.SampleBuffer;
+
+import java.util.Calendar;
+import java.util.SortedMap;
+import java.util.TimeZone;
+import java.util.TreeMap;
+
+/**
+ * Aligns the values of multiple paths by time into rows with a column per
+ * path. With an interval the values of each path are rolled up into the
+ * intervals first. Rows are released once no later value can change them,
+ * cells of paths without a value at the time of a row are {@code null}.
+ *
+ * @author Samuel Grenier
+ */
+public class AlignedRows {
+
+    private final TreeMap<Long, Value[]> rows = new TreeMap<>();
+    private final SampleBuffer out = new SampleBuffer(1);
+    private final IntervalProcessor[] intervals;
+    private final IntervalParser parser;
+    private final Calendar calendar;
+    private final int columns;
+
+    /**
+     * @param columns  Amount of paths.
+     * @param parser   Interval of the rows or {@code null} for raw values.
+     * @param type     Rollup of the intervals.
+     * @param timeZone Time zone the intervals are aligned in.
+     */
+    public AlignedRows(int columns,
+                       IntervalParser parser,
+                       Rollup.Type type,
+                       TimeZone timeZone) {
+        if (columns < 1) {
+            throw new IllegalArgumentException("columns < 1");
+        }
+        this.columns = columns;
+        this.parser = parser;
+        this.calendar = Calendar.getInstance(timeZone);
+        if (parser == null) {
+            intervals = null;
+        } else {
+            intervals = new IntervalProcessor[columns];
+            for (int i = 0; i < columns; ++i) {
+                intervals[i] = IntervalProcessor.parse(parser, type, timeZone);
+            }
+        }
+    }
+
+    /**
+     * @param column Column of the path the value belongs to.
+     * @param ts     Time of the value.
+     * @param value  Value retrieved from the database.
+     */
+    public void update(int column, long ts, Value value) {
+        if (value == null) {
+            return;
+        } else if (intervals == null) {
+            row(ts)[column] = value;
+            return;
+        }
+        intervals[column].update(ts, value, out);
+        drain(column);
+    }
+
+    /**
+     * Releases the rows no later value can change.
+     *
+     * @param time Every later value is at or after this time.
+     * @return The released rows by time, they must be cleared once consumed.
+     */
+    public SortedMap<Long, Value[]> release(long time) {
+        long watermark = time;
+        if (intervals != null) {
+            // Later values can still belong to the interval of the time
+            calendar.setTimeInMillis(time);
+            parser.alignTime(calendar);
+            watermark = Math.min(watermark, calendar.getTimeInMillis());
+            for (IntervalProcessor interval : intervals) {
+                long pending = interval.getPendingInterval();
+                if (pending > -1) {
+                    watermark = Math.min(watermark, pending);
+                }
+            }
+        }
+        return rows.headMap(watermark);
+    }
+
+    /**
+     * Finishes the current intervals of every path.
+     *
+     * @return All the remaining rows by time.
+     */
+    public SortedMap<Long, Value[]> complete() {
+        if (intervals != null) {
+            for (int i = 0; i < columns; ++i) {
+                intervals[i].complete(out);
+                drain(i);
+            }
+        }
+        return rows;
+    }
+
+    private void drain(int column) {
+        for (int i = 0; i < out.size(); ++i) {
+            row(out.getTime(i))[column] = out.getValue(i);
+        }
+        out.clear();
+    }
+
+    private Value[] row(long ts) {
+        Value[] row = rows.get(ts);
+        if (row == null) {
+            row = new Value[columns];
+            rows.put(ts, row);
+        }
+        return row;
+    }
+}
@@ -19,24 +19,44 @@ import org.dsa.iot.historian.database.Database;
 import org.dsa.iot.historian.database.Watch;
 import org.dsa.iot.historian.stats.interval.IntervalParser;
 import org.dsa.iot.historian.stats.interval.IntervalProcessor;
+import org.dsa.iot.historian.stats.interval.PartialIntervals;
 import org.dsa.iot.historian.stats.rollup.Rollup;
+import org.dsa.iot.historian.stats.rollup.RollupSummary;
+import org.dsa.iot.historian.stats.rollup.RollupTier;
+import org.dsa.iot.historian.stats.rollup.RollupTiers;
 import org.dsa.iot.historian.utils.QueryData;
+import org.dsa.iot.historian.utils.SampleBuffer;
+import org.dsa.iot.historian.utils.SampleRing;
 import org.dsa.iot.historian.utils.TimeParser;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import java.util.*;
-import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.*;
 
 /**
  * @author Samuel Grenier
  */
 public class GetHistory implements Handler<ActionResult> {
 
+    private static final Logger LOGGER = LoggerFactory.getLogger(GetHistory.class);
+    private static final int BUFFER_SIZE = 1024;
+    private static final int MAX_INTERVALS = 100000;
+    private static final long MIN_TASK_RANGE = TimeUnit.HOURS.toMillis(1);
+    private static final ForkJoinPool POOL = new ForkJoinPool(
+            Runtime.getRuntime().availableProcessors());
+
     private final Database db;
     private final String path;
+    private final Node node;
+    // Whether a subclass overrides the query of the values
+    private final boolean customQuery;
 
     public GetHistory(Node node, Database db) {
         this.path = node.getName().replaceAll("%2F", "/").replaceAll("%2E", ".");
+        this.node = node;
         this.db = db;
+        this.customQuery = overridesQuery(getClass());
     }
 
     @Override
@@ -84,8 +104,8 @@ public class GetHistory implements Handler<ActionResult> {
                 parser, rollup, from.getTimeZone());
         LoopProvider.getProvider().schedule(new Runnable() {
 
-            private boolean open = true;
-            Handler<QueryData> handler;
+            private volatile boolean open = true;
+            private volatile SampleRing.Cursor cursor;
 
             @Override
             public void run() {
@@ -97,13 +117,61 @@ public class GetHistory implements Handler<ActionResult> {
                     @Override
                     public void handle(Void ignored) {
                         open = false;
-                        if (handler != null) {
+                        SampleRing.Cursor c = cursor;
+                        if (c != null) {
                             Watch w = event.getNode().getParent().getMetaData();
-                            w.removeHandler(handler);
+                            w.getRecent().remove(c);
                         }
                     }
                 });
 
+                if (realTime) {
+                    // Retains the values written while querying so they
+                    // are tailed afterwards
+                    Watch w = event.getNode().getParent().getMetaData();
+                    w.getRecent();
+                }
+
+                final Runnable onComplete = new Runnable() {
+                    @Override
+                    public void run() {
+                        if (!realTime) {
+                            if (interval != null) {
+                                Row row = interval.complete();
+                                if (row != null) {
+                                    table.addRow(row);
+                                }
+                            }
+                            table.close();
+                        } else if (open) {
+                            table.sendReady();
+                            Watch w = event.getNode().getParent().getMetaData();
+                            // Continue after the queried values, those
+                            // written meanwhile are still in the ring
+                            SampleRing recent = w.getRecent();
+                            cursor = recent.tail(to.getTimeInMillis(),
+                                    tail(table, interval, calendar, buffer));
+                            if (!open) {
+                                recent.remove(cursor);
+                            }
+                        }
+                    }
+                };
+
+                if (interval != null) {
+                    RollupTiers tiers = null;
+                    Object meta = event.getNode().getParent().getMetaData();
+                    if (meta instanceof Watch) {
+                        tiers = ((Watch) meta).getGroup().getRollupTiers();
+                    }
+                    boolean parallel = !realTime && db.isConcurrentQuerySupported();
+                    IntervalQuery query = new IntervalQuery(table, interval,
+                            rollup, parser, calendar, buffer, parallel);
+                    query.run(tiers, from.getTimeInMillis(), to.getTimeInMillis(),
+                              from.getTimeZone(), onComplete);
+                    return;
+                }
+
                 query(from.getTimeInMillis(), to.getTimeInMillis(), rollup, parser,
                         new CompleteHandler<QueryData>() {
 
@@ -115,7 +183,7 @@ public class GetHistory implements Handler<ActionResult> {
                         if (updates != null) {
                             updates.add(data);
                             if (updates.size() >= 500) {
-                                processQueryData(table, interval, updates, calendar, buffer);
+                                processQueryData(table, null, updates, calendar, buffer);
                             }
                         }
                     }
@@ -123,42 +191,167 @@ public class GetHistory implements Handler<ActionResult> {
                     @Override
                     public void complete() {
                         if (!updates.isEmpty()) {
-                            processQueryData(table, interval, updates, calendar, buffer);
+                            processQueryData(table, null, updates, calendar, buffer);
                         }
                         updates = null;
-
-                        if (!realTime) {
-                            if (interval != null) {
-                                Row row = interval.complete();
-                                if (row != null) {
-                                    table.addRow(row);
-                                }
-                            }
-                            table.close();
-                        } else if (open) {
-                            handler = new Handler<QueryData>() {
-                                @Override
-                                public void handle(QueryData event) {
-                                    processQueryData(table, interval, event, calendar, buffer);
-                                }
-                            };
-                            table.sendReady();
-                            Watch w = event.getNode().getParent().getMetaData();
-                            w.addHandler(handler);
-                        }
+                        onComplete.run();
                     }
                 });
             }
         });
     }
 
+    /**
+     * Queries the samples the intervals are computed from. When a subclass
+     * overrides {@link #query(long, long, Rollup.Type, IntervalParser, CompleteHandler)}
+     * the samples are copied from it, subclasses can override this as well
+     * to avoid allocating the values.
+     *
+     * @param from Beginning search time.
+     * @param to End search time.
+     * @param type Requested rollup.
+     * @param parser Requested interval.
+     * @param buffer Buffer the samples are emitted into.
+     * @param handler Handler callback for filled buffers.
+     * @see Database#querySamples
+     */
+    @SuppressWarnings("UnusedParameters")
+    protected void querySamples(long from,
+                                long to,
+                                Rollup.Type type,
+                                IntervalParser parser,
+                                SampleBuffer buffer,
+                                CompleteHandler<SampleBuffer> handler) {
+        if (customQuery) {
+            copySamples(from, to, type, parser, buffer, handler);
+            return;
+        }
+        SampleBuffer recent = queryRecent(from, to);
+        if (recent == null) {
+            db.querySamples(path, from, to, buffer, handler);
+            return;
+        }
+        if (!recent.isEmpty()) {
+            handler.handle(recent);
+        }
+        handler.complete();
+    }
+
     @SuppressWarnings("UnusedParameters")
     protected void query(long from,
                          long to,
                          Rollup.Type type,
                          IntervalParser parser,
                          CompleteHandler<QueryData> handler) {
-        db.query(path, from, to, handler);
+        SampleBuffer recent = queryRecent(from, to);
+        if (recent == null) {
+            db.query(path, from, to, handler);
+            return;
+        }
+        for (int i = 0; i < recent.size(); ++i) {
+            handler.handle(new QueryData(recent.getValue(i), recent.getTime(i)));
+        }
+        handler.complete();
+    }
+
+    private void copySamples(long from,
+                             long to,
+                             Rollup.Type type,
+                             IntervalParser parser,
+                             final SampleBuffer buffer,
+                             final CompleteHandler<SampleBuffer> handler) {
+        query(from, to, type, parser, new CompleteHandler<QueryData>() {
+            @Override
+            public void handle(QueryData event) {
+                Value value = event.getValue();
+                if (value == null) {
+                    return;
+                }
+                buffer.add(event.getTimestamp(), value);
+                if (buffer.isFull()) {
+                    handler.handle(buffer);
+                    buffer.clear();
+                }
+            }
+
+            @Override
+            public void complete() {
+                if (!buffer.isEmpty()) {
+                    handler.handle(buffer);
+                    buffer.clear();
+                }
+                handler.complete();
+            }
+        });
+    }
+
+    private static boolean overridesQuery(Class<?> clazz) {
+        for (Class<?> c = clazz; c != GetHistory.class; c = c.getSuperclass()) {
+            try {
+                c.getDeclaredMethod("query", long.class, long.class,
+                        Rollup.Type.class, IntervalParser.class,
+                        CompleteHandler.class);
+                return true;
+            } catch (NoSuchMethodException ignored) {
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Ranges starting after the oldest value written recently are read
+     * from memory rather than the database. Paths watched more than once
+     * are always read from the database as the watch only retains its own
+     * values.
+     *
+     * @return The values of the range or {@code null} when the recent values
+     *         do not cover the range.
+     */
+    private SampleBuffer queryRecent(long from, long to) {
+        Object meta = node.getMetaData();
+        if (!(meta instanceof Watch) || ((Watch) meta).isShared()) {
+            return null;
+        }
+        SampleRing recent = ((Watch) meta).getRecent();
+        SampleBuffer samples = new SampleBuffer(recent.capacity());
+        if (recent.read(from, to, samples)) {
+            return samples;
+        }
+        return null;
+    }
+
+    /**
+     * Streams the values written after the query. The values are tailed
+     * from the recent values of the watch on the loop so a slow table never
+     * holds up the writes.
+     */
+    private Handler<SampleRing.Cursor> tail(final Table table,
+                                            final IntervalProcessor interval,
+                                            final Calendar calendar,
+                                            final StringBuilder buffer) {
+        final SampleBuffer samples = new SampleBuffer(BUFFER_SIZE);
+        final List<QueryData> updates = new LinkedList<>();
+        return new Handler<SampleRing.Cursor>() {
+
+            private long lost;
+
+            @Override
+            public void handle(SampleRing.Cursor event) {
+                while (event.read(samples) > 0) {
+                    for (int i = 0; i < samples.size(); ++i) {
+                        long ts = samples.getTime(i);
+                        updates.add(new QueryData(samples.getValue(i), ts));
+                    }
+                    samples.clear();
+                    processQueryData(table, interval, updates, calendar, buffer);
+                }
+                if (event.getLost() > lost) {
+                    LOGGER.warn("Real time history of {} skipped {} values",
+                                path, event.getLost() - lost);
+                    lost = event.getLost();
+                }
+            }
+        };
     }
 
     protected void processQueryData(Table table,
@@ -255,20 +448,7 @@ public class GetHistory implements Handler<ActionResult> {
         }
 
         {
-            Set<String> enums = new LinkedHashSet<>();
-            enums.add("none");
-            enums.add("and");
-            enums.add("or");
-            enums.add("avg");
-            enums.add("min");
-            enums.add("max");
-            enums.add("sum");
-            enums.add("first");
-            enums.add("last");
-            enums.add("count");
-            enums.add("delta");
-            ValueType e = ValueType.makeEnum(enums);
-            Parameter param = new Parameter("Rollup", e);
+            Parameter param = new Parameter("Rollup", rollupType());
             act.addParameter(param);
         }
 
@@ -291,4 +471,238 @@ public class GetHistory implements Handler<ActionResult> {
         act.setResultType(ResultType.STREAM);
     }
 
+    static ValueType rollupType() {
+        Set<String> enums = new LinkedHashSet<>();
+        enums.add("none");
+        enums.add("and");
+        enums.add("or");
+        enums.add("avg");
+        enums.add("min");
+        enums.add("max");
+        enums.add("sum");
+        enums.add("first");
+        enums.add("last");
+        enums.add("count");
+        enums.add("delta");
+        return ValueType.makeEnum(enums);
+    }
+
+    /**
+     * Computes the intervals of a query from buffered samples, rows are only
+     * made for the finished intervals. The summaries of the best rollup
+     * tier are used where possible, the edges of the range not covered by
+     * summaries are queried from the raw values. The segments are queried
+     * sequentially so the intervals receive the data in order. When the
+     * database supports it, long raw ranges are split along the interval
+     * boundaries into sub-ranges queried in parallel, their partial rollups
+     * are merged in order.
+     */
+    private class IntervalQuery {
+
+        private final SampleBuffer samples = new SampleBuffer(BUFFER_SIZE);
+        private final SampleBuffer out = new SampleBuffer(BUFFER_SIZE);
+        private final Table table;
+        private final IntervalProcessor interval;
+        private final Rollup.Type type;
+        private final IntervalParser parser;
+        private final Calendar calendar;
+        private final StringBuilder buffer;
+        private final boolean parallel;
+
+        IntervalQuery(Table table,
+                      IntervalProcessor interval,
+                      Rollup.Type type,
+                      IntervalParser parser,
+                      Calendar calendar,
+                      StringBuilder buffer,
+                      boolean parallel) {
+            this.table = table;
+            this.interval = interval;
+            this.type = type;
+            this.parser = parser;
+            this.calendar = calendar;
+            this.buffer = buffer;
+            this.parallel = parallel;
+        }
+
+        void run(RollupTiers tiers,
+                 final long from,
+                 final long to,
+                 TimeZone timeZone,
+                 final Runnable onComplete) {
+            RollupTier tier = null;
+            if (tiers != null) {
+                tier = tiers.select(parser, type, from, to, timeZone);
+            }
+            if (tier == null) {
+                if (!parallel || !parallel(from, to, timeZone, onComplete)) {
+                    raw(from, to, onComplete);
+                }
+                return;
+            }
+
+            final String tierPath = tier.path(path);
+            QueryData first = db.queryFirst(tierPath);
+            QueryData last = db.queryLast(tierPath);
+            if (first == null || last == null) {
+                if (!parallel || !parallel(from, to, timeZone, onComplete)) {
+                    raw(from, to, onComplete);
+                }
+                return;
+            }
+
+            long aligned = tier.bucketStart(from);
+            if (aligned < from) {
+                aligned += tier.getDuration();
+            }
+            final long start = Math.max(aligned, first.getTimestamp());
+            final long end = Math.min(tier.bucketStart(to + 1),
+                                      last.getTimestamp() + tier.getDuration());
+            if (start >= end) {
+                raw(from, to, onComplete);
+                return;
+            }
+
+            raw(from, start - 1, new Runnable() {
+                @Override
+                public void run() {
+                    summaries(tierPath, start, end - 1, new Runnable() {
+                        @Override
+                        public void run() {
+                            raw(end, to, onComplete);
+                        }
+                    });
+                }
+            });
+        }
+
+        private void raw(long from, long to, final Runnable next) {
+            if (from > to) {
+                next.run();
+                return;
+            }
+            querySamples(from, to, type, parser, samples, new CompleteHandler<SampleBuffer>() {
+                @Override
+                public void handle(SampleBuffer event) {
+                    // Every sample finishes at most one interval
+                    interval.update(event, out);
+                    flush();
+                }
+
+                @Override
+                public void complete() {
+                    next.run();
+                }
+            });
+        }
+
+        /**
+         * When a sub-range fails the table is closed with the error and
+         * {@code next} is not run.
+         *
+         * @return Whether the range was split, otherwise nothing is queried.
+         */
+        private boolean parallel(long from, long to, TimeZone timeZone, Runnable next) {
+            long[] boundaries = parser.boundaries(from, to, timeZone, MAX_INTERVALS);
+            if (boundaries == null) {
+                return false;
+            }
+            int intervals = boundaries.length - 1;
+            long tasks = Math.min(POOL.getParallelism(), intervals);
+            tasks = Math.min(tasks, (to - from) / MIN_TASK_RANGE);
+            if (tasks < 2) {
+                return false;
+            }
+
+            List<Future<PartialIntervals>> futures = new ArrayList<>((int) tasks);
+            for (int t = 0; t < tasks; ++t) {
+                int a = (int) (t * intervals / tasks);
+                int b = (int) ((t + 1) * intervals / tasks);
+                final long[] sub = Arrays.copyOfRange(boundaries, a, b + 1);
+                final long subFrom = Math.max(from, sub[0]);
+                final long subTo = Math.min(to, sub[sub.length - 1] - 1);
+                futures.add(POOL.submit(new Callable<PartialIntervals>() {
+                    @Override
+                    public PartialIntervals call() {
+                        PartialIntervals partials = new PartialIntervals(sub, type);
+                        SampleBuffer samples = new SampleBuffer(BUFFER_SIZE);
+                        querySamples(subFrom, subTo, type, parser, samples, partials);
+                        return partials;
+                    }
+                }));
+            }
+
+            try {
+                for (Future<PartialIntervals> future : futures) {
+                    PartialIntervals partials = future.get();
+                    for (int i = 0; i < partials.size(); ++i) {
+                        interval.merge(partials.getStart(i), partials.getRollup(i), out);
+                        if (out.isFull()) {
+                            flush();
+                        }
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                table.close(e);
+                return true;
+            } catch (ExecutionException e) {
+                // A truncated table would pass for the complete history
+                LOGGER.error("Failed to query {}", path, e.getCause());
+                table.close(e.getCause());
+                return true;
+            } finally {
+                for (Future<PartialIntervals> future : futures) {
+                    future.cancel(true);
+                }
+            }
+            flush();
+            next.run();
+            return true;
+        }
+
+        private void summaries(String tierPath, long from, long to, final Runnable next) {
+            db.query(tierPath, from, to, new CompleteHandler<QueryData>() {
+                @Override
+                public void handle(QueryData event) {
+                    Value value = event.getValue();
+                    if (value == null || value.getMap() == null) {
+                        return;
+                    }
+                    RollupSummary summary = RollupSummary.fromJson(value.getMap());
+                    if (!summary.isEmpty()) {
+                        interval.update(event.getTimestamp(), summary, out);
+                        if (out.isFull()) {
+                            flush();
+                        }
+                    }
+                }
+
+                @Override
+                public void complete() {
+                    flush();
+                    next.run();
+                }
+            });
+        }
+
+        private void flush() {
+            if (out.isEmpty()) {
+                return;
+            }
+            BatchRow batch = new BatchRow();
+            for (int i = 0; i < out.size(); ++i) {
+                Row row = new Row();
+                calendar.setTimeInMillis(out.getTime(i));
+                buffer.setLength(0);
+                String t = TimeUtils.encode(calendar, true, buffer).toString();
+                row.addValue(new Value(t));
+                row.addValue(out.getValue(i));
+                batch.addRow(row);
+            }
+            out.clear();
+            table.waitForStream(5000, true);
+            table.addBatchRows(batch);
+        }
+    }
 }
@@ -0,0 +1,276 @@
+package org.dsa.iot.historian.stats;
+
+import org.dsa.iot.dslink.methods.StreamState;
+import org.dsa.iot.dslink.node.Node;
+import org.dsa.iot.dslink.node.NodeBuilder;
+import org.dsa.iot.dslink.node.Permission;
+import org.dsa.iot.dslink.node.actions.*;
+import org.dsa.iot.dslink.node.actions.table.BatchRow;
+import org.dsa.iot.dslink.node.actions.table.Row;
+import org.dsa.iot.dslink.node.actions.table.Table;
+import org.dsa.iot.dslink.node.value.Value;
+import org.dsa.iot.dslink.node.value.ValueType;
+import org.dsa.iot.dslink.provider.LoopProvider;
+import org.dsa.iot.dslink.util.TimeUtils;
+import org.dsa.iot.dslink.util.handler.CompleteHandler;
+import org.dsa.iot.dslink.util.handler.Handler;
+import org.dsa.iot.dslink.util.json.JsonArray;
+import org.dsa.iot.historian.database.Database;
+import org.dsa.iot.historian.stats.interval.IntervalParser;
+import org.dsa.iot.historian.stats.rollup.Rollup;
+import org.dsa.iot.historian.utils.PathQueryData;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Queries the history of multiple paths over a shared time range, interval
+ * and rollup. The values are aligned by time into a single table with a
+ * column per path. The range is scanned in windows, every window queries
+ * all the paths at once so databases supporting multi series queries
+ * perform a single query per window. Rows are streamed as soon as a window
+ * finishes them.
+ *
+ * @author Samuel Grenier
+ * @see Database#query(List, long, long, CompleteHandler)
+ */
+public class GetMultiHistory implements Handler<ActionResult> {
+
+    private static final long WINDOW = TimeUnit.HOURS.toMillis(1);
+
+    private final Database db;
+
+    public GetMultiHistory(Database db) {
+        this.db = db;
+    }
+
+    @Override
+    public void handle(final ActionResult event) {
+        final List<String> paths = parsePaths(event.getParameter("Paths"));
+        if (paths.isEmpty()) {
+            throw new IllegalArgumentException("No paths to query");
+        }
+
+        final Calendar from;
+        final Calendar to;
+        {
+            Value v = event.getParameter("Timerange");
+            if (v != null) {
+                String[] split = v.getString().split("/");
+                from = TimeUtils.decode(split[0], null);
+                to = TimeUtils.decode(split[1], null);
+            } else { // Assume date is today
+                from = TimeUtils.alignDay(Calendar.getInstance());
+                to = Calendar.getInstance(); //now
+            }
+        }
+
+        final Value def = new Value("none");
+        String sInterval = event.getParameter("Interval", def).getString();
+        String sRollup = event.getParameter("Rollup", def).getString();
+        IntervalParser parser = IntervalParser.parse(sInterval);
+        Rollup.Type type = Rollup.Type.toEnum(sRollup);
+
+        final Table table = event.getTable();
+        table.addColumn(new Parameter("timestamp", ValueType.TIME));
+        for (String path : paths) {
+            table.addColumn(new Parameter(path, ValueType.DYNAMIC));
+        }
+        table.setMode(Table.Mode.APPEND);
+        event.setStreamState(StreamState.INITIALIZED);
+
+        TimeZone timeZone = from.getTimeZone();
+        AlignedRows rows = new AlignedRows(paths.size(), parser, type, timeZone);
+        final Query query = new Query(table, paths, rows, timeZone,
+                from.getTimeInMillis(), to.getTimeInMillis());
+        event.setCloseHandler(new Handler<Void>() {
+            @Override
+            public void handle(Void ignored) {
+                query.open = false;
+            }
+        });
+        LoopProvider.getProvider().schedule(new Runnable() {
+            @Override
+            public void run() {
+                query.next();
+            }
+        });
+    }
+
+    /**
+     * @param value Array of paths or paths separated by commas or new lines.
+     * @return The distinct paths in order.
+     */
+    static List<String> parsePaths(Value value) {
+        Set<String> paths = new LinkedHashSet<>();
+        if (value != null) {
+            JsonArray array = value.getArray();
+            if (array != null) {
+                for (Object o : array) {
+                    if (o != null) {
+                        addPath(paths, o.toString());
+                    }
+                }
+            } else if (value.getString() != null) {
+                for (String path : value.getString().split("[,\\n]")) {
+                    addPath(paths, path);
+                }
+            }
+        }
+        return new ArrayList<>(paths);
+    }
+
+    private static void addPath(Set<String> paths, String path) {
+        path = path.trim();
+        if (!path.isEmpty()) {
+            paths.add(path);
+        }
+    }
+
+    public static void initAction(Node node, Database db) {
+        Action a = new Action(Permission.READ, new GetMultiHistory(db));
+        {
+            Parameter param = new Parameter("Paths", ValueType.STRING);
+            param.setDescription("Watched paths separated by commas");
+            a.addParameter(param);
+        }
+
+        {
+            Parameter param = new Parameter("Timerange", ValueType.STRING);
+            param.setEditorType(EditorType.DATE_RANGE);
+            a.addParameter(param);
+        }
+
+        {
+            Parameter param = new Parameter("Interval", ValueType.STRING);
+            param.setDefaultValue(new Value("none"));
+            a.addParameter(param);
+        }
+
+        {
+            Parameter param = new Parameter("Rollup", GetHistory.rollupType());
+            a.addParameter(param);
+        }
+        a.setResultType(ResultType.STREAM);
+
+        NodeBuilder b = node.createChild("getMultiHistory");
+        b.setDisplayName("Get Multi History");
+        b.setSerializable(false);
+        b.setAction(a);
+        b.build();
+    }
+
+    /**
+     * Queries the windows one after another. Databases completing queries
+     * before returning are looped over instead of recursing into the next
+     * window.
+     */
+    private class Query implements CompleteHandler<PathQueryData> {
+
+        private final StringBuilder buffer = new StringBuilder();
+        private final Map<String, Integer> columns = new HashMap<>();
+        private final Table table;
+        private final List<String> paths;
+        private final AlignedRows rows;
+        private final Calendar calendar;
+        private final long to;
+        private volatile boolean open = true;
+        private long from;
+        private long end;
+        private boolean exhausted;
+        private boolean querying;
+        private boolean done;
+
+        Query(Table table,
+              List<String> paths,
+              AlignedRows rows,
+              TimeZone timeZone,
+              long from,
+              long to) {
+            this.table = table;
+            this.paths = paths;
+            this.rows = rows;
+            this.calendar = Calendar.getInstance(timeZone);
+            this.from = from;
+            this.to = to;
+            this.exhausted = from > to;
+            for (int i = 0; i < paths.size(); ++i) {
+                columns.put(paths.get(i), i);
+            }
+        }
+
+        void next() {
+            while (true) {
+                if (!open || exhausted) {
+                    if (open) {
+                        flush(rows.complete());
+                    }
+                    table.close();
+                    return;
+                }
+                end = from + WINDOW - 1;
+                if (end < from || end > to) {
+                    end = to;
+                }
+                synchronized (this) {
+                    querying = true;
+                    done = false;
+                }
+                db.query(paths, from, end, this);
+                synchronized (this) {
+                    querying = false;
+                    if (!done) {
+                        // Continued by the completion of the window
+                        return;
+                    }
+                }
+            }
+        }
+
+        @Override
+        public void handle(PathQueryData event) {
+            Integer column = columns.get(event.getPath());
+            if (column != null) {
+                rows.update(column, event.getTimestamp(), event.getValue());
+            }
+        }
+
+        @Override
+        public void complete() {
+            exhausted = end >= to;
+            from = end + 1;
+            if (open && !exhausted) {
+                flush(rows.release(from));
+            }
+            boolean resume;
+            synchronized (this) {
+                done = true;
+                resume = !querying;
+            }
+            if (resume) {
+                next();
+            }
+        }
+
+        private void flush(SortedMap<Long, Value[]> finished) {
+            if (finished.isEmpty()) {
+                return;
+            }
+            BatchRow batch = new BatchRow();
+            for (Map.Entry<Long, Value[]> entry : finished.entrySet()) {
+                Row row = new Row();
+                calendar.setTimeInMillis(entry.getKey());
+                buffer.setLength(0);
+                String t = TimeUtils.encode(calendar, true, buffer).toString();
+                row.addValue(new Value(t));
+                for (Value value : entry.getValue()) {
+                    row.addValue(value);
+                }
+                batch.addRow(row);
+            }
+            finished.clear();
+            table.waitForStream(5000, true);
+            table.addBatchRows(batch);
+        }
+    }
+}
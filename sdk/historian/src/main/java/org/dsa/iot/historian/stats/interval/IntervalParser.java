@@ -104,6 +104,51 @@ public class IntervalParser {
         return modified;
     }
 
+    /**
+     * Computes the interval boundaries of a range when every timestamp
+     * aligns to the start of its interval, the intervals are then the same
+     * regardless of the first value.
+     *
+     * @param from     Beginning of the range.
+     * @param to       End of the range.
+     * @param timeZone Time zone the intervals are aligned in.
+     * @param max      Maximum amount of intervals.
+     * @return The boundaries, the last one is after the range, or
+     *         {@code null} when the intervals are not on a fixed grid.
+     */
+    public long[] boundaries(long from, long to, TimeZone timeZone, int max) {
+        Calendar calendar = Calendar.getInstance(timeZone);
+        calendar.setTimeInMillis(from);
+        if (!alignTime(calendar)) {
+            // Unaligned intervals start at the first value
+            return null;
+        }
+        long[] boundaries = new long[16];
+        int size = 0;
+        long boundary = calendar.getTimeInMillis();
+        boundaries[size++] = boundary;
+        Calendar check = Calendar.getInstance(timeZone);
+        while (boundary <= to) {
+            if (size > max) {
+                return null;
+            }
+            calendar.setTimeInMillis(boundary);
+            nextInterval(calendar);
+            long next = calendar.getTimeInMillis();
+            check.setTimeInMillis(next - 1);
+            alignTime(check);
+            if (next <= boundary || check.getTimeInMillis() != boundary) {
+                return null;
+            }
+            if (size == boundaries.length) {
+                boundaries = Arrays.copyOf(boundaries, size * 2);
+            }
+            boundaries[size++] = next;
+            boundary = next;
+        }
+        return Arrays.copyOf(boundaries, size);
+    }
+
     private void update(char interval, String number) {
         int num = Integer.parseInt(number);
         switch (interval) {
@@ -12,10 +12,22 @@ import java.util.*;
  */
 public class IntervalProcessor {
 
+    private static final int OUT_OF_ORDER = -1;
+    private static final int CURRENT = 0;
+    private static final int NEXT = 1;
+    private static final int FINISHED = 2;
+
     private Calendar calendar; // Calendar with the correct timezone.
     private long currentInterval = -1;  //Timestamp of the current interval.
-    private QueryData lastValue; // The last value of the current interval.
+    private long finishedInterval = -1; //Timestamp of the interval last finished.
+    private boolean hasData; // Whether the current interval has data.
+    private Value lastValue; // The last value of the current interval.
+    private double lastNumber; // The last number of the current interval.
+    private boolean lastIsNumber; // Whether the last number is the last value.
+    private long lastLong; // The last integral number of the current interval.
+    private boolean lastIsLong; // Whether the last integral number is the last value.
     private long nextInterval = -1; //Timestamp of the next interval.
+    private final SampleBuffer rows = new SampleBuffer(1); // Row updates.
     private final IntervalParser parser;
     private final Rollup rollup;
 
@@ -37,6 +49,171 @@ public class IntervalProcessor {
      * @return The last interval, or null.
      */
     public Row getRowUpdate(QueryData data, long fullTs) {
+        update(fullTs, data.getValue(), rows);
+        return takeRow();
+    }
+
+    /**
+     * Updates the current interval with a summary of values, the summarized
+     * values must all belong to the same interval.
+     *
+     * @param summary Summary retrieved from a rollup tier.
+     * @param fullTs  Full timestamp of the summary.
+     * @return The last interval, or null.
+     * @see #getRowUpdate(QueryData, long)
+     */
+    public Row getRowUpdate(RollupSummary summary, long fullTs) {
+        update(fullTs, summary, rows);
+        return takeRow();
+    }
+
+    /**
+     * Updates the intervals with every sample of a buffer. Numeric samples
+     * go through the rollup without allocating, finished intervals are
+     * added to the output buffer and only become rows at the table edge.
+     *
+     * @param samples Samples retrieved from the database.
+     * @param out     Buffer receiving the finished intervals.
+     * @see #complete(SampleBuffer)
+     */
+    public void update(SampleBuffer samples, SampleBuffer out) {
+        for (int i = 0; i < samples.size(); ++i) {
+            if (samples.isLong(i)) {
+                update(samples.getTime(i), samples.getLong(i), out);
+            } else if (samples.isNumber(i)) {
+                update(samples.getTime(i), samples.getNumber(i), out);
+            } else {
+                update(samples.getTime(i), samples.getValue(i), out);
+            }
+        }
+    }
+
+    /**
+     * Updates the current interval with a number.
+     *
+     * @param ts    Full timestamp of the number.
+     * @param value Number retrieved from the database.
+     * @param out   Buffer receiving the last interval when finished.
+     */
+    public void update(long ts, double value, SampleBuffer out) {
+        int state = advance(ts);
+        if (state == OUT_OF_ORDER) {
+            return;
+        } else if (state == FINISHED && rollup == null) {
+            out.add(finishedInterval, value);
+        }
+        finish(state, out);
+        if (rollup != null) {
+            rollup.update(ts, value);
+        }
+        lastNumber = value;
+        lastIsNumber = true;
+        lastIsLong = false;
+        hasData = true;
+    }
+
+    /**
+     * Updates the current interval with an integral number.
+     *
+     * @param ts    Full timestamp of the number.
+     * @param value Number retrieved from the database.
+     * @param out   Buffer receiving the last interval when finished.
+     */
+    public void update(long ts, long value, SampleBuffer out) {
+        int state = advance(ts);
+        if (state == OUT_OF_ORDER) {
+            return;
+        } else if (state == FINISHED && rollup == null) {
+            out.add(finishedInterval, value);
+        }
+        finish(state, out);
+        if (rollup != null) {
+            rollup.update(ts, value);
+        }
+        lastLong = value;
+        lastIsLong = true;
+        lastIsNumber = false;
+        hasData = true;
+    }
+
+    /**
+     * Updates the current interval with a value.
+     *
+     * @param ts    Full timestamp of the value.
+     * @param value Value retrieved from the database.
+     * @param out   Buffer receiving the last interval when finished.
+     */
+    public void update(long ts, Value value, SampleBuffer out) {
+        int state = advance(ts);
+        if (state == OUT_OF_ORDER) {
+            return;
+        } else if (state == FINISHED && rollup == null) {
+            out.add(finishedInterval, value);
+        }
+        finish(state, out);
+        if (rollup != null) {
+            rollup.update(value, ts);
+        }
+        lastValue = value;
+        lastIsNumber = false;
+        lastIsLong = false;
+        hasData = true;
+    }
+
+    /**
+     * Updates the current interval with a summary of values, the summarized
+     * values must all belong to the same interval.
+     *
+     * @param ts      Full timestamp of the summary.
+     * @param summary Summary retrieved from a rollup tier.
+     * @param out     Buffer receiving the last interval when finished.
+     */
+    public void update(long ts, RollupSummary summary, SampleBuffer out) {
+        if (rollup == null) {
+            throw new IllegalStateException("Summaries require a rollup");
+        }
+        int state = advance(ts);
+        if (state == OUT_OF_ORDER) {
+            return;
+        }
+        finish(state, out);
+        rollup.update(summary, ts);
+        hasData = true;
+    }
+
+    /**
+     * Merges the partial rollup of an interval computed over a sub-range.
+     * Partials must be merged in order.
+     *
+     * @param ts      Start of the interval of the partial.
+     * @param partial Rollup of the values of the sub-range in the interval.
+     * @param out     Buffer receiving the last interval when finished.
+     * @see PartialIntervals
+     */
+    public void merge(long ts, Rollup partial, SampleBuffer out) {
+        if (rollup == null) {
+            throw new IllegalStateException("Merging requires a rollup");
+        }
+        int state = advance(ts);
+        if (state == OUT_OF_ORDER) {
+            return;
+        }
+        finish(state, out);
+        rollup.combine(partial);
+        hasData = true;
+    }
+
+    /**
+     * Moves to the interval of a timestamp. Timestamps within the current
+     * interval are detected without touching the calendar.
+     *
+     * @return Whether the timestamp is out of order, within the current
+     *         interval or within a later interval.
+     */
+    private int advance(long fullTs) {
+        if (fullTs >= currentInterval && fullTs < nextInterval) {
+            return CURRENT;
+        }
         calendar.setTimeInMillis(fullTs);
         parser.alignTime(calendar);
         long alignedTs = calendar.getTimeInMillis();
@@ -45,37 +222,43 @@ public class IntervalProcessor {
             parser.nextInterval(calendar);
             nextInterval = calendar.getTimeInMillis();
         }
-        Row row = null;
         if (alignedTs < currentInterval) { //Out of order timestamp, ignore it.
-            return null;
+            return OUT_OF_ORDER;
         }
-        if (alignedTs < nextInterval) { // Update the current interval
-            if (rollup != null) {
-                rollup.update(data.getValue(), currentInterval);
-            }
-            lastValue = data;
-            return null;
-        }
-        if (lastValue != null) { // Finish the last interval
-            if (rollup == null) {
-                row = makeRow(data.getValue(), currentInterval);
-            } else {
-                row = makeRow(rollup.getValue(), currentInterval);
-            }
-            lastValue = null;
+        if (alignedTs < nextInterval) {
+            return CURRENT;
         }
+        finishedInterval = currentInterval;
         while (alignedTs >= nextInterval) { //Advance to the next interval
             currentInterval = nextInterval;
             calendar.setTimeInMillis(currentInterval);
             parser.nextInterval(calendar);
             nextInterval = calendar.getTimeInMillis();
         }
-        if (rollup != null) {
-            rollup.reset();
-            rollup.update(data.getValue(), currentInterval);
+        if (hasData) {
+            hasData = false;
+            return FINISHED;
         }
-        lastValue = data;
-        return row;
+        return NEXT;
+    }
+
+    private void finish(int state, SampleBuffer out) {
+        if (rollup == null || state == CURRENT) {
+            return;
+        }
+        if (state == FINISHED) {
+            rollup.getValue(out, finishedInterval);
+        }
+        rollup.reset();
+    }
+
+    /**
+     * Later values never finish an interval before the current one.
+     *
+     * @return Start of the current interval when it has data, otherwise -1.
+     */
+    public long getPendingInterval() {
+        return hasData ? currentInterval : -1;
     }
 
     /**
@@ -83,17 +266,39 @@ public class IntervalProcessor {
      * interval has no data.
      */
     public Row complete() {
-        if (lastValue == null) { //There is no data in the current interval.
-            return null;
+        complete(rows);
+        return takeRow();
+    }
+
+    /**
+     * Adds the current interval to a buffer unless it has no data.
+     *
+     * @param out Buffer receiving the current interval.
+     * @see #complete()
+     */
+    public void complete(SampleBuffer out) {
+        if (!hasData) { //There is no data in the current interval.
+            return;
         }
         // Finish the current interval
-        Row row = null;
-        if (rollup == null) {
-            row = makeRow(lastValue.getValue(), currentInterval);
+        if (rollup != null) {
+            rollup.getValue(out, currentInterval);
+        } else if (lastIsLong) {
+            out.add(currentInterval, lastLong);
+        } else if (lastIsNumber) {
+            out.add(currentInterval, lastNumber);
         } else {
-            row = makeRow(rollup.getValue(), currentInterval);
+            out.add(currentInterval, lastValue);
         }
-        lastValue = null;
+        hasData = false;
+    }
+
+    private Row takeRow() {
+        if (rows.isEmpty()) {
+            return null;
+        }
+        Row row = makeRow(rows.getValue(0), rows.getTime(0));
+        rows.clear();
         return row;
     }
 
@@ -111,30 +316,7 @@ public class IntervalProcessor {
         if (parser == null) {
             return null;
         }
-        Rollup roll = null;
-        if (Rollup.Type.AND == rollup) {
-            roll = new AndRollup();
-        } else if (Rollup.Type.OR == rollup) {
-            roll = new OrRollup();
-        } else if (Rollup.Type.AVERAGE == rollup) {
-            roll = new AvgRollup();
-        } else if (Rollup.Type.COUNT == rollup) {
-            roll = new CountRollup();
-        } else if (Rollup.Type.FIRST == rollup) {
-            roll = new FirstRollup();
-        } else if (Rollup.Type.LAST == rollup) {
-            roll = new LastRollup();
-        } else if (Rollup.Type.MAX == rollup) {
-            roll = new MaxRollup();
-        } else if (Rollup.Type.MIN == rollup) {
-            roll = new MinRollup();
-        } else if (Rollup.Type.SUM == rollup) {
-            roll = new SumRollup();
-        } else if (Rollup.Type.DELTA == rollup) {
-            roll = new DeltaRollup();
-        } else if (Rollup.Type.NONE != rollup) {
-            throw new RuntimeException("Invalid rollup: " + rollup);
-        }
+        Rollup roll = Rollup.create(rollup);
         return new IntervalProcessor(parser, roll, timeZone);
     }
 }
@@ -0,0 +1,107 @@
+package org.dsa.iot.historian.stats.interval;
+
+import org.dsa.iot.dslink.util.handler.CompleteHandler;
+import org.dsa.iot.historian.stats.rollup.Rollup;
+import org.dsa.iot.historian.utils.SampleBuffer;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Computes the partial rollups of the intervals of a sub-range. Sub-ranges
+ * can be processed in parallel, their partials are then merged in order
+ * with {@link IntervalProcessor#merge}.
+ *
+ * @author Samuel Grenier
+ * @see IntervalParser#boundaries
+ */
+public class PartialIntervals implements CompleteHandler<SampleBuffer> {
+
+    private final List<Rollup> rollups = new ArrayList<>();
+    private final List<Long> starts = new ArrayList<>();
+    private final long[] boundaries;
+    private final Rollup.Type type;
+    private int index = -1;
+    private Rollup current;
+
+    /**
+     * @param boundaries Interval boundaries covering the sub-range.
+     * @param type       Rollup to compute.
+     */
+    public PartialIntervals(long[] boundaries, Rollup.Type type) {
+        if (boundaries == null) {
+            throw new NullPointerException("boundaries");
+        } else if (type == null || type == Rollup.Type.NONE) {
+            throw new IllegalArgumentException("type: " + type);
+        }
+        this.boundaries = boundaries;
+        this.type = type;
+    }
+
+    @Override
+    public void handle(SampleBuffer samples) {
+        for (int i = 0; i < samples.size(); ++i) {
+            long ts = samples.getTime(i);
+            Rollup rollup = rollup(ts);
+            if (rollup == null) {
+                continue;
+            }
+            if (samples.isLong(i)) {
+                rollup.update(ts, samples.getLong(i));
+            } else if (samples.isNumber(i)) {
+                rollup.update(ts, samples.getNumber(i));
+            } else {
+                rollup.update(samples.getValue(i), ts);
+            }
+        }
+    }
+
+    @Override
+    public void complete() {
+    }
+
+    /**
+     * @return Amount of intervals with data.
+     */
+    public int size() {
+        return rollups.size();
+    }
+
+    /**
+     * @param index Index of the interval.
+     * @return Start of the interval.
+     */
+    public long getStart(int index) {
+        return starts.get(index);
+    }
+
+    /**
+     * @param index Index of the interval.
+     * @return Partial rollup of the interval.
+     */
+    public Rollup getRollup(int index) {
+        return rollups.get(index);
+    }
+
+    /**
+     * Values out of order or outside of the boundaries are ignored.
+     */
+    private Rollup rollup(long ts) {
+        if (index > -1 && ts >= boundaries[index] && ts < boundaries[index + 1]) {
+            return current;
+        }
+        int i = Arrays.binarySearch(boundaries, ts);
+        if (i < 0) {
+            i = -i - 2;
+        }
+        if (i < 0 || i >= boundaries.length - 1 || i < index) {
+            return null;
+        }
+        index = i;
+        current = Rollup.create(type);
+        rollups.add(current);
+        starts.add(boundaries[i]);
+        return current;
+    }
+}
@@ -8,11 +8,11 @@ import org.dsa.iot.dslink.node.value.ValueType;
  */
 public class AndRollup extends Rollup {
 
-    private boolean value;
+    private boolean value = true;
 
     @Override
     public void reset() {
-        value = false;
+        value = true;
     }
 
     @Override
@@ -30,6 +30,24 @@ public class AndRollup extends Rollup {
         }
     }
 
+    @Override
+    public void update(long ts, double value) {
+        this.value = this.value && (value != 0);
+    }
+
+    @Override
+    public void combine(Rollup other) {
+        AndRollup o = (AndRollup) other;
+        value = value && o.value;
+    }
+
+    @Override
+    public void update(RollupSummary summary, long ts) {
+        if (summary.getLogicals() > 0) {
+            value = value && summary.getAnd();
+        }
+    }
+
     @Override
     public Value getValue() {
         return new Value(value);
@@ -1,6 +1,7 @@
 package org.dsa.iot.historian.stats.rollup;
 
 import org.dsa.iot.dslink.node.value.Value;
+import org.dsa.iot.historian.utils.SampleBuffer;
 
 /**
  * @author Samuel Grenier
@@ -26,9 +27,33 @@ public class AvgRollup extends Rollup {
         }
     }
 
+    @Override
+    public void update(long ts, double value) {
+        count++;
+        total += value;
+    }
+
+    @Override
+    public void combine(Rollup other) {
+        AvgRollup o = (AvgRollup) other;
+        count += o.count;
+        total += o.total;
+    }
+
+    @Override
+    public void update(RollupSummary summary, long ts) {
+        count += summary.getCount();
+        total += summary.getSum();
+    }
+
     @Override
     public Value getValue() {
         double avg = total / count;
         return new Value(avg);
     }
+
+    @Override
+    public void getValue(SampleBuffer buffer, long ts) {
+        buffer.add(ts, total / count);
+    }
 }
@@ -1,6 +1,7 @@
 package org.dsa.iot.historian.stats.rollup;
 
 import org.dsa.iot.dslink.node.value.Value;
+import org.dsa.iot.historian.utils.SampleBuffer;
 
 /**
  * @author Samuel Grenier
@@ -19,8 +20,29 @@ public class CountRollup extends Rollup {
         count++;
     }
 
+    @Override
+    public void update(long ts, double value) {
+        count++;
+    }
+
+    @Override
+    public void combine(Rollup other) {
+        CountRollup o = (CountRollup) other;
+        count += o.count;
+    }
+
+    @Override
+    public void update(RollupSummary summary, long ts) {
+        count += summary.getCount();
+    }
+
     @Override
     public Value getValue() {
         return new Value(count);
     }
+
+    @Override
+    public void getValue(SampleBuffer buffer, long ts) {
+        buffer.add(ts, count);
+    }
 }
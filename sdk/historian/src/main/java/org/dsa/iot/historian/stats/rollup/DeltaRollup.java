@@ -1,52 +1,142 @@
 package org.dsa.iot.historian.stats.rollup;
 
 import org.dsa.iot.dslink.node.value.Value;
+import org.dsa.iot.historian.utils.SampleBuffer;
 
 /**
  * @author Samuel Grenier
  */
 public class DeltaRollup extends Rollup {
 
-    private Number previousStart;
-    private Number start;
-    private Number end;
+    private boolean hasPreviousStart;
+    private double previousStart;
+    private boolean hasStart;
+    private double start;
+    private boolean hasEnd;
+    private double end;
+    // Integral copies of the numbers that were integral
+    private boolean previousStartIntegral;
+    private long previousStartLong;
+    private boolean startIntegral;
+    private long startLong;
+    private boolean endIntegral;
+    private long endLong;
 
     @Override
     public void reset() {
+        hasPreviousStart = hasStart;
         previousStart = start;
-        start = null;
-        end = null;
+        previousStartIntegral = startIntegral;
+        previousStartLong = startLong;
+        hasStart = false;
+        hasEnd = false;
     }
 
     @Override
     public void update(Value value, long ts) {
-        Number number = value.getNumber();
-        if (number == null) {
-            return;
+        update(ts, value.getNumber());
+    }
+
+    @Override
+    public void update(long ts, double value) {
+        if (!hasStart) {
+            start = value;
+            startIntegral = false;
+            hasStart = true;
         }
+        if (!hasPreviousStart) {
+            previousStart = start;
+            previousStartIntegral = startIntegral;
+            previousStartLong = startLong;
+            hasPreviousStart = true;
+        }
+        end = value;
+        endIntegral = false;
+        hasEnd = true;
+    }
 
-        if (start == null) {
-            start = number;
+    @Override
+    public void update(long ts, long value) {
+        if (!hasStart) {
+            start = value;
+            startIntegral = true;
+            startLong = value;
+            hasStart = true;
         }
-        if (previousStart == null) {
+        if (!hasPreviousStart) {
             previousStart = start;
+            previousStartIntegral = startIntegral;
+            previousStartLong = startLong;
+            hasPreviousStart = true;
+        }
+        end = value;
+        endIntegral = true;
+        endLong = value;
+        hasEnd = true;
+    }
+
+    @Override
+    public void combine(Rollup other) {
+        DeltaRollup o = (DeltaRollup) other;
+        if (o.hasStart && o.startIntegral) {
+            update(0, o.startLong);
+        } else if (o.hasStart) {
+            update(0, o.start);
+        }
+        if (o.hasEnd && o.endIntegral) {
+            update(0, o.endLong);
+        } else if (o.hasEnd) {
+            update(0, o.end);
+        }
+    }
+
+    @Override
+    public void update(RollupSummary summary, long ts) {
+        if (summary.getNumbers() > 0) {
+            update(ts, summary.getFirstNumber());
+            update(ts, summary.getLastNumber());
         }
-        end = number;
     }
 
     @Override
     public Value getValue() {
-        if (previousStart != null && end != null) {
-            double delta = end.doubleValue() - previousStart.doubleValue();
-            if (end.doubleValue() < previousStart.doubleValue()) {
-                delta = end.doubleValue();
+        if (hasPreviousStart && hasEnd) {
+            if (previousStartIntegral && endIntegral) {
+                return toValue(longDelta());
             }
-            return new Value(delta);
-        } else if (previousStart != null) {
+            return new Value(delta());
+        } else if (hasPreviousStart) {
             return new Value(0);
-        } else if (end != null) {
-            return new Value(end);
         }
         return null;
     }
+
+    @Override
+    public void getValue(SampleBuffer buffer, long ts) {
+        if (hasPreviousStart && hasEnd) {
+            if (previousStartIntegral && endIntegral) {
+                buffer.add(ts, longDelta());
+            } else {
+                buffer.add(ts, delta());
+            }
+        } else if (hasPreviousStart) {
+            buffer.add(ts, 0L);
+        } else {
+            buffer.add(ts, (Value) null);
+        }
+    }
+
+    private double delta() {
+        if (end < previousStart) {
+            return end;
+        }
+        return end - previousStart;
+    }
+
+    private long longDelta() {
+        if (endLong < previousStartLong) {
+            return endLong;
+        }
+        return endLong - previousStartLong;
+    }
 }
@@ -1,31 +1,103 @@
 package org.dsa.iot.historian.stats.rollup;
 
 import org.dsa.iot.dslink.node.value.Value;
+import org.dsa.iot.historian.utils.SampleBuffer;
 
 /**
  * @author Samuel Grenier
  */
 public class FirstRollup extends Rollup {
 
-    private Value value;
     private long ts;
+    private boolean set;
+    private Value value;
+    private double number;
+    private long integer;
+    private boolean numeric;
+    private boolean integral;
 
     @Override
     public void reset() {
+        set = false;
+        numeric = false;
+        integral = false;
         value = null;
         ts = 0;
     }
 
     @Override
     public void update(Value value, long ts) {
-        if (this.value == null || this.ts > ts) {
+        if (!set || this.ts > ts) {
             this.ts = ts;
             this.value = value;
+            numeric = false;
+            integral = false;
+            set = true;
+        }
+    }
+
+    @Override
+    public void update(long ts, double value) {
+        if (!set || this.ts > ts) {
+            this.ts = ts;
+            this.value = null;
+            number = value;
+            numeric = true;
+            integral = false;
+            set = true;
+        }
+    }
+
+    @Override
+    public void update(long ts, long value) {
+        if (!set || this.ts > ts) {
+            this.ts = ts;
+            this.value = null;
+            number = value;
+            integer = value;
+            numeric = true;
+            integral = true;
+            set = true;
+        }
+    }
+
+    @Override
+    public void combine(Rollup other) {
+        FirstRollup o = (FirstRollup) other;
+        if (o.integral) {
+            update(o.ts, o.integer);
+        } else if (o.numeric) {
+            update(o.ts, o.number);
+        } else if (o.set) {
+            update(o.value, o.ts);
+        }
+    }
+
+    @Override
+    public void update(RollupSummary summary, long ts) {
+        if (summary.getFirst() != null) {
+            update(summary.getFirst(), summary.getFirstTs());
         }
     }
 
     @Override
     public Value getValue() {
+        if (integral) {
+            return toValue(integer);
+        } else if (numeric) {
+            return new Value(number);
+        }
         return value;
     }
+
+    @Override
+    public void getValue(SampleBuffer buffer, long ts) {
+        if (integral) {
+            buffer.add(ts, integer);
+        } else if (numeric) {
+            buffer.add(ts, number);
+        } else {
+            buffer.add(ts, value);
+        }
+    }
 }
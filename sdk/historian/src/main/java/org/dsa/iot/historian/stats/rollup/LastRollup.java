@@ -1,6 +1,7 @@
 package org.dsa.iot.historian.stats.rollup;
 
 import org.dsa.iot.dslink.node.value.Value;
+import org.dsa.iot.historian.utils.SampleBuffer;
 
 /**
  * @author Samuel Grenier
@@ -9,9 +10,15 @@ public class LastRollup extends Rollup {
 
     private long ts = -1;
     private Value value;
+    private double number;
+    private long integer;
+    private boolean numeric;
+    private boolean integral;
 
     @Override
     public void reset() {
+        numeric = false;
+        integral = false;
         value = null;
     }
 
@@ -20,11 +27,71 @@ public class LastRollup extends Rollup {
         if (ts > this.ts) {
             this.ts = ts;
             this.value = value;
+            numeric = false;
+            integral = false;
+        }
+    }
+
+    @Override
+    public void update(long ts, double value) {
+        if (ts > this.ts) {
+            this.ts = ts;
+            this.value = null;
+            number = value;
+            numeric = true;
+            integral = false;
+        }
+    }
+
+    @Override
+    public void update(long ts, long value) {
+        if (ts > this.ts) {
+            this.ts = ts;
+            this.value = null;
+            number = value;
+            integer = value;
+            numeric = true;
+            integral = true;
+        }
+    }
+
+    @Override
+    public void combine(Rollup other) {
+        LastRollup o = (LastRollup) other;
+        if (o.integral) {
+            update(o.ts, o.integer);
+        } else if (o.numeric) {
+            update(o.ts, o.number);
+        } else if (o.value != null) {
+            update(o.value, o.ts);
+        }
+    }
+
+    @Override
+    public void update(RollupSummary summary, long ts) {
+        if (summary.getLast() != null) {
+            update(summary.getLast(), summary.getLastTs());
         }
     }
 
     @Override
     public Value getValue() {
+        if (integral) {
+            return toValue(integer);
+        } else if (numeric) {
+            return new Value(number);
+        }
         return value;
     }
+
+    @Override
+    public void getValue(SampleBuffer buffer, long ts) {
+        if (integral) {
+            buffer.add(ts, integer);
+        } else if (numeric) {
+            buffer.add(ts, number);
+        } else {
+            buffer.add(ts, value);
+        }
+    }
 }
@@ -1,33 +1,90 @@
 package org.dsa.iot.historian.stats.rollup;
 
 import org.dsa.iot.dslink.node.value.Value;
+import org.dsa.iot.historian.utils.SampleBuffer;
 
 /**
  * @author Samuel Grenier
  */
 public class MaxRollup extends Rollup {
 
-    private Number number;
+    private boolean empty = true;
+    private double max;
+    private long integer;
+    private boolean integral; // Whether every number was integral
 
     @Override
     public void reset() {
-        number = null;
+        empty = true;
     }
 
     @Override
     public void update(Value value, long ts) {
-        Number num = value.getNumber();
-        if (number == null) {
-            number = num;
-        } else if (num != null) {
-            double a = num.doubleValue();
-            double b = number.doubleValue();
-            number = Math.max(a, b);
+        update(ts, value.getNumber());
+    }
+
+    @Override
+    public void update(long ts, double value) {
+        if (empty) {
+            max = value;
+            empty = false;
+        } else {
+            max = Math.max(max, value);
+        }
+        integral = false;
+    }
+
+    @Override
+    public void update(long ts, long value) {
+        if (empty) {
+            max = value;
+            integer = value;
+            integral = true;
+            empty = false;
+        } else {
+            max = Math.max(max, value);
+            integer = Math.max(integer, value);
+        }
+    }
+
+    @Override
+    public void combine(Rollup other) {
+        MaxRollup o = (MaxRollup) other;
+        if (o.empty) {
+            return;
+        }
+        if (o.integral) {
+            update(0, o.integer);
+        } else {
+            update(0, o.max);
+        }
+    }
+
+    @Override
+    public void update(RollupSummary summary, long ts) {
+        if (summary.getNumbers() > 0) {
+            update(ts, summary.getMax());
         }
     }
 
     @Override
     public Value getValue() {
-        return new Value(number);
+        if (empty) {
+            return new Value((Number) null);
+        } else if (integral) {
+            return toValue(integer);
+        }
+        return new Value(max);
+    }
+
+    @Override
+    public void getValue(SampleBuffer buffer, long ts) {
+        if (empty) {
+            buffer.add(ts, new Value((Number) null));
+        } else if (integral) {
+            buffer.add(ts, integer);
+        } else {
+            buffer.add(ts, max);
+        }
     }
 }
@@ -30,6 +30,24 @@ public class OrRollup extends Rollup {
         }
     }
 
+    @Override
+    public void update(long ts, double value) {
+        this.value |= (value != 0);
+    }
+
+    @Override
+    public void combine(Rollup other) {
+        OrRollup o = (OrRollup) other;
+        value |= o.value;
+    }
+
+    @Override
+    public void update(RollupSummary summary, long ts) {
+        if (summary.getLogicals() > 0) {
+            value |= summary.getOr();
+        }
+    }
+
     @Override
     public Value getValue() {
         return new Value(value);
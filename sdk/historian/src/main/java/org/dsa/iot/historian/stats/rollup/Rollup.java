@@ -1,6 +1,7 @@
 package org.dsa.iot.historian.stats.rollup;
 
 import org.dsa.iot.dslink.node.value.Value;
+import org.dsa.iot.historian.utils.SampleBuffer;
 
 /**
  * @author Samuel Grenier
@@ -20,11 +21,133 @@ public abstract class Rollup {
      */
     public abstract void update(Value value, long ts);
 
+    /**
+     * Updates the rollup data with a summary of multiple values. Rollups
+     * supporting summaries can be answered from rollup tiers.
+     *
+     * @param summary Summary of the values.
+     * @param ts Timestamp of the summary.
+     * @see RollupTiers
+     */
+    public void update(RollupSummary summary, long ts) {
+        throw new UnsupportedOperationException(getClass().getName());
+    }
+
+    /**
+     * Merges a partial rollup of values following the values of this rollup.
+     * Rollups supporting it can be computed over sub-ranges in parallel.
+     *
+     * @param other Rollup of the same type over later values.
+     */
+    public void combine(Rollup other) {
+        throw new UnsupportedOperationException(getClass().getName());
+    }
+
+    /**
+     * Updates the rollup data with a number without boxing it. Rollups
+     * should override this, by default the number is boxed.
+     *
+     * @param ts Timestamp of the number.
+     * @param value Number to update.
+     */
+    public void update(long ts, double value) {
+        Value v = new Value(value);
+        v.setTime(ts);
+        update(v, ts);
+    }
+
+    /**
+     * Updates the rollup data with an integral number without boxing it.
+     * Rollups returning one of their numbers should override this to keep
+     * integral results, by default the number is widened.
+     *
+     * @param ts Timestamp of the number.
+     * @param value Number to update.
+     */
+    public void update(long ts, long value) {
+        update(ts, (double) value);
+    }
+
+    /**
+     * Updates the rollup data with a number from a value, integral numbers
+     * are kept integral.
+     *
+     * @param ts Timestamp of the number.
+     * @param number Number to update, can be {@code null}.
+     */
+    protected void update(long ts, Number number) {
+        if (number == null) {
+            return;
+        }
+        if (number instanceof Long
+                || number instanceof Integer
+                || number instanceof Short
+                || number instanceof Byte) {
+            update(ts, number.longValue());
+        } else {
+            update(ts, number.doubleValue());
+        }
+    }
+
     /**
      * @return The statistical value of the rollup.
      */
     public abstract Value getValue();
 
+    /**
+     * Adds the statistical value of the rollup to a buffer. Numeric rollups
+     * should override this to avoid allocating a value.
+     *
+     * @param buffer Buffer to add the value to.
+     * @param ts Timestamp of the value.
+     */
+    public void getValue(SampleBuffer buffer, long ts) {
+        buffer.add(ts, getValue());
+    }
+
+    /**
+     * @param number Integral number.
+     * @return The number as a value, numbers fitting an integer are not
+     *         widened to a long.
+     */
+    protected static Value toValue(long number) {
+        if (number >= Integer.MIN_VALUE && number <= Integer.MAX_VALUE) {
+            return new Value((int) number);
+        }
+        return new Value(number);
+    }
+
+    /**
+     * @param type Type of the rollup.
+     * @return A new rollup or {@code null} for {@link Type#NONE}.
+     */
+    public static Rollup create(Type type) {
+        if (Type.AND == type) {
+            return new AndRollup();
+        } else if (Type.OR == type) {
+            return new OrRollup();
+        } else if (Type.AVERAGE == type) {
+            return new AvgRollup();
+        } else if (Type.COUNT == type) {
+            return new CountRollup();
+        } else if (Type.FIRST == type) {
+            return new FirstRollup();
+        } else if (Type.LAST == type) {
+            return new LastRollup();
+        } else if (Type.MAX == type) {
+            return new MaxRollup();
+        } else if (Type.MIN == type) {
+            return new MinRollup();
+        } else if (Type.SUM == type) {
+            return new SumRollup();
+        } else if (Type.DELTA == type) {
+            return new DeltaRollup();
+        } else if (Type.NONE != type) {
+            throw new RuntimeException("Invalid rollup: " + type);
+        }
+        return null;
+    }
+
     public enum Type {
         AND("and"),
         OR("or"),
@@ -0,0 +1,225 @@
+package org.dsa.iot.historian.stats.rollup;
+
+import org.dsa.iot.dslink.node.value.Value;
+import org.dsa.iot.dslink.node.value.ValueType;
+import org.dsa.iot.dslink.node.value.ValueUtils;
+import org.dsa.iot.dslink.util.json.JsonObject;
+
+/**
+ * Components of every rollup over a range of values. Summaries are
+ * maintained as values are written and can be fed to a {@link Rollup} in
+ * place of the values they summarize.
+ *
+ * @author Samuel Grenier
+ * @see RollupTiers
+ */
+public class RollupSummary {
+
+    private long count;
+    private double sum;
+
+    private long numbers;
+    private double min;
+    private double max;
+    private Double firstNumber;
+    private Double lastNumber;
+
+    private long logicals;
+    private boolean and = true;
+    private boolean or;
+
+    private Value first;
+    private long firstTs;
+    private Value last;
+    private long lastTs;
+
+    /**
+     * @param value Value to add to the summary.
+     * @param ts Timestamp of the value.
+     */
+    public void update(Value value, long ts) {
+        if (value == null) {
+            return;
+        }
+        count++;
+        if (first == null || ts < firstTs) {
+            first = value;
+            firstTs = ts;
+        }
+        if (last == null || ts >= lastTs) {
+            last = value;
+            lastTs = ts;
+        }
+
+        Number number = value.getNumber();
+        if (number != null) {
+            double d = number.doubleValue();
+            sum += d;
+            if (numbers == 0) {
+                min = d;
+                max = d;
+                firstNumber = d;
+            } else {
+                min = Math.min(min, d);
+                max = Math.max(max, d);
+            }
+            lastNumber = d;
+            numbers++;
+        }
+
+        Boolean logical = null;
+        if (value.getType().equals(ValueType.NUMBER)) {
+            if (number != null) {
+                logical = number.doubleValue() != 0;
+            }
+        } else {
+            logical = value.getBool();
+        }
+        if (logical != null) {
+            and &= logical;
+            or |= logical;
+            logicals++;
+        }
+    }
+
+    /**
+     * @return Whether the summary holds no value.
+     */
+    public boolean isEmpty() {
+        return count == 0;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    /**
+     * @return Sum of the numeric values.
+     */
+    public double getSum() {
+        return sum;
+    }
+
+    /**
+     * @return Amount of numeric values.
+     */
+    public long getNumbers() {
+        return numbers;
+    }
+
+    public double getMin() {
+        return min;
+    }
+
+    public double getMax() {
+        return max;
+    }
+
+    /**
+     * @return First numeric value in write order, or {@code null}.
+     */
+    public Double getFirstNumber() {
+        return firstNumber;
+    }
+
+    /**
+     * @return Last numeric value in write order, or {@code null}.
+     */
+    public Double getLastNumber() {
+        return lastNumber;
+    }
+
+    /**
+     * @return Amount of values that are numbers or booleans.
+     */
+    public long getLogicals() {
+        return logicals;
+    }
+
+    public boolean getAnd() {
+        return and;
+    }
+
+    public boolean getOr() {
+        return or;
+    }
+
+    public Value getFirst() {
+        return first;
+    }
+
+    public long getFirstTs() {
+        return firstTs;
+    }
+
+    public Value getLast() {
+        return last;
+    }
+
+    public long getLastTs() {
+        return lastTs;
+    }
+
+    public JsonObject toJson() {
+        JsonObject obj = new JsonObject();
+        obj.put("count", count);
+        obj.put("sum", sum);
+        if (numbers > 0) {
+            obj.put("numbers", numbers);
+            obj.put("min", min);
+            obj.put("max", max);
+            obj.put("firstNumber", firstNumber);
+            obj.put("lastNumber", lastNumber);
+        }
+        if (logicals > 0) {
+            obj.put("logicals", logicals);
+            obj.put("and", and);
+            obj.put("or", or);
+        }
+        if (first != null) {
+            obj.put("first", ValueUtils.toObject(first));
+            obj.put("firstTs", firstTs);
+            obj.put("last", ValueUtils.toObject(last));
+            obj.put("lastTs", lastTs);
+        }
+        return obj;
+    }
+
+    public static RollupSummary fromJson(JsonObject obj) {
+        RollupSummary s = new RollupSummary();
+        s.count = number(obj, "count").longValue();
+        s.sum = number(obj, "sum").doubleValue();
+        Number numbers = obj.get("numbers");
+        if (numbers != null && numbers.longValue() > 0) {
+            s.numbers = numbers.longValue();
+            s.min = number(obj, "min").doubleValue();
+            s.max = number(obj, "max").doubleValue();
+            s.firstNumber = number(obj, "firstNumber").doubleValue();
+            s.lastNumber = number(obj, "lastNumber").doubleValue();
+        }
+        Number logicals = obj.get("logicals");
+        if (logicals != null && logicals.longValue() > 0) {
+            s.logicals = logicals.longValue();
+            s.and = obj.get("and");
+            s.or = obj.get("or");
+        }
+        Object first = obj.get("first");
+        if (first != null) {
+            s.firstTs = number(obj, "firstTs").longValue();
+            s.lastTs = number(obj, "lastTs").longValue();
+            s.first = ValueUtils.toValue(first);
+            s.first.setTime(s.firstTs);
+            s.last = ValueUtils.toValue(obj.get("last"));
+            s.last.setTime(s.lastTs);
+        }
+        return s;
+    }
+
+    private static Number number(JsonObject obj, String name) {
+        Number n = obj.get(name);
+        if (n == null) {
+            throw new IllegalArgumentException("Missing " + name);
+        }
+        return n;
+    }
+}
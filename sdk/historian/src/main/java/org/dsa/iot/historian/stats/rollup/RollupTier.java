@@ -0,0 +1,117 @@
+package org.dsa.iot.historian.stats.rollup;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Fixed duration buckets, aligned to the epoch, that values are summarized
+ * into. The summaries of a path are stored in the database under a derived
+ * path so any database can hold them.
+ *
+ * @author Samuel Grenier
+ */
+public class RollupTier {
+
+    private final String name;
+    private final long duration;
+
+    private RollupTier(String name, long duration) {
+        this.name = name;
+        this.duration = duration;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return Duration of a bucket in milliseconds.
+     */
+    public long getDuration() {
+        return duration;
+    }
+
+    /**
+     * @param ts Timestamp to align.
+     * @return The start of the bucket holding the timestamp.
+     */
+    public long bucketStart(long ts) {
+        long mod = ts % duration;
+        if (mod < 0) {
+            mod += duration;
+        }
+        return ts - mod;
+    }
+
+    /**
+     * @param path Path of the watch.
+     * @return The path the summaries of the watch are stored at.
+     */
+    public String path(String path) {
+        return path + "/$$rollup/" + name;
+    }
+
+    /**
+     * @param tier Tier such as {@code 1m}, {@code 15m}, {@code 1h} or
+     *             {@code 1d}.
+     * @return The parsed tier.
+     */
+    public static RollupTier parse(String tier) {
+        tier = tier.trim();
+        if (tier.length() < 2) {
+            throw new IllegalArgumentException("Invalid tier: " + tier);
+        }
+        long num;
+        try {
+            num = Long.parseLong(tier.substring(0, tier.length() - 1));
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid tier: " + tier);
+        }
+        long unit;
+        switch (tier.charAt(tier.length() - 1)) {
+            case 's':
+                unit = 1000;
+                break;
+            case 'm':
+                unit = 60 * 1000;
+                break;
+            case 'h':
+                unit = 60 * 60 * 1000;
+                break;
+            case 'd':
+                unit = 24 * 60 * 60 * 1000;
+                break;
+            default:
+                throw new IllegalArgumentException("Invalid tier unit: " + tier);
+        }
+        if (num <= 0) {
+            throw new IllegalArgumentException("Invalid tier: " + tier);
+        }
+        return new RollupTier(tier, num * unit);
+    }
+
+    /**
+     * @param tiers Comma separated tiers, can be empty.
+     * @return The parsed tiers, finest first.
+     */
+    public static List<RollupTier> parseList(String tiers) {
+        List<RollupTier> list = new ArrayList<>();
+        if (tiers == null) {
+            return list;
+        }
+        for (String tier : tiers.split(",")) {
+            if (!tier.trim().isEmpty()) {
+                list.add(parse(tier));
+            }
+        }
+        Collections.sort(list, new Comparator<RollupTier>() {
+            @Override
+            public int compare(RollupTier a, RollupTier b) {
+                return Long.compare(a.duration, b.duration);
+            }
+        });
+        return list;
+    }
+}
@@ -0,0 +1,354 @@
+package org.dsa.iot.historian.stats.rollup;
+
+import org.dsa.iot.dslink.node.value.Value;
+import org.dsa.iot.dslink.util.Objects;
+import org.dsa.iot.dslink.util.handler.CompleteHandler;
+import org.dsa.iot.historian.database.Database;
+import org.dsa.iot.historian.stats.interval.IntervalParser;
+import org.dsa.iot.historian.utils.QueryData;
+import org.dsa.iot.historian.utils.WriteBatch;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.*;
+import java.util.concurrent.Executor;
+
+/**
+ * Maintains the rollup tiers of a watch group as values are written. Every
+ * tier keeps an open bucket per path, the summary of a bucket is queued
+ * once a value belonging to a later bucket arrives. Values older than the
+ * open bucket are not summarized. After a restart the open bucket is
+ * rebuilt in the background from the raw values already written.
+ * <p>
+ * Queued summaries are written by the watch group along with its values
+ * so they share the same retries, see {@link #drainTo(WriteBatch)}.
+ * <p>
+ * History queries use the coarsest tier whose buckets never straddle the
+ * boundaries of the requested intervals, the edges of the range not
+ * covered by summaries are read from the raw values.
+ *
+ * @author Samuel Grenier
+ */
+public class RollupTiers {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(RollupTiers.class);
+    private static final int MAX_INTERVALS = 100000;
+
+    private final Map<String, Bucket[]> buckets = new HashMap<>();
+    private final WriteBatch summaries = new WriteBatch();
+    private final Database db;
+    private final List<RollupTier> tiers;
+    private final Executor executor;
+
+    /**
+     * @param db Database the values are read from.
+     * @param tiers Tiers to maintain.
+     */
+    public RollupTiers(Database db, List<RollupTier> tiers) {
+        this(db, tiers, Objects.getDaemonThreadPool());
+    }
+
+    /**
+     * @param db Database the values are read from.
+     * @param tiers Tiers to maintain.
+     * @param executor Executor rebuilding the open buckets.
+     */
+    RollupTiers(Database db, List<RollupTier> tiers, Executor executor) {
+        if (db == null) {
+            throw new NullPointerException("db");
+        } else if (tiers == null) {
+            throw new NullPointerException("tiers");
+        } else if (executor == null) {
+            throw new NullPointerException("executor");
+        }
+        this.db = db;
+        this.executor = executor;
+        List<RollupTier> list = new ArrayList<>(tiers);
+        Collections.sort(list, new Comparator<RollupTier>() {
+            @Override
+            public int compare(RollupTier a, RollupTier b) {
+                return Long.compare(a.getDuration(), b.getDuration());
+            }
+        });
+        this.tiers = Collections.unmodifiableList(list);
+    }
+
+    /**
+     * @return The tiers, finest first.
+     */
+    public List<RollupTier> getTiers() {
+        return tiers;
+    }
+
+    /**
+     * Summarizes a value that was written to the database. The first value
+     * of a path rebuilds its open buckets in the background, the values
+     * arriving meanwhile are summarized once the rebuild completes.
+     *
+     * @param path Path of the value.
+     * @param value Value written.
+     * @param ts Timestamp the value was written with.
+     */
+    public void update(String path, Value value, long ts) {
+        if (value == null || tiers.isEmpty()) {
+            return;
+        }
+        Bucket[] bs;
+        synchronized (buckets) {
+            bs = buckets.get(path);
+            if (bs == null) {
+                bs = new Bucket[tiers.size()];
+                buckets.put(path, bs);
+            }
+        }
+        synchronized (bs) {
+            for (int i = 0; i < bs.length; ++i) {
+                Bucket bucket = bs[i];
+                if (bucket == null) {
+                    bucket = new Bucket(tiers.get(i).bucketStart(ts));
+                    bucket.pending = new ArrayList<>();
+                    bucket.pending.add(new QueryData(value, ts));
+                    bs[i] = bucket;
+                    rebuild(path, bs, i, bucket, ts);
+                } else if (bucket.pending != null) {
+                    bucket.pending.add(new QueryData(value, ts));
+                } else {
+                    summarize(path, bs, i, value, ts);
+                }
+            }
+        }
+    }
+
+    /**
+     * Moves the summaries of the closed buckets into a batch.
+     *
+     * @param out Batch receiving the summaries.
+     * @return Whether any summary was moved.
+     */
+    public boolean drainTo(WriteBatch out) {
+        synchronized (summaries) {
+            if (summaries.isEmpty()) {
+                return false;
+            }
+            for (int i = 0; i < summaries.size(); ++i) {
+                out.add(summaries.getPath(i), summaries.getValue(i), summaries.getTime(i));
+            }
+            summaries.clear();
+            return true;
+        }
+    }
+
+    /**
+     * Forgets the open buckets of a path, their summaries are not written.
+     *
+     * @param path Path to forget.
+     */
+    public void remove(String path) {
+        synchronized (buckets) {
+            buckets.remove(path);
+        }
+    }
+
+    /**
+     * @param parser Requested interval.
+     * @param rollup Requested rollup.
+     * @param from Beginning of the requested range.
+     * @param to End of the requested range.
+     * @param timeZone Time zone the intervals are aligned in.
+     * @return The coarsest tier able to answer the query or {@code null}.
+     */
+    public RollupTier select(IntervalParser parser,
+                             Rollup.Type rollup,
+                             long from,
+                             long to,
+                             TimeZone timeZone) {
+        if (parser == null || rollup == null
+                || rollup == Rollup.Type.NONE || tiers.isEmpty()) {
+            return null;
+        }
+        Calendar calendar = Calendar.getInstance(timeZone);
+        calendar.setTimeInMillis(from);
+        if (!parser.alignTime(calendar)) {
+            // Unaligned intervals start at the first value
+            return null;
+        }
+
+        List<Long> boundaries = new ArrayList<>();
+        long boundary = calendar.getTimeInMillis();
+        boundaries.add(boundary);
+        while (boundary <= to) {
+            if (boundaries.size() > MAX_INTERVALS) {
+                return null;
+            }
+            parser.nextInterval(calendar);
+            long next = calendar.getTimeInMillis();
+            if (next <= boundary) {
+                return null;
+            }
+            boundary = next;
+            boundaries.add(boundary);
+        }
+
+        for (int i = tiers.size() - 1; i >= 0; --i) {
+            RollupTier tier = tiers.get(i);
+            boolean aligned = true;
+            for (long b : boundaries) {
+                if (tier.bucketStart(b) != b) {
+                    aligned = false;
+                    break;
+                }
+            }
+            if (aligned) {
+                return tier;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Must be called with the lock of the buckets held.
+     */
+    private void summarize(String path, Bucket[] bs, int i, Value value, long ts) {
+        RollupTier tier = tiers.get(i);
+        long start = tier.bucketStart(ts);
+        Bucket bucket = bs[i];
+        if (start > bucket.start) {
+            write(path, tier, bucket);
+            bucket = new Bucket(start);
+            bs[i] = bucket;
+        } else if (start < bucket.start) {
+            return;
+        }
+        bucket.summary.update(value, ts);
+    }
+
+    private void write(String path, RollupTier tier, Bucket bucket) {
+        if (bucket.summary.isEmpty()) {
+            return;
+        }
+        Value value = new Value(bucket.summary.toJson());
+        value.setTime(bucket.start);
+        synchronized (summaries) {
+            summaries.add(tier.path(path), value, bucket.start);
+        }
+    }
+
+    /**
+     * Summarizes the values already written to the open bucket along with
+     * the buckets closed since the last summary was written. The database
+     * is queried by the executor rather than by the writer of the values.
+     *
+     * @param ts Time of the first pending value, the values before it were
+     *           written before the update.
+     */
+    private void rebuild(final String path,
+                         final Bucket[] bs,
+                         final int index,
+                         final Bucket bucket,
+                         final long ts) {
+        final RollupTier tier = tiers.get(index);
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    long from = bucket.start;
+                    QueryData last = db.queryLast(tier.path(path));
+                    if (last != null) {
+                        from = Math.min(from, last.getTimestamp() + tier.getDuration());
+                    }
+                    if (from >= ts) {
+                        rebuilt(path, bs, index, bucket, null);
+                        return;
+                    }
+                    query(path, bs, index, bucket, from, ts);
+                } catch (RuntimeException e) {
+                    LOGGER.error("Failed to rebuild the {} bucket of {}",
+                                 tier.getName(), path, e);
+                    rebuilt(path, bs, index, bucket, null);
+                }
+            }
+        });
+    }
+
+    private void query(final String path,
+                       final Bucket[] bs,
+                       final int index,
+                       final Bucket bucket,
+                       long from,
+                       long ts) {
+        final RollupTier tier = tiers.get(index);
+        final Map<Long, Bucket> closed = new TreeMap<>();
+        db.query(path, from, ts - 1, new CompleteHandler<QueryData>() {
+            @Override
+            public void handle(QueryData event) {
+                long time = event.getTimestamp();
+                long bucketStart = tier.bucketStart(time);
+                synchronized (closed) {
+                    // The pending bucket is not updated until it is rebuilt
+                    Bucket b = bucket;
+                    if (bucketStart < bucket.start) {
+                        b = closed.get(bucketStart);
+                        if (b == null) {
+                            b = new Bucket(bucketStart);
+                            closed.put(bucketStart, b);
+                        }
+                    }
+                    b.summary.update(event.getValue(), time);
+                }
+            }
+
+            @Override
+            public void complete() {
+                synchronized (closed) {
+                    rebuilt(path, bs, index, bucket, closed.values());
+                }
+            }
+        });
+    }
+
+    /**
+     * Queues the closed buckets, opens the rebuilt bucket and summarizes the
+     * values that arrived during the rebuild. Nothing is queued if the
+     * path was removed meanwhile.
+     */
+    private void rebuilt(String path,
+                         Bucket[] bs,
+                         int index,
+                         Bucket bucket,
+                         Collection<Bucket> closed) {
+        synchronized (buckets) {
+            if (buckets.get(path) != bs) {
+                return;
+            }
+        }
+        RollupTier tier = tiers.get(index);
+        if (closed != null) {
+            for (Bucket b : closed) {
+                write(path, tier, b);
+            }
+        }
+        synchronized (bs) {
+            List<QueryData> pending = bucket.pending;
+            if (pending == null || bs[index] != bucket) {
+                return;
+            }
+            bucket.pending = null;
+            for (QueryData data : pending) {
+                summarize(path, bs, index, data.getValue(), data.getTimestamp());
+            }
+        }
+    }
+
+    private static class Bucket {
+
+        private final RollupSummary summary = new RollupSummary();
+        private final long start;
+
+        // Values received while the bucket is rebuilt
+        private List<QueryData> pending;
+
+        Bucket(long start) {
+            this.start = start;
+        }
+    }
+}
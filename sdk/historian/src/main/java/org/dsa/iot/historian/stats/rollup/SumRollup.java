@@ -1,6 +1,7 @@
 package org.dsa.iot.historian.stats.rollup;
 
 import org.dsa.iot.dslink.node.value.Value;
+import org.dsa.iot.historian.utils.SampleBuffer;
 
 /**
  * @author Samuel Grenier
@@ -22,8 +23,29 @@ public class SumRollup extends Rollup {
         }
     }
 
+    @Override
+    public void update(long ts, double value) {
+        sum += value;
+    }
+
+    @Override
+    public void combine(Rollup other) {
+        SumRollup o = (SumRollup) other;
+        sum += o.sum;
+    }
+
+    @Override
+    public void update(RollupSummary summary, long ts) {
+        sum += summary.getSum();
+    }
+
     @Override
     public Value getValue() {
         return new Value(sum);
     }
+
+    @Override
+    public void getValue(SampleBuffer buffer, long ts) {
+        buffer.add(ts, sum);
+    }
 }
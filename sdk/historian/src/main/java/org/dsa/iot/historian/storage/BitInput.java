@@ -0,0 +1,70 @@
+package org.dsa.iot.historian.storage;
+
+/**
+ * Reads a bit stream written by {@link BitOutput}.
+ *
+ * @author Samuel Grenier
+ */
+class BitInput {
+
+    private final byte[] buf;
+    private final int offset;
+    private final long limit;
+    private long bits;
+
+    /**
+     * @param buf Buffer holding the stream.
+     * @param offset Offset of the stream in bytes.
+     * @param length Length of the stream in bytes.
+     */
+    BitInput(byte[] buf, int offset, int length) {
+        if (offset < 0 || length < 0 || offset + length > buf.length) {
+            throw new IllegalArgumentException("Bad stream bounds");
+        }
+        this.buf = buf;
+        this.offset = offset;
+        this.limit = (long) length << 3;
+    }
+
+    /**
+     * @param count Amount of bits to read, between 0 and 64.
+     * @return The bits read, right aligned.
+     */
+    long readBits(int count) {
+        if (bits + count > limit) {
+            throw new IllegalStateException("End of stream");
+        }
+        long value = 0;
+        while (count > 0) {
+            int b = buf[offset + (int) (bits >>> 3)] & 0xFF;
+            int avail = 8 - (int) (bits & 7);
+            int n = Math.min(avail, count);
+            int chunk = (b >>> (avail - n)) & ((1 << n) - 1);
+            value = (value << n) | chunk;
+            bits += n;
+            count -= n;
+        }
+        return value;
+    }
+
+    boolean readBit() {
+        return readBits(1) != 0;
+    }
+
+    long readVarLong() {
+        long value = 0;
+        int shift = 0;
+        long b;
+        do {
+            b = readBits(8);
+            value |= (b & 0x7F) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0);
+        return value;
+    }
+
+    long readSignedVarLong() {
+        long value = readVarLong();
+        return (value >>> 1) ^ -(value & 1);
+    }
+}
@@ -0,0 +1,80 @@
+package org.dsa.iot.historian.storage;
+
+import java.util.Arrays;
+
+/**
+ * Growable bit stream, bits are written most significant first.
+ *
+ * @author Samuel Grenier
+ * @see BitInput
+ */
+class BitOutput {
+
+    private byte[] buf;
+    private long bits;
+
+    BitOutput(int capacity) {
+        buf = new byte[Math.max(capacity, 8)];
+    }
+
+    /**
+     * @param value Bits to write, right aligned.
+     * @param count Amount of bits to write, between 0 and 64.
+     */
+    void writeBits(long value, int count) {
+        ensure(count);
+        while (count > 0) {
+            int index = (int) (bits >>> 3);
+            int free = 8 - (int) (bits & 7);
+            int n = Math.min(free, count);
+            int chunk = (int) (value >>> (count - n)) & ((1 << n) - 1);
+            buf[index] |= (byte) (chunk << (free - n));
+            bits += n;
+            count -= n;
+        }
+    }
+
+    void writeBit(boolean bit) {
+        writeBits(bit ? 1 : 0, 1);
+    }
+
+    /**
+     * Writes an unsigned variable length integer in groups of 7 bits.
+     *
+     * @param value Value to write.
+     */
+    void writeVarLong(long value) {
+        while ((value & ~0x7FL) != 0) {
+            writeBits((value & 0x7F) | 0x80, 8);
+            value >>>= 7;
+        }
+        writeBits(value, 8);
+    }
+
+    /**
+     * @param value Signed value to write, zig-zag encoded.
+     */
+    void writeSignedVarLong(long value) {
+        writeVarLong((value << 1) ^ (value >> 63));
+    }
+
+    long bitLength() {
+        return bits;
+    }
+
+    int byteLength() {
+        return (int) ((bits + 7) >>> 3);
+    }
+
+    byte[] buffer() {
+        return buf;
+    }
+
+    private void ensure(int count) {
+        long needed = (bits + count + 7) >>> 3;
+        if (needed > buf.length) {
+            int size = (int) Math.max(needed, buf.length * 2L);
+            buf = Arrays.copyOf(buf, size);
+        }
+    }
+}
@@ -0,0 +1,171 @@
+package org.dsa.iot.historian.storage;
+
+import org.dsa.iot.dslink.node.value.Value;
+import org.dsa.iot.dslink.node.value.ValueType;
+import org.dsa.iot.dslink.util.json.JsonArray;
+import org.dsa.iot.dslink.util.json.JsonObject;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.charset.Charset;
+import java.util.List;
+
+/**
+ * Layout of a chunk, a run of values of the same kind of a single path.
+ * Every chunk starts with a header followed by a dictionary for string like
+ * kinds and a bit packed body.
+ * <pre>
+ * byte    kind
+ * int     count
+ * long    first time, last time, minimum time, maximum time
+ * int     dictionary size, followed by the entries as (int length, UTF-8)
+ * long    first value, last value
+ * int     body length, followed by the body
+ * </pre>
+ * Values are kept in their raw form as a long: the bits of a double, the
+ * long itself, 0 or 1 for booleans or the dictionary id. The body holds
+ * every point but the first one, each as a time followed by a value.
+ * <ul>
+ *     <li>Times are delta-of-delta encoded.</li>
+ *     <li>Doubles are XOR encoded against the previous value.</li>
+ *     <li>Longs are zig-zag encoded deltas.</li>
+ *     <li>Booleans take a single bit.</li>
+ *     <li>Dictionary ids take a single bit when repeated.</li>
+ * </ul>
+ *
+ * @author Samuel Grenier
+ * @see ChunkWriter
+ * @see ChunkReader
+ */
+final class Chunk {
+
+    static final int DOUBLE = 0;
+    static final int LONG = 1;
+    static final int BOOL = 2;
+    static final int STRING = 3;
+    static final int MAP = 4;
+    static final int ARRAY = 5;
+    static final int BINARY = 6;
+
+    static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final Charset ISO_8859_1 = Charset.forName("ISO-8859-1");
+
+    private Chunk() {
+    }
+
+    /**
+     * @param value Value to store.
+     * @return The kind of chunk the value is stored in.
+     */
+    static int kindOf(Value value) {
+        ValueType type = value.getType();
+        if (type.compare(ValueType.NUMBER)) {
+            Number n = value.getNumber();
+            if (n instanceof Double
+                    || n instanceof Float
+                    || n instanceof BigDecimal
+                    || n instanceof BigInteger) {
+                return DOUBLE;
+            }
+            return LONG;
+        } else if (type.compare(ValueType.BOOL)) {
+            return BOOL;
+        } else if (type.compare(ValueType.MAP)) {
+            return MAP;
+        } else if (type.compare(ValueType.ARRAY)) {
+            return ARRAY;
+        } else if (type.compare(ValueType.BINARY)) {
+            return BINARY;
+        }
+        return STRING;
+    }
+
+    /**
+     * @param kind Kind of the chunk.
+     * @return Whether values of the kind are stored in a dictionary.
+     */
+    static boolean isDictionary(int kind) {
+        return kind >= STRING;
+    }
+
+    /**
+     * @param kind Kind of the chunk.
+     * @param value Value to convert.
+     * @return The raw value of a non dictionary kind.
+     */
+    static long toRaw(int kind, Value value) {
+        switch (kind) {
+            case DOUBLE:
+                return Double.doubleToRawLongBits(value.getNumber().doubleValue());
+            case LONG:
+                return value.getNumber().longValue();
+            case BOOL:
+                return value.getBool() ? 1 : 0;
+            default:
+                throw new IllegalArgumentException("Dictionary kind: " + kind);
+        }
+    }
+
+    /**
+     * @param kind Kind of the chunk.
+     * @param value Value to convert.
+     * @return The dictionary entry of a dictionary kind.
+     */
+    static String toEntry(int kind, Value value) {
+        switch (kind) {
+            case MAP:
+                return value.getMap().toString();
+            case ARRAY:
+                return value.getArray().toString();
+            case BINARY:
+                // Every byte maps to a single char
+                return new String(value.getBinary(), ISO_8859_1);
+            default:
+                String s = value.getString();
+                return s != null ? s : value.toString();
+        }
+    }
+
+    /**
+     * @param kind Kind of the chunk.
+     * @param raw Raw value.
+     * @param dict Dictionary of the chunk.
+     * @param ts Time of the value.
+     * @return The value.
+     */
+    static Value toValue(int kind, long raw, List<String> dict, long ts) {
+        Value value;
+        switch (kind) {
+            case DOUBLE:
+                value = new Value(Double.longBitsToDouble(raw));
+                break;
+            case LONG:
+                if (raw >= Integer.MIN_VALUE && raw <= Integer.MAX_VALUE) {
+                    value = new Value((int) raw);
+                } else {
+                    value = new Value(raw);
+                }
+                break;
+            case BOOL:
+                value = new Value(raw != 0);
+                break;
+            case MAP:
+                value = new Value(new JsonObject(dict.get((int) raw)));
+                break;
+            case ARRAY:
+                value = new Value(new JsonArray(dict.get((int) raw)));
+                break;
+            case BINARY:
+                value = new Value(dict.get((int) raw).getBytes(ISO_8859_1));
+                break;
+            case STRING:
+                value = new Value(dict.get((int) raw));
+                break;
+            default:
+                throw new IllegalStateException("Unknown kind: " + kind);
+        }
+        value.setTime(ts);
+        return value;
+    }
+}
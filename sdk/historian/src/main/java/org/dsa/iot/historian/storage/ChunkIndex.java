@@ -0,0 +1,177 @@
+package org.dsa.iot.historian.storage;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Memory mapped index of the chunks of a series. Every entry holds the time
+ * range of a chunk and its location in the data file, entries are in the
+ * order the chunks were written.
+ * <pre>
+ * int     magic, version, entry count, flags
+ * entries of (long minimum time, long maximum time,
+ *             long offset, int length, int count)
+ * </pre>
+ * The index is ordered as long as no chunk starts before the end of the
+ * previous one, ordered indexes are binary searched.
+ *
+ * @author Samuel Grenier
+ */
+class ChunkIndex {
+
+    private static final int MAGIC = 0x44534958;
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 16;
+    private static final int ENTRY_SIZE = 32;
+    private static final int INITIAL_CAPACITY = 64;
+    private static final int FLAG_UNORDERED = 1;
+
+    private final RandomAccessFile file;
+    private final FileChannel channel;
+    private MappedByteBuffer map;
+    private int capacity;
+    private int size;
+    private boolean ordered;
+
+    /**
+     * @param file Index file, created if it doesn't exist.
+     * @throws IOException Failed to open or map the file.
+     */
+    ChunkIndex(File file) throws IOException {
+        this.file = new RandomAccessFile(file, "rw");
+        this.channel = this.file.getChannel();
+        try {
+            long length = channel.size();
+            if (length < HEADER_SIZE) {
+                remap(INITIAL_CAPACITY);
+                map.putInt(0, MAGIC);
+                map.putInt(4, VERSION);
+                map.putInt(8, 0);
+                map.putInt(12, 0);
+                ordered = true;
+            } else {
+                remap((int) ((length - HEADER_SIZE) / ENTRY_SIZE));
+                if (map.getInt(0) != MAGIC || map.getInt(4) != VERSION) {
+                    throw new IOException("Bad index file: " + file);
+                }
+                size = Math.min(map.getInt(8), capacity);
+                ordered = (map.getInt(12) & FLAG_UNORDERED) == 0;
+            }
+        } catch (IOException e) {
+            this.file.close();
+            throw e;
+        }
+    }
+
+    int size() {
+        return size;
+    }
+
+    boolean ordered() {
+        return ordered;
+    }
+
+    long minTs(int i) {
+        return map.getLong(position(i));
+    }
+
+    long maxTs(int i) {
+        return map.getLong(position(i) + 8);
+    }
+
+    long offset(int i) {
+        return map.getLong(position(i) + 16);
+    }
+
+    int length(int i) {
+        return map.getInt(position(i) + 24);
+    }
+
+    int count(int i) {
+        return map.getInt(position(i) + 28);
+    }
+
+    /**
+     * @param from Beginning search time.
+     * @return The first entry that can hold a point at or after the time.
+     */
+    int find(long from) {
+        if (!ordered) {
+            return 0;
+        }
+        int low = 0;
+        int high = size;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (maxTs(mid) < from) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Adds an entry or replaces the last one.
+     *
+     * @param i Index of the entry, either the last entry or the size.
+     */
+    void put(int i, long minTs, long maxTs, long offset, int length, int count)
+                                                        throws IOException {
+        if (i < 0 || i > size || (i < size - 1)) {
+            throw new IllegalArgumentException("Bad entry: " + i);
+        } else if (i == capacity) {
+            remap(capacity * 2);
+        }
+        int pos = position(i);
+        map.putLong(pos, minTs);
+        map.putLong(pos + 8, maxTs);
+        map.putLong(pos + 16, offset);
+        map.putInt(pos + 24, length);
+        map.putInt(pos + 28, count);
+        if (i > 0 && ordered && minTs < maxTs(i - 1)) {
+            ordered = false;
+            map.putInt(12, FLAG_UNORDERED);
+        }
+        if (i == size) {
+            size++;
+            map.putInt(8, size);
+        }
+    }
+
+    /**
+     * Drops the entries from the index.
+     *
+     * @param size New size of the index.
+     */
+    void truncate(int size) {
+        if (size < this.size) {
+            this.size = size;
+            map.putInt(8, size);
+        }
+    }
+
+    void force() {
+        map.force();
+    }
+
+    void close() throws IOException {
+        map = null;
+        file.close();
+    }
+
+    private int position(int i) {
+        return HEADER_SIZE + i * ENTRY_SIZE;
+    }
+
+    private void remap(int capacity) throws IOException {
+        capacity = Math.max(capacity, INITIAL_CAPACITY);
+        long length = HEADER_SIZE + (long) capacity * ENTRY_SIZE;
+        map = channel.map(FileChannel.MapMode.READ_WRITE, 0, length);
+        this.capacity = capacity;
+    }
+}
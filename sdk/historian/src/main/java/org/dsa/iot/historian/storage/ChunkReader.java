@@ -0,0 +1,197 @@
+package org.dsa.iot.historian.storage;
+
+import org.dsa.iot.dslink.util.handler.Handler;
+import org.dsa.iot.historian.utils.QueryData;
+import org.dsa.iot.historian.utils.SampleBuffer;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Decodes a chunk written by {@link ChunkWriter}. The header is parsed on
+ * creation, the body is only decoded when the points are read.
+ *
+ * @author Samuel Grenier
+ * @see Chunk
+ */
+class ChunkReader {
+
+    private final byte[] buf;
+    private final int kind;
+    private final int count;
+    private final long firstTs;
+    private final long lastTs;
+    private final long minTs;
+    private final long maxTs;
+    private final List<String> dict;
+    private final long firstRaw;
+    private final long lastRaw;
+    private final int bodyOffset;
+    private final int bodyLength;
+
+    /**
+     * @param buf Buffer holding the encoded chunk.
+     */
+    ChunkReader(byte[] buf) {
+        this.buf = buf;
+        ByteBuffer b = ByteBuffer.wrap(buf);
+        kind = b.get();
+        if (kind < Chunk.DOUBLE || kind > Chunk.BINARY) {
+            throw new IllegalStateException("Unknown kind: " + kind);
+        }
+        count = b.getInt();
+        firstTs = b.getLong();
+        lastTs = b.getLong();
+        minTs = b.getLong();
+        maxTs = b.getLong();
+
+        int dictSize = b.getInt();
+        if (Chunk.isDictionary(kind)) {
+            dict = new ArrayList<>(dictSize);
+            for (int i = 0; i < dictSize; ++i) {
+                int len = b.getInt();
+                dict.add(new String(buf, b.position(), len, Chunk.UTF_8));
+                b.position(b.position() + len);
+            }
+        } else {
+            dict = null;
+        }
+
+        firstRaw = b.getLong();
+        lastRaw = b.getLong();
+        bodyLength = b.getInt();
+        bodyOffset = b.position();
+    }
+
+    int kind() {
+        return kind;
+    }
+
+    int count() {
+        return count;
+    }
+
+    long minTs() {
+        return minTs;
+    }
+
+    long maxTs() {
+        return maxTs;
+    }
+
+    QueryData first() {
+        return new QueryData(Chunk.toValue(kind, firstRaw, dict, firstTs), firstTs);
+    }
+
+    QueryData last() {
+        return new QueryData(Chunk.toValue(kind, lastRaw, dict, lastTs), lastTs);
+    }
+
+    /**
+     * Decodes the points of the chunk in the order they were written.
+     *
+     * @param from Beginning search time, inclusive.
+     * @param to End search time, inclusive.
+     * @param handler Receives the points within the range.
+     */
+    void read(long from, long to, Handler<QueryData> handler) {
+        decode(from, to, handler, null, null);
+    }
+
+    /**
+     * Decodes the points of the chunk into a buffer, numbers are decoded
+     * without allocating.
+     *
+     * @param from Beginning search time, inclusive.
+     * @param to End search time, inclusive.
+     * @param buffer Buffer receiving the points within the range.
+     * @param onFull Consumes the buffer whenever it is full, the buffer is
+     *               cleared afterwards.
+     */
+    void read(long from, long to, SampleBuffer buffer, Handler<SampleBuffer> onFull) {
+        decode(from, to, null, buffer, onFull);
+    }
+
+    private void decode(long from,
+                        long to,
+                        Handler<QueryData> handler,
+                        SampleBuffer buffer,
+                        Handler<SampleBuffer> onFull) {
+        BitInput in = new BitInput(buf, bodyOffset, bodyLength);
+        long ts = firstTs;
+        long raw = firstRaw;
+        long delta = 0;
+        int lead = 0;
+        int trail = 0;
+        for (int i = 0; i < count; ++i) {
+            if (i == 1) {
+                delta = in.readSignedVarLong();
+                ts += delta;
+            } else if (i > 1) {
+                delta += readDeltaOfDelta(in);
+                ts += delta;
+            }
+
+            if (i > 0) {
+                switch (kind) {
+                    case Chunk.DOUBLE: {
+                        if (!in.readBit()) {
+                            break;
+                        }
+                        if (in.readBit()) {
+                            lead = (int) in.readBits(5);
+                            int significant = (int) in.readBits(6) + 1;
+                            trail = 64 - lead - significant;
+                        }
+                        int significant = 64 - lead - trail;
+                        raw ^= in.readBits(significant) << trail;
+                        break;
+                    }
+                    case Chunk.LONG:
+                        raw += in.readSignedVarLong();
+                        break;
+                    case Chunk.BOOL:
+                        raw = in.readBit() ? 1 : 0;
+                        break;
+                    default:
+                        if (in.readBit()) {
+                            raw = in.readVarLong();
+                        }
+                }
+            }
+
+            if (ts < from || ts > to) {
+                continue;
+            }
+            if (buffer == null) {
+                handler.handle(new QueryData(Chunk.toValue(kind, raw, dict, ts), ts));
+                continue;
+            }
+            if (kind == Chunk.DOUBLE) {
+                buffer.add(ts, Double.longBitsToDouble(raw));
+            } else if (kind == Chunk.LONG) {
+                buffer.add(ts, raw);
+            } else {
+                buffer.add(ts, Chunk.toValue(kind, raw, dict, ts));
+            }
+            if (buffer.isFull()) {
+                onFull.handle(buffer);
+                buffer.clear();
+            }
+        }
+    }
+
+    private static long readDeltaOfDelta(BitInput in) {
+        if (!in.readBit()) {
+            return 0;
+        } else if (!in.readBit()) {
+            return in.readBits(7) - 63;
+        } else if (!in.readBit()) {
+            return in.readBits(9) - 255;
+        } else if (!in.readBit()) {
+            return in.readBits(12) - 2047;
+        }
+        return in.readBits(64);
+    }
+}
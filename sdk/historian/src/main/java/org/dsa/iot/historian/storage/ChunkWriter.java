@@ -0,0 +1,236 @@
+package org.dsa.iot.historian.storage;
+
+import org.dsa.iot.dslink.node.value.Value;
+import org.dsa.iot.historian.utils.QueryData;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Appends points to a chunk. The chunk can be encoded at any time, the
+ * open chunk of a series is encoded again every time it is flushed.
+ *
+ * @author Samuel Grenier
+ * @see Chunk
+ */
+class ChunkWriter {
+
+    private final int kind;
+    private final int capacity;
+    private final BitOutput body;
+
+    private final Map<String, Integer> dictIds;
+    private final List<String> dict;
+
+    private int count;
+    private long firstTs;
+    private long lastTs;
+    private long minTs;
+    private long maxTs;
+    private long prevDelta;
+
+    private long firstRaw;
+    private long lastRaw;
+    private int prevLead = -1;
+    private int prevTrail;
+
+    /**
+     * @param kind Kind of the chunk.
+     * @param capacity Maximum amount of points in the chunk.
+     */
+    ChunkWriter(int kind, int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("capacity < 1");
+        }
+        this.kind = kind;
+        this.capacity = capacity;
+        this.body = new BitOutput(Math.min(capacity, 1024) * 4);
+        if (Chunk.isDictionary(kind)) {
+            dictIds = new HashMap<>();
+            dict = new ArrayList<>();
+        } else {
+            dictIds = null;
+            dict = null;
+        }
+    }
+
+    /**
+     * @param value Value to add.
+     * @return Whether the value can be added to the chunk.
+     */
+    boolean accepts(Value value) {
+        return count < capacity && Chunk.kindOf(value) == kind;
+    }
+
+    /**
+     * @param ts Time of the value.
+     * @param value Value to add.
+     */
+    void add(long ts, Value value) {
+        if (count >= capacity) {
+            throw new IllegalStateException("Chunk is full");
+        }
+        long raw;
+        if (dict != null) {
+            String entry = Chunk.toEntry(kind, value);
+            Integer id = dictIds.get(entry);
+            if (id == null) {
+                id = dict.size();
+                dictIds.put(entry, id);
+                dict.add(entry);
+            }
+            raw = id;
+        } else {
+            raw = Chunk.toRaw(kind, value);
+        }
+
+        if (count == 0) {
+            firstTs = ts;
+            minTs = ts;
+            maxTs = ts;
+            firstRaw = raw;
+        } else {
+            writeTime(ts);
+            writeValue(raw);
+            minTs = Math.min(minTs, ts);
+            maxTs = Math.max(maxTs, ts);
+        }
+        lastTs = ts;
+        lastRaw = raw;
+        count++;
+    }
+
+    private void writeTime(long ts) {
+        long delta = ts - lastTs;
+        if (count == 1) {
+            body.writeSignedVarLong(delta);
+        } else {
+            long dod = delta - prevDelta;
+            if (dod == 0) {
+                body.writeBit(false);
+            } else if (dod >= -63 && dod <= 64) {
+                body.writeBits(0x2, 2);
+                body.writeBits(dod + 63, 7);
+            } else if (dod >= -255 && dod <= 256) {
+                body.writeBits(0x6, 3);
+                body.writeBits(dod + 255, 9);
+            } else if (dod >= -2047 && dod <= 2048) {
+                body.writeBits(0xE, 4);
+                body.writeBits(dod + 2047, 12);
+            } else {
+                body.writeBits(0xF, 4);
+                body.writeBits(dod, 64);
+            }
+        }
+        prevDelta = delta;
+    }
+
+    private void writeValue(long raw) {
+        switch (kind) {
+            case Chunk.DOUBLE: {
+                long xor = raw ^ lastRaw;
+                if (xor == 0) {
+                    body.writeBit(false);
+                    break;
+                }
+                body.writeBit(true);
+                int lead = Math.min(Long.numberOfLeadingZeros(xor), 31);
+                int trail = Long.numberOfTrailingZeros(xor);
+                if (prevLead > -1 && lead >= prevLead && trail >= prevTrail) {
+                    body.writeBit(false);
+                    body.writeBits(xor >>> prevTrail, 64 - prevLead - prevTrail);
+                } else {
+                    int significant = 64 - lead - trail;
+                    body.writeBit(true);
+                    body.writeBits(lead, 5);
+                    body.writeBits(significant - 1, 6);
+                    body.writeBits(xor >>> trail, significant);
+                    prevLead = lead;
+                    prevTrail = trail;
+                }
+                break;
+            }
+            case Chunk.LONG:
+                body.writeSignedVarLong(raw - lastRaw);
+                break;
+            case Chunk.BOOL:
+                body.writeBit(raw != 0);
+                break;
+            default:
+                if (raw == lastRaw) {
+                    body.writeBit(false);
+                } else {
+                    body.writeBit(true);
+                    body.writeVarLong(raw);
+                }
+        }
+    }
+
+    /**
+     * @return The encoded chunk.
+     */
+    byte[] encode() {
+        if (count == 0) {
+            throw new IllegalStateException("Chunk is empty");
+        }
+        List<byte[]> entries = null;
+        int size = 1 + 4 + 8 * 4 + 4 + 8 * 2 + 4 + body.byteLength();
+        if (dict != null) {
+            entries = new ArrayList<>(dict.size());
+            for (String entry : dict) {
+                byte[] bytes = entry.getBytes(Chunk.UTF_8);
+                entries.add(bytes);
+                size += 4 + bytes.length;
+            }
+        }
+
+        ByteBuffer buf = ByteBuffer.allocate(size);
+        buf.put((byte) kind);
+        buf.putInt(count);
+        buf.putLong(firstTs);
+        buf.putLong(lastTs);
+        buf.putLong(minTs);
+        buf.putLong(maxTs);
+        if (entries == null) {
+            buf.putInt(0);
+        } else {
+            buf.putInt(entries.size());
+            for (byte[] entry : entries) {
+                buf.putInt(entry.length);
+                buf.put(entry);
+            }
+        }
+        buf.putLong(firstRaw);
+        buf.putLong(lastRaw);
+        buf.putInt(body.byteLength());
+        buf.put(body.buffer(), 0, body.byteLength());
+        return buf.array();
+    }
+
+    int kind() {
+        return kind;
+    }
+
+    int count() {
+        return count;
+    }
+
+    long minTs() {
+        return minTs;
+    }
+
+    long maxTs() {
+        return maxTs;
+    }
+
+    QueryData first() {
+        return new QueryData(Chunk.toValue(kind, firstRaw, dict, firstTs), firstTs);
+    }
+
+    QueryData last() {
+        return new QueryData(Chunk.toValue(kind, lastRaw, dict, lastTs), lastTs);
+    }
+}
@@ -0,0 +1,284 @@
+package org.dsa.iot.historian.storage;
+
+import org.dsa.iot.dslink.node.Node;
+import org.dsa.iot.dslink.node.value.Value;
+import org.dsa.iot.dslink.util.Objects;
+import org.dsa.iot.dslink.util.handler.CompleteHandler;
+import org.dsa.iot.historian.database.Database;
+import org.dsa.iot.historian.database.DatabaseProvider;
+import org.dsa.iot.historian.utils.QueryData;
+import org.dsa.iot.historian.utils.SampleBuffer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Database storing every path in its own pair of files in a local
+ * directory. Values are stored in compressed chunks, see {@link Chunk}, and
+ * located through a memory mapped index so range queries only read the
+ * chunks overlapping the range. The first and last values of a path are
+ * read from a single chunk header.
+ * <p>
+ * The open chunk of every path is kept in memory and flushed periodically,
+ * points written since the last flush are lost if the process dies. The
+ * database is optimized for values written in time order, out of order
+ * values are supported but make range queries scan the whole index.
+ *
+ * @author Samuel Grenier
+ */
+public class FileDatabase extends Database {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(FileDatabase.class);
+    private static final String DATA_EXTENSION = ".dat";
+    private static final String INDEX_EXTENSION = ".idx";
+    private static final int MAX_NAME_LENGTH = 128;
+
+    private final ConcurrentMap<String, Series> series = new ConcurrentHashMap<>();
+    private final Object lock = new Object();
+    private final File dir;
+    private final int chunkSize;
+    private final long flushInterval;
+
+    private ScheduledFuture<?> flushFut;
+    private boolean closed;
+
+    /**
+     * @param name Name of the database.
+     * @param provider Provider of the database.
+     * @param dir Directory the database is stored in.
+     * @param chunkSize Maximum amount of points per chunk.
+     * @param flushInterval Interval in milliseconds between flushes of the
+     *                      open chunks.
+     */
+    public FileDatabase(String name,
+                        DatabaseProvider provider,
+                        File dir,
+                        int chunkSize,
+                        long flushInterval) {
+        super(name, provider);
+        if (dir == null) {
+            throw new NullPointerException("dir");
+        } else if (chunkSize < 1) {
+            throw new IllegalArgumentException("chunkSize < 1");
+        } else if (flushInterval < 1) {
+            throw new IllegalArgumentException("flushInterval < 1");
+        }
+        this.dir = dir;
+        this.chunkSize = chunkSize;
+        this.flushInterval = flushInterval;
+    }
+
+    public File getDirectory() {
+        return dir;
+    }
+
+    @Override
+    public void write(String path, Value value, long ts) {
+        try {
+            getSeries(path, true).write(ts, value);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    @Override
+    public void query(String path,
+                      long from,
+                      long to,
+                      CompleteHandler<QueryData> handler) {
+        try {
+            Series s = getSeries(path, false);
+            if (s != null) {
+                s.query(from, to, handler);
+            }
+        } catch (IOException e) {
+            LOGGER.error("Failed to query {}", path, e);
+        } finally {
+            handler.complete();
+        }
+    }
+
+    @Override
+    public void querySamples(String path,
+                             long from,
+                             long to,
+                             SampleBuffer buffer,
+                             CompleteHandler<SampleBuffer> handler) {
+        try {
+            Series s = getSeries(path, false);
+            if (s != null) {
+                s.query(from, to, buffer, handler);
+            }
+            if (!buffer.isEmpty()) {
+                handler.handle(buffer);
+                buffer.clear();
+            }
+        } catch (IOException e) {
+            LOGGER.error("Failed to query {}", path, e);
+        } finally {
+            handler.complete();
+        }
+    }
+
+    @Override
+    public boolean isConcurrentQuerySupported() {
+        return true;
+    }
+
+    @Override
+    public QueryData queryFirst(String path) {
+        try {
+            Series s = getSeries(path, false);
+            return s != null ? s.first() : null;
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    @Override
+    public QueryData queryLast(String path) {
+        try {
+            Series s = getSeries(path, false);
+            return s != null ? s.last() : null;
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Writes the open chunks of every path.
+     */
+    public void flush() {
+        for (Series s : series.values()) {
+            try {
+                s.flush();
+            } catch (IOException e) {
+                LOGGER.error("Failed to flush", e);
+            }
+        }
+    }
+
+    @Override
+    public void close() throws Exception {
+        synchronized (lock) {
+            closed = true;
+            if (flushFut != null) {
+                flushFut.cancel(false);
+                flushFut = null;
+            }
+            IOException ex = null;
+            for (Series s : series.values()) {
+                try {
+                    s.close();
+                } catch (IOException e) {
+                    ex = e;
+                }
+            }
+            series.clear();
+            if (ex != null) {
+                throw ex;
+            }
+        }
+    }
+
+    @Override
+    protected void performConnect() throws Exception {
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("Failed to create " + dir);
+        }
+        synchronized (lock) {
+            closed = false;
+            if (flushFut == null) {
+                flushFut = Objects.getDaemonThreadPool().scheduleWithFixedDelay(new Runnable() {
+                    @Override
+                    public void run() {
+                        flush();
+                    }
+                }, flushInterval, flushInterval, TimeUnit.MILLISECONDS);
+            }
+        }
+    }
+
+    @Override
+    public void initExtensions(Node node) {
+    }
+
+    private Series getSeries(String path, boolean create) throws IOException {
+        Series s = series.get(path);
+        if (s != null) {
+            return s;
+        }
+        synchronized (lock) {
+            if (closed) {
+                throw new IOException("Database is closed");
+            }
+            s = series.get(path);
+            if (s != null) {
+                return s;
+            }
+            String name = fileName(path);
+            File data = new File(dir, name + DATA_EXTENSION);
+            File index = new File(dir, name + INDEX_EXTENSION);
+            if (!create && !(data.exists() && index.exists())) {
+                return null;
+            }
+            s = new Series(data, index, chunkSize);
+            series.put(path, s);
+            return s;
+        }
+    }
+
+    /**
+     * Escapes the path into a portable file name. Long paths are truncated
+     * and suffixed with a hash of the path.
+     *
+     * @param path Path to escape.
+     * @return The file name of the path.
+     */
+    static String fileName(String path) {
+        StringBuilder name = new StringBuilder(path.length() + 16);
+        for (byte b : path.getBytes(Chunk.UTF_8)) {
+            char c = (char) (b & 0xFF);
+            if ((c >= 'a' && c <= 'z')
+                    || (c >= '0' && c <= '9')
+                    || c == '-' || c == '_'
+                    || (c == '.' && name.length() > 0)) {
+                name.append(c);
+            } else {
+                // Upper case is escaped for case insensitive file systems
+                name.append('%');
+                name.append(Character.toUpperCase(Character.forDigit((c >> 4) & 0xF, 16)));
+                name.append(Character.toUpperCase(Character.forDigit(c & 0xF, 16)));
+            }
+        }
+        if (name.length() > MAX_NAME_LENGTH) {
+            name.setLength(MAX_NAME_LENGTH - 17);
+            name.append('~');
+            name.append(hash(path));
+        }
+        return name.toString();
+    }
+
+    private static String hash(String path) {
+        try {
+            MessageDigest md = MessageDigest.getInstance("SHA-256");
+            byte[] digest = md.digest(path.getBytes(Chunk.UTF_8));
+            StringBuilder hex = new StringBuilder(16);
+            for (int i = 0; i < 8; ++i) {
+                hex.append(Character.forDigit((digest[i] >> 4) & 0xF, 16));
+                hex.append(Character.forDigit(digest[i] & 0xF, 16));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+    }
+}
@@ -0,0 +1,128 @@
+package org.dsa.iot.historian.storage;
+
+import org.dsa.iot.dslink.node.Node;
+import org.dsa.iot.dslink.node.NodeBuilder;
+import org.dsa.iot.dslink.node.Permission;
+import org.dsa.iot.dslink.node.actions.Action;
+import org.dsa.iot.dslink.node.actions.ActionResult;
+import org.dsa.iot.dslink.node.actions.Parameter;
+import org.dsa.iot.dslink.node.value.Value;
+import org.dsa.iot.dslink.node.value.ValueType;
+import org.dsa.iot.dslink.util.handler.Handler;
+import org.dsa.iot.historian.database.Database;
+import org.dsa.iot.historian.database.DatabaseProvider;
+
+import java.io.File;
+
+/**
+ * Provides {@link FileDatabase}s stored in local directories.
+ *
+ * @author Samuel Grenier
+ */
+public class FileDatabaseProvider extends DatabaseProvider {
+
+    private static final int DEFAULT_CHUNK_SIZE = 1024;
+    private static final long DEFAULT_FLUSH_INTERVAL = 1000;
+
+    private final File root;
+    private final Permission permission;
+
+    /**
+     * @param root Directory relative database directories are resolved
+     *             against.
+     */
+    public FileDatabaseProvider(File root) {
+        this(root, Permission.CONFIG);
+    }
+
+    /**
+     * @param root Directory relative database directories are resolved
+     *             against.
+     * @param permission Required permission to create and modify databases.
+     */
+    public FileDatabaseProvider(File root, Permission permission) {
+        if (root == null) {
+            throw new NullPointerException("root");
+        } else if (permission == null) {
+            throw new NullPointerException("permission");
+        }
+        this.root = root;
+        this.permission = permission;
+    }
+
+    @Override
+    public Action createDbAction(Permission perm) {
+        Action a = new Action(perm, new Handler<ActionResult>() {
+            @Override
+            public void handle(ActionResult event) {
+                String name = event.getParameter("Name", ValueType.STRING).getString();
+                String dir = event.getParameter("Directory", new Value(name)).getString();
+                if (dir.isEmpty()) {
+                    dir = name;
+                }
+                Value chunkSize = event.getParameter("Chunk Size",
+                        new Value(DEFAULT_CHUNK_SIZE));
+                Value flushInterval = event.getParameter("Flush Interval",
+                        new Value(DEFAULT_FLUSH_INTERVAL));
+                if (chunkSize.getNumber().intValue() < 1) {
+                    throw new IllegalArgumentException("Chunk Size < 1");
+                } else if (flushInterval.getNumber().longValue() < 1) {
+                    throw new IllegalArgumentException("Flush Interval < 1");
+                }
+
+                NodeBuilder b = createDbNode(name, event);
+                b.setRoConfig("dir", new Value(dir));
+                b.setRoConfig("cs", new Value(chunkSize.getNumber().intValue()));
+                b.setRoConfig("fi", new Value(flushInterval.getNumber().longValue()));
+                createAndInitDb(b.build());
+            }
+        });
+        {
+            Parameter p = new Parameter("Name", ValueType.STRING);
+            p.setDescription("Name of the database");
+            a.addParameter(p);
+        }
+        {
+            Parameter p = new Parameter("Directory", ValueType.STRING);
+            p.setDescription("Directory to store the database in, defaults to the name");
+            a.addParameter(p);
+        }
+        {
+            Parameter p = new Parameter("Chunk Size", ValueType.NUMBER);
+            p.setDescription("Maximum amount of values stored per chunk");
+            p.setDefaultValue(new Value(DEFAULT_CHUNK_SIZE));
+            a.addParameter(p);
+        }
+        {
+            Parameter p = new Parameter("Flush Interval", ValueType.NUMBER);
+            p.setDescription("Milliseconds between writes of the open chunks to disk");
+            p.setDefaultValue(new Value(DEFAULT_FLUSH_INTERVAL));
+            a.addParameter(p);
+        }
+        return a;
+    }
+
+    @Override
+    protected Database createDb(Node node) {
+        File dir = new File(node.getRoConfig("dir").getString());
+        if (!dir.isAbsolute()) {
+            dir = new File(root, dir.getPath());
+        }
+        int chunkSize = DEFAULT_CHUNK_SIZE;
+        Value v = node.getRoConfig("cs");
+        if (v != null) {
+            chunkSize = v.getNumber().intValue();
+        }
+        long flushInterval = DEFAULT_FLUSH_INTERVAL;
+        v = node.getRoConfig("fi");
+        if (v != null) {
+            flushInterval = v.getNumber().longValue();
+        }
+        return new FileDatabase(node.getName(), this, dir, chunkSize, flushInterval);
+    }
+
+    @Override
+    public Permission dbPermission() {
+        return permission;
+    }
+}
@@ -0,0 +1,293 @@
+package org.dsa.iot.historian.storage;
+
+import org.dsa.iot.dslink.node.value.Value;
+import org.dsa.iot.dslink.util.handler.Handler;
+import org.dsa.iot.historian.utils.QueryData;
+import org.dsa.iot.historian.utils.SampleBuffer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Points of a single path. The chunks are appended to a data file and
+ * located through a {@link ChunkIndex}. The last chunk stays open in memory
+ * until it is full or the kind of value changes, every flush rewrites it at
+ * the end of the data file. Sealed chunks are never modified so they can be
+ * read without holding the lock.
+ * <p>
+ * The data file is always forced before the index points to new bytes. A
+ * new version of the open chunk is first written and committed past the
+ * version in the index, it is only then copied over it so a crash during a
+ * flush never damages the points of the previous flush.
+ *
+ * @author Samuel Grenier
+ */
+class Series {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(Series.class);
+
+    private final int chunkSize;
+    private final RandomAccessFile file;
+    private final FileChannel data;
+    private final ChunkIndex index;
+
+    private ChunkWriter open;
+    private int openSlot = -1;
+    private long openOffset;
+    private boolean dirty;
+
+    /**
+     * @param data Data file.
+     * @param index Index file.
+     * @param chunkSize Maximum amount of points per chunk.
+     * @throws IOException Failed to open the files.
+     */
+    Series(File data, File index, int chunkSize) throws IOException {
+        this.chunkSize = chunkSize;
+        this.index = new ChunkIndex(index);
+        try {
+            this.file = new RandomAccessFile(data, "rw");
+        } catch (IOException e) {
+            this.index.close();
+            throw e;
+        }
+        this.data = file.getChannel();
+        try {
+            recover();
+        } catch (IOException | RuntimeException e) {
+            close();
+            throw e;
+        }
+    }
+
+    /**
+     * Drops the entries pointing past the end of the data file and reopens
+     * the last chunk if it isn't full. A last chunk that can't be decoded is
+     * dropped rather than making the whole series unreadable.
+     */
+    private void recover() throws IOException {
+        long length = data.size();
+        int size = index.size();
+        while (size > 0 && index.offset(size - 1) + index.length(size - 1) > length) {
+            size--;
+        }
+        index.truncate(size);
+        if (size == 0) {
+            data.truncate(0);
+            return;
+        }
+
+        int last = size - 1;
+        openOffset = index.offset(last) + index.length(last);
+        data.truncate(openOffset);
+        if (index.count(last) >= chunkSize) {
+            return;
+        }
+
+        final ChunkWriter writer;
+        try {
+            ChunkReader reader = new ChunkReader(read(last));
+            writer = new ChunkWriter(reader.kind(), chunkSize);
+            reader.read(Long.MIN_VALUE, Long.MAX_VALUE, new Handler<QueryData>() {
+                @Override
+                public void handle(QueryData event) {
+                    writer.add(event.getTimestamp(), event.getValue());
+                }
+            });
+        } catch (RuntimeException e) {
+            LOGGER.error("Dropping corrupt chunk {} of {} points",
+                         last, index.count(last), e);
+            openOffset = index.offset(last);
+            index.truncate(last);
+            index.force();
+            data.truncate(openOffset);
+            return;
+        }
+        open = writer;
+        openSlot = last;
+        openOffset = index.offset(last);
+    }
+
+    synchronized void write(long ts, Value value) throws IOException {
+        if (open != null && !open.accepts(value)) {
+            flush();
+            openOffset += index.length(openSlot);
+            open = null;
+            openSlot = -1;
+        }
+        if (open == null) {
+            open = new ChunkWriter(Chunk.kindOf(value), chunkSize);
+        }
+        open.add(ts, value);
+        dirty = true;
+    }
+
+    /**
+     * Writes the open chunk if it changed since the last flush.
+     */
+    synchronized void flush() throws IOException {
+        if (!dirty) {
+            return;
+        }
+        byte[] bytes = open.encode();
+        int slot = openSlot > -1 ? openSlot : index.size();
+        if (openSlot > -1) {
+            // The committed version is only overwritten once a copy
+            // beyond both versions is committed
+            long shadow = openOffset + Math.max(bytes.length, index.length(slot));
+            commit(slot, shadow, bytes);
+        }
+        commit(slot, openOffset, bytes);
+        long end = openOffset + bytes.length;
+        if (data.size() > end) {
+            data.truncate(end);
+        }
+        openSlot = slot;
+        dirty = false;
+    }
+
+    /**
+     * Writes a version of the open chunk and points the index to it once
+     * it is on disk.
+     */
+    private void commit(int slot, long offset, byte[] bytes) throws IOException {
+        ByteBuffer buf = ByteBuffer.wrap(bytes);
+        long pos = offset;
+        while (buf.hasRemaining()) {
+            pos += data.write(buf, pos);
+        }
+        data.force(false);
+        index.put(slot, open.minTs(), open.maxTs(),
+                  offset, bytes.length, open.count());
+        index.force();
+    }
+
+    /**
+     * @param from Beginning search time, inclusive.
+     * @param to End search time, inclusive.
+     * @param handler Receives the points in the order they were written.
+     */
+    void query(long from, long to, Handler<QueryData> handler) throws IOException {
+        for (ChunkReader reader : readers(from, to)) {
+            reader.read(from, to, handler);
+        }
+    }
+
+    /**
+     * @param from Beginning search time, inclusive.
+     * @param to End search time, inclusive.
+     * @param buffer Receives the points in the order they were written.
+     * @param onFull Consumes the buffer whenever it is full.
+     */
+    void query(long from, long to, SampleBuffer buffer, Handler<SampleBuffer> onFull) throws IOException {
+        for (ChunkReader reader : readers(from, to)) {
+            reader.read(from, to, buffer, onFull);
+        }
+    }
+
+    private List<ChunkReader> readers(long from, long to) throws IOException {
+        List<long[]> chunks = new ArrayList<>();
+        byte[] openBytes = null;
+        synchronized (this) {
+            int size = index.size();
+            for (int i = index.find(from); i < size; ++i) {
+                long min = index.minTs(i);
+                if (index.ordered() && min > to) {
+                    break;
+                } else if (min > to || index.maxTs(i) < from) {
+                    continue;
+                }
+                if (i == openSlot) {
+                    openBytes = open.encode();
+                } else {
+                    chunks.add(new long[] { index.offset(i), index.length(i) });
+                }
+            }
+            if (open != null && openSlot == -1
+                    && open.minTs() <= to && open.maxTs() >= from) {
+                openBytes = open.encode();
+            }
+        }
+
+        List<ChunkReader> readers = new ArrayList<>(chunks.size() + 1);
+        for (long[] chunk : chunks) {
+            readers.add(new ChunkReader(read(chunk[0], (int) chunk[1])));
+        }
+        if (openBytes != null) {
+            readers.add(new ChunkReader(openBytes));
+        }
+        return readers;
+    }
+
+    /**
+     * @return The first point written or {@code null} if there is none.
+     */
+    QueryData first() throws IOException {
+        long offset;
+        int length;
+        synchronized (this) {
+            if (index.size() == 0 || openSlot == 0) {
+                return open != null ? open.first() : null;
+            }
+            offset = index.offset(0);
+            length = index.length(0);
+        }
+        return new ChunkReader(read(offset, length)).first();
+    }
+
+    /**
+     * @return The last point written or {@code null} if there is none.
+     */
+    QueryData last() throws IOException {
+        int last;
+        synchronized (this) {
+            if (open != null) {
+                return open.last();
+            }
+            last = index.size() - 1;
+            if (last < 0) {
+                return null;
+            }
+        }
+        return new ChunkReader(read(last)).last();
+    }
+
+    synchronized void close() throws IOException {
+        try {
+            if (open != null) {
+                flush();
+            }
+            index.force();
+        } finally {
+            try {
+                index.close();
+            } finally {
+                file.close();
+            }
+        }
+    }
+
+    private byte[] read(int i) throws IOException {
+        return read(index.offset(i), index.length(i));
+    }
+
+    private byte[] read(long offset, int length) throws IOException {
+        ByteBuffer buf = ByteBuffer.allocate(length);
+        long pos = offset;
+        while (buf.hasRemaining()) {
+            int read = data.read(buf, pos);
+            if (read < 0) {
+                throw new IOException("Unexpected end of data at " + pos);
+            }
+            pos += read;
+        }
+        return buf.array();
+    }
+}
@@ -0,0 +1,27 @@
+package org.dsa.iot.historian.utils;
+
+import org.dsa.iot.dslink.node.value.Value;
+
+/**
+ * Query data of a path queried together with other paths.
+ *
+ * @author Samuel Grenier
+ * @see org.dsa.iot.historian.database.Database#query(java.util.List, long, long,
+ *      org.dsa.iot.dslink.util.handler.CompleteHandler)
+ */
+public class PathQueryData extends QueryData {
+
+    private final String path;
+
+    public PathQueryData(String path, Value value, long ts) {
+        super(value, ts);
+        if (path == null) {
+            throw new NullPointerException("path");
+        }
+        this.path = path;
+    }
+
+    public String getPath() {
+        return path;
+    }
+}
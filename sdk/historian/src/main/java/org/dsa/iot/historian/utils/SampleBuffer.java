@@ -0,0 +1,198 @@
+package org.dsa.iot.historian.utils;
+
+import org.dsa.iot.dslink.node.value.Value;
+import org.dsa.iot.dslink.node.value.ValueType;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+
+/**
+ * Reusable columnar buffer of samples. Numeric samples are stored as
+ * primitives so they can flow from the database through the rollups
+ * without allocating, other samples keep their value.
+ *
+ * @author Samuel Grenier
+ * @see org.dsa.iot.historian.database.Database#querySamples
+ */
+public class SampleBuffer {
+
+    private static final byte VALUE = 0;
+    private static final byte DOUBLE = 1;
+    private static final byte LONG = 2;
+
+    private final long[] times;
+    private final double[] numbers;
+    private final long[] longs;
+    private final byte[] kinds;
+    private final Value[] values;
+    private int size;
+
+    public SampleBuffer() {
+        this(1024);
+    }
+
+    /**
+     * @param capacity Maximum amount of samples held at once.
+     */
+    public SampleBuffer(int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("capacity < 1");
+        }
+        times = new long[capacity];
+        numbers = new double[capacity];
+        longs = new long[capacity];
+        kinds = new byte[capacity];
+        values = new Value[capacity];
+    }
+
+    /**
+     * @param ts Time of the sample.
+     * @param number Numeric value of the sample.
+     */
+    public void add(long ts, double number) {
+        checkFull();
+        times[size] = ts;
+        numbers[size] = number;
+        kinds[size++] = DOUBLE;
+    }
+
+    /**
+     * @param ts Time of the sample.
+     * @param number Integral value of the sample.
+     */
+    public void add(long ts, long number) {
+        checkFull();
+        times[size] = ts;
+        numbers[size] = number;
+        longs[size] = number;
+        kinds[size++] = LONG;
+    }
+
+    /**
+     * Numeric values are stored as primitives.
+     *
+     * @param ts Time of the sample.
+     * @param value Value of the sample, can be {@code null}.
+     */
+    public void add(long ts, Value value) {
+        Number n = value != null ? value.getNumber() : null;
+        if (n != null && value.getType().compare(ValueType.NUMBER)) {
+            if (n instanceof Double
+                    || n instanceof Float
+                    || n instanceof BigDecimal
+                    || n instanceof BigInteger) {
+                add(ts, n.doubleValue());
+            } else {
+                add(ts, n.longValue());
+            }
+            return;
+        }
+        checkFull();
+        times[size] = ts;
+        values[size] = value;
+        kinds[size++] = VALUE;
+    }
+
+    public long getTime(int index) {
+        checkIndex(index);
+        return times[index];
+    }
+
+    /**
+     * @param index Index of the sample.
+     * @return Whether the sample is stored as a primitive number.
+     */
+    public boolean isNumber(int index) {
+        checkIndex(index);
+        return kinds[index] != VALUE;
+    }
+
+    /**
+     * @param index Index of the sample.
+     * @return Whether the sample is stored as an integral number.
+     */
+    public boolean isLong(int index) {
+        checkIndex(index);
+        return kinds[index] == LONG;
+    }
+
+    /**
+     * @param index Index of the sample.
+     * @return The integral number of the sample.
+     * @see #isLong(int)
+     */
+    public long getLong(int index) {
+        checkIndex(index);
+        return longs[index];
+    }
+
+    /**
+     * @param index Index of the sample.
+     * @return The number of the sample, integral numbers are widened.
+     */
+    public double getNumber(int index) {
+        checkIndex(index);
+        return numbers[index];
+    }
+
+    /**
+     * @param index Index of the sample.
+     * @return The value of the sample, numbers are boxed.
+     */
+    public Value getValue(int index) {
+        checkIndex(index);
+        Value value;
+        switch (kinds[index]) {
+            case DOUBLE:
+                value = new Value(numbers[index]);
+                break;
+            case LONG:
+                long l = longs[index];
+                if (l >= Integer.MIN_VALUE && l <= Integer.MAX_VALUE) {
+                    value = new Value((int) l);
+                } else {
+                    value = new Value(l);
+                }
+                break;
+            default:
+                return values[index];
+        }
+        value.setTime(times[index]);
+        return value;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int capacity() {
+        return times.length;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public boolean isFull() {
+        return size == times.length;
+    }
+
+    public void clear() {
+        for (int i = 0; i < size; ++i) {
+            values[i] = null;
+        }
+        size = 0;
+    }
+
+    private void checkFull() {
+        if (size == times.length) {
+            throw new IllegalStateException("Buffer is full");
+        }
+    }
+
+    private void checkIndex(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("index: " + index);
+        }
+    }
+}
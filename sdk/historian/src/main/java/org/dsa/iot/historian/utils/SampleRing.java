@@ -0,0 +1,221 @@
+package org.dsa.iot.historian.utils;
+
+import org.dsa.iot.dslink.node.value.Value;
+import org.dsa.iot.dslink.provider.LoopProvider;
+import org.dsa.iot.dslink.util.handler.Handler;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Fixed size ring of the most recently written samples. Writers only copy
+ * the sample into the ring, readers tail the ring independently with their
+ * own cursor and are notified asynchronously. A reader falling behind by
+ * more than the capacity loses the overwritten samples, the loss is
+ * counted by its cursor instead of blocking the writers.
+ *
+ * @author Samuel Grenier
+ */
+public class SampleRing {
+
+    private final List<Cursor> tails = new CopyOnWriteArrayList<>();
+    private final long[] times;
+    private final Value[] values;
+    private long head; // Sequence of the next sample
+    private long tail; // Sequence of the oldest sample
+
+    /**
+     * @param capacity Maximum amount of samples retained.
+     */
+    public SampleRing(int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("capacity < 1");
+        }
+        times = new long[capacity];
+        values = new Value[capacity];
+    }
+
+    /**
+     * Samples must be added in time order.
+     *
+     * @param ts Time of the sample.
+     * @param value Value of the sample.
+     */
+    public void add(long ts, Value value) {
+        synchronized (this) {
+            int i = index(head++);
+            times[i] = ts;
+            values[i] = value;
+            if (head - tail > times.length) {
+                tail = head - times.length;
+            }
+        }
+        for (Cursor cursor : tails) {
+            cursor.signal();
+        }
+    }
+
+    /**
+     * Drops every sample, samples not yet read by a cursor are counted as
+     * lost.
+     */
+    public synchronized void clear() {
+        for (int i = 0; i < values.length; ++i) {
+            values[i] = null;
+        }
+        tail = head;
+    }
+
+    public int capacity() {
+        return times.length;
+    }
+
+    /**
+     * Copies the samples of a range when the ring still retains all of
+     * them, the database does not need to be queried then.
+     *
+     * @param from Beginning of the range.
+     * @param to End of the range.
+     * @param out Buffer receiving the samples, it must be able to hold the
+     *            whole ring.
+     * @return Whether the ring covers the range, otherwise nothing is copied.
+     */
+    public synchronized boolean read(long from, long to, SampleBuffer out) {
+        if (out.capacity() - out.size() < times.length) {
+            throw new IllegalArgumentException("Buffer is too small");
+        } else if (head == tail || times[index(tail)] > from) {
+            return false;
+        }
+        for (long s = tail; s < head; ++s) {
+            int i = index(s);
+            long ts = times[i];
+            if (ts > to) {
+                break;
+            } else if (ts >= from) {
+                out.add(ts, values[i]);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Creates a cursor reading the samples added from now on, or the
+     * retained samples after a time. The handler is called on the loop
+     * whenever samples are available, it must then read the cursor until
+     * it is empty. The handler of a cursor is never called concurrently.
+     *
+     * @param after Only samples after this time are read, or -1 to only
+     *              read the samples added from now on.
+     * @param handler Handler called when samples are available.
+     * @return The cursor, it must be removed once done.
+     * @see #remove(Cursor)
+     */
+    public Cursor tail(long after, Handler<Cursor> handler) {
+        if (handler == null) {
+            throw new NullPointerException("handler");
+        }
+        Cursor cursor;
+        synchronized (this) {
+            long next = head;
+            if (after > -1) {
+                while (next > tail && times[index(next - 1)] > after) {
+                    --next;
+                }
+            }
+            cursor = new Cursor(next, handler);
+            tails.add(cursor);
+        }
+        if (cursor.hasNext()) {
+            cursor.signal();
+        }
+        return cursor;
+    }
+
+    /**
+     * @param cursor Cursor to stop notifying.
+     */
+    public void remove(Cursor cursor) {
+        tails.remove(cursor);
+    }
+
+    private int index(long sequence) {
+        return (int) (sequence % times.length);
+    }
+
+    /**
+     * Position of a reader within the ring.
+     */
+    public class Cursor {
+
+        private final AtomicBoolean scheduled = new AtomicBoolean();
+        private final Handler<Cursor> handler;
+        private final Runnable notify;
+        private long next;
+        private long lost;
+
+        private Cursor(long next, Handler<Cursor> handler) {
+            this.next = next;
+            this.handler = handler;
+            this.notify = new Runnable() {
+                @Override
+                public void run() {
+                    // Signals are ignored while the handler runs so it is
+                    // never called concurrently, samples added meanwhile
+                    // are checked for once it returns
+                    try {
+                        Cursor.this.handler.handle(Cursor.this);
+                    } finally {
+                        scheduled.set(false);
+                    }
+                    if (hasNext()) {
+                        signal();
+                    }
+                }
+            };
+        }
+
+        /**
+         * Reads as many pending samples as the buffer can hold.
+         *
+         * @param out Buffer receiving the samples.
+         * @return The amount of samples read.
+         */
+        public int read(SampleBuffer out) {
+            synchronized (SampleRing.this) {
+                if (next < tail) {
+                    lost += tail - next;
+                    next = tail;
+                }
+                int read = 0;
+                while (next < head && !out.isFull()) {
+                    int i = index(next++);
+                    out.add(times[i], values[i]);
+                    ++read;
+                }
+                return read;
+            }
+        }
+
+        public boolean hasNext() {
+            synchronized (SampleRing.this) {
+                return next < head;
+            }
+        }
+
+        /**
+         * @return The amount of samples overwritten before being read.
+         */
+        public long getLost() {
+            synchronized (SampleRing.this) {
+                return lost;
+            }
+        }
+
+        private void signal() {
+            if (scheduled.compareAndSet(false, true)) {
+                LoopProvider.getProvider().schedule(notify);
+            }
+        }
+    }
+}
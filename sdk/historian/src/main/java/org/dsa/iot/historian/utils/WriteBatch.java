@@ -0,0 +1,86 @@
+package org.dsa.iot.historian.utils;
+
+import org.dsa.iot.dslink.node.value.Value;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Rows written to the database in a single call. The rows are stored in
+ * columns so databases can bind them to batch statements or multi row
+ * inserts without copying.
+ *
+ * @author Samuel Grenier
+ * @see org.dsa.iot.historian.database.Database#writeBatch(WriteBatch)
+ */
+public class WriteBatch {
+
+    private final List<String> paths;
+    private final List<Value> values;
+    private long[] times;
+
+    public WriteBatch() {
+        this(16);
+    }
+
+    /**
+     * @param capacity Expected amount of rows.
+     */
+    public WriteBatch(int capacity) {
+        if (capacity < 1) {
+            capacity = 1;
+        }
+        paths = new ArrayList<>(capacity);
+        values = new ArrayList<>(capacity);
+        times = new long[capacity];
+    }
+
+    /**
+     * @param path Path of the value.
+     * @param value Value to write.
+     * @param ts Time of the value in UTC.
+     */
+    public void add(String path, Value value, long ts) {
+        if (path == null) {
+            throw new NullPointerException("path");
+        } else if (value == null) {
+            throw new NullPointerException("value");
+        }
+        int size = paths.size();
+        if (size == times.length) {
+            times = Arrays.copyOf(times, size * 2);
+        }
+        paths.add(path);
+        values.add(value);
+        times[size] = ts;
+    }
+
+    public String getPath(int index) {
+        return paths.get(index);
+    }
+
+    public Value getValue(int index) {
+        return values.get(index);
+    }
+
+    public long getTime(int index) {
+        if (index >= paths.size()) {
+            throw new IndexOutOfBoundsException("index: " + index);
+        }
+        return times[index];
+    }
+
+    public int size() {
+        return paths.size();
+    }
+
+    public boolean isEmpty() {
+        return paths.isEmpty();
+    }
+
+    public void clear() {
+        paths.clear();
+        values.clear();
+    }
+}
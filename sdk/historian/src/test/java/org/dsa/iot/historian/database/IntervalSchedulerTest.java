@@ -0,0 +1,107 @@
+package org.dsa.iot.historian.database;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * @author Samuel Grenier
+ */
+public class IntervalSchedulerTest {
+
+    @Test
+    public void shardsSpreadOverPeriod() {
+        IntervalScheduler scheduler = new IntervalScheduler();
+        List<String> fired = new ArrayList<>();
+        long now = System.currentTimeMillis();
+        // Ticks not aligned with the offsets of the shards
+        now += 142 - now % IntervalScheduler.TICK;
+        long period = 5000;
+        long start = now - now % period + period;
+        scheduler.schedule(period, 4, start, new Recorder(fired));
+
+        scheduler.advance(now);
+        Assert.assertTrue(fired.isEmpty());
+        for (long t = now; t < start + 2 * period; t += IntervalScheduler.TICK) {
+            scheduler.advance(t);
+        }
+        List<String> expected = new ArrayList<>();
+        for (int p = 0; p < 2; ++p) {
+            for (int shard = 0; shard < 4; ++shard) {
+                expected.add((start + p * period) + ":" + shard);
+            }
+        }
+        Assert.assertEquals(expected, fired);
+    }
+
+    @Test
+    public void shardsLimitedToTicks() {
+        IntervalScheduler scheduler = new IntervalScheduler();
+        List<String> fired = new ArrayList<>();
+        long now = System.currentTimeMillis();
+        long start = now - now % 1000 + 1000;
+        scheduler.schedule(1000, 50, start, new Recorder(fired));
+        for (long t = now; t < start + 1000; t += IntervalScheduler.TICK) {
+            scheduler.advance(t);
+        }
+        Assert.assertEquals(10, fired.size());
+        Assert.assertEquals(start + ":9", fired.get(9));
+    }
+
+    @Test
+    public void missedPeriodsSkipped() {
+        IntervalScheduler scheduler = new IntervalScheduler();
+        List<String> fired = new ArrayList<>();
+        long now = System.currentTimeMillis();
+        long start = now - now % 1000 + 1000;
+        scheduler.schedule(1000, 1, start, new Recorder(fired));
+        scheduler.advance(now);
+        // The tick was late by several periods
+        scheduler.advance(start + 3500);
+        Assert.assertEquals(1, fired.size());
+        scheduler.advance(start + 4000);
+        Assert.assertEquals(2, fired.size());
+        Assert.assertEquals((start + 4000) + ":0", fired.get(1));
+    }
+
+    @Test
+    public void cancelFromPeriod() {
+        IntervalScheduler scheduler = new IntervalScheduler();
+        List<String> fired = new ArrayList<>();
+        long now = System.currentTimeMillis();
+        long start = now - now % 1000 + 1000;
+        IntervalScheduler.Registration r;
+        r = scheduler.schedule(1000, 2, start, new Recorder(fired));
+        scheduler.advance(now);
+        // The current period completes, the next one is not fired
+        r.cancel(start + 1000);
+        Assert.assertTrue(r.isCancelled());
+        for (long t = now; t < start + 3000; t += IntervalScheduler.TICK) {
+            scheduler.advance(t);
+        }
+        Assert.assertEquals(2, fired.size());
+        Assert.assertEquals(start + ":1", fired.get(1));
+
+        r = scheduler.schedule(1000, 1, 0, new Recorder(fired));
+        r.cancel();
+        for (long t = start + 3000; t < start + 6000; t += IntervalScheduler.TICK) {
+            scheduler.advance(t);
+        }
+        Assert.assertEquals(2, fired.size());
+    }
+
+    private static class Recorder implements IntervalScheduler.Task {
+        private final List<String> fired;
+
+        Recorder(List<String> fired) {
+            this.fired = fired;
+        }
+
+        @Override
+        public void run(long time, int shard, int shards) {
+            fired.add(time + ":" + shard);
+        }
+    }
+}
@@ -0,0 +1,130 @@
+package org.dsa.iot.historian.database;
+
+import org.dsa.iot.dslink.node.value.Value;
+import org.dsa.iot.dslink.util.json.JsonObject;
+import org.dsa.iot.historian.utils.WriteBatch;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+
+/**
+ * @author Samuel Grenier
+ */
+public class SpillFileTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void readInOrder() throws Exception {
+        File file = new File(folder.getRoot(), "db/group.spill");
+        SpillFile spill = new SpillFile(file);
+        JsonObject map = new JsonObject();
+        map.put("a", 1);
+        spill.append("/a", new Value(1.5), 1000);
+        spill.append("/b", new Value(7), 2000);
+        spill.append("/a", new Value(true), 3000);
+        spill.append("/c", new Value("text"), 4000);
+        spill.append("/c", new Value(map), 5000);
+        Assert.assertEquals(5, spill.getPending());
+
+        WriteBatch batch = new WriteBatch();
+        Assert.assertEquals(3, spill.read(batch, 3));
+        Assert.assertEquals("/b", batch.getPath(1));
+        Assert.assertEquals(2000, batch.getTime(1));
+        Assert.assertEquals(1.5, batch.getValue(0).getNumber().doubleValue(), 0);
+        Assert.assertEquals(7, batch.getValue(1).getNumber());
+        Assert.assertTrue(batch.getValue(2).getBool());
+
+        // Values appended while reading are read afterwards
+        spill.append("/d", new Value(-1), 6000);
+        batch.clear();
+        Assert.assertEquals(3, spill.read(batch, 10));
+        Assert.assertEquals("text", batch.getValue(0).getString());
+        Assert.assertEquals(1, batch.getValue(1).getMap().get("a"));
+        Assert.assertEquals(6000, batch.getTime(2));
+        Assert.assertEquals(0, spill.getPending());
+
+        spill.reset();
+        Assert.assertFalse(file.exists());
+        spill.close();
+    }
+
+    @Test
+    public void resumeTruncatesPartialValue() throws Exception {
+        File file = new File(folder.getRoot(), "group.spill");
+        SpillFile spill = new SpillFile(file);
+        spill.append("/a", new Value(1), 1000);
+        spill.append("/a", new Value(2), 2000);
+        spill.close();
+        long length = file.length();
+        try (FileOutputStream out = new FileOutputStream(file, true)) {
+            out.write(new byte[] { 0, 2, '/' });
+        }
+
+        spill = new SpillFile(file);
+        Assert.assertEquals(2, spill.getPending());
+        Assert.assertEquals(length, file.length());
+        spill.append("/a", new Value(3), 3000);
+        WriteBatch batch = new WriteBatch();
+        Assert.assertEquals(3, spill.read(batch, 10));
+        Assert.assertEquals(3, batch.getValue(2).getNumber());
+        spill.close();
+    }
+
+    @Test
+    public void resumeFromCommitted() throws Exception {
+        File file = new File(folder.getRoot(), "group.spill");
+        SpillFile spill = new SpillFile(file);
+        for (int i = 0; i < 10; ++i) {
+            spill.append("/a", new Value(i), i * 1000L);
+        }
+        WriteBatch batch = new WriteBatch();
+        Assert.assertEquals(4, spill.read(batch, 4));
+        spill.commit();
+        // Read but not written before the crash
+        Assert.assertEquals(3, spill.read(batch, 3));
+        spill.close();
+
+        spill = new SpillFile(file);
+        Assert.assertEquals(6, spill.getPending());
+        batch.clear();
+        Assert.assertEquals(6, spill.read(batch, 10));
+        Assert.assertEquals(4, batch.getValue(0).getNumber());
+        Assert.assertEquals(9000, batch.getTime(5));
+        spill.close();
+    }
+
+    @Test
+    public void prependOlderValues() throws Exception {
+        File file = new File(folder.getRoot(), "group.spill");
+        SpillFile spill = new SpillFile(file);
+        spill.append("/a", new Value(1), 1000);
+        spill.append("/a", new Value(2), 2000);
+        spill.append("/a", new Value(3), 3000);
+        WriteBatch batch = new WriteBatch();
+        spill.read(batch, 1);
+        spill.commit();
+        spill.read(batch, 1);
+
+        WriteBatch older = new WriteBatch();
+        older.add("/b", new Value(-1), 500);
+        spill.prepend(older);
+        Assert.assertEquals(3, spill.getPending());
+        spill.close();
+
+        spill = new SpillFile(file);
+        Assert.assertEquals(3, spill.getPending());
+        batch.clear();
+        Assert.assertEquals(3, spill.read(batch, 10));
+        Assert.assertEquals("/b", batch.getPath(0));
+        Assert.assertEquals(2, batch.getValue(1).getNumber());
+        Assert.assertEquals(3, batch.getValue(2).getNumber());
+        spill.close();
+        Assert.assertFalse(new File(file.getPath() + ".tmp").exists());
+    }
+}
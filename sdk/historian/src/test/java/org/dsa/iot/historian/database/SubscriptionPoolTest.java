@@ -0,0 +1,157 @@
+package org.dsa.iot.historian.database;
+
+import org.dsa.iot.dslink.link.Requester;
+import org.dsa.iot.dslink.methods.requests.RemoveRequest;
+import org.dsa.iot.dslink.methods.responses.RemoveResponse;
+import org.dsa.iot.dslink.methods.responses.UnsubscribeResponse;
+import org.dsa.iot.dslink.node.value.SubscriptionValue;
+import org.dsa.iot.dslink.node.value.Value;
+import org.dsa.iot.dslink.util.SubData;
+import org.dsa.iot.dslink.util.handler.Handler;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * @author Samuel Grenier
+ */
+public class SubscriptionPoolTest {
+
+    @Test
+    public void restoreSubscribesInChunks() {
+        RecordingRequester requester = new RecordingRequester();
+        SubscriptionPool pool = new SubscriptionPool(requester);
+        int count = SubscriptionPool.SUBSCRIBE_CHUNK * 2 + 10;
+        List<Watch> watches = new ArrayList<>();
+        for (int i = 0; i < count; ++i) {
+            watches.add(new TestWatch("/data/" + i));
+        }
+        // Paths watched twice are only subscribed once
+        watches.add(new TestWatch("/data/0"));
+        pool.subscribe(watches);
+
+        Assert.assertEquals(3, requester.subscribed.size());
+        int paths = 0;
+        for (Set<SubData> chunk : requester.subscribed) {
+            Assert.assertTrue(chunk.size() <= SubscriptionPool.SUBSCRIBE_CHUNK);
+            paths += chunk.size();
+        }
+        Assert.assertEquals(count, paths);
+    }
+
+    @Test
+    public void failedChunksSkipped() {
+        RecordingRequester requester = new RecordingRequester();
+        requester.existing.add("/data/1");
+        requester.failures = 1;
+        SubscriptionPool pool = new SubscriptionPool(requester);
+        int count = SubscriptionPool.SUBSCRIBE_CHUNK * 2;
+        List<Watch> watches = new ArrayList<>();
+        for (int i = 0; i < count; ++i) {
+            watches.add(new TestWatch("/data/" + i));
+        }
+        pool.subscribe(watches);
+
+        // The first chunk failed, the path already subscribed is skipped
+        Assert.assertEquals(1, requester.subscribed.size());
+        Set<SubData> chunk = requester.subscribed.get(0);
+        Assert.assertEquals(SubscriptionPool.SUBSCRIBE_CHUNK, chunk.size());
+        for (SubData data : chunk) {
+            Assert.assertNotEquals("/data/1", data.getPath());
+        }
+    }
+
+    @Test
+    public void updatesDispatchedByPath() {
+        RecordingRequester requester = new RecordingRequester();
+        SubscriptionPool pool = new SubscriptionPool(requester);
+        TestWatch a = new TestWatch("data/a");
+        TestWatch b = new TestWatch("/data/a");
+        TestWatch c = new TestWatch("/data/c");
+        pool.subscribe(a.getPath(), a);
+        pool.subscribe(b.getPath(), b);
+        pool.subscribe(c.getPath(), c);
+        Assert.assertEquals(2, requester.subscribed.size());
+        Assert.assertTrue(pool.isShared("/data/a"));
+        Assert.assertFalse(pool.isShared("/data/c"));
+
+        Value value = new Value(1);
+        value.setTime(10);
+        requester.handler.handle(new SubscriptionValue("/data/a", value, null, null, null, null));
+        Assert.assertEquals(1, a.received);
+        Assert.assertEquals(1, b.received);
+        Assert.assertEquals(0, c.received);
+
+        pool.unsubscribe(a.getPath(), a);
+        Assert.assertTrue(requester.unsubscribed.isEmpty());
+        Assert.assertFalse(pool.isShared("/data/a"));
+        pool.unsubscribe(b.getPath(), b);
+        Assert.assertEquals(1, requester.unsubscribed.size());
+        requester.handler.handle(new SubscriptionValue("/data/a", value, null, null, null, null));
+        Assert.assertEquals(1, b.received);
+
+        // The path is subscribed again once unsubscribed
+        pool.subscribe(a.getPath(), a);
+        Assert.assertEquals(3, requester.subscribed.size());
+    }
+
+    private static class TestWatch extends Watch {
+        private final String path;
+        private int received;
+
+        TestWatch(String path) {
+            super(null, null);
+            this.path = path;
+        }
+
+        @Override
+        public String getPath() {
+            return path;
+        }
+
+        @Override
+        public void onData(SubscriptionValue sv) {
+            received++;
+        }
+    }
+
+    private static class RecordingRequester extends Requester {
+        private final List<Set<SubData>> subscribed = new ArrayList<>();
+        private final List<String> unsubscribed = new ArrayList<>();
+        private final Set<String> existing = new HashSet<>();
+        private Handler<SubscriptionValue> handler;
+        private int failures;
+
+        RecordingRequester() {
+            super(null);
+        }
+
+        @Override
+        public boolean isSubscribed(String path) {
+            return existing.contains(path);
+        }
+
+        @Override
+        public void subscribe(Set<SubData> paths, Handler<SubscriptionValue> onUpdate) {
+            if (failures > 0) {
+                failures--;
+                throw new RuntimeException("Path already subscribed");
+            }
+            subscribed.add(paths);
+            handler = onUpdate;
+        }
+
+        @Override
+        public void unsubscribe(String path, Handler<UnsubscribeResponse> onResponse) {
+            unsubscribed.add(path);
+        }
+
+        @Override
+        public void remove(RemoveRequest request, Handler<RemoveResponse> onResponse) {
+        }
+    }
+}
@@ -0,0 +1,221 @@
+package org.dsa.iot.historian.database;
+
+import org.dsa.iot.dslink.node.Node;
+import org.dsa.iot.dslink.node.value.SubscriptionValue;
+import org.dsa.iot.dslink.node.value.Value;
+import org.dsa.iot.dslink.util.handler.CompleteHandler;
+import org.dsa.iot.dslink.util.handler.Handler;
+import org.dsa.iot.historian.utils.QueryData;
+import org.dsa.iot.historian.utils.WriteBatch;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * @author Samuel Grenier
+ */
+public class WatchGroupTest {
+
+    private static final long TIMEOUT = 5000;
+
+    @Test
+    public void batchesLimitedToBatchSize() throws Exception {
+        RecordingDatabase db = new RecordingDatabase();
+        WatchGroup group = new WatchGroup(null, null, db);
+        group.setBatching(10, 0);
+        write(group, new TestWatch(group, "/data/a"), 25);
+
+        db.await(25);
+        for (int size : db.batches) {
+            Assert.assertTrue(size <= 10);
+        }
+    }
+
+    @Test
+    public void flushLatencyBuffersValues() throws Exception {
+        RecordingDatabase db = new RecordingDatabase();
+        WatchGroup group = new WatchGroup(null, null, db);
+        group.setBatching(100, 200);
+        write(group, new TestWatch(group, "/data/a"), 3);
+        Assert.assertTrue(db.batches.isEmpty());
+
+        // Written together once the latency elapsed
+        db.await(3);
+        Assert.assertEquals(1, db.batches.size());
+        Assert.assertEquals(3, (int) db.batches.get(0));
+        group.setBatching(100, 0);
+    }
+
+    @Test
+    public void fullBatchWrittenBeforeLatency() throws Exception {
+        RecordingDatabase db = new RecordingDatabase();
+        WatchGroup group = new WatchGroup(null, null, db);
+        group.setBatching(10, 60000);
+        TestWatch watch = new TestWatch(group, "/data/a");
+        write(group, watch, 10);
+        db.await(10);
+
+        // Values short of a batch wait for the latency
+        write(group, watch, 5);
+        Thread.sleep(100);
+        Assert.assertEquals(10, db.written());
+        group.setBatching(10, 0);
+    }
+
+    @Test
+    public void failedSummariesKeepValuesWritten() throws Exception {
+        RecordingDatabase db = new RecordingDatabase();
+        db.failSummaries = true;
+        WatchGroup group = new WatchGroup(null, null, db);
+        group.setBatching(100, 0);
+        group.setRollupTiers("1m");
+        TestWatch watch = new TestWatch(group, "/data/a");
+        writeAt(group, watch, 0);
+        db.await(1);
+        // Lets the open bucket be rebuilt
+        Thread.sleep(100);
+
+        for (int i = 1; i < 90; ++i) {
+            writeAt(group, watch, i * 1000L);
+        }
+        long deadline = System.currentTimeMillis() + TIMEOUT;
+        while (db.summaryFailures.get() == 0) {
+            Assert.assertTrue(System.currentTimeMillis() < deadline);
+            Thread.sleep(10);
+        }
+        Thread.sleep(100);
+        // The values are not written again along with the summaries
+        Assert.assertEquals(new HashSet<>(db.times).size(), db.times.size());
+        group.setBatching(100, 0);
+    }
+
+    @Test
+    public void closedGroupIgnoresWrites() throws Exception {
+        RecordingDatabase db = new RecordingDatabase();
+        WatchGroup group = new WatchGroup(null, null, db);
+        group.setBatching(10, 0);
+        group.close();
+
+        // Nothing is queued or spilled once closed, the group has no
+        // spill file to write past the queue size
+        write(group, new TestWatch(group, "/data/a"), 10001);
+        Thread.sleep(100);
+        Assert.assertTrue(db.batches.isEmpty());
+    }
+
+    private static void writeAt(WatchGroup group, Watch watch, long ts) {
+        Value value = new Value(ts);
+        value.setTime(ts);
+        group.write(watch, new SubscriptionValue(watch.getPath(), value, null, null, null, null));
+    }
+
+    private static void write(WatchGroup group, Watch watch, int count) {
+        for (int i = 0; i < count; ++i) {
+            Value value = new Value(i);
+            value.setTime(i + 1);
+            group.write(watch, new SubscriptionValue(watch.getPath(), value, null, null, null, null));
+        }
+    }
+
+    private static class TestWatch extends Watch {
+        private final String path;
+
+        TestWatch(WatchGroup group, String path) {
+            super(group, null);
+            this.path = path;
+        }
+
+        @Override
+        public String getPath() {
+            return path;
+        }
+
+        @Override
+        public void handleLastWritten(Value value) {
+        }
+    }
+
+    private static class RecordingDatabase extends Database {
+
+        private final List<Integer> batches = new CopyOnWriteArrayList<>();
+        private final List<Long> times = new CopyOnWriteArrayList<>();
+        private final AtomicInteger summaryFailures = new AtomicInteger();
+        private volatile boolean failSummaries;
+
+        RecordingDatabase() {
+            super("test", null);
+            connect(new Handler<Database>() {
+                @Override
+                public void handle(Database event) {
+                }
+            });
+        }
+
+        int written() {
+            int written = 0;
+            for (int size : batches) {
+                written += size;
+            }
+            return written;
+        }
+
+        void await(int count) throws InterruptedException {
+            long deadline = System.currentTimeMillis() + TIMEOUT;
+            while (written() < count) {
+                Assert.assertTrue(System.currentTimeMillis() < deadline);
+                Thread.sleep(10);
+            }
+        }
+
+        @Override
+        public void writeBatch(WriteBatch batch) {
+            if (batch.getPath(0).contains("$$rollup")) {
+                if (failSummaries) {
+                    summaryFailures.incrementAndGet();
+                    throw new RuntimeException("Summaries not writable");
+                }
+                return;
+            }
+            for (int i = 0; i < batch.size(); ++i) {
+                times.add(batch.getTime(i));
+            }
+            batches.add(batch.size());
+        }
+
+        @Override
+        public void write(String path, Value value, long ts) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void query(String path, long from, long to, CompleteHandler<QueryData> handler) {
+            handler.complete();
+        }
+
+        @Override
+        public QueryData queryFirst(String path) {
+            return null;
+        }
+
+        @Override
+        public QueryData queryLast(String path) {
+            return null;
+        }
+
+        @Override
+        public void close() {
+        }
+
+        @Override
+        protected void performConnect() {
+        }
+
+        @Override
+        public void initExtensions(Node node) {
+        }
+    }
+}
@@ -0,0 +1,87 @@
+package org.dsa.iot.historian.stats;
+
+import org.dsa.iot.dslink.node.value.Value;
+import org.dsa.iot.historian.stats.interval.IntervalParser;
+import org.dsa.iot.historian.stats.rollup.Rollup;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.SortedMap;
+import java.util.TimeZone;
+
+/**
+ * @author Samuel Grenier
+ */
+public class AlignedRowsTest {
+
+    private static final TimeZone UTC = TimeZone.getTimeZone("UTC");
+
+    @Test
+    public void rawValues() {
+        AlignedRows rows = new AlignedRows(2, null, Rollup.Type.NONE, UTC);
+        rows.update(0, 1000, new Value(1));
+        rows.update(0, 3000, new Value(3));
+        rows.update(1, 1000, new Value("a"));
+        rows.update(1, 2000, new Value("b"));
+
+        SortedMap<Long, Value[]> released = rows.release(3000);
+        Assert.assertEquals(2, released.size());
+        assertRow(released.get(1000L), 1, "a");
+        assertRow(released.get(2000L), null, "b");
+        released.clear();
+
+        SortedMap<Long, Value[]> remaining = rows.complete();
+        Assert.assertEquals(1, remaining.size());
+        assertRow(remaining.get(3000L), 3, null);
+    }
+
+    @Test
+    public void intervalsWaitForEveryPath() {
+        IntervalParser parser = IntervalParser.parse("1M");
+        AlignedRows rows = new AlignedRows(2, parser, Rollup.Type.MAX, UTC);
+        for (int i = 0; i < 180; i += 10) {
+            rows.update(0, i * 1000L, new Value(i));
+        }
+        // The second path has data in the first minute but did not finish it
+        rows.update(1, 30000, new Value(-1));
+
+        Assert.assertTrue(rows.release(180000).isEmpty());
+        rows.update(1, 150000, new Value(-2));
+        SortedMap<Long, Value[]> released = rows.release(180000);
+        Assert.assertEquals(2, released.size());
+        assertRow(released.get(0L), 50, -1);
+        assertRow(released.get(60000L), 110, null);
+        released.clear();
+
+        SortedMap<Long, Value[]> remaining = rows.complete();
+        Assert.assertEquals(1, remaining.size());
+        assertRow(remaining.get(120000L), 170, -2);
+    }
+
+    @Test
+    public void parsePaths() {
+        List<String> expected = Arrays.asList("/a", "/b/c");
+        Assert.assertEquals(expected, GetMultiHistory.parsePaths(new Value(" /a,/b/c\n/a,")));
+        Assert.assertTrue(GetMultiHistory.parsePaths(null).isEmpty());
+    }
+
+    private static void assertRow(Value[] row, Object first, Object second) {
+        Assert.assertNotNull(row);
+        Assert.assertEquals(2, row.length);
+        assertValue(first, row[0]);
+        assertValue(second, row[1]);
+    }
+
+    private static void assertValue(Object expected, Value actual) {
+        if (expected == null) {
+            Assert.assertNull(actual);
+        } else if (expected instanceof Number) {
+            double d = ((Number) expected).doubleValue();
+            Assert.assertEquals(d, actual.getNumber().doubleValue(), 0);
+        } else {
+            Assert.assertEquals(expected, actual.getString());
+        }
+    }
+}
@@ -0,0 +1,220 @@
+package org.dsa.iot.historian.stats.interval;
+
+import org.dsa.iot.dslink.node.actions.table.Row;
+import org.dsa.iot.dslink.node.value.Value;
+import org.dsa.iot.dslink.util.TimeUtils;
+import org.dsa.iot.historian.stats.rollup.Rollup;
+import org.dsa.iot.historian.utils.QueryData;
+import org.dsa.iot.historian.utils.SampleBuffer;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.TimeZone;
+
+/**
+ * @author Samuel Grenier
+ */
+public class IntervalProcessorTest {
+
+    private static final TimeZone UTC = TimeZone.getTimeZone("UTC");
+
+    @Test
+    public void samplesMatchValues() {
+        List<QueryData> data = new ArrayList<>();
+        for (int i = 0; i < 1000; ++i) {
+            long ts = i * 7000L;
+            if (i % 50 == 3) {
+                data.add(new QueryData(new Value(i % 100 == 3), ts));
+            } else if (i % 2 == 0) {
+                data.add(new QueryData(new Value(i % 17), ts));
+            } else {
+                data.add(new QueryData(new Value((i % 23) * 0.5), ts));
+            }
+        }
+
+        for (Rollup.Type type : Rollup.Type.values()) {
+            for (String interval : new String[] { "1M", "5M", "1h" }) {
+                String msg = type + " " + interval;
+                IntervalProcessor values = parse(interval, type);
+                List<String> expected = new ArrayList<>();
+                for (QueryData d : data) {
+                    add(expected, values.getRowUpdate(d, d.getTimestamp()));
+                }
+                add(expected, values.complete());
+
+                IntervalProcessor samples = parse(interval, type);
+                SampleBuffer in = new SampleBuffer(64);
+                SampleBuffer out = new SampleBuffer(64);
+                List<String> actual = new ArrayList<>();
+                for (QueryData d : data) {
+                    in.add(d.getTimestamp(), d.getValue());
+                    if (in.isFull()) {
+                        samples.update(in, out);
+                        in.clear();
+                        drain(actual, out);
+                    }
+                }
+                samples.update(in, out);
+                samples.complete(out);
+                drain(actual, out);
+
+                Assert.assertFalse(msg, expected.isEmpty());
+                Assert.assertEquals(msg, expected, actual);
+            }
+        }
+    }
+
+    @Test
+    public void partialsMatchSequential() {
+        SampleBuffer in = new SampleBuffer(20000);
+        for (int i = 0; i < 20000; ++i) {
+            if (i % 50 == 3) {
+                in.add(i * 1000L, new Value(i % 100 == 3));
+            } else {
+                in.add(i * 1000L, (i % 23) * 0.5 - 3);
+            }
+        }
+        long to = 20000 * 1000L - 1;
+
+        for (Rollup.Type type : Rollup.Type.values()) {
+            if (type == Rollup.Type.NONE) {
+                continue;
+            }
+            String msg = type.toString();
+            IntervalProcessor sequential = parse("15M", type);
+            SampleBuffer out = new SampleBuffer(20000);
+            List<String> expected = new ArrayList<>();
+            sequential.update(in, out);
+            sequential.complete(out);
+            drain(expected, out);
+
+            long[] boundaries = IntervalParser.parse("15M").boundaries(0, to, UTC, 1000);
+            Assert.assertNotNull(boundaries);
+            IntervalProcessor merged = parse("15M", type);
+            List<String> actual = new ArrayList<>();
+            int tasks = 4;
+            int intervals = boundaries.length - 1;
+            for (int t = 0; t < tasks; ++t) {
+                long[] sub = Arrays.copyOfRange(boundaries,
+                        t * intervals / tasks, (t + 1) * intervals / tasks + 1);
+                PartialIntervals partials = new PartialIntervals(sub, type);
+                SampleBuffer samples = new SampleBuffer(20000);
+                for (int i = 0; i < in.size(); ++i) {
+                    long ts = in.getTime(i);
+                    if (ts >= sub[0] && ts < sub[sub.length - 1]) {
+                        if (in.isNumber(i)) {
+                            samples.add(ts, in.getNumber(i));
+                        } else {
+                            samples.add(ts, in.getValue(i));
+                        }
+                    }
+                }
+                partials.handle(samples);
+                for (int i = 0; i < partials.size(); ++i) {
+                    merged.merge(partials.getStart(i), partials.getRollup(i), out);
+                }
+            }
+            merged.complete(out);
+            drain(actual, out);
+            Assert.assertEquals(msg, expected, actual);
+        }
+    }
+
+    @Test
+    public void boundaries() {
+        long day = 24 * 3600 * 1000L;
+        long[] b = IntervalParser.parse("1H").boundaries(1000, day, UTC, 1000);
+        Assert.assertEquals(26, b.length);
+        Assert.assertEquals(0, b[0]);
+        Assert.assertEquals(25 * 3600 * 1000L, b[25]);
+        // Intervals starting at the first value or not on a fixed grid
+        Assert.assertNull(IntervalParser.parse("1h").boundaries(0, day, UTC, 1000));
+        Assert.assertNull(IntervalParser.parse("2H").boundaries(0, day, UTC, 1000));
+        Assert.assertNull(IntervalParser.parse("1S").boundaries(0, day, UTC, 1000));
+    }
+
+    @Test
+    public void integralResultsKept() {
+        Rollup.Type[] types = {
+                Rollup.Type.FIRST, Rollup.Type.LAST, Rollup.Type.MIN,
+                Rollup.Type.MAX, Rollup.Type.DELTA
+        };
+        for (Rollup.Type type : types) {
+            IntervalProcessor processor = parse("1M", type);
+            SampleBuffer in = new SampleBuffer(64);
+            SampleBuffer out = new SampleBuffer(64);
+            for (int i = 0; i < 30; ++i) {
+                in.add(i * 7000L, new Value(i % 11));
+            }
+            processor.update(in, out);
+            processor.complete(out);
+            Assert.assertFalse(out.isEmpty());
+            for (int i = 0; i < out.size(); ++i) {
+                Assert.assertTrue(type.toString(), out.isLong(i));
+                Assert.assertTrue(out.getValue(i).getNumber() instanceof Integer);
+            }
+        }
+
+        // A single double makes the result a double
+        IntervalProcessor processor = parse("1M", Rollup.Type.MAX);
+        SampleBuffer out = new SampleBuffer(4);
+        processor.update(0, 1L, out);
+        processor.update(1000, 2.5, out);
+        processor.update(2000, 3L, out);
+        processor.complete(out);
+        Assert.assertFalse(out.isLong(0));
+        Assert.assertEquals(3, out.getNumber(0), 0);
+    }
+
+    @Test
+    public void sampleBuffer() {
+        SampleBuffer buffer = new SampleBuffer(4);
+        buffer.add(1, 1.5);
+        buffer.add(2, new Value(7));
+        buffer.add(3, new Value("a"));
+        buffer.add(4, (Value) null);
+        Assert.assertTrue(buffer.isFull());
+        Assert.assertTrue(buffer.isNumber(0));
+        Assert.assertTrue(buffer.isNumber(1));
+        Assert.assertFalse(buffer.isNumber(2));
+        Assert.assertEquals(7, buffer.getNumber(1), 0);
+        Assert.assertEquals(7, buffer.getValue(1).getNumber());
+        Assert.assertEquals("a", buffer.getValue(2).getString());
+        Assert.assertNull(buffer.getValue(3));
+        buffer.clear();
+        Assert.assertTrue(buffer.isEmpty());
+    }
+
+    private static IntervalProcessor parse(String interval, Rollup.Type type) {
+        return IntervalProcessor.parse(IntervalParser.parse(interval), type, UTC);
+    }
+
+    private static void drain(List<String> rows, SampleBuffer out) {
+        for (int i = 0; i < out.size(); ++i) {
+            rows.add(out.getTime(i) + "=" + format(out.getValue(i)));
+        }
+        out.clear();
+    }
+
+    private static void add(List<String> rows, Row row) {
+        if (row != null) {
+            String ts = row.getValues().get(0).getString();
+            long time = TimeUtils.decode(ts);
+            rows.add(time + "=" + format(row.getValues().get(1)));
+        }
+    }
+
+    private static String format(Value value) {
+        if (value == null) {
+            return "null";
+        }
+        Number n = value.getNumber();
+        if (n != null) {
+            return String.valueOf(n.doubleValue());
+        }
+        return value.toString();
+    }
+}
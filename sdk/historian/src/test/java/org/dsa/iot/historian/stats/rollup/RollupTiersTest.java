@@ -0,0 +1,239 @@
+package org.dsa.iot.historian.stats.rollup;
+
+import org.dsa.iot.dslink.node.actions.table.Row;
+import org.dsa.iot.dslink.node.value.Value;
+import org.dsa.iot.dslink.util.handler.CompleteHandler;
+import org.dsa.iot.dslink.util.handler.Handler;
+import org.dsa.iot.historian.database.Database;
+import org.dsa.iot.historian.stats.interval.IntervalParser;
+import org.dsa.iot.historian.stats.interval.IntervalProcessor;
+import org.dsa.iot.historian.storage.FileDatabase;
+import org.dsa.iot.historian.utils.QueryData;
+import org.dsa.iot.historian.utils.WriteBatch;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TimeZone;
+import java.util.concurrent.Executor;
+
+/**
+ * @author Samuel Grenier
+ */
+public class RollupTiersTest {
+
+    private static final TimeZone UTC = TimeZone.getTimeZone("UTC");
+    private static final String PATH = "/data/point";
+    private static final Executor DIRECT = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            command.run();
+        }
+    };
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void summariesMatchRawValues() throws Exception {
+        FileDatabase db = open();
+        RollupTiers tiers = new RollupTiers(db, RollupTier.parseList("1h,1m"), DIRECT);
+        for (int i = 0; i < 3 * 3600; i += 7) {
+            Value value = new Value((i % 13) - 4);
+            db.write(PATH, value, i * 1000L);
+            tiers.update(PATH, value, i * 1000L);
+        }
+
+        flush(db, tiers);
+        RollupTier tier = tiers.getTiers().get(1);
+        Assert.assertEquals("1h", tier.getName());
+        List<QueryData> summaries = query(db, tier.path(PATH), 0, Long.MAX_VALUE);
+        // The last hour is still open
+        Assert.assertEquals(2, summaries.size());
+
+        List<QueryData> raw = query(db, PATH, 0, 2 * 3600 * 1000L - 1);
+        for (Rollup.Type type : Rollup.Type.values()) {
+            if (type == Rollup.Type.NONE) {
+                continue;
+            }
+            List<String> expected = rows(raw, type, false);
+            List<String> actual = rows(summaries, type, true);
+            Assert.assertEquals(type.toString(), expected, actual);
+        }
+        db.close();
+    }
+
+    @Test
+    public void selectAlignedTier() throws Exception {
+        FileDatabase db = open();
+        RollupTiers tiers = new RollupTiers(db, RollupTier.parseList("1m,1h"), DIRECT);
+        long to = 24 * 3600 * 1000L;
+
+        RollupTier tier = tiers.select(IntervalParser.parse("1H"), Rollup.Type.AVERAGE, 0, to, UTC);
+        Assert.assertEquals("1h", tier.getName());
+        tier = tiers.select(IntervalParser.parse("15M"), Rollup.Type.MAX, 0, to, UTC);
+        Assert.assertEquals("1m", tier.getName());
+
+        Assert.assertNull(tiers.select(IntervalParser.parse("30S"), Rollup.Type.MAX, 0, to, UTC));
+        Assert.assertNull(tiers.select(IntervalParser.parse("1h"), Rollup.Type.MAX, 0, to, UTC));
+        Assert.assertNull(tiers.select(IntervalParser.parse("1H"), Rollup.Type.NONE, 0, to, UTC));
+        Assert.assertNull(tiers.select(null, Rollup.Type.MAX, 0, to, UTC));
+        db.close();
+    }
+
+    @Test
+    public void rebuildOpenBucket() throws Exception {
+        FileDatabase db = open();
+        RollupTiers tiers = new RollupTiers(db, RollupTier.parseList("1m"), DIRECT);
+        for (int i = 0; i < 90; ++i) {
+            Value value = new Value(i);
+            db.write(PATH, value, i * 1000L);
+            tiers.update(PATH, value, i * 1000L);
+        }
+
+        flush(db, tiers);
+
+        // A restart loses the open bucket, the values are read back
+        tiers = new RollupTiers(db, RollupTier.parseList("1m"), DIRECT);
+        Value value = new Value(1000);
+        db.write(PATH, value, 125 * 1000L);
+        tiers.update(PATH, value, 125 * 1000L);
+        flush(db, tiers);
+
+        List<QueryData> summaries = query(db, "/data/point/$$rollup/1m", 0, Long.MAX_VALUE);
+        Assert.assertEquals(2, summaries.size());
+        RollupSummary summary = RollupSummary.fromJson(summaries.get(1).getValue().getMap());
+        Assert.assertEquals(60000, summaries.get(1).getTimestamp());
+        Assert.assertEquals(30, summary.getCount());
+        Assert.assertEquals(89, summary.getMax(), 0);
+        Assert.assertEquals(60, summary.getFirst().getNumber().intValue());
+        db.close();
+    }
+
+    @Test
+    public void valuesKeptDuringRebuild() throws Exception {
+        FileDatabase db = open();
+        QueuedExecutor executor = new QueuedExecutor();
+        RollupTiers tiers = new RollupTiers(db, RollupTier.parseList("1m"), executor);
+        for (int i = 0; i < 90; ++i) {
+            Value value = new Value(i);
+            db.write(PATH, value, i * 1000L);
+            tiers.update(PATH, value, i * 1000L);
+        }
+        // Nothing is summarized until the open bucket is rebuilt
+        Assert.assertFalse(tiers.drainTo(new WriteBatch()));
+        Assert.assertTrue(query(db, "/data/point/$$rollup/1m", 0, Long.MAX_VALUE).isEmpty());
+        Assert.assertEquals(1, executor.run());
+
+        Value value = new Value(1000);
+        db.write(PATH, value, 125 * 1000L);
+        tiers.update(PATH, value, 125 * 1000L);
+        Assert.assertEquals(0, executor.run());
+        flush(db, tiers);
+
+        List<QueryData> summaries = query(db, "/data/point/$$rollup/1m", 0, Long.MAX_VALUE);
+        Assert.assertEquals(2, summaries.size());
+        RollupSummary summary = RollupSummary.fromJson(summaries.get(0).getValue().getMap());
+        Assert.assertEquals(60, summary.getCount());
+        summary = RollupSummary.fromJson(summaries.get(1).getValue().getMap());
+        Assert.assertEquals(30, summary.getCount());
+        db.close();
+    }
+
+    @Test
+    public void removedPathNotSummarized() throws Exception {
+        FileDatabase db = open();
+        QueuedExecutor executor = new QueuedExecutor();
+        RollupTiers tiers = new RollupTiers(db, RollupTier.parseList("1m"), executor);
+        for (int i = 0; i < 90; ++i) {
+            Value value = new Value(i);
+            db.write(PATH, value, i * 1000L);
+            tiers.update(PATH, value, i * 1000L);
+        }
+        tiers.remove(PATH);
+        executor.run();
+        Assert.assertFalse(tiers.drainTo(new WriteBatch()));
+        Assert.assertTrue(query(db, "/data/point/$$rollup/1m", 0, Long.MAX_VALUE).isEmpty());
+        db.close();
+    }
+
+    private static List<String> rows(List<QueryData> data, Rollup.Type type, boolean summaries) {
+        IntervalProcessor interval = IntervalProcessor.parse(IntervalParser.parse("1H"), type, UTC);
+        List<String> rows = new ArrayList<>();
+        for (QueryData d : data) {
+            Row row;
+            if (summaries) {
+                RollupSummary summary = RollupSummary.fromJson(d.getValue().getMap());
+                row = interval.getRowUpdate(summary, d.getTimestamp());
+            } else {
+                row = interval.getRowUpdate(d, d.getTimestamp());
+            }
+            add(rows, row);
+        }
+        add(rows, interval.complete());
+        return rows;
+    }
+
+    private static void add(List<String> rows, Row row) {
+        if (row != null) {
+            Value value = row.getValues().get(1);
+            Number number = value.getNumber();
+            String s = number != null ? String.valueOf(number.doubleValue()) : value.toString();
+            rows.add(row.getValues().get(0).getString() + "=" + s);
+        }
+    }
+
+    private FileDatabase open() throws Exception {
+        FileDatabase db = new FileDatabase("test", null, folder.getRoot(), 256, 60000);
+        db.connect(new Handler<Database>() {
+            @Override
+            public void handle(Database event) {
+            }
+        });
+        return db;
+    }
+
+    private static void flush(Database db, RollupTiers tiers) {
+        WriteBatch batch = new WriteBatch();
+        if (tiers.drainTo(batch)) {
+            db.writeBatch(batch);
+        }
+    }
+
+    private static List<QueryData> query(Database db, String path, long from, long to) {
+        final List<QueryData> data = new ArrayList<>();
+        db.query(path, from, to, new CompleteHandler<QueryData>() {
+            @Override
+            public void handle(QueryData event) {
+                data.add(event);
+            }
+
+            @Override
+            public void complete() {
+            }
+        });
+        return data;
+    }
+
+    private static class QueuedExecutor implements Executor {
+
+        private final List<Runnable> queue = new ArrayList<>();
+
+        @Override
+        public void execute(Runnable command) {
+            queue.add(command);
+        }
+
+        int run() {
+            int count = queue.size();
+            for (Runnable r : queue) {
+                r.run();
+            }
+            queue.clear();
+            return count;
+        }
+    }
+}
@@ -0,0 +1,201 @@
+package org.dsa.iot.historian.storage;
+
+import org.dsa.iot.dslink.node.value.Value;
+import org.dsa.iot.dslink.util.handler.CompleteHandler;
+import org.dsa.iot.dslink.util.handler.Handler;
+import org.dsa.iot.dslink.util.json.JsonObject;
+import org.dsa.iot.historian.database.Database;
+import org.dsa.iot.historian.utils.QueryData;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * @author Samuel Grenier
+ */
+public class FileDatabaseTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void roundTrip() throws Exception {
+        FileDatabase db = open(folder.getRoot());
+        List<Value> values = new ArrayList<>();
+        values.add(new Value(1.5));
+        values.add(new Value(1.5));
+        values.add(new Value(-2.25));
+        values.add(new Value(Double.NaN));
+        values.add(new Value(42));
+        values.add(new Value(Long.MAX_VALUE));
+        values.add(new Value(-7));
+        values.add(new Value(true));
+        values.add(new Value(false));
+        values.add(new Value("on"));
+        values.add(new Value("off"));
+        values.add(new Value("on"));
+        JsonObject map = new JsonObject();
+        map.put("a", 1);
+        values.add(new Value(map));
+        values.add(new Value(new byte[] { 0, (byte) 0xFF, 7 }));
+
+        long ts = 1000;
+        for (Value value : values) {
+            db.write("/data/point", value, ts);
+            ts += 1000 + (ts % 7);
+        }
+
+        List<QueryData> read = query(db, "/data/point", 0, Long.MAX_VALUE);
+        Assert.assertEquals(values.size(), read.size());
+        for (int i = 0; i < values.size(); ++i) {
+            assertValue(values.get(i), read.get(i).getValue());
+        }
+        db.close();
+
+        db = open(folder.getRoot());
+        read = query(db, "/data/point", 0, Long.MAX_VALUE);
+        Assert.assertEquals(values.size(), read.size());
+        Assert.assertEquals(values.get(0), db.queryFirst("/data/point").getValue());
+        Assert.assertEquals(1000, db.queryFirst("/data/point").getTimestamp());
+        assertValue(values.get(values.size() - 1),
+                    db.queryLast("/data/point").getValue());
+        Assert.assertNull(db.queryLast("/data/missing"));
+        db.close();
+    }
+
+    @Test
+    public void rangeQuery() throws Exception {
+        FileDatabase db = open(folder.getRoot());
+        for (int i = 0; i < 10000; ++i) {
+            db.write("/data/ramp", new Value(i * 0.5), i * 1000L);
+        }
+        db.flush();
+
+        List<QueryData> read = query(db, "/data/ramp", 2500 * 1000L, 3499 * 1000L);
+        Assert.assertEquals(1000, read.size());
+        Assert.assertEquals(2500 * 1000L, read.get(0).getTimestamp());
+        Assert.assertEquals(1250.0, read.get(0).getValue().getNumber().doubleValue(), 0);
+        Assert.assertEquals(3499 * 1000L, read.get(999).getTimestamp());
+        Assert.assertEquals(9999 * 1000L, db.queryLast("/data/ramp").getTimestamp());
+        Assert.assertTrue(query(db, "/data/ramp", 20000 * 1000L, Long.MAX_VALUE).isEmpty());
+        db.close();
+
+        // Appending after reopening continues the last chunk
+        db = open(folder.getRoot());
+        db.write("/data/ramp", new Value(1.0), 10000 * 1000L);
+        Assert.assertEquals(10001, query(db, "/data/ramp", 0, Long.MAX_VALUE).size());
+        db.close();
+    }
+
+    @Test
+    public void corruptLastChunkDropped() throws Exception {
+        FileDatabase db = open(folder.getRoot());
+        for (int i = 0; i < 300; ++i) {
+            db.write("/data/crash", new Value(i), i * 1000L);
+        }
+        db.close();
+
+        // Damage the open chunk as a crash during a flush would
+        String name = FileDatabase.fileName("/data/crash");
+        long offset;
+        try (RandomAccessFile index = new RandomAccessFile(new File(folder.getRoot(), name + ".idx"), "r")) {
+            index.seek(16 + 32 + 16);
+            offset = index.readLong();
+        }
+        try (RandomAccessFile data = new RandomAccessFile(new File(folder.getRoot(), name + ".dat"), "rw")) {
+            data.seek(offset);
+            data.writeByte(0x7F);
+        }
+
+        db = open(folder.getRoot());
+        Assert.assertEquals(256, query(db, "/data/crash", 0, Long.MAX_VALUE).size());
+        db.write("/data/crash", new Value(1), 300 * 1000L);
+        db.flush();
+        Assert.assertEquals(257, query(db, "/data/crash", 0, Long.MAX_VALUE).size());
+        db.close();
+
+        db = open(folder.getRoot());
+        Assert.assertEquals(257, query(db, "/data/crash", 0, Long.MAX_VALUE).size());
+        db.close();
+    }
+
+    @Test
+    public void flushKeepsPreviousVersion() throws Exception {
+        FileDatabase db = open(folder.getRoot());
+        for (int i = 0; i < 100; ++i) {
+            db.write("/data/flush", new Value(i * 0.5), i * 1000L);
+            if (i % 10 == 0) {
+                db.flush();
+            }
+        }
+        db.close();
+        String name = FileDatabase.fileName("/data/flush");
+        File data = new File(folder.getRoot(), name + ".dat");
+        long length = data.length();
+
+        // Leftovers of an interrupted flush past the committed version
+        try (RandomAccessFile raf = new RandomAccessFile(data, "rw")) {
+            raf.seek(length);
+            raf.write(new byte[] { 1, 2, 3, 4, 5 });
+        }
+        db = open(folder.getRoot());
+        Assert.assertEquals(100, query(db, "/data/flush", 0, Long.MAX_VALUE).size());
+        db.close();
+        Assert.assertEquals(length, data.length());
+    }
+
+    @Test
+    public void fileNames() {
+        Assert.assertEquals("%2Fdata%2Fpoint", FileDatabase.fileName("/data/point"));
+        Assert.assertEquals("%2Ea.b", FileDatabase.fileName(".a.b"));
+        Assert.assertEquals("%41b", FileDatabase.fileName("Ab"));
+        StringBuilder path = new StringBuilder();
+        for (int i = 0; i < 200; ++i) {
+            path.append('a');
+        }
+        String name = FileDatabase.fileName(path.toString());
+        Assert.assertEquals(128, name.length());
+        Assert.assertNotEquals(name, FileDatabase.fileName(path + "b"));
+    }
+
+    private static void assertValue(Value expected, Value actual) {
+        if (expected.getBinary() != null) {
+            Assert.assertArrayEquals(expected.getBinary(), actual.getBinary());
+        } else if (expected.getMap() != null) {
+            Assert.assertEquals(expected.getMap().toString(), actual.getMap().toString());
+        } else {
+            Assert.assertEquals(expected, actual);
+        }
+    }
+
+    private static FileDatabase open(File dir) throws Exception {
+        FileDatabase db = new FileDatabase("test", null, dir, 256, 60000);
+        db.connect(new Handler<Database>() {
+            @Override
+            public void handle(Database event) {
+            }
+        });
+        return db;
+    }
+
+    private static List<QueryData> query(FileDatabase db, String path, long from, long to) {
+        final List<QueryData> data = new ArrayList<>();
+        db.query(path, from, to, new CompleteHandler<QueryData>() {
+            @Override
+            public void handle(QueryData event) {
+                data.add(event);
+            }
+
+            @Override
+            public void complete() {
+            }
+        });
+        return data;
+    }
+}
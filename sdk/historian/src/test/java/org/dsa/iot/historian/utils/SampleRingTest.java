@@ -0,0 +1,130 @@
+package org.dsa.iot.historian.utils;
+
+import org.dsa.iot.dslink.node.value.Value;
+import org.dsa.iot.dslink.util.handler.Handler;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * @author Samuel Grenier
+ */
+public class SampleRingTest {
+
+    private static final Handler<SampleRing.Cursor> IGNORE = new Handler<SampleRing.Cursor>() {
+        @Override
+        public void handle(SampleRing.Cursor event) {
+        }
+    };
+
+    @Test
+    public void readRecentRange() {
+        SampleRing ring = new SampleRing(4);
+        SampleBuffer out = new SampleBuffer(4);
+        Assert.assertFalse(ring.read(0, 10, out));
+
+        for (int i = 1; i <= 6; ++i) {
+            ring.add(i * 10, new Value(i));
+        }
+        // 10 and 20 were overwritten
+        Assert.assertFalse(ring.read(20, 60, out));
+        Assert.assertTrue(ring.read(30, 50, out));
+        Assert.assertEquals(3, out.size());
+        Assert.assertEquals(30, out.getTime(0));
+        Assert.assertEquals(5, out.getValue(2).getNumber().intValue());
+        out.clear();
+
+        ring.clear();
+        Assert.assertFalse(ring.read(30, 50, out));
+    }
+
+    @Test
+    public void cursorCountsLostSamples() {
+        SampleRing ring = new SampleRing(4);
+        ring.add(10, new Value(1));
+        SampleRing.Cursor cursor = ring.tail(-1, IGNORE);
+        Assert.assertFalse(cursor.hasNext());
+
+        for (int i = 2; i <= 7; ++i) {
+            ring.add(i * 10, new Value(i));
+        }
+        SampleBuffer out = new SampleBuffer(3);
+        Assert.assertEquals(3, cursor.read(out));
+        Assert.assertEquals(2, cursor.getLost());
+        Assert.assertEquals(40, out.getTime(0));
+        out.clear();
+        Assert.assertEquals(1, cursor.read(out));
+        Assert.assertEquals(70, out.getTime(0));
+        Assert.assertFalse(cursor.hasNext());
+        ring.remove(cursor);
+    }
+
+    @Test
+    public void tailAfterTime() {
+        SampleRing ring = new SampleRing(8);
+        for (int i = 1; i <= 5; ++i) {
+            ring.add(i * 10, new Value(i));
+        }
+        SampleRing.Cursor cursor = ring.tail(30, IGNORE);
+        SampleBuffer out = new SampleBuffer(8);
+        Assert.assertEquals(2, cursor.read(out));
+        Assert.assertEquals(40, out.getTime(0));
+        Assert.assertEquals(0, cursor.getLost());
+        ring.remove(cursor);
+    }
+
+    @Test
+    public void handlerNotCalledConcurrently() throws Exception {
+        final SampleRing ring = new SampleRing(1024);
+        final SampleBuffer out = new SampleBuffer(16);
+        final AtomicInteger running = new AtomicInteger();
+        final AtomicBoolean overlapped = new AtomicBoolean();
+        final AtomicLong read = new AtomicLong();
+        final AtomicLong last = new AtomicLong();
+        final AtomicBoolean ordered = new AtomicBoolean(true);
+        SampleRing.Cursor cursor = ring.tail(-1, new Handler<SampleRing.Cursor>() {
+            @Override
+            public void handle(SampleRing.Cursor event) {
+                if (running.incrementAndGet() > 1) {
+                    overlapped.set(true);
+                }
+                while (event.read(out) > 0) {
+                    for (int i = 0; i < out.size(); ++i) {
+                        if (out.getTime(i) <= last.get()) {
+                            ordered.set(false);
+                        }
+                        last.set(out.getTime(i));
+                    }
+                    read.addAndGet(out.size());
+                    out.clear();
+                    Thread.yield();
+                }
+                running.decrementAndGet();
+            }
+        });
+
+        final int count = 20000;
+        Thread writer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                for (int i = 1; i <= count; ++i) {
+                    ring.add(i, new Value(i));
+                }
+            }
+        });
+        writer.start();
+        writer.join();
+
+        long deadline = System.currentTimeMillis() + 5000;
+        while (read.get() + cursor.getLost() < count) {
+            Assert.assertTrue(System.currentTimeMillis() < deadline);
+            Thread.sleep(10);
+        }
+        ring.remove(cursor);
+        Assert.assertFalse(overlapped.get());
+        Assert.assertTrue(ordered.get());
+    }
+}
@@ -0,0 +1,42 @@
+package org.dsa.iot.historian.utils;
+
+import org.dsa.iot.dslink.node.value.Value;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * @author Samuel Grenier
+ */
+public class WriteBatchTest {
+
+    @Test
+    public void rowsGrowPastCapacity() {
+        WriteBatch batch = new WriteBatch(2);
+        Assert.assertTrue(batch.isEmpty());
+        for (int i = 0; i < 5; ++i) {
+            batch.add("/data/" + i, new Value(i), i * 1000L);
+        }
+        Assert.assertEquals(5, batch.size());
+        Assert.assertEquals("/data/4", batch.getPath(4));
+        Assert.assertEquals(3, batch.getValue(3).getNumber().intValue());
+        Assert.assertEquals(4000, batch.getTime(4));
+
+        batch.clear();
+        Assert.assertTrue(batch.isEmpty());
+        batch.add("/data/a", new Value(true), 7);
+        Assert.assertEquals(7, batch.getTime(0));
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void clearedTimesNotReadable() {
+        WriteBatch batch = new WriteBatch();
+        batch.add("/data/a", new Value(1), 1);
+        batch.clear();
+        batch.getTime(0);
+    }
+
+    @Test(expected = NullPointerException.class)
+    public void nullValueRejected() {
+        new WriteBatch().add("/data/a", null, 1);
+    }
+}